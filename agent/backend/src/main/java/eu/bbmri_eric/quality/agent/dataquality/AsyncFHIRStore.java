@@ -0,0 +1,86 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import org.hl7.fhir.r4.model.Resource;
+import org.json.JSONObject;
+
+/**
+ * Non-blocking view of a {@link FHIRStore}. Every operation runs on its own virtual thread, so
+ * independent requests such as Measure evaluations, List fetches, counts and searches for different
+ * resource types overlap instead of running one after another. The number of requests in flight to
+ * the FHIR server is bounded by the HTTP layer, so callers may start any number of operations at
+ * once.
+ */
+public interface AsyncFHIRStore {
+
+  /**
+   * Creates an asynchronous view of the given store.
+   *
+   * @param store the store performing the requests
+   * @return a view running every operation of the store on a virtual thread
+   */
+  static AsyncFHIRStore of(FHIRStore store) {
+    return new VirtualThreadFHIRStore(store);
+  }
+
+  /**
+   * Posts a generic FHIR resource to the store.
+   *
+   * @see FHIRStore#postResource(String, JSONObject)
+   */
+  CompletableFuture<JSONObject> postResource(String resourceType, JSONObject resource);
+
+  /**
+   * Evaluates a specific Measure by its ID.
+   *
+   * @see FHIRStore#evaluateMeasure(String)
+   */
+  CompletableFuture<JSONObject> evaluateMeasure(String measureId);
+
+  /**
+   * Evaluates a Measure, reporting its population as subject lists.
+   *
+   * @see FHIRStore#evaluateMeasureList(String)
+   */
+  CompletableFuture<JSONObject> evaluateMeasureList(String measureId);
+
+  /**
+   * Retrieves a FHIR list resource.
+   *
+   * @see FHIRStore#getPatientList(String)
+   */
+  CompletableFuture<JSONObject> getPatientList(String listId);
+
+  /**
+   * Counts the total number of resources of the given type in the store.
+   *
+   * @see FHIRStore#countResources(String)
+   */
+  CompletableFuture<Integer> countResources(String resourceType);
+
+  /**
+   * Counts the resources of the given type matching the given search parameters.
+   *
+   * @see FHIRStore#countResources(String, Map)
+   */
+  CompletableFuture<Integer> countResources(String resourceType, Map<String, String> searchParams);
+
+  /**
+   * Fetches all resources of a given type from the store with optional field selection.
+   *
+   * @see FHIRStore#fetchAllResources(String, List)
+   */
+  CompletableFuture<List<Resource>> fetchAllResources(String resourceType, List<String> elements);
+
+  /**
+   * Runs an arbitrary blocking operation on the store, e.g. consuming one of its resource streams.
+   *
+   * @param operation the operation to run
+   * @param <T> the type of the result
+   * @return the result of the operation, completed exceptionally if it throws
+   */
+  <T> CompletableFuture<T> supply(Function<FHIRStore, T> operation);
+}
@@ -0,0 +1,14 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import eu.bbmri_eric.quality.agent.dataquality.dto.ExecutionPlanDTO;
+
+/** Service interface for inspecting how the data quality checks of a report are run. */
+public interface ExecutionPlanService {
+
+  /**
+   * Plans the checks of a new report without running them.
+   *
+   * @return the plan a report generated now would follow
+   */
+  ExecutionPlanDTO explain();
+}
@@ -1,6 +1,10 @@
 package eu.bbmri_eric.quality.agent.dataquality;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 import org.hl7.fhir.r4.model.Resource;
 import org.json.JSONObject;
 
@@ -77,6 +81,35 @@ public interface FHIRStore {
    */
   JSONObject getPatientList(String listId);
 
+  /**
+   * Evaluates a Measure with the {@code subject-list} report type and reads the initial population
+   * of each group straight from the response, without building the MeasureReport.
+   *
+   * @param measureId the ID of the Measure to evaluate
+   * @return the initial population of each group, in the order of the groups
+   */
+  List<MeasurePopulation> evaluateMeasurePopulations(String measureId);
+
+  /**
+   * Evaluates a Measure for a single patient with the {@code subject} report type.
+   *
+   * @param measureId the ID of the Measure to evaluate
+   * @param patientId the logical ID of the patient
+   * @return the initial population of each group, in the order of the groups, counting {@code 1}
+   *     if the patient is in it
+   */
+  List<MeasurePopulation> evaluateMeasurePopulations(String measureId, String patientId);
+
+  /**
+   * Reads the patients of a subject List straight from the response into a set of patient IDs,
+   * without building the List resource.
+   *
+   * @param listId the ID of a subject List referenced by a MeasureReport
+   * @param dictionary the dictionary to number the patient IDs with
+   * @return the IDs of the patients in the list
+   */
+  PatientIdSet getPatientIds(String listId, PatientIdDictionary dictionary);
+
   /**
    * Retrieves all available data related to a patient based on ID
    *
@@ -93,6 +126,45 @@ public interface FHIRStore {
    */
   int countResources(String resourceType);
 
+  /**
+   * Counts the resources of the given type matching the given search parameters, e.g. {@code
+   * gender=male} and {@code deceased=false}, without transferring the resources themselves.
+   *
+   * @param resourceType the type of FHIR resource to count
+   * @param searchParams FHIR search parameters the counted resources must match
+   * @return the number of matching resources, or {@code -1} if the count failed
+   */
+  int countResources(String resourceType, Map<String, String> searchParams);
+
+  /**
+   * Returns when any resource of the given type was last changed, i.e. the latest {@code
+   * meta.lastUpdated} of all resources of that type.
+   *
+   * @param resourceType the type of FHIR resource
+   * @return the time of the latest change, or empty if the store cannot tell
+   */
+  default Optional<Instant> lastUpdated(String resourceType) {
+    return Optional.empty();
+  }
+
+  /**
+   * Finds a resource matching the given search parameters, e.g. a Measure by its canonical {@code
+   * url}.
+   *
+   * @param resourceType the type of FHIR resource to search
+   * @param searchParams FHIR search parameters the resource must match
+   * @return the logical ID of the first matching resource, or empty if none matches
+   */
+  Optional<String> findResourceId(String resourceType, Map<String, String> searchParams);
+
+  /**
+   * Deletes a resource from the store. Deleting a resource that does not exist succeeds.
+   *
+   * @param resourceType the type of the FHIR resource
+   * @param id the logical ID of the resource
+   */
+  void deleteResource(String resourceType, String id);
+
   /**
    * Fetches all resources of a given type from the store with optional field selection.
    *
@@ -103,10 +175,48 @@ public interface FHIRStore {
    */
   List<Resource> fetchAllResources(String resourceType, List<String> elements);
 
+  /**
+   * Streams all resources of a given type from the store with optional field selection. Search
+   * pages are requested lazily while the stream is consumed, so only the page currently being
+   * processed is held in memory regardless of the size of the store.
+   *
+   * @param resourceType the type of FHIR resource to fetch
+   * @param elements a list of element names to include in the response (can be empty for full
+   *     resources)
+   * @return a lazily populated, sequential stream of FHIR resources matching the query
+   */
+  Stream<Resource> streamAllResources(String resourceType, List<String> elements);
+
+  /**
+   * Streams all resources of a given type, decoding each one with the given decoder directly from
+   * the search response instead of building full FHIR resource objects. This is the preferred way
+   * for checks that only read a few fields of every resource.
+   *
+   * @param resourceType the type of FHIR resource to fetch
+   * @param elements a list of element names to include in the response (can be empty for full
+   *     resources)
+   * @param decoder decodes a single resource into a compact record
+   * @param <T> the type of the compact record
+   * @return a lazily populated, sequential stream of decoded records
+   */
+  <T> Stream<T> streamAllResources(
+      String resourceType, List<String> elements, ResourceDecoder<T> decoder);
+
   /**
    * Checks the health status of the FHIR store.
    *
    * @return a JSON object containing health status and error details if any
    */
   JSONObject checkHealth();
+
+  /**
+   * Returns the dictionary numbering the patient IDs found in this store. Stores serving the checks
+   * of a single report return the same dictionary to all of them; other stores return a new one on
+   * every call.
+   *
+   * @return the dictionary to collect patient IDs with
+   */
+  default PatientIdDictionary patientIds() {
+    return new PatientIdDictionary();
+  }
 }
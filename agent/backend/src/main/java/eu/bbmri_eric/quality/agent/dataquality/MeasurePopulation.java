@@ -0,0 +1,11 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+/**
+ * The initial population of one group of a MeasureReport evaluated with the {@code subject-list}
+ * report type.
+ *
+ * @param count the number of subjects in the population
+ * @param subjectListId the logical ID of the List resource naming the subjects, or {@code null} if
+ *     the report references no list
+ */
+public record MeasurePopulation(int count, String subjectListId) {}
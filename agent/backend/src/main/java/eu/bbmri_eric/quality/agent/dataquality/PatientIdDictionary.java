@@ -0,0 +1,129 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps the logical IDs of patients to dense {@code int}s, so that sets of patients can be kept as
+ * bitmaps instead of sets of strings. Each ID is stored once, as bytes in a shared buffer, and
+ * keeps its number for the lifetime of the dictionary. A dictionary is shared by all checks of a
+ * report and may be used from several threads.
+ */
+public final class PatientIdDictionary {
+  private static final int EMPTY = -1;
+
+  private byte[] bytes = new byte[1024];
+  private int byteCount;
+  private int[] offsets = new int[65];
+  private int size;
+  private int[] slots = emptySlots(128);
+
+  /**
+   * Returns the number of the given ID, assigning the next free number if the ID is new.
+   *
+   * @param id the logical ID of a patient
+   * @return the number of the ID, starting at {@code 0}
+   */
+  public synchronized int intern(String id) {
+    byte[] encoded = id.getBytes(StandardCharsets.UTF_8);
+    int slot = find(encoded);
+    if (slots[slot] != EMPTY) {
+      return slots[slot];
+    }
+    append(encoded);
+    slots[slot] = size - 1;
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return size - 1;
+  }
+
+  /**
+   * Returns the number of the given ID without assigning one.
+   *
+   * @param id the logical ID of a patient
+   * @return the number of the ID, or {@code -1} if it was never interned
+   */
+  public synchronized int indexOf(String id) {
+    return slots[find(id.getBytes(StandardCharsets.UTF_8))];
+  }
+
+  /**
+   * Returns the ID with the given number.
+   *
+   * @param index a number returned by {@link #intern(String)}
+   * @return the logical ID of the patient
+   * @throws IndexOutOfBoundsException if no ID has the given number
+   */
+  public synchronized String id(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("No patient ID with number " + index);
+    }
+    return new String(
+        bytes, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the number of distinct IDs in the dictionary.
+   *
+   * @return the number of interned IDs
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  private int find(byte[] encoded) {
+    int mask = slots.length - 1;
+    int slot = hash(encoded, 0, encoded.length) & mask;
+    while (slots[slot] != EMPTY && !matches(slots[slot], encoded)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private boolean matches(int index, byte[] encoded) {
+    return Arrays.equals(bytes, offsets[index], offsets[index + 1], encoded, 0, encoded.length);
+  }
+
+  private void append(byte[] encoded) {
+    if (byteCount + encoded.length > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, byteCount + encoded.length));
+    }
+    System.arraycopy(encoded, 0, bytes, byteCount, encoded.length);
+    byteCount += encoded.length;
+    if (size + 2 > offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    offsets[++size] = byteCount;
+  }
+
+  private void rehash(int capacity) {
+    slots = emptySlots(capacity);
+    int mask = capacity - 1;
+    for (int index = 0; index < size; index++) {
+      int slot = hash(bytes, offsets[index], offsets[index + 1]) & mask;
+      while (slots[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = index;
+    }
+  }
+
+  private static int[] emptySlots(int capacity) {
+    int[] slots = new int[capacity];
+    Arrays.fill(slots, EMPTY);
+    return slots;
+  }
+
+  private static int hash(byte[] bytes, int from, int to) {
+    int hash = 1;
+    for (int i = from; i < to; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+    // spread the bits, IDs often differ only in their last characters
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    return hash;
+  }
+}
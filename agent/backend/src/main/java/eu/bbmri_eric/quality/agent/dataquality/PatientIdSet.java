@@ -0,0 +1,133 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * An immutable set of patient IDs stored as a compressed bitmap of their numbers in a {@link
+ * PatientIdDictionary}. The IDs are only turned back into strings while the set is iterated, e.g.
+ * when a result is persisted.
+ */
+public final class PatientIdSet extends AbstractSet<String> {
+  private final PatientIdDictionary dictionary;
+  private final RoaringBitmap numbers;
+
+  private PatientIdSet(PatientIdDictionary dictionary, RoaringBitmap numbers) {
+    this.dictionary = dictionary;
+    this.numbers = numbers;
+  }
+
+  /**
+   * Starts a new set of patient IDs.
+   *
+   * @param dictionary the dictionary numbering the IDs
+   * @return an empty builder
+   */
+  public static Builder builder(PatientIdDictionary dictionary) {
+    return new Builder(dictionary);
+  }
+
+  @Override
+  public int size() {
+    return numbers.getCardinality();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return numbers.isEmpty();
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof String id)) {
+      return false;
+    }
+    int number = dictionary.indexOf(id);
+    return number >= 0 && numbers.contains(number);
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    IntIterator iterator = numbers.getIntIterator();
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public String next() {
+        if (!iterator.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return dictionary.id(iterator.next());
+      }
+    };
+  }
+
+  /** Collects the patient IDs of a {@link PatientIdSet}. Builders are not thread-safe. */
+  public static final class Builder {
+    private final PatientIdDictionary dictionary;
+    private final RoaringBitmap numbers = new RoaringBitmap();
+
+    private Builder(PatientIdDictionary dictionary) {
+      this.dictionary = dictionary;
+    }
+
+    /**
+     * Adds a patient by its logical ID.
+     *
+     * @param id the logical ID of the patient
+     * @return this builder
+     */
+    public Builder add(String id) {
+      numbers.add(dictionary.intern(id));
+      return this;
+    }
+
+    /**
+     * Adds a patient by a reference such as {@code Patient/123}, using the part after the last
+     * slash as its logical ID.
+     *
+     * @param reference the reference to the patient
+     * @return this builder
+     */
+    public Builder addReference(String reference) {
+      return add(reference.substring(reference.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Adds a patient by its number in the dictionary of this builder.
+     *
+     * @param number a number returned by {@link PatientIdDictionary#intern(String)}
+     * @return this builder
+     */
+    public Builder add(int number) {
+      numbers.add(number);
+      return this;
+    }
+
+    /**
+     * Returns the number of patients added so far.
+     *
+     * @return the number of distinct patients
+     */
+    public int size() {
+      return numbers.getCardinality();
+    }
+
+    /**
+     * Creates the set of all patients added so far.
+     *
+     * @return an immutable set of the added patient IDs
+     */
+    public PatientIdSet build() {
+      RoaringBitmap copy = numbers.clone();
+      copy.runOptimize();
+      return new PatientIdSet(dictionary, copy);
+    }
+  }
+}
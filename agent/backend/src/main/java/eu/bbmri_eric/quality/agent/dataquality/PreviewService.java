@@ -0,0 +1,18 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import eu.bbmri_eric.quality.agent.dataquality.dto.PreviewDTO;
+
+/** Service interface for quick, approximate results of checks that are still being edited. */
+public interface PreviewService {
+
+  /**
+   * Estimates the result of a CQL query by evaluating it for a random sample of patients.
+   *
+   * @param query the CQL of the check
+   * @param sampleSize the number of patients to evaluate
+   * @return the estimated number of patients in the result, with its confidence interval
+   * @throws IllegalArgumentException if the query is empty, or the sample size is not positive or
+   *     too large
+   */
+  PreviewDTO preview(String query, int sampleSize);
+}
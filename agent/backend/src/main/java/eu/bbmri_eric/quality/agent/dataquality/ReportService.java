@@ -1,14 +1,17 @@
 package eu.bbmri_eric.quality.agent.dataquality;
 
+import eu.bbmri_eric.quality.agent.dataquality.domain.Report;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ReportDTO;
 
 public interface ReportService {
 
   /**
-   * Generate a report transactionally. This method creates a new report and triggers the report
-   * generation process.
+   * Queue a new report. The report is stored with the {@code QUEUED} status and generated by the
+   * next free report worker; this method returns without waiting for it.
+   *
+   * @return the queued report
    */
-  void generateReport();
+  Report generateReport();
 
   /**
    * Get a report by ID and convert it to a DTO.
@@ -17,4 +20,14 @@ public interface ReportService {
    * @return the report as a DTO
    */
   ReportDTO getById(Long id);
+
+  /**
+   * Cancel a report that is still queued or generating. Its running checks are stopped, and the
+   * results gathered so far are kept.
+   *
+   * @param id the report ID
+   * @return {@code true} if the report was cancelled, {@code false} if it was neither queued nor
+   *     generating
+   */
+  boolean cancel(Long id);
 }
@@ -0,0 +1,24 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+
+/**
+ * Decodes a single FHIR resource straight from the JSON of a search Bundle into a compact record,
+ * without building the HAPI object model.
+ *
+ * @param <T> the type of the compact record
+ */
+@FunctionalInterface
+public interface ResourceDecoder<T> {
+
+  /**
+   * Decodes the resource the parser is positioned on. The parser points at the {@code
+   * START_OBJECT} token of the resource and must be left at its matching {@code END_OBJECT}.
+   *
+   * @param parser the streaming parser positioned at the start of the resource
+   * @return the decoded record, or {@code null} to skip the resource
+   * @throws IOException if the JSON cannot be read
+   */
+  T decode(JsonParser parser) throws IOException;
+}
@@ -0,0 +1,16 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import java.util.List;
+
+/**
+ * A pass over all resources of one type, decoded into compact records. Visitors of the same scan
+ * are fed from a single pass, so checks that read the same records should share one scan instance.
+ *
+ * @param resourceType the type of FHIR resource to read
+ * @param elements the elements to request, see {@link FHIRStore#streamAllResources(String, List,
+ *     ResourceDecoder)}
+ * @param decoder decodes a single resource into a compact record
+ * @param <T> the type of the compact record
+ */
+public record ResourceScan<T>(
+    String resourceType, List<String> elements, ResourceDecoder<T> decoder) {}
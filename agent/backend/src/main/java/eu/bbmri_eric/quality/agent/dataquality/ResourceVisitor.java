@@ -0,0 +1,34 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+
+/**
+ * Computes the result of a data quality check from the resources of a single {@link ResourceScan}.
+ * The scan engine feeds every resource of the scan to {@link #visit} and then asks for the {@link
+ * #result()}. A visitor holds the state of one execution and is used by one thread at a time.
+ *
+ * @param <T> the type of the compact record visited
+ */
+public interface ResourceVisitor<T> {
+
+  /**
+   * Returns the scan this visitor reads.
+   *
+   * @return the resource type, elements and decoder of the resources to visit
+   */
+  ResourceScan<T> scan();
+
+  /**
+   * Processes a single resource of the scan.
+   *
+   * @param resource the decoded resource
+   */
+  void visit(T resource);
+
+  /**
+   * Returns the result of the check after all resources of the scan were visited.
+   *
+   * @return the result of the check
+   */
+  ResultDTO result();
+}
@@ -0,0 +1,64 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import org.hl7.fhir.r4.model.Resource;
+import org.json.JSONObject;
+
+/** Runs the operations of a {@link FHIRStore} on a new virtual thread each. */
+final class VirtualThreadFHIRStore implements AsyncFHIRStore {
+  private static final ExecutorService EXECUTOR =
+      Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fhir-async-", 0).factory());
+
+  private final FHIRStore store;
+
+  VirtualThreadFHIRStore(FHIRStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> postResource(String resourceType, JSONObject resource) {
+    return supply(fhirStore -> fhirStore.postResource(resourceType, resource));
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> evaluateMeasure(String measureId) {
+    return supply(fhirStore -> fhirStore.evaluateMeasure(measureId));
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> evaluateMeasureList(String measureId) {
+    return supply(fhirStore -> fhirStore.evaluateMeasureList(measureId));
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> getPatientList(String listId) {
+    return supply(fhirStore -> fhirStore.getPatientList(listId));
+  }
+
+  @Override
+  public CompletableFuture<Integer> countResources(String resourceType) {
+    return supply(fhirStore -> fhirStore.countResources(resourceType));
+  }
+
+  @Override
+  public CompletableFuture<Integer> countResources(
+      String resourceType, Map<String, String> searchParams) {
+    return supply(fhirStore -> fhirStore.countResources(resourceType, searchParams));
+  }
+
+  @Override
+  public CompletableFuture<List<Resource>> fetchAllResources(
+      String resourceType, List<String> elements) {
+    return supply(fhirStore -> fhirStore.fetchAllResources(resourceType, elements));
+  }
+
+  @Override
+  public <T> CompletableFuture<T> supply(Function<FHIRStore, T> operation) {
+    return CompletableFuture.supplyAsync(() -> operation.apply(store), EXECUTOR);
+  }
+}
@@ -0,0 +1,40 @@
+package eu.bbmri_eric.quality.agent.dataquality.controller;
+
+import eu.bbmri_eric.quality.agent.dataquality.PreviewService;
+import eu.bbmri_eric.quality.agent.dataquality.dto.CQLQueryDTO;
+import eu.bbmri_eric.quality.agent.dataquality.dto.PreviewDTO;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.data.rest.webmvc.RepositoryRestController;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/** Actions on CQL checks beyond those of the exported CQL query repository. */
+@RepositoryRestController
+@Tag(name = "CQL Queries", description = "CQL check actions")
+class CQLQueryPreviewController {
+
+  private final PreviewService previewService;
+
+  CQLQueryPreviewController(PreviewService previewService) {
+    this.previewService = previewService;
+  }
+
+  @PostMapping("/cql-queries/preview")
+  @Operation(
+      summary = "Preview a CQL check",
+      description =
+          "Estimate the number of patients a CQL query reports by evaluating it for a random sample"
+              + " of patients, with a 95% confidence interval. The check does not need to be"
+              + " saved and no report is created.")
+  public ResponseEntity<PreviewDTO> preview(
+      @RequestBody CQLQueryDTO cqlQuery,
+      @Parameter(description = "Number of patients to evaluate")
+          @RequestParam(defaultValue = "200")
+          int sampleSize) {
+    return ResponseEntity.ok(previewService.preview(cqlQuery.getQuery(), sampleSize));
+  }
+}
@@ -0,0 +1,31 @@
+package eu.bbmri_eric.quality.agent.dataquality.controller;
+
+import eu.bbmri_eric.quality.agent.dataquality.ExecutionPlanService;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ExecutionPlanDTO;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/checks")
+@Tag(name = "Checks", description = "Planning of the data quality checks")
+class ExecutionPlanController {
+
+  private final ExecutionPlanService executionPlanService;
+
+  ExecutionPlanController(ExecutionPlanService executionPlanService) {
+    this.executionPlanService = executionPlanService;
+  }
+
+  @GetMapping("explain")
+  @Operation(
+      summary = "Explain the execution plan",
+      description =
+          "Plan the data quality checks of a new report from their declared requirements, without"
+              + " running them")
+  public ExecutionPlanDTO explain() {
+    return executionPlanService.explain();
+  }
+}
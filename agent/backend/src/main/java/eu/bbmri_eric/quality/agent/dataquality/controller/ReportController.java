@@ -0,0 +1,66 @@
+package eu.bbmri_eric.quality.agent.dataquality.controller;
+
+import eu.bbmri_eric.quality.agent.dataquality.ReportService;
+import eu.bbmri_eric.quality.agent.dataquality.exception.ReportNotFoundException;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.data.rest.webmvc.PersistentEntityResource;
+import org.springframework.data.rest.webmvc.PersistentEntityResourceAssembler;
+import org.springframework.data.rest.webmvc.RepositoryRestController;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+
+/** Actions on reports beyond those of the exported report repository. */
+@RepositoryRestController
+@Tag(name = "Reports", description = "Data quality report actions")
+class ReportController {
+
+  private final ReportService reportService;
+
+  ReportController(ReportService reportService) {
+    this.reportService = reportService;
+  }
+
+  @PostMapping("/reports")
+  @Operation(
+      summary = "Queue a new report",
+      description =
+          "Queue a new data quality report and return without waiting for it. The report is"
+              + " generated by the next free report worker; poll it until its status is neither"
+              + " QUEUED nor GENERATING.")
+  public ResponseEntity<PersistentEntityResource> create(
+      PersistentEntityResourceAssembler assembler) {
+    PersistentEntityResource report = assembler.toFullResource(reportService.generateReport());
+    return ResponseEntity.accepted()
+        .location(report.getRequiredLink(IanaLinkRelations.SELF).toUri())
+        .body(report);
+  }
+
+  @PostMapping("/reports/{id}/cancel")
+  @Operation(
+      summary = "Cancel a report",
+      description =
+          "Stop the running checks of a report that is still queued or generating. The results"
+              + " gathered so far are kept.")
+  public ResponseEntity<Void> cancel(
+      @Parameter(description = "Report ID", required = true) @PathVariable Long id) {
+    if (reportService.cancel(id)) {
+      return ResponseEntity.accepted().build();
+    }
+    return ResponseEntity.status(HttpStatus.CONFLICT).build();
+  }
+
+  @ExceptionHandler(ReportNotFoundException.class)
+  ResponseEntity<ProblemDetail> handleReportNotFound(ReportNotFoundException ex) {
+    ProblemDetail problemDetail =
+        ProblemDetail.forStatusAndDetail(HttpStatus.NOT_FOUND, ex.getMessage());
+    problemDetail.setTitle("Report Not Found");
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(problemDetail);
+  }
+}
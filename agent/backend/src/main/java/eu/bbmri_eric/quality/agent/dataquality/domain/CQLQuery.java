@@ -1,23 +1,46 @@
 package eu.bbmri_eric.quality.agent.dataquality.domain;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.bbmri_eric.quality.agent.dataquality.AsyncFHIRStore;
 import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.MeasurePopulation;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.Transient;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.Base64;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
-/** A data quality check utilizing the Hl7 Clinical Quality Language queries for evaluation. */
+/**
+ * A data quality check utilizing the Hl7 Clinical Quality Language queries for evaluation.
+ *
+ * <p>The Library and Measure evaluating a query are created on the FHIR server once and found
+ * again by their canonical URLs, which are derived from the query text.
+ */
 @Entity(name = "cql_check")
 @Getter
 @Setter
@@ -34,6 +57,18 @@ public class CQLQuery implements DataQualityCheck {
   private int errorThreshold = 30;
   private float epsilonBudget = 1.0f;
 
+  /** Overrides {@code checks.timeout-seconds} for this check if set. */
+  @PositiveOrZero private Integer timeoutSeconds;
+
+  /**
+   * The dimensions the patients of the query are stratified by, such as {@code gender,age}, or
+   * {@code null} or blank for a single result.
+   */
+  @jakarta.validation.constraints.Pattern(
+      regexp = "\\s*(" + STRATA_DIMENSION + "(\\s*,\\s*" + STRATA_DIMENSION + ")*)?\\s*",
+      message = "must list strata dimensions out of gender, age and site, separated by commas")
+  private String stratifier;
+
   protected CQLQuery() {}
 
   public CQLQuery(
@@ -50,44 +85,221 @@ public class CQLQuery implements DataQualityCheck {
     this.query = query;
   }
 
-  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final Object CREATION_LOCK = new Object();
+
+  /** The dimensions a stratifier can name. */
+  private static final String STRATA_DIMENSION = "(gender|age|site)";
+
+  /** A CQL retrieve, capturing the resource type it retrieves. */
+  private static final Pattern RETRIEVE =
+      Pattern.compile("\\[\\s*\"?([A-Z][A-Za-z0-9]*)\"?\\s*[:\\]]");
+
+  /** CQL functions whose result depends on the time of the evaluation. */
+  private static final Pattern CLOCK =
+      Pattern.compile("\\b(Now|TimeOfDay|(Calculate)?AgeIn(Hours|Minutes|Seconds))\\s*\\(");
+
+  /** CQL functions whose result depends on the date of the evaluation, such as the age. */
+  private static final Pattern CALENDAR =
+      Pattern.compile("\\b(Today|(Calculate)?AgeIn(Years|Months|Weeks|Days))\\s*\\(");
+
+  /** The expression of a query defining the patients it reports. */
+  static final String POPULATION = "InInitialPopulation";
+
+  /** The query as last read from the database, to find the FHIR resources of a changed query. */
+  @Transient
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private String loadedQuery;
+
+  @PostLoad
+  void rememberLoadedQuery() {
+    loadedQuery = query;
+  }
+
+  /**
+   * Returns the query text this check had when it was read from the database.
+   *
+   * @return the persisted query, or empty if the check was not read from the database
+   */
+  public Optional<String> persistedQuery() {
+    return Optional.ofNullable(loadedQuery);
+  }
+
+  /**
+   * Returns the canonical URL of the Library holding the given CQL. The URL is derived from the
+   * content of the CQL, so checks with the same query share one Library.
+   *
+   * @param cql the CQL of a check
+   * @return the canonical URL of the Library
+   */
+  public static String libraryUrl(String cql) {
+    return "urn:uuid:" + contentUuid("Library", cql);
+  }
+
+  /**
+   * Returns the canonical URL of the Measure evaluating the given CQL. The URL is derived from the
+   * content of the CQL, so checks with the same query share one Measure.
+   *
+   * @param cql the CQL of a check
+   * @return the canonical URL of the Measure
+   */
+  public static String measureUrl(String cql) {
+    return "urn:uuid:" + contentUuid("Measure", cql);
+  }
+
+  private static String contentUuid(String resourceType, String cql) {
+    return UUID.nameUUIDFromBytes((resourceType + "\n" + cql).getBytes(StandardCharsets.UTF_8))
+        .toString();
+  }
+
+  /**
+   * Declares a Measure evaluation retrieving the resource types named in the retrieves of the
+   * query, such as {@code [Condition: "ICD-10"]}, and patients, as the Measure evaluates the query
+   * in the context of every patient.
+   */
+  @Override
+  public CheckRequirements requirements() {
+    Set<String> resourceTypes = new LinkedHashSet<>();
+    if (query != null) {
+      Matcher retrieve = RETRIEVE.matcher(query);
+      while (retrieve.find()) {
+        resourceTypes.add(retrieve.group(1));
+      }
+    }
+    resourceTypes.add("Patient");
+    return CheckRequirements.evaluate(List.copyOf(resourceTypes));
+  }
+
+  /**
+   * Checks with the same query share their results, like their Measure. The results of a query
+   * reading the date, such as {@code AgeInYears()}, are only shared on the same day, and those of a
+   * query reading the time are never shared.
+   */
+  @Override
+  public Optional<String> resultKey() {
+    if (query == null || CLOCK.matcher(query).find()) {
+      return Optional.empty();
+    }
+    String key = measureUrl(query);
+    return Optional.of(CALENDAR.matcher(query).find() ? key + "@" + LocalDate.now() : key);
+  }
 
   @Override
   public ResultDTO execute(FHIRStore fhirStore) {
     try {
-      String cqlData = Base64.getEncoder().encodeToString(query.getBytes());
-      String libraryUri = java.util.UUID.randomUUID().toString().toLowerCase();
-      String measureUri = java.util.UUID.randomUUID().toString().toLowerCase();
-      JSONObject libraryResource = fhirStore.createLibrary(libraryUri, cqlData);
-      fhirStore.postResource("Library", libraryResource);
-      JSONObject measureResource = fhirStore.createMeasure(measureUri, libraryUri, "Patient");
-      JSONObject measureResponse = fhirStore.postResource("Measure", measureResource);
-      String measureId = measureResponse.getString("id");
-      JSONObject measureReport = fhirStore.evaluateMeasureList(measureId);
-      JsonNode mr = mapper.readTree(measureReport.toString());
-
-      int count = mr.at("/group/0/population/0/count").asInt();
-      Set<String> idSet = new HashSet<>();
-      if (count != 0) {
-        String listRef = mr.at("/group/0/population/0/subjectResults/reference").asText(null);
-        if (listRef != null && listRef.startsWith("List/")) {
-          String listId = listRef.substring("List/".length());
-
-          JSONObject listResource = fhirStore.getPatientList(listId);
-          JsonNode lr = mapper.readTree(listResource.toString());
-
-          for (JsonNode entry : lr.withArray("entry")) {
-            String ref = entry.at("/item/reference").asText(null);
-            if (ref != null && ref.startsWith("Patient/")) {
-              idSet.add(ref.substring("Patient/".length()));
-            }
+      String measureId = measureId(fhirStore, query, List.of(POPULATION));
+      List<MeasurePopulation> populations = fhirStore.evaluateMeasurePopulations(measureId);
+      return populationResult(
+          fhirStore, populations.isEmpty() ? new MeasurePopulation(0, null) : populations.get(0));
+    } catch (CompletionException e) {
+      return new ResultDTO(e.getCause().getMessage());
+    } catch (Exception | NoSuchMethodError e) {
+      return new ResultDTO(e.getMessage());
+    }
+  }
+
+  /**
+   * Evaluates the query for each of the given patients on their own instead of for all patients,
+   * e.g. to estimate its result from a sample. The patients are evaluated concurrently.
+   *
+   * @param fhirStore the store to evaluate on
+   * @param patientIds the logical IDs of the patients to evaluate
+   * @return the given patients that are in the initial population of the query
+   * @throws CompletionException if an evaluation fails
+   */
+  public Set<String> evaluateFor(FHIRStore fhirStore, Collection<String> patientIds) {
+    String measureId = measureId(fhirStore, query, List.of(POPULATION));
+    AsyncFHIRStore asyncStore = AsyncFHIRStore.of(fhirStore);
+    Map<String, CompletableFuture<List<MeasurePopulation>>> evaluations = new LinkedHashMap<>();
+    for (String patientId : patientIds) {
+      evaluations.put(
+          patientId,
+          asyncStore.supply(store -> store.evaluateMeasurePopulations(measureId, patientId)));
+    }
+    Set<String> population = new LinkedHashSet<>();
+    evaluations.forEach(
+        (patientId, evaluation) -> {
+          List<MeasurePopulation> populations = evaluation.join();
+          if (!populations.isEmpty() && populations.getFirst().count() > 0) {
+            population.add(patientId);
           }
-        }
+        });
+    return population;
+  }
+
+  /**
+   * Reads the result of a check from the initial population of a MeasureReport group, fetching
+   * the list of patients in the population.
+   *
+   * @param fhirStore the store the Measure was evaluated on
+   * @param population the initial population of a group of the MeasureReport
+   * @return the number of patients in the population and their IDs
+   */
+  static ResultDTO populationResult(FHIRStore fhirStore, MeasurePopulation population) {
+    Set<String> idSet =
+        population.count() != 0 && population.subjectListId() != null
+            ? fhirStore.getPatientIds(population.subjectListId(), fhirStore.patientIds())
+            : PatientIdSet.builder(fhirStore.patientIds()).build();
+    return new ResultDTO(population.count(), "Patient", idSet);
+  }
+
+  /**
+   * Returns the ID of the Measure evaluating the given CQL, creating the Library and the Measure if
+   * the store holds none for this CQL yet. The Measure has one group per population expression, in
+   * the given order.
+   *
+   * @param fhirStore the store to evaluate on
+   * @param cql the CQL library
+   * @param populations the names of the expressions defining the initial population of each group
+   * @return the ID of the Measure
+   */
+  static String measureId(FHIRStore fhirStore, String cql, List<String> populations) {
+    return fhirStore
+        .findResourceId("Measure", Map.of("url", measureUrl(cql)))
+        .orElseGet(() -> postLibraryAndMeasure(fhirStore, cql, populations));
+  }
+
+  /**
+   * Creates the Library and Measure of the given CQL, unless another execution created them in the
+   * meantime. The Library is found by its URL or posted first, and the Measure only after it, so a
+   * failed Library never leaves behind a Measure that cannot be evaluated.
+   *
+   * @return the ID of the Measure
+   */
+  private static String postLibraryAndMeasure(
+      FHIRStore fhirStore, String cql, List<String> populations) {
+    synchronized (CREATION_LOCK) {
+      Optional<String> created =
+          fhirStore.findResourceId("Measure", Map.of("url", measureUrl(cql)));
+      if (created.isPresent()) {
+        return created.get();
+      }
+      String libraryUri = contentUuid("Library", cql);
+      String measureUri = contentUuid("Measure", cql);
+      if (fhirStore.findResourceId("Library", Map.of("url", libraryUrl(cql))).isEmpty()) {
+        String cqlData = Base64.getEncoder().encodeToString(cql.getBytes(StandardCharsets.UTF_8));
+        fhirStore.postResource("Library", fhirStore.createLibrary(libraryUri, cqlData));
       }
+      JSONObject measureResource = fhirStore.createMeasure(measureUri, libraryUri, "Patient");
+      if (!populations.equals(List.of(POPULATION))) {
+        measureResource.put("group", groups(measureResource.getJSONArray("group"), populations));
+      }
+      return fhirStore.postResource("Measure", measureResource).getString("id");
+    }
+  }
 
-      return new ResultDTO(count, "Patient", idSet);
-    } catch (Exception | NoSuchMethodError e) {
-      return new ResultDTO(e.getMessage());
+  /** Copies the single group of the Measure template once per population expression. */
+  private static JSONArray groups(JSONArray template, List<String> populations) {
+    JSONArray groups = new JSONArray();
+    for (String population : populations) {
+      JSONObject group = new JSONObject(template.getJSONObject(0).toString());
+      group
+          .getJSONArray("population")
+          .getJSONObject(0)
+          .getJSONObject("criteria")
+          .put("expression", population);
+      groups.put(group);
     }
+    return groups;
   }
 }
@@ -0,0 +1,159 @@
+package eu.bbmri_eric.quality.agent.dataquality.domain;
+
+import eu.bbmri_eric.quality.agent.dataquality.AsyncFHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.MeasurePopulation;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Several {@link CQLQuery} checks evaluated together by one Measure. Their libraries are merged
+ * into one, with the definitions of each check renamed apart, and the Measure has one group per
+ * check. A single {@code $evaluate-measure} call then evaluates every patient once for all checks,
+ * and the count and subject list of each group are split back out into the result of its check.
+ */
+public final class CQLQueryBatch {
+  private static final Logger log = LoggerFactory.getLogger(CQLQueryBatch.class);
+  private static final Comparator<CQLQuery> BY_ID =
+      Comparator.comparing(CQLQuery::getId, Comparator.nullsLast(Comparator.naturalOrder()));
+
+  private final List<CQLQuery> checks;
+  private final String cql;
+  private final List<String> populations;
+
+  private CQLQueryBatch(List<CQLQuery> checks, List<MergeableLibrary> libraries) {
+    this.checks = List.copyOf(checks);
+    List<String> prefixes = new ArrayList<>();
+    for (int i = 1; i <= checks.size(); i++) {
+      prefixes.add("Check" + i + " ");
+    }
+    this.cql = merge(libraries, prefixes);
+    this.populations = prefixes.stream().map(prefix -> prefix + CQLQuery.POPULATION).toList();
+  }
+
+  /**
+   * Groups the given checks into batches. Checks are ordered by ID, and all checks whose libraries
+   * can be merged and use the same FHIR and FHIRHelpers versions form one batch. Checks that fit
+   * into no batch of at least two checks are left out and have to be executed on their own.
+   *
+   * @param checks the CQL checks of a report
+   * @return the batches of mergeable checks
+   */
+  public static List<CQLQueryBatch> plan(List<CQLQuery> checks) {
+    Map<String, List<CQLQuery>> checksByKey = new LinkedHashMap<>();
+    Map<String, List<MergeableLibrary>> librariesByKey = new LinkedHashMap<>();
+    for (CQLQuery check : checks.stream().sorted(BY_ID).toList()) {
+      Optional<MergeableLibrary> library =
+          Optional.ofNullable(check.getQuery()).flatMap(MergeableLibrary::parse);
+      if (library.isPresent()) {
+        String key = library.get().key();
+        checksByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(check);
+        librariesByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(library.get());
+      }
+    }
+    List<CQLQueryBatch> batches = new ArrayList<>();
+    checksByKey.forEach(
+        (key, batch) -> {
+          if (batch.size() > 1) {
+            batches.add(new CQLQueryBatch(batch, librariesByKey.get(key)));
+          }
+        });
+    return batches;
+  }
+
+  /**
+   * Returns the checks of this batch.
+   *
+   * @return the checks, in the order of the groups of the Measure
+   */
+  public List<CQLQuery> getChecks() {
+    return checks;
+  }
+
+  /**
+   * Returns the merged library of this batch. It identifies the Library and Measure of the batch,
+   * see {@link CQLQuery#measureUrl(String)}.
+   *
+   * @return the CQL text of the merged library
+   */
+  public String getCql() {
+    return cql;
+  }
+
+  /**
+   * Evaluates all checks of this batch. If the batch cannot be evaluated, e.g. because the merged
+   * library does not compile, every check is executed on its own instead, so each check gets the
+   * same result it would get outside of a batch.
+   *
+   * @param fhirStore the store to evaluate on
+   * @return the result of each check of this batch
+   */
+  public Map<CQLQuery, ResultDTO> execute(FHIRStore fhirStore) {
+    List<MeasurePopulation> groups;
+    try {
+      String measureId = CQLQuery.measureId(fhirStore, cql, populations);
+      groups = fhirStore.evaluateMeasurePopulations(measureId);
+      if (groups.size() != checks.size()) {
+        throw new IllegalStateException(
+            "MeasureReport has " + groups.size() + " groups for " + checks.size() + " checks");
+      }
+    } catch (Exception e) {
+      Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+      log.warn(
+          "Batched evaluation of {} CQL checks failed, executing them one by one: {}",
+          checks.size(),
+          cause.getMessage());
+      Map<CQLQuery, ResultDTO> results = new LinkedHashMap<>();
+      checks.forEach(check -> results.put(check, check.execute(fhirStore)));
+      return results;
+    }
+    AsyncFHIRStore asyncStore = AsyncFHIRStore.of(fhirStore);
+    Map<CQLQuery, CompletableFuture<ResultDTO>> pending = new LinkedHashMap<>();
+    for (int i = 0; i < checks.size(); i++) {
+      MeasurePopulation group = groups.get(i);
+      pending.put(
+          checks.get(i), asyncStore.supply(store -> CQLQuery.populationResult(store, group)));
+    }
+    Map<CQLQuery, ResultDTO> results = new LinkedHashMap<>();
+    pending.forEach(
+        (check, result) -> {
+          try {
+            results.put(check, result.join());
+          } catch (CompletionException e) {
+            // the subject list of this check could not be read, retry the check on its own
+            results.put(check, check.execute(fhirStore));
+          }
+        });
+    return results;
+  }
+
+  private static String merge(List<MergeableLibrary> libraries, List<String> prefixes) {
+    MergeableLibrary first = libraries.get(0);
+    List<String> statements = new ArrayList<>();
+    String header =
+        "library QualityAgentChecks version '1.0.0'\nusing FHIR version " + first.fhirVersion();
+    statements.add(
+        first
+            .helpersVersion()
+            .map(version -> header + "\ninclude FHIRHelpers version " + version)
+            .orElse(header));
+    for (String section : MergeableLibrary.SECTIONS) {
+      if (section.equals("define")) {
+        statements.add("context Patient");
+      }
+      for (int i = 0; i < libraries.size(); i++) {
+        statements.addAll(libraries.get(i).renamedStatements(section, prefixes.get(i)));
+      }
+    }
+    return String.join("\n\n", statements) + "\n";
+  }
+}
@@ -0,0 +1,100 @@
+package eu.bbmri_eric.quality.agent.dataquality.domain;
+
+import eu.bbmri_eric.quality.agent.dataquality.ResourceScan;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a {@link DataQualityCheck} reads from the FHIR server, declared before it runs so that the
+ * checks of a report can be planned: checks scanning the same resources share one pass, and the
+ * most expensive checks are started first.
+ *
+ * @param reads the resources the check reads and how
+ * @param patientIds whether the results of the check list patient IDs, or only a count
+ * @param estimatedCost the relative cost of running the check, in units of one count search
+ */
+public record CheckRequirements(List<ResourceRead> reads, boolean patientIds, int estimatedCost) {
+
+  /** The cost of a {@code _summary=count} search. */
+  public static final int COUNT_COST = 1;
+
+  /** The cost of evaluating a Measure on the server and reading its subject list. */
+  public static final int EVALUATE_COST = 20;
+
+  /** The cost of downloading and decoding all resources of one type. */
+  public static final int SCAN_COST = 50;
+
+  /** The requirements assumed for a check declaring none: it runs on its own. */
+  public static final CheckRequirements UNKNOWN =
+      new CheckRequirements(List.of(), true, EVALUATE_COST);
+
+  public CheckRequirements {
+    reads = List.copyOf(reads);
+  }
+
+  /** How a check reads the resources of one type. */
+  public enum Access {
+    /** All resources are downloaded and decoded by the agent. */
+    SCAN,
+    /** The matching resources are only counted by the server. */
+    COUNT,
+    /** The resources are evaluated by a Measure on the server. */
+    EVALUATE
+  }
+
+  /**
+   * A read of the resources of one type.
+   *
+   * @param resourceType the type of FHIR resource read
+   * @param elements the elements read, or an empty list if not known up front
+   * @param access how the resources are read
+   */
+  public record ResourceRead(String resourceType, List<String> elements, Access access) {
+    public ResourceRead {
+      elements = List.copyOf(elements);
+    }
+  }
+
+  /**
+   * Requirements of a check reading all resources of a scan, see {@link
+   * DataQualityCheck#visitor}.
+   */
+  public static CheckRequirements scan(ResourceScan<?> scan) {
+    return new CheckRequirements(
+        List.of(new ResourceRead(scan.resourceType(), scan.elements(), Access.SCAN)),
+        true,
+        SCAN_COST);
+  }
+
+  /** Requirements of a check answered by the given number of count searches. */
+  public static CheckRequirements count(String resourceType, int searches) {
+    return new CheckRequirements(
+        List.of(new ResourceRead(resourceType, List.of(), Access.COUNT)),
+        false,
+        searches * COUNT_COST);
+  }
+
+  /** Requirements of a check evaluated by a Measure retrieving the given resource types. */
+  public static CheckRequirements evaluate(List<String> resourceTypes) {
+    return new CheckRequirements(
+        resourceTypes.stream()
+            .map(resourceType -> new ResourceRead(resourceType, List.of(), Access.EVALUATE))
+            .toList(),
+        true,
+        EVALUATE_COST);
+  }
+
+  /**
+   * Returns the requirements of a check doing the reads of both this and the other check, one
+   * after the other.
+   *
+   * @param other the requirements of the second part of the check
+   * @return the reads of both, listing patient IDs if either does, at their combined cost
+   */
+  public CheckRequirements and(CheckRequirements other) {
+    List<ResourceRead> combined = new ArrayList<>(reads);
+    combined.addAll(other.reads);
+    return new CheckRequirements(
+        combined, patientIds || other.patientIds, estimatedCost + other.estimatedCost);
+  }
+}
@@ -1,7 +1,9 @@
 package eu.bbmri_eric.quality.agent.dataquality.domain;
 
 import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceVisitor;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.util.Optional;
 
 /**
  * Represents a singular executable query that determines a specific aspect of data quality.
@@ -18,6 +20,50 @@ public interface DataQualityCheck {
    */
   ResultDTO execute(FHIRStore fhirStore);
 
+  /**
+   * Returns a visitor computing the result of this check from a single pass over the resources of
+   * one type. Checks offering a visitor can share that pass with other checks reading the same
+   * resources; their result must be the same as that of {@link #execute(FHIRStore)}.
+   *
+   * @param fhirStore the FHIR store the resources are read from
+   * @return a new visitor for one execution, or empty if the check can only be executed
+   */
+  default Optional<ResourceVisitor<?>> visitor(FHIRStore fhirStore) {
+    return Optional.empty();
+  }
+
+  /**
+   * Declares what this check reads, so that it can be planned without running it. The declaration
+   * has to match what {@link #execute(FHIRStore)} and {@link #visitor(FHIRStore)} actually read.
+   *
+   * @return the requirements of this check, {@link CheckRequirements#UNKNOWN} by default
+   */
+  default CheckRequirements requirements() {
+    return CheckRequirements.UNKNOWN;
+  }
+
+  /**
+   * Returns a key identifying what this check computes. While the resources in its {@link
+   * #requirements() requirements} are unchanged, the result of an earlier run can be reused for
+   * every check with the same key.
+   *
+   * @return the key, or empty if the results of this check must always be computed
+   */
+  default Optional<String> resultKey() {
+    return Optional.empty();
+  }
+
+  /**
+   * Returns whether this check only reports aggregate counts. Count-only checks can be answered
+   * with {@code _summary=count} searches instead of downloading resources, and their results carry
+   * no patient IDs.
+   *
+   * @return {@code true} if the results of this check contain no patient IDs
+   */
+  default boolean isCountOnly() {
+    return false;
+  }
+
   /**
    * Returns the human-readable name of the data quality check.
    *
@@ -55,6 +101,16 @@ public interface DataQualityCheck {
    */
   float getEpsilonBudget();
 
+  /**
+   * Returns how long this check may run before it is cancelled, if it overrides the timeout of
+   * {@code checks.timeout-seconds}.
+   *
+   * @return the timeout in seconds, {@code 0} for no limit, or {@code null} for the default
+   */
+  default Integer getTimeoutSeconds() {
+    return null;
+  }
+
   /**
    * Returns the unique identifier of this data quality check, if applicable.
    *
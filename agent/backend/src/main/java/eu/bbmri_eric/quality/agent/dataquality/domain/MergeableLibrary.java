@@ -0,0 +1,373 @@
+package eu.bbmri_eric.quality.agent.dataquality.domain;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A CQL library simple enough to be merged with others into one library. Merging prefixes every
+ * definition and terminology declaration with a name unique to the library, so that the
+ * definitions of several checks can live side by side.
+ *
+ * <p>Only libraries made of {@code using FHIR}, {@code include FHIRHelpers}, terminology
+ * declarations, {@code context Patient} and expression definitions are merged. Top-level
+ * statements must start on a new line. Libraries declaring parameters or functions, including other
+ * libraries, or reusing a declared name as an alias, property or tuple element are rejected, as
+ * renaming could change their meaning.
+ */
+final class MergeableLibrary {
+  /** The sections of a merged library, in the order CQL requires. */
+  static final List<String> SECTIONS =
+      List.of("codesystem", "valueset", "code", "concept", "define");
+
+  private static final Set<String> STATEMENTS =
+      Set.of(
+          "library",
+          "using",
+          "include",
+          "codesystem",
+          "valueset",
+          "code",
+          "concept",
+          "parameter",
+          "context",
+          "define");
+
+  private final String fhirVersion;
+  private final String helpersVersion;
+  private final Set<String> declared;
+  private final Map<String, List<List<Token>>> sections;
+
+  private MergeableLibrary(
+      String fhirVersion,
+      String helpersVersion,
+      Set<String> declared,
+      Map<String, List<List<Token>>> sections) {
+    this.fhirVersion = fhirVersion;
+    this.helpersVersion = helpersVersion;
+    this.declared = declared;
+    this.sections = sections;
+  }
+
+  /**
+   * Parses a CQL library.
+   *
+   * @param cql the text of the library
+   * @return the library, or empty if it cannot be merged safely
+   */
+  static Optional<MergeableLibrary> parse(String cql) {
+    List<List<Token>> statements;
+    try {
+      statements = statements(tokenize(cql));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+    if (statements == null) {
+      return Optional.empty();
+    }
+    String fhirVersion = null;
+    String helpersVersion = null;
+    boolean inPatientContext = false;
+    Set<String> declared = new HashSet<>();
+    Map<String, List<List<Token>>> sections = new LinkedHashMap<>();
+    SECTIONS.forEach(section -> sections.put(section, new ArrayList<>()));
+    for (List<Token> statement : statements) {
+      List<Token> significant = significant(statement);
+      String keyword = significant.get(0).text();
+      switch (keyword) {
+        case "library" -> {}
+        case "using" -> {
+          if (!matches(significant, "using", "FHIR", "version") || significant.size() != 4) {
+            return Optional.empty();
+          }
+          fhirVersion = significant.get(3).text();
+        }
+        case "include" -> {
+          if (!matches(significant, "include", "FHIRHelpers", "version")
+              || !(significant.size() == 4
+                  || significant.size() == 6
+                      && matches(significant.subList(4, 6), "called", "FHIRHelpers"))) {
+            return Optional.empty();
+          }
+          helpersVersion = significant.get(3).text();
+        }
+        case "context" -> {
+          if (!matches(significant, "context", "Patient") || significant.size() != 2) {
+            return Optional.empty();
+          }
+          inPatientContext = true;
+        }
+        case "define" -> {
+          int name = 1;
+          while (name < significant.size()
+              && Set.of("public", "private").contains(significant.get(name).text())) {
+            name++;
+          }
+          Optional<String> defined = declaredName(significant, name);
+          if (!inPatientContext || defined.isEmpty()) {
+            return Optional.empty();
+          }
+          declared.add(defined.get());
+          sections.get(keyword).add(statement);
+        }
+        case "codesystem", "valueset", "code", "concept" -> {
+          Optional<String> defined = declaredName(significant, 1);
+          if (defined.isEmpty()) {
+            return Optional.empty();
+          }
+          declared.add(defined.get());
+          sections.get(keyword).add(statement);
+        }
+        default -> {
+          return Optional.empty();
+        }
+      }
+    }
+    if (fhirVersion == null
+        || !declared.contains(CQLQuery.POPULATION)
+        || !usedAsReferencesOnly(declared, sections)) {
+      return Optional.empty();
+    }
+    return Optional.of(new MergeableLibrary(fhirVersion, helpersVersion, declared, sections));
+  }
+
+  /**
+   * Returns the versions of FHIR and FHIRHelpers this library uses. Only libraries with the same
+   * key can be merged.
+   */
+  String key() {
+    return "FHIR " + fhirVersion + ", FHIRHelpers " + helpersVersion;
+  }
+
+  String fhirVersion() {
+    return fhirVersion;
+  }
+
+  Optional<String> helpersVersion() {
+    return Optional.ofNullable(helpersVersion);
+  }
+
+  /**
+   * Returns the statements of a section with all declared names prefixed.
+   *
+   * @param section one of {@link #SECTIONS}
+   * @param prefix the prefix of all names of this library, unique within the merged library
+   * @return the renamed statements
+   */
+  List<String> renamedStatements(String section, String prefix) {
+    List<String> renamed = new ArrayList<>();
+    for (List<Token> statement : sections.get(section)) {
+      StringBuilder text = new StringBuilder();
+      Token previous = null;
+      for (Token token : statement) {
+        boolean property = previous != null && previous.text().equals(".");
+        if (token.isIdentifier() && declared.contains(token.name()) && !property) {
+          text.append('"').append(prefix).append(token.name()).append('"');
+        } else {
+          text.append(token.text());
+        }
+        if (token.kind() != Kind.SPACE) {
+          previous = token;
+        }
+      }
+      renamed.add(text.toString().strip());
+    }
+    return renamed;
+  }
+
+  /**
+   * Checks that declared names only occur as declarations and references, so that renaming all of
+   * their occurrences keeps the meaning of the library.
+   */
+  private static boolean usedAsReferencesOnly(
+      Set<String> declared, Map<String, List<List<Token>>> sections) {
+    for (List<List<Token>> statements : sections.values()) {
+      for (List<Token> statement : statements) {
+        List<Token> significant = significant(statement);
+        for (int i = 1; i < significant.size(); i++) {
+          Token token = significant.get(i);
+          if (!token.isIdentifier() || !declared.contains(token.name())) {
+            continue;
+          }
+          String before = significant.get(i - 1).text();
+          String after = i + 1 < significant.size() ? significant.get(i + 1).text() : "";
+          boolean declaration = after.equals(":") && isDeclarationName(significant, i);
+          if (Set.of(".", "[", "]", ")", "let").contains(before)
+              || after.equals(":") && !declaration) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean isDeclarationName(List<Token> significant, int index) {
+    for (int i = 1; i < index; i++) {
+      if (!Set.of("public", "private").contains(significant.get(i).text())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Optional<String> declaredName(List<Token> significant, int index) {
+    if (index + 1 >= significant.size()
+        || !significant.get(index).isIdentifier()
+        || !significant.get(index + 1).text().equals(":")) {
+      return Optional.empty();
+    }
+    return Optional.of(significant.get(index).name());
+  }
+
+  private static boolean matches(List<Token> significant, String... texts) {
+    if (significant.size() < texts.length) {
+      return false;
+    }
+    for (int i = 0; i < texts.length; i++) {
+      if (!significant.get(i).text().equals(texts[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<Token> significant(List<Token> statement) {
+    return statement.stream().filter(token -> token.kind() != Kind.SPACE).toList();
+  }
+
+  /**
+   * Splits the tokens into top-level statements, each starting with a statement keyword at the
+   * beginning of a line outside of any brackets.
+   *
+   * @return the statements, or {@code null} if anything precedes the first statement
+   */
+  private static List<List<Token>> statements(List<Token> tokens) {
+    List<List<Token>> statements = new ArrayList<>();
+    List<Token> current = null;
+    boolean lineStart = true;
+    int depth = 0;
+    for (Token token : tokens) {
+      if (token.kind() == Kind.SPACE) {
+        lineStart |= token.text().indexOf('\n') >= 0;
+        if (current != null) {
+          current.add(token);
+        }
+        continue;
+      }
+      if (lineStart
+          && depth == 0
+          && token.kind() == Kind.IDENTIFIER
+          && STATEMENTS.contains(token.text())) {
+        current = new ArrayList<>();
+        statements.add(current);
+      } else if (current == null) {
+        return null;
+      }
+      current.add(token);
+      depth += switch (token.text()) {
+        case "(", "[", "{" -> 1;
+        case ")", "]", "}" -> -1;
+        default -> 0;
+      };
+      lineStart = false;
+    }
+    return statements;
+  }
+
+  enum Kind {
+    SPACE,
+    STRING,
+    IDENTIFIER,
+    QUOTED_IDENTIFIER,
+    OTHER
+  }
+
+  /** A token of CQL text. Whitespace and comments are kept, so the text can be reassembled. */
+  record Token(Kind kind, String text) {
+    boolean isIdentifier() {
+      return kind == Kind.IDENTIFIER || kind == Kind.QUOTED_IDENTIFIER;
+    }
+
+    /** Returns the name of an identifier, without the quotes of a quoted one. */
+    String name() {
+      return kind == Kind.QUOTED_IDENTIFIER ? text.substring(1, text.length() - 1) : text;
+    }
+  }
+
+  /**
+   * Splits CQL text into tokens.
+   *
+   * @throws IllegalArgumentException if a string, quoted identifier or comment is not terminated,
+   *     or the text contains a backtick-delimited identifier
+   */
+  static List<Token> tokenize(String cql) {
+    List<Token> tokens = new ArrayList<>();
+    int i = 0;
+    while (i < cql.length()) {
+      char c = cql.charAt(i);
+      int end;
+      Kind kind;
+      if (Character.isWhitespace(c)) {
+        end = i + 1;
+        while (end < cql.length() && Character.isWhitespace(cql.charAt(end))) {
+          end++;
+        }
+        kind = Kind.SPACE;
+      } else if (cql.startsWith("//", i)) {
+        end = cql.indexOf('\n', i);
+        end = end < 0 ? cql.length() : end;
+        kind = Kind.SPACE;
+      } else if (cql.startsWith("/*", i)) {
+        end = cql.indexOf("*/", i + 2);
+        if (end < 0) {
+          throw new IllegalArgumentException("Unterminated comment");
+        }
+        end += 2;
+        kind = Kind.SPACE;
+      } else if (c == '\'' || c == '"') {
+        end = closingQuote(cql, i);
+        kind = c == '\'' ? Kind.STRING : Kind.QUOTED_IDENTIFIER;
+      } else if (c == '`') {
+        throw new IllegalArgumentException("Backtick-delimited identifier");
+      } else if (Character.isLetter(c) || c == '_') {
+        end = i + 1;
+        while (end < cql.length()
+            && (Character.isLetterOrDigit(cql.charAt(end)) || cql.charAt(end) == '_')) {
+          end++;
+        }
+        kind = Kind.IDENTIFIER;
+      } else if (Character.isDigit(c)) {
+        end = i + 1;
+        while (end < cql.length()
+            && (Character.isLetterOrDigit(cql.charAt(end)) || cql.charAt(end) == '_')) {
+          end++;
+        }
+        kind = Kind.OTHER;
+      } else {
+        end = i + 1;
+        kind = Kind.OTHER;
+      }
+      tokens.add(new Token(kind, cql.substring(i, end)));
+      i = end;
+    }
+    return tokens;
+  }
+
+  private static int closingQuote(String cql, int start) {
+    char quote = cql.charAt(start);
+    for (int i = start + 1; i < cql.length(); i++) {
+      char c = cql.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == quote) {
+        return i + 1;
+      }
+    }
+    throw new IllegalArgumentException("Unterminated " + (quote == '"' ? "identifier" : "string"));
+  }
+}
@@ -34,7 +34,7 @@ public class Report {
   @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
   private LocalDateTime generatedAt;
 
-  private ReportStatus status = ReportStatus.GENERATING;
+  private ReportStatus status = ReportStatus.QUEUED;
 
   private float epsilonBudget = 2.0f;
 
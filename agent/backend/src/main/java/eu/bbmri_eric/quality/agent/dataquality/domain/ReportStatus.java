@@ -1,6 +1,13 @@
 package eu.bbmri_eric.quality.agent.dataquality.domain;
 
+// stored by ordinal, so new statuses are added last
 public enum ReportStatus {
   GENERATING,
   GENERATED,
+  /** Cancelled while queued or generating; the results gathered so far are kept. */
+  CANCELLED,
+  /** Waiting for a free report worker. */
+  QUEUED,
+  /** Stopped by an error, or by a restart of the agent, before all checks finished. */
+  FAILED,
 }
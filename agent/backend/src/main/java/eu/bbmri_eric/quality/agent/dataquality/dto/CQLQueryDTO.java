@@ -31,6 +31,18 @@ public class CQLQueryDTO {
   @Schema(description = "Epsilon budget for differential privacy", example = "1.0")
   private float epsilonBudget;
 
+  @Schema(
+      description = "Seconds the check may run, 0 for no limit; empty for the default timeout",
+      example = "600")
+  private Integer timeoutSeconds;
+
+  @Schema(
+      description =
+          "Dimensions the patients are stratified by: gender, age, site, comma-separated; empty"
+              + " for a single result",
+      example = "gender,age")
+  private String stratifier;
+
   public CQLQueryDTO() {}
 
   public CQLQueryDTO(
@@ -105,4 +117,20 @@ public class CQLQueryDTO {
   public void setEpsilonBudget(float epsilonBudget) {
     this.epsilonBudget = epsilonBudget;
   }
+
+  public Integer getTimeoutSeconds() {
+    return timeoutSeconds;
+  }
+
+  public void setTimeoutSeconds(Integer timeoutSeconds) {
+    this.timeoutSeconds = timeoutSeconds;
+  }
+
+  public String getStratifier() {
+    return stratifier;
+  }
+
+  public void setStratifier(String stratifier) {
+    this.stratifier = stratifier;
+  }
 }
@@ -0,0 +1,39 @@
+package eu.bbmri_eric.quality.agent.dataquality.dto;
+
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+
+/** DTO for the execution plan of the data quality checks of a report. */
+@Schema(
+    name = "Execution Plan",
+    description = "How the data quality checks of the next report are going to be run")
+public record ExecutionPlanDTO(
+    @Schema(description = "Tasks running the checks, in the order they are started")
+        List<Task> tasks,
+    @Schema(description = "Total estimated cost, in units of one count search", example = "171")
+        int estimatedCost) {
+
+  /** A task running one or more checks. */
+  @Schema(name = "Planned Task", description = "A unit of work running one or more checks")
+  public record Task(
+      @Schema(
+              description = "How the checks are run",
+              allowableValues = {"BATCH", "SCAN", "COUNT", "EVALUATE", "EXECUTE"},
+              example = "SCAN")
+          String type,
+      @Schema(description = "Resources read by the task")
+          List<CheckRequirements.ResourceRead> reads,
+      @Schema(description = "Whether the results list patient IDs, or only counts")
+          boolean patientIds,
+      @Schema(description = "Estimated cost, in units of one count search", example = "50")
+          int estimatedCost,
+      @Schema(description = "Checks run by the task") List<Check> checks) {}
+
+  /** A check run by a task. */
+  @Schema(name = "Planned Check", description = "A data quality check run by a task")
+  public record Check(
+      @Schema(description = "ID of the check, empty for built-in checks", example = "1") Long id,
+      @Schema(description = "Name of the check", example = "Duplicate identifiers")
+          String name) {}
+}
@@ -0,0 +1,30 @@
+package eu.bbmri_eric.quality.agent.dataquality.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/** DTO for the approximate result of a check, estimated from a random sample of patients. */
+@Schema(
+    name = "Check Preview",
+    description = "The approximate result of a check, estimated from a random sample of patients")
+public record PreviewDTO(
+    @Schema(description = "Estimated number of patients in the result", example = "1200")
+        int estimate,
+    @Schema(description = "Lower bound of the confidence interval", example = "1050") int lower,
+    @Schema(description = "Upper bound of the confidence interval", example = "1360") int upper,
+    @Schema(description = "Confidence level of the interval", example = "0.95") double confidence,
+    @Schema(description = "Number of patients evaluated", example = "200") int sampled,
+    @Schema(description = "Number of evaluated patients in the result", example = "24")
+        int matched,
+    @Schema(description = "Number of patients in the store", example = "10000") int population,
+    @Schema(description = "Why the check could not be evaluated, empty on success")
+        String error) {
+
+  /**
+   * Creates the preview of a check that could not be evaluated.
+   *
+   * @param error why the evaluation failed
+   */
+  public PreviewDTO(String error) {
+    this(-1, -1, -1, 0, 0, 0, 0, error);
+  }
+}
@@ -7,6 +7,9 @@ import lombok.Getter;
 @Getter
 public class DataQualityCheckResultEvent {
 
+  /** The report the result belongs to, {@code null} for all reports being generated. */
+  private final Long reportId;
+
   private final Long checkId;
   private final String checkName;
   private final int rawValue;
@@ -29,6 +32,33 @@ public class DataQualityCheckResultEvent {
       int errorThreshold,
       float epsilon,
       String stratum) {
+    this(
+        null,
+        checkId,
+        checkName,
+        rawValue,
+        patientSet,
+        error,
+        finishedAt,
+        warningThreshold,
+        errorThreshold,
+        epsilon,
+        stratum);
+  }
+
+  private DataQualityCheckResultEvent(
+      Long reportId,
+      Long checkId,
+      String checkName,
+      int rawValue,
+      Set<String> patientSet,
+      String error,
+      LocalDateTime finishedAt,
+      int warningThreshold,
+      int errorThreshold,
+      float epsilon,
+      String stratum) {
+    this.reportId = reportId;
     this.checkId = checkId;
     this.checkName = checkName;
     this.rawValue = rawValue;
@@ -40,4 +70,24 @@ public class DataQualityCheckResultEvent {
     this.epsilon = epsilon;
     this.stratum = stratum;
   }
+
+  /**
+   * Returns this result, assigned to a report.
+   *
+   * @param reportId the ID of the report
+   */
+  public DataQualityCheckResultEvent forReport(Long reportId) {
+    return new DataQualityCheckResultEvent(
+        reportId,
+        checkId,
+        checkName,
+        rawValue,
+        patientSet,
+        error,
+        finishedAt,
+        warningThreshold,
+        errorThreshold,
+        epsilon,
+        stratum);
+  }
 }
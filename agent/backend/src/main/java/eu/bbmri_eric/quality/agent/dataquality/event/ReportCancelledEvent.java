@@ -0,0 +1,13 @@
+package eu.bbmri_eric.quality.agent.dataquality.event;
+
+public class ReportCancelledEvent {
+  private final Long reportId;
+
+  public ReportCancelledEvent(Long reportId) {
+    this.reportId = reportId;
+  }
+
+  public Long getReportId() {
+    return reportId;
+  }
+}
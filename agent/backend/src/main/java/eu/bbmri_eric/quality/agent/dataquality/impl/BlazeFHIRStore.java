@@ -1,80 +1,93 @@
 package eu.bbmri_eric.quality.agent.dataquality.impl;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.parser.LenientErrorHandler;
-import ca.uhn.fhir.rest.api.SummaryEnum;
-import ca.uhn.fhir.rest.client.api.IGenericClient;
-import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
-import ca.uhn.fhir.rest.client.interceptor.BasicAuthInterceptor;
-import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.MeasurePopulation;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceDecoder;
 import eu.bbmri_eric.quality.agent.settings.dto.SettingsDTO;
 import eu.bbmri_eric.quality.agent.settings.event.SettingsUpdatedEvent;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
-import javax.net.ssl.SSLContext;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContexts;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Resource;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 @Component
-class BlazeFHIRStore implements FHIRStore {
+class BlazeFHIRStore implements ChunkedFHIRStore {
   private static final Logger log = LoggerFactory.getLogger(BlazeFHIRStore.class);
-  private volatile IGenericClient client;
+  private static final int SIZE_SAMPLE_COUNT = 20;
   private volatile RestTemplate restTemplate;
   private volatile String fhirUrl;
-  private final RestTemplateBuilder restTemplateBuilder;
+  private final FHIRConnectionPool connectionPool;
   private final HttpHeaders headers;
+  private final HttpHeaders searchHeaders;
   private final FhirContext ctx;
-
-  BlazeFHIRStore(RestTemplateBuilder restTemplateBuilder) {
-    this.restTemplateBuilder = restTemplateBuilder;
+  private final int pageSize;
+  private final int prefetchDepth;
+  private final int partitions;
+  private final BulkExporter bulkExporter;
+  private final DeltaSync deltaSync;
+  private final boolean sampleUnprojectedSize;
+  private volatile Consumer<SearchStatistics> searchListener = statistics -> {};
+
+  BlazeFHIRStore(
+      FHIRConnectionPool connectionPool,
+      @Value("${fhir.search.page-size:1000}") int pageSize,
+      @Value("${fhir.search.prefetch-depth:2}") int prefetchDepth,
+      @Value("${fhir.search.partitions:1}") int partitions,
+      @Value("${fhir.search.sample-unprojected-size:false}") boolean sampleUnprojectedSize,
+      BulkExporter bulkExporter,
+      DeltaSync deltaSync) {
+    this.connectionPool = connectionPool;
+    this.pageSize = pageSize;
+    this.prefetchDepth = prefetchDepth;
+    this.partitions = partitions;
+    this.sampleUnprojectedSize = sampleUnprojectedSize;
+    this.bulkExporter = bulkExporter;
+    this.deltaSync = deltaSync;
 
     this.ctx =
         FhirContext.forR4()
             .setParserErrorHandler(new LenientErrorHandler().setErrorOnInvalidValue(false));
-    ctx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
-
-    try {
-      SSLContext sslContext =
-          SSLContexts.custom().loadTrustMaterial(null, (chain, authType) -> true).build();
-
-      SSLConnectionSocketFactory socketFactory =
-          new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
-
-      CloseableHttpClient httpClient =
-          HttpClients.custom().setSSLSocketFactory(socketFactory).build();
-
-      ctx.getRestfulClientFactory().setHttpClient(httpClient);
-
-    } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException e) {
-      log.error("Failed to create SSL context for FHIR client", e);
-      throw new RuntimeException(e);
-    }
 
     headers = new HttpHeaders();
     headers.setContentType(org.springframework.http.MediaType.APPLICATION_JSON);
+
+    searchHeaders = new HttpHeaders();
+    searchHeaders.set(HttpHeaders.ACCEPT, "application/fhir+json");
+    searchHeaders.set("Prefer", "handling=lenient"); // Request lenient validation
   }
 
   @EventListener
@@ -87,15 +100,7 @@ class BlazeFHIRStore implements FHIRStore {
 
     String decodedPassword = new String(Base64.getDecoder().decode(settings.getFhirPassword()));
 
-    IGenericClient newClient = ctx.newRestfulGenericClient(settings.getFhirUrl());
-    BasicAuthInterceptor newAuthInterceptor =
-        new BasicAuthInterceptor(settings.getFhirUsername(), decodedPassword);
-    newClient.registerInterceptor(newAuthInterceptor);
-
-    RestTemplate newRestTemplate = createRestTemplate(settings.getFhirUsername(), decodedPassword);
-
-    this.client = newClient;
-    this.restTemplate = newRestTemplate;
+    this.restTemplate = connectionPool.open(settings.getFhirUsername(), decodedPassword);
     this.fhirUrl = settings.getFhirUrl();
 
     log.info("FHIR clients reinitialized with URL: {}", settings.getFhirUrl());
@@ -108,42 +113,6 @@ class BlazeFHIRStore implements FHIRStore {
     return fhirUrl;
   }
 
-  private RestTemplate createRestTemplate(String username, String password) {
-    try {
-      SSLContext sslContext =
-          org.apache.hc.core5.ssl.SSLContextBuilder.create()
-              .loadTrustMaterial(null, (chain, authType) -> true)
-              .build();
-
-      org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory csf =
-          new org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory(
-              sslContext, org.apache.hc.client5.http.ssl.NoopHostnameVerifier.INSTANCE);
-
-      org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager connectionManager =
-          org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder.create()
-              .setSSLSocketFactory(csf)
-              .build();
-
-      org.apache.hc.client5.http.impl.classic.CloseableHttpClient httpClient =
-          org.apache.hc.client5.http.impl.classic.HttpClients.custom()
-              .setConnectionManager(connectionManager)
-              .build();
-
-      HttpComponentsClientHttpRequestFactory requestFactory =
-          new HttpComponentsClientHttpRequestFactory();
-      requestFactory.setHttpClient(httpClient);
-
-      return restTemplateBuilder
-          .requestFactory(() -> requestFactory)
-          .basicAuthentication(username, password)
-          .build();
-
-    } catch (Exception e) {
-      log.warn("Failed to create SSL-configured RestTemplate, falling back to default", e);
-      return restTemplateBuilder.basicAuthentication(username, password).build();
-    }
-  }
-
   public JSONObject libraryTemplate() {
     JSONObject library = new JSONObject();
     library.put("resourceType", "Library");
@@ -267,6 +236,55 @@ class BlazeFHIRStore implements FHIRStore {
   }
 
   public JSONObject evaluateMeasureList(String measureId) {
+    try {
+      ResponseEntity<String> response =
+          restTemplate.exchange(
+              getFhirUrl() + "/Measure/" + measureId + "/$evaluate-measure",
+              HttpMethod.POST,
+              subjectListRequest(),
+              String.class);
+      return new JSONObject(response.getBody());
+    } catch (HttpClientErrorException e) {
+      throw new RuntimeException("HTTP error: " + e.getStatusCode(), e);
+    }
+  }
+
+  @Override
+  public List<MeasurePopulation> evaluateMeasurePopulations(String measureId) {
+    try {
+      return restTemplate.execute(
+          getFhirUrl() + "/Measure/" + measureId + "/$evaluate-measure",
+          HttpMethod.POST,
+          restTemplate.httpEntityCallback(subjectListRequest()),
+          response -> SubjectListJson.populations(response.getBody()));
+    } catch (HttpClientErrorException e) {
+      throw new RuntimeException("HTTP error: " + e.getStatusCode(), e);
+    }
+  }
+
+  @Override
+  public List<MeasurePopulation> evaluateMeasurePopulations(String measureId, String patientId) {
+    URI uri =
+        UriComponentsBuilder.fromUriString(getFhirUrl())
+            .pathSegment("Measure", measureId, "$evaluate-measure")
+            .queryParam("periodStart", "2000")
+            .queryParam("periodEnd", "2030")
+            .queryParam("subject", "Patient/" + patientId)
+            .encode()
+            .build()
+            .toUri();
+    try {
+      return restTemplate.execute(
+          uri,
+          HttpMethod.GET,
+          restTemplate.httpEntityCallback(new HttpEntity<>(searchHeaders)),
+          response -> SubjectListJson.populations(response.getBody()));
+    } catch (HttpClientErrorException e) {
+      throw new RuntimeException("HTTP error: " + e.getStatusCode(), e);
+    }
+  }
+
+  private HttpEntity<String> subjectListRequest() {
     JSONObject payload = new JSONObject();
     payload.put("resourceType", "Parameters");
     JSONArray parameters = new JSONArray();
@@ -283,30 +301,35 @@ class BlazeFHIRStore implements FHIRStore {
     parameters.put(param2);
     parameters.put(param3);
     payload.put("parameter", parameters);
+    return new HttpEntity<>(payload.toString(), headers);
+  }
 
-    HttpEntity<String> entity = new HttpEntity<>(payload.toString(), headers);
-
+  public JSONObject getPatientList(String listId) {
+    String url = getFhirUrl() + "/List/" + listId;
     try {
-      ResponseEntity<String> response =
-          restTemplate.exchange(
-              getFhirUrl() + "/Measure/" + measureId + "/$evaluate-measure",
-              HttpMethod.POST,
-              entity,
-              String.class);
+      ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
       return new JSONObject(response.getBody());
     } catch (HttpClientErrorException e) {
       throw new RuntimeException("HTTP error: " + e.getStatusCode(), e);
     }
   }
 
-  public JSONObject getPatientList(String listId) {
-    String url = getFhirUrl() + "/List/" + listId;
+  @Override
+  public PatientIdSet getPatientIds(String listId, PatientIdDictionary dictionary) {
+    PatientIdSet.Builder patients = PatientIdSet.builder(dictionary);
     try {
-      ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-      return new JSONObject(response.getBody());
+      restTemplate.execute(
+          getFhirUrl() + "/List/" + listId,
+          HttpMethod.GET,
+          restTemplate.httpEntityCallback(new HttpEntity<>(searchHeaders)),
+          response -> {
+            SubjectListJson.subjects(response.getBody(), patients);
+            return null;
+          });
     } catch (HttpClientErrorException e) {
       throw new RuntimeException("HTTP error: " + e.getStatusCode(), e);
     }
+    return patients.build();
   }
 
   public JSONObject getPatientEverything(String patientId) {
@@ -321,62 +344,496 @@ class BlazeFHIRStore implements FHIRStore {
 
   @Override
   public int countResources(String resourceType) {
+    return countResources(resourceType, Map.of());
+  }
+
+  @Override
+  public int countResources(String resourceType, Map<String, String> searchParams) {
+    UriComponentsBuilder uri =
+        UriComponentsBuilder.fromUriString(getFhirUrl())
+            .pathSegment(resourceType)
+            .queryParam("_summary", "count");
+    searchParams.forEach(uri::queryParam);
     try {
-      Bundle bundle =
-          client
-              .search()
-              .forResource(resourceType)
-              .summaryMode(SummaryEnum.COUNT)
-              .returnBundle(Bundle.class)
-              .execute();
-
-      return bundle.getTotal(); // no parsing of entries happens
+      byte[] body = download(restTemplate, uri.encode().build().toUri(), resourceType);
+      return BundleJson.total(body)
+          .orElseThrow(() -> new IllegalStateException("Count response without total"));
     } catch (Exception e) {
-      log.error("Failed to count resources of type: {}", resourceType, e);
+      log.error("Failed to count resources of type: {} {}", resourceType, searchParams, e);
       return -1; // Or throw a custom exception if preferred
     }
   }
 
+  @Override
+  public Optional<Instant> lastUpdated(String resourceType) {
+    return lastUpdated(restTemplate, getFhirUrl(), resourceType, "-_lastUpdated");
+  }
+
+  @Override
+  public Optional<String> findResourceId(String resourceType, Map<String, String> searchParams) {
+    UriComponentsBuilder uri =
+        UriComponentsBuilder.fromUriString(getFhirUrl())
+            .pathSegment(resourceType)
+            .queryParam("_count", 1)
+            .queryParam("_elements", "id");
+    searchParams.forEach(uri::queryParam);
+    return BundleJson.firstId(download(restTemplate, uri.encode().build().toUri(), resourceType));
+  }
+
+  @Override
+  public void deleteResource(String resourceType, String id) {
+    try {
+      restTemplate.delete(getFhirUrl() + "/" + resourceType + "/" + id);
+    } catch (HttpClientErrorException.NotFound | HttpClientErrorException.Gone e) {
+      log.debug("{}/{} was already deleted", resourceType, id);
+    } catch (HttpClientErrorException e) {
+      throw new RuntimeException("HTTP error: " + e.getStatusCode(), e);
+    }
+  }
+
   @Override
   public List<Resource> fetchAllResources(String resourceType, List<String> elements) {
-    List<Resource> resources = new ArrayList<>();
+    try (Stream<Resource> resources = streamAllResources(resourceType, elements)) {
+      return resources.toList();
+    }
+  }
+
+  @Override
+  public Stream<Resource> streamAllResources(String resourceType, List<String> elements) {
+    return SearchChunk.decodeAll(
+        streamChunks(resourceType, elements), resourceType, this::parseChunk);
+  }
+
+  @Override
+  public <T> Stream<T> streamAllResources(
+      String resourceType, List<String> elements, ResourceDecoder<T> decoder) {
+    return SearchChunk.decodeAll(
+        streamChunks(resourceType, elements), resourceType, chunk -> chunk.decode(decoder));
+  }
+
+  /**
+   * Reads all resources of a type from the local projection if delta sync is enabled, and
+   * otherwise downloads them, from a bulk export if enabled and supported by the server and from
+   * a paged search if not.
+   */
+  @Override
+  public Stream<SearchChunk> streamChunks(String resourceType, List<String> elements) {
+    RestTemplate searchTemplate = restTemplate;
+    String baseUrl = getFhirUrl();
+    if (deltaSync.isEnabled()) {
+      return deltaSync.stream(
+          baseUrl, resourceType, elements, remoteReads(searchTemplate, baseUrl));
+    }
+    return download(searchTemplate, baseUrl, resourceType, elements);
+  }
+
+  private Stream<SearchChunk> download(
+      RestTemplate searchTemplate, String baseUrl, String resourceType, List<String> elements) {
+    if (bulkExporter.isEnabled()) {
+      Optional<BulkExporter.Manifest> manifest =
+          bulkExporter.export(
+              searchTemplate,
+              baseUrl,
+              resourceType,
+              elements,
+              link -> resolvePageUri(baseUrl, link));
+      if (manifest.isPresent()) {
+        return streamExport(searchTemplate, manifest.get(), resourceType, elements);
+      }
+    }
+    return scan(searchTemplate, baseUrl, resourceType, elements);
+  }
+
+  /**
+   * Reads all resources of a type with a paged search. If partitioning is enabled, the search is
+   * split into {@code _lastUpdated} windows that are downloaded in parallel.
+   */
+  private Stream<SearchChunk> scan(
+      RestTemplate searchTemplate, String baseUrl, String resourceType, List<String> elements) {
+    List<URI> firstPages =
+        partitions > 1
+            ? partitionPages(searchTemplate, baseUrl, resourceType, elements)
+            : List.of();
+    if (firstPages.size() < 2) {
+      return searchPages(searchTemplate, baseUrl, resourceType, elements, Map.of());
+    }
+    log.info("Scanning {} in {} _lastUpdated partitions", resourceType, firstPages.size());
+    return pages(
+        searchTemplate, baseUrl, firstPages, new SearchStatistics(resourceType, elements));
+  }
+
+  /**
+   * Splits the time between the first and the last update of any resource of a type into windows
+   * of equal length. The first and last window are open-ended, so together the windows cover
+   * every resource exactly once.
+   *
+   * @return the first pages of the partitions, or an empty list if the type cannot be split
+   */
+  private List<URI> partitionPages(
+      RestTemplate searchTemplate, String baseUrl, String resourceType, List<String> elements) {
+    Optional<Instant> first = lastUpdated(searchTemplate, baseUrl, resourceType, "_lastUpdated");
+    Optional<Instant> last = lastUpdated(searchTemplate, baseUrl, resourceType, "-_lastUpdated");
+    if (first.isEmpty() || last.isEmpty()) {
+      log.debug("Cannot partition {} by _lastUpdated, scanning sequentially", resourceType);
+      return List.of();
+    }
+    return windowPages(
+        () -> searchUri(baseUrl, resourceType, elements),
+        partitionBounds(first.get(), last.get(), partitions));
+  }
+
+  /** Adds the bounds of each {@code _lastUpdated} window to a fresh copy of a search. */
+  private static List<URI> windowPages(
+      Supplier<UriComponentsBuilder> search, List<Instant> bounds) {
+    List<URI> firstPages = new ArrayList<>();
+    for (int i = 0; i <= bounds.size(); i++) {
+      UriComponentsBuilder page = search.get();
+      if (i > 0) {
+        page.queryParam("_lastUpdated", "ge" + bounds.get(i - 1));
+      }
+      if (i < bounds.size()) {
+        page.queryParam("_lastUpdated", "lt" + bounds.get(i));
+      }
+      firstPages.add(page.encode().build().toUri());
+    }
+    return firstPages;
+  }
+
+  /**
+   * Reads the first page of IDs of each window like {@link #partitionPages}, with an accurate
+   * total. The pages are downloaded in parallel; the rest of each window is never read.
+   */
+  @Override
+  public List<WindowSample> sampleByLastUpdated(String resourceType, int windows, int count) {
+    RestTemplate searchTemplate = restTemplate;
+    String baseUrl = getFhirUrl();
+    Optional<Instant> first = lastUpdated(searchTemplate, baseUrl, resourceType, "_lastUpdated");
+    Optional<Instant> last = lastUpdated(searchTemplate, baseUrl, resourceType, "-_lastUpdated");
+    List<Instant> bounds =
+        first.isPresent() && last.isPresent()
+            ? partitionBounds(first.get(), last.get(), windows)
+            : List.of();
+    List<URI> firstPages =
+        windowPages(
+            () ->
+                UriComponentsBuilder.fromUriString(baseUrl)
+                    .pathSegment(resourceType)
+                    .queryParam("_count", count)
+                    .queryParam("_elements", "id")
+                    .queryParam("_total", "accurate"),
+            bounds);
+    try (ExecutorService executor =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fhir-sample-", 0).factory())) {
+      List<CompletableFuture<WindowSample>> samples =
+          firstPages.stream()
+              .map(
+                  uri ->
+                      CompletableFuture.supplyAsync(
+                          () -> {
+                            byte[] body = download(searchTemplate, uri, resourceType);
+                            return new WindowSample(
+                                BundleJson.total(body).orElse(-1), BundleJson.ids(body));
+                          },
+                          executor))
+              .toList();
+      return samples.stream().map(CompletableFuture::join).toList();
+    }
+  }
+
+  /**
+   * Returns the inner bounds of {@code count} windows of equal length between two instants, at
+   * millisecond precision and without duplicates.
+   */
+  static List<Instant> partitionBounds(Instant first, Instant last, int count) {
+    long from = first.toEpochMilli();
+    long span = last.toEpochMilli() - from;
+    return LongStream.range(1, count)
+        .map(i -> from + span * i / count)
+        .filter(bound -> bound > from)
+        .distinct()
+        .mapToObj(Instant::ofEpochMilli)
+        .toList();
+  }
+
+  /** Reads the {@code meta.lastUpdated} of the first resource of a type in the given order. */
+  private Optional<Instant> lastUpdated(
+      RestTemplate searchTemplate, String baseUrl, String resourceType, String sort) {
+    URI uri =
+        UriComponentsBuilder.fromUriString(baseUrl)
+            .pathSegment(resourceType)
+            .queryParam("_sort", sort)
+            .queryParam("_count", 1)
+            .queryParam("_elements", "id")
+            .encode()
+            .build()
+            .toUri();
     try {
+      return BundleJson.firstLastUpdated(download(searchTemplate, uri, resourceType));
+    } catch (Exception e) {
+      log.debug("Cannot read the _lastUpdated of {} resources", resourceType, e);
+      return Optional.empty();
+    }
+  }
 
-      Bundle bundle =
-          client
-              .search()
-              .forResource(resourceType)
-              .withAdditionalHeader("Prefer", "handling=lenient") // Request lenient validation
-              .returnBundle(Bundle.class)
-              .execute();
-
-      while (bundle != null) {
-        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-          Resource resource = entry.getResource();
-          if (resource != null) {
-            resources.add(resource);
-          }
-        }
-
-        if (bundle.getLink(Bundle.LINK_NEXT) != null) {
-          String nextUrl = bundle.getLink(Bundle.LINK_NEXT).getUrl();
-          int fhirIndex = nextUrl.indexOf("/fhir");
-          if (fhirIndex != -1) {
-            String suffix = nextUrl.substring(fhirIndex + "/fhir".length());
-            nextUrl = getFhirUrl() + suffix;
-          }
-          bundle = client.loadPage().byUrl(nextUrl).andReturnBundle(Bundle.class).execute();
-        } else {
-          bundle = null;
-        }
+  private DeltaSync.RemoteReads remoteReads(RestTemplate searchTemplate, String baseUrl) {
+    return new DeltaSync.RemoteReads() {
+      @Override
+      public Stream<SearchChunk> search(
+          String resourceType, List<String> elements, Map<String, String> params) {
+        return params.isEmpty()
+            ? download(searchTemplate, baseUrl, resourceType, elements)
+            : searchPages(searchTemplate, baseUrl, resourceType, elements, params);
       }
-      return resources;
+
+      @Override
+      public Stream<SearchChunk> history(String resourceType, Instant since) {
+        URI firstPage =
+            UriComponentsBuilder.fromUriString(baseUrl)
+                .pathSegment(resourceType, "_history")
+                .queryParam("_since", since.toString())
+                .queryParam("_count", pageSize)
+                .encode()
+                .build()
+                .toUri();
+        return pages(
+            searchTemplate,
+            baseUrl,
+            List.of(firstPage),
+            new SearchStatistics(resourceType, List.of()));
+      }
+    };
+  }
+
+  @Override
+  public List<Resource> parseChunk(SearchChunk chunk) {
+    return switch (chunk.format()) {
+      case BUNDLE -> parseEntries(chunk.data());
+      case NDJSON -> parseLines(chunk.data());
+    };
+  }
+
+  /** Runs a paged search, downloading pages ahead on a background thread. */
+  private Stream<SearchChunk> searchPages(
+      RestTemplate searchTemplate,
+      String baseUrl,
+      String resourceType,
+      List<String> elements,
+      Map<String, String> params) {
+    UriComponentsBuilder firstPage = searchUri(baseUrl, resourceType, elements);
+    params.forEach(firstPage::queryParam);
+    return pages(
+        searchTemplate,
+        baseUrl,
+        List.of(firstPage.encode().build().toUri()),
+        new SearchStatistics(resourceType, elements));
+  }
+
+  private UriComponentsBuilder searchUri(
+      String baseUrl, String resourceType, List<String> elements) {
+    return UriComponentsBuilder.fromUriString(baseUrl)
+        .pathSegment(resourceType)
+        .queryParam("_count", pageSize)
+        .queryParamIfPresent(
+            "_elements",
+            Optional.of(elements)
+                .filter(list -> !list.isEmpty())
+                .map(list -> String.join(",", list)));
+  }
+
+  /** Follows the next links of one or more searches, downloading pages ahead in the background. */
+  private Stream<SearchChunk> pages(
+      RestTemplate searchTemplate,
+      String baseUrl,
+      List<URI> firstPages,
+      SearchStatistics statistics) {
+    String resourceType = statistics.getResourceType();
+    Function<URI, byte[]> downloadPage = uri -> download(searchTemplate, uri, resourceType);
+    Function<byte[], Optional<URI>> nextPage =
+        body -> BundleJson.nextLink(body).map(link -> resolvePageUri(baseUrl, link));
+    Prefetcher<byte[]> prefetcher =
+        firstPages.size() == 1
+            ? new PagePrefetcher(
+                firstPages.getFirst(),
+                downloadPage,
+                nextPage,
+                prefetchDepth,
+                "fhir-prefetch-" + resourceType)
+            : new PartitionPrefetcher(
+                firstPages,
+                downloadPage,
+                nextPage,
+                prefetchDepth,
+                "fhir-partition-" + resourceType);
+    return PageIterator.stream(
+            () -> toChunk(prefetcher.take(), statistics),
+            page -> {
+              SearchChunk next = toChunk(prefetcher.take(), statistics);
+              if (next == null) {
+                logStatistics(searchTemplate, baseUrl, statistics);
+              }
+              return next;
+            },
+            (SearchChunk chunk) -> List.of(chunk).iterator())
+        .onClose(prefetcher::close);
+  }
+
+  /** Streams the NDJSON files of a finished bulk export and deletes the export when closed. */
+  private Stream<SearchChunk> streamExport(
+      RestTemplate searchTemplate,
+      BulkExporter.Manifest manifest,
+      String resourceType,
+      List<String> elements) {
+    SearchStatistics statistics = new SearchStatistics(resourceType, elements);
+    NdjsonPrefetcher prefetcher =
+        new NdjsonPrefetcher(
+            manifest.files(),
+            searchTemplate,
+            pageSize,
+            prefetchDepth,
+            "fhir-export-" + resourceType);
+    return PageIterator.stream(
+            () -> record(prefetcher.take(), statistics),
+            batch -> {
+              SearchChunk next = record(prefetcher.take(), statistics);
+              if (next == null) {
+                log.info(
+                    "Exported {} {} resources from {} NDJSON files: {} bytes received",
+                    statistics.getResources(),
+                    resourceType,
+                    manifest.files().size(),
+                    statistics.getBytesReceived());
+              }
+              return next;
+            },
+            (SearchChunk chunk) -> List.of(chunk).iterator())
+        .onClose(
+            () -> {
+              prefetcher.close();
+              bulkExporter.delete(searchTemplate, manifest.status());
+            });
+  }
+
+  /** Points a next link at the configured base URL, in case Blaze runs behind a proxy. */
+  private static URI resolvePageUri(String baseUrl, String nextUrl) {
+    int fhirIndex = nextUrl.indexOf("/fhir");
+    if (fhirIndex != -1) {
+      String suffix = nextUrl.substring(fhirIndex + "/fhir".length());
+      nextUrl = baseUrl + suffix;
+    }
+    return URI.create(nextUrl);
+  }
+
+  private byte[] download(RestTemplate searchTemplate, URI uri, String resourceType) {
+    try {
+      byte[] body =
+          searchTemplate
+              .exchange(uri, HttpMethod.GET, new HttpEntity<>(searchHeaders), byte[].class)
+              .getBody();
+      if (body == null) {
+        throw new IllegalStateException("Empty search response from " + uri);
+      }
+      return body;
     } catch (Exception e) {
       throw new RuntimeException(
           "Error fetching resources of type " + resourceType + ": " + e.getMessage(), e);
     }
   }
 
+  /**
+   * Wraps a downloaded page. Its entries are only counted up front if the unprojected size is
+   * sampled, which extrapolates from the number of resources received.
+   */
+  private SearchChunk toChunk(byte[] body, SearchStatistics statistics) {
+    if (body == null) {
+      return null;
+    }
+    try {
+      SearchChunk chunk = SearchChunk.bundle(body);
+      return record(sampleUnprojectedSize ? chunk.counted() : chunk, statistics);
+    } catch (Exception e) {
+      String resourceType = statistics.getResourceType();
+      throw new RuntimeException(
+          "Error fetching resources of type " + resourceType + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static SearchChunk record(SearchChunk chunk, SearchStatistics statistics) {
+    if (chunk != null) {
+      statistics.recordPage(
+          chunk.data().length, chunk.isCounted() ? chunk.entries() : SearchChunk.UNCOUNTED);
+    }
+    return chunk;
+  }
+
+  private List<Resource> parseEntries(byte[] body) {
+    Bundle page = ctx.newJsonParser().parseResource(Bundle.class, new ByteArrayInputStream(body));
+    return page.getEntry().stream()
+        .map(Bundle.BundleEntryComponent::getResource)
+        .filter(Objects::nonNull)
+        .toList();
+  }
+
+  private List<Resource> parseLines(byte[] ndjson) {
+    IParser parser = ctx.newJsonParser();
+    List<Resource> resources = new ArrayList<>();
+    for (String line : new String(ndjson, StandardCharsets.UTF_8).split("\n")) {
+      if (!line.isBlank()) {
+        resources.add((Resource) parser.parseResource(line));
+      }
+    }
+    return resources;
+  }
+
+  /** Calls the given listener with the statistics of every finished paged search. */
+  void setSearchListener(Consumer<SearchStatistics> searchListener) {
+    this.searchListener = searchListener;
+  }
+
+  private void logStatistics(
+      RestTemplate searchTemplate, String baseUrl, SearchStatistics statistics) {
+    searchListener.accept(statistics);
+    log.info(
+        "Fetched {} pages of {}: {} bytes received with _elements={}",
+        statistics.getPages(),
+        statistics.getResourceType(),
+        statistics.getBytesReceived(),
+        statistics.getElements());
+    if (sampleUnprojectedSize
+        && !statistics.getElements().isEmpty()
+        && statistics.getResources() > 0) {
+      long bytesSaved =
+          statistics.bytesSaved(estimateUnprojectedBytes(searchTemplate, baseUrl, statistics));
+      log.info(
+          "Projection of {} saved about {} bytes",
+          statistics.getResourceType(),
+          bytesSaved < 0 ? "unknown" : bytesSaved);
+    }
+  }
+
+  /**
+   * Estimates the size of the finished search without projection by extrapolating the size of a
+   * small unprojected sample page. This costs an extra request, so it is only made if {@code
+   * fhir.search.sample-unprojected-size} is set.
+   */
+  private long estimateUnprojectedBytes(
+      RestTemplate searchTemplate, String baseUrl, SearchStatistics statistics) {
+    URI sampleUri =
+        UriComponentsBuilder.fromUriString(baseUrl)
+            .pathSegment(statistics.getResourceType())
+            .queryParam("_count", SIZE_SAMPLE_COUNT)
+            .encode()
+            .build()
+            .toUri();
+    try {
+      byte[] body = download(searchTemplate, sampleUri, statistics.getResourceType());
+      int sampled = BundleJson.countEntries(body);
+      return sampled == 0 ? -1 : (long) body.length * statistics.getResources() / sampled;
+    } catch (Exception e) {
+      log.debug("Failed to sample unprojected size of {}", statistics.getResourceType(), e);
+      return -1;
+    }
+  }
+
   public JSONObject checkHealth() {
     JSONObject healthStatus = new JSONObject();
     try {
@@ -391,8 +848,4 @@ class BlazeFHIRStore implements FHIRStore {
     }
     return healthStatus;
   }
-
-  protected IGenericClient getClient() {
-    return client;
-  }
 }
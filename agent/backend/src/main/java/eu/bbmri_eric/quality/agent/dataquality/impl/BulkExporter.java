@@ -0,0 +1,182 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Runs FHIR Bulk Data exports ({@code $export}). An export is started at system level for a single
+ * resource type, its status endpoint is polled until the server reports completion, and the
+ * resulting manifest lists the NDJSON files to download.
+ *
+ * <p>Servers without bulk export support, and exports that fail or time out, are reported as an
+ * empty result so callers can fall back to search paging.
+ */
+@Component
+class BulkExporter {
+  private static final Logger log = LoggerFactory.getLogger(BulkExporter.class);
+  private final boolean enabled;
+  private final Duration pollInterval;
+  private final Duration timeout;
+  private final HttpHeaders kickoffHeaders;
+  private final HttpHeaders statusHeaders;
+
+  BulkExporter(
+      @Value("${fhir.bulk-export.enabled:false}") boolean enabled,
+      @Value("${fhir.bulk-export.poll-interval-seconds:2}") long pollIntervalSeconds,
+      @Value("${fhir.bulk-export.timeout-minutes:60}") long timeoutMinutes) {
+    this.enabled = enabled;
+    this.pollInterval = Duration.ofSeconds(pollIntervalSeconds);
+    this.timeout = Duration.ofMinutes(timeoutMinutes);
+
+    kickoffHeaders = new HttpHeaders();
+    kickoffHeaders.set(HttpHeaders.ACCEPT, "application/fhir+json");
+    kickoffHeaders.set("Prefer", "respond-async");
+
+    statusHeaders = new HttpHeaders();
+    statusHeaders.set(HttpHeaders.ACCEPT, "application/json");
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Exports all resources of a type and waits until the export is complete.
+   *
+   * @param restTemplate client used for all export requests
+   * @param baseUrl base URL of the FHIR server
+   * @param resourceType the resource type to export
+   * @param elements elements to export, all elements if empty
+   * @param resolve resolves URLs returned by the server, e.g. to route them through a proxy
+   * @return the manifest of the finished export, or empty if the server cannot export
+   */
+  Optional<Manifest> export(
+      RestTemplate restTemplate,
+      String baseUrl,
+      String resourceType,
+      List<String> elements,
+      Function<String, URI> resolve) {
+    URI kickoff =
+        UriComponentsBuilder.fromUriString(baseUrl)
+            .pathSegment("$export")
+            .queryParam("_type", resourceType)
+            .queryParamIfPresent(
+                "_elements",
+                Optional.of(elements)
+                    .filter(list -> !list.isEmpty())
+                    .map(list -> String.join(",", list)))
+            .encode()
+            .build()
+            .toUri();
+    URI status;
+    try {
+      ResponseEntity<String> response =
+          restTemplate.exchange(
+              kickoff, HttpMethod.GET, new HttpEntity<>(kickoffHeaders), String.class);
+      String location = response.getHeaders().getFirst(HttpHeaders.CONTENT_LOCATION);
+      if (response.getStatusCode() != HttpStatus.ACCEPTED || location == null) {
+        log.info("FHIR server did not start a bulk export of {}", resourceType);
+        return Optional.empty();
+      }
+      status = resolve.apply(location);
+    } catch (RestClientException e) {
+      log.info("FHIR server does not support bulk export of {}: {}", resourceType, e.getMessage());
+      return Optional.empty();
+    }
+    return awaitManifest(restTemplate, status, resourceType, resolve);
+  }
+
+  /** Tells the server that the files of an export are no longer needed. */
+  void delete(RestTemplate restTemplate, URI status) {
+    try {
+      restTemplate.delete(status);
+    } catch (RestClientException e) {
+      log.debug("Failed to delete bulk export {}", status, e);
+    }
+  }
+
+  private Optional<Manifest> awaitManifest(
+      RestTemplate restTemplate, URI status, String resourceType, Function<String, URI> resolve) {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    try {
+      while (true) {
+        ResponseEntity<String> response =
+            restTemplate.exchange(
+                status, HttpMethod.GET, new HttpEntity<>(statusHeaders), String.class);
+        if (response.getStatusCode() == HttpStatus.OK) {
+          return Optional.of(
+              new Manifest(status, outputFiles(response.getBody(), resourceType, resolve)));
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          log.warn("Bulk export of {} timed out after {}", resourceType, timeout);
+          delete(restTemplate, status);
+          return Optional.empty();
+        }
+        Duration wait = retryAfter(response.getHeaders());
+        Thread.sleep(Math.min(wait.toMillis(), Duration.ofNanos(remaining).toMillis()));
+      }
+    } catch (RestClientException e) {
+      log.warn("Bulk export of {} failed: {}", resourceType, e.getMessage());
+      return Optional.empty();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      delete(restTemplate, status);
+      throw new IllegalStateException("Interrupted while waiting for bulk export", e);
+    }
+  }
+
+  private Duration retryAfter(HttpHeaders headers) {
+    String retryAfter = headers.getFirst(HttpHeaders.RETRY_AFTER);
+    if (retryAfter != null) {
+      try {
+        return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+      } catch (NumberFormatException e) {
+        log.debug("Ignoring non-numeric Retry-After: {}", retryAfter);
+      }
+    }
+    return pollInterval;
+  }
+
+  private static List<URI> outputFiles(
+      String manifest, String resourceType, Function<String, URI> resolve) {
+    List<URI> files = new ArrayList<>();
+    JSONArray output = new JSONObject(manifest).optJSONArray("output");
+    if (output == null) {
+      return files;
+    }
+    for (int i = 0; i < output.length(); i++) {
+      JSONObject file = output.getJSONObject(i);
+      if (resourceType.equals(file.optString("type")) && file.has("url")) {
+        files.add(resolve.apply(file.getString("url")));
+      }
+    }
+    return files;
+  }
+
+  /**
+   * The result of a finished export.
+   *
+   * @param status the status endpoint, used to delete the export when it has been read
+   * @param files the NDJSON files holding the exported resources
+   */
+  record Manifest(URI status, List<URI> files) {}
+}
@@ -0,0 +1,325 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceDecoder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Low-level helpers for reading FHIR search Bundles and NDJSON with the Jackson streaming parser.
+ */
+final class BundleJson {
+  static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private BundleJson() {}
+
+  /**
+   * Extracts the URL of the {@code next} link of a search Bundle without building an object model.
+   * Blaze serializes {@code link} before {@code entry}, so usually only the first few hundred bytes
+   * of the page are read.
+   *
+   * @param body the raw JSON of the Bundle
+   * @return the URL of the next page, or empty if this is the last page
+   */
+  static Optional<String> nextLink(byte[] body) {
+    try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return Optional.empty();
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        if ("link".equals(field)) {
+          return readNextLink(parser);
+        }
+        parser.skipChildren();
+      }
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Malformed search Bundle", e);
+    }
+  }
+
+  /**
+   * Reads the {@code total} of a search Bundle, e.g. the response to a {@code _summary=count}
+   * search.
+   *
+   * @param body the raw JSON of the Bundle
+   * @return the total number of matches, or empty if the server did not report it
+   */
+  static Optional<Integer> total(byte[] body) {
+    try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return Optional.empty();
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("total".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+          return Optional.of(parser.getIntValue());
+        }
+        parser.skipChildren();
+      }
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Malformed search Bundle", e);
+    }
+  }
+
+  /**
+   * Reads {@code meta.lastUpdated} of the first resource of a search Bundle.
+   *
+   * @param body the raw JSON of the Bundle
+   * @return the last update of the first resource, or empty if the Bundle has no entries or the
+   *     resource has no {@code meta.lastUpdated}
+   */
+  static Optional<Instant> firstLastUpdated(byte[] body) {
+    return decodeEntries(body, BundleJson::readLastUpdated).stream()
+        .findFirst()
+        .flatMap(lastUpdated -> lastUpdated);
+  }
+
+  /**
+   * Reads the logical ID of the first resource of a search Bundle.
+   *
+   * @param body the raw JSON of the Bundle
+   * @return the ID of the first resource, or empty if the Bundle has no entries
+   */
+  static Optional<String> firstId(byte[] body) {
+    return decodeEntries(body, BundleJson::readId).stream().findFirst();
+  }
+
+  /**
+   * Reads the logical IDs of the resources of a search Bundle.
+   *
+   * @param body the raw JSON of the Bundle
+   * @return the IDs of all resources, in the order of the entries
+   */
+  static List<String> ids(byte[] body) {
+    return decodeEntries(body, BundleJson::readId);
+  }
+
+  /**
+   * Decodes the resources of a search Bundle with the given decoder. Only the compact records are
+   * kept; everything else in the Bundle is skipped without being materialized.
+   *
+   * @param body the raw JSON of the Bundle
+   * @param decoder decodes a single resource
+   * @return the decoded records of all entries the decoder did not skip
+   */
+  static <T> List<T> decodeEntries(byte[] body, ResourceDecoder<T> decoder) {
+    List<T> resources = new ArrayList<>();
+    try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return resources;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("entry".equals(field) && value == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            decodeEntry(parser, decoder, resources);
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return resources;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Malformed search Bundle", e);
+    }
+  }
+
+  /**
+   * Counts the entries of a search Bundle, skipping their content.
+   *
+   * @param body the raw JSON of the Bundle
+   * @return the number of entries with a resource
+   */
+  static int countEntries(byte[] body) {
+    return decodeEntries(
+            body,
+            parser -> {
+              parser.skipChildren();
+              return Boolean.TRUE;
+            })
+        .size();
+  }
+
+  /**
+   * Decodes the resources of an NDJSON block holding one serialized resource per line, e.g. a part
+   * of a bulk export file.
+   *
+   * @param ndjson the raw NDJSON bytes
+   * @param decoder decodes a single resource
+   * @return the decoded records of all lines the decoder did not skip
+   */
+  static <T> List<T> decodeLines(byte[] ndjson, ResourceDecoder<T> decoder) {
+    List<T> resources = new ArrayList<>();
+    int start = 0;
+    while (start < ndjson.length) {
+      int end = start;
+      while (end < ndjson.length && ndjson[end] != '\n') {
+        end++;
+      }
+      if (end > start) {
+        try (JsonParser parser = JSON_FACTORY.createParser(ndjson, start, end - start)) {
+          if (parser.nextToken() == JsonToken.START_OBJECT) {
+            T resource = decoder.decode(parser);
+            if (resource != null) {
+              resources.add(resource);
+            }
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException("Malformed NDJSON resource", e);
+        }
+      }
+      start = end + 1;
+    }
+    return resources;
+  }
+
+  /**
+   * Extracts the logical IDs of the deleted resources of a history Bundle page.
+   *
+   * @param body the raw JSON of the history Bundle
+   * @return the IDs of all entries recording a {@code DELETE}
+   */
+  static List<String> deletedIds(byte[] body) {
+    List<String> ids = new ArrayList<>();
+    try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return ids;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("entry".equals(field) && value == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            readDeletedId(parser).ifPresent(ids::add);
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return ids;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Malformed history Bundle", e);
+    }
+  }
+
+  private static <T> void decodeEntry(JsonParser parser, ResourceDecoder<T> decoder, List<T> sink)
+      throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("resource".equals(field) && value == JsonToken.START_OBJECT) {
+        T resource = decoder.decode(parser);
+        if (resource != null) {
+          sink.add(resource);
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private static String readId(JsonParser parser) throws IOException {
+    String id = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      if ("id".equals(field)) {
+        id = parser.getValueAsString();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return id;
+  }
+
+  private static Optional<Instant> readLastUpdated(JsonParser parser) throws IOException {
+    Optional<Instant> lastUpdated = Optional.empty();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("meta".equals(field) && value == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String metaField = parser.currentName();
+          parser.nextToken();
+          if ("lastUpdated".equals(metaField)) {
+            lastUpdated = Optional.of(Instant.parse(parser.getValueAsString()));
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return lastUpdated;
+  }
+
+  /** Reads a history entry, returning the resource ID if the entry records a deletion. */
+  private static Optional<String> readDeletedId(JsonParser parser) throws IOException {
+    String method = null;
+    String url = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("request".equals(field) && value == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String requestField = parser.currentName();
+          parser.nextToken();
+          if ("method".equals(requestField)) {
+            method = parser.getValueAsString();
+          } else if ("url".equals(requestField)) {
+            url = parser.getValueAsString();
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (!"DELETE".equals(method) || url == null) {
+      return Optional.empty();
+    }
+    // Patient/123 or Patient/123/_history/2
+    String[] segments = url.split("/");
+    return segments.length > 1 ? Optional.of(segments[1]) : Optional.empty();
+  }
+
+  private static Optional<String> readNextLink(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return Optional.empty();
+    }
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      String relation = null;
+      String url = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        if ("relation".equals(field)) {
+          relation = parser.getValueAsString();
+        } else if ("url".equals(field)) {
+          url = parser.getValueAsString();
+        } else {
+          parser.skipChildren();
+        }
+      }
+      if ("next".equals(relation) && url != null) {
+        return Optional.of(url);
+      }
+    }
+    return Optional.empty();
+  }
+}
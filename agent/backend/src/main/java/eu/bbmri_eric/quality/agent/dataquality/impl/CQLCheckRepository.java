@@ -3,9 +3,13 @@ package eu.bbmri_eric.quality.agent.dataquality.impl;
 import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 @RepositoryRestResource(
     itemResourceRel = "cqlCheck",
     collectionResourceRel = "cqlChecks",
     path = "cql-queries")
-interface CQLCheckRepository extends JpaRepository<CQLQuery, Long> {}
+interface CQLCheckRepository extends JpaRepository<CQLQuery, Long> {
+  @RestResource(exported = false)
+  boolean existsByQuery(String query);
+}
@@ -0,0 +1,120 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQueryBatch;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Deletes the Library and Measure of a CQL query from the FHIR server once no check uses the query
+ * any more, i.e. after the query of a check was changed or the check was deleted. Failing to
+ * delete them does not fail the change; the resources are then left on the server.
+ *
+ * <p>With batched evaluation enabled, the merged Library and Measure of a batch are deleted in the
+ * same way once the checks no longer form that batch.
+ */
+@Component
+@RepositoryEventHandler
+class CQLResourceCollector {
+  private static final Logger log = LoggerFactory.getLogger(CQLResourceCollector.class);
+  private final CQLCheckRepository repository;
+  private final FHIRStore fhirStore;
+  private final boolean cqlBatch;
+
+  CQLResourceCollector(
+      CQLCheckRepository repository,
+      FHIRStore fhirStore,
+      @Value("${checks.cql-batch:false}") boolean cqlBatch) {
+    this.repository = repository;
+    this.fhirStore = fhirStore;
+    this.cqlBatch = cqlBatch;
+  }
+
+  @HandleAfterSave
+  public void onAfterSave(CQLQuery check) {
+    check
+        .persistedQuery()
+        .filter(previous -> !previous.equals(check.getQuery()))
+        .ifPresent(
+            previous -> {
+              collect(previous);
+              if (cqlBatch) {
+                List<CQLQuery> before = new ArrayList<>();
+                for (CQLQuery current : repository.findAll()) {
+                  before.add(
+                      Objects.equals(current.getId(), check.getId())
+                          ? new CQLQuery(
+                              check.getId(), check.getName(), check.getDescription(), previous)
+                          : current);
+                }
+                collectBatches(before);
+              }
+            });
+  }
+
+  @HandleAfterDelete
+  public void onAfterDelete(CQLQuery check) {
+    collect(check.getQuery());
+    if (cqlBatch) {
+      List<CQLQuery> before = new ArrayList<>(repository.findAll());
+      before.add(check);
+      collectBatches(before);
+    }
+  }
+
+  void collect(String query) {
+    if (query == null || repository.existsByQuery(query)) {
+      return;
+    }
+    deleteResources(query);
+  }
+
+  /**
+   * Deletes the resources of the batches the given checks formed, unless the current checks still
+   * form the same batch.
+   *
+   * @param before the checks as they were before the change
+   */
+  void collectBatches(List<CQLQuery> before) {
+    Set<String> current =
+        CQLQueryBatch.plan(repository.findAll()).stream()
+            .map(CQLQueryBatch::getCql)
+            .collect(Collectors.toSet());
+    CQLQueryBatch.plan(before).stream()
+        .map(CQLQueryBatch::getCql)
+        .filter(cql -> !current.contains(cql))
+        .forEach(this::deleteResources);
+  }
+
+  private void deleteResources(String cql) {
+    try {
+      // the Measure first, as it references the Library
+      delete("Measure", CQLQuery.measureUrl(cql));
+      delete("Library", CQLQuery.libraryUrl(cql));
+    } catch (RuntimeException e) {
+      log.warn("Failed to delete the FHIR resources of a removed CQL query: {}", e.getMessage());
+    }
+  }
+
+  private void delete(String resourceType, String url) {
+    fhirStore
+        .findResourceId(resourceType, Map.of("url", url))
+        .ifPresent(
+            id -> {
+              fhirStore.deleteResource(resourceType, id);
+              log.info("Deleted unused {}/{} ({})", resourceType, id, url);
+            });
+  }
+}
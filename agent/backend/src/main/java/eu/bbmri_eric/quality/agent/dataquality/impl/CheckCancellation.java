@@ -0,0 +1,203 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Cancels the running checks of a report, or of one task of it. While a task runs {@link
+ * #runWith with} a cancellation, it applies to all FHIR requests sent by the thread running the
+ * task and by the threads that thread starts. Cancelling interrupts the threads waiting for a
+ * response, which closes their connections, closes the responses still being read, and fails every
+ * later request right away, so that a check stops at its next request to the FHIR server. Work
+ * that sends no requests, such as reading a snapshot held locally, calls {@link
+ * #throwIfCancelled()} between resources instead.
+ */
+final class CheckCancellation {
+  private static final InheritableThreadLocal<CheckCancellation> CURRENT =
+      new InheritableThreadLocal<>();
+
+  private final AtomicReference<String> reason = new AtomicReference<>();
+  private final Set<Thread> waiting = ConcurrentHashMap.newKeySet();
+  private final Set<AutoCloseable> responses = ConcurrentHashMap.newKeySet();
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  /** An FHIR request that can be aborted by interrupting the thread sending it. */
+  @FunctionalInterface
+  interface Request<T> {
+    T send() throws IOException;
+  }
+
+  /**
+   * Returns the cancellation of the task running on the current thread.
+   *
+   * @return the cancellation, or {@code null} outside of a task
+   */
+  static CheckCancellation current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Runs a task with the given cancellation applying to its FHIR requests.
+   *
+   * @param cancellation the cancellation of the task
+   * @param task the task to run
+   * @return the result of the task
+   */
+  static <T> T runWith(CheckCancellation cancellation, Supplier<T> task) {
+    CheckCancellation previous = CURRENT.get();
+    CURRENT.set(cancellation);
+    try {
+      return task.get();
+    } finally {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * Stops the task running on the current thread if it is cancelled, for work between FHIR
+   * requests.
+   *
+   * @param cancellation the cancellation of the task, or {@code null} outside of a task
+   * @throws CancellationException if the task is cancelled
+   */
+  static void throwIfCancelled(CheckCancellation cancellation) {
+    if (cancellation != null && cancellation.isCancelled()) {
+      throw new CancellationException("Cancelled: " + cancellation.reason());
+    }
+  }
+
+  /**
+   * Stops the task running on the current thread if it is cancelled.
+   *
+   * @throws CancellationException if the task is cancelled
+   */
+  static void throwIfCancelled() {
+    throwIfCancelled(CURRENT.get());
+  }
+
+  /**
+   * Creates a cancellation that is cancelled together with this one, for one task of a report.
+   *
+   * @return the new cancellation
+   */
+  CheckCancellation child() {
+    CheckCancellation child = new CheckCancellation();
+    onCancel(() -> child.cancel(reason()));
+    return child;
+  }
+
+  /**
+   * Runs the given action once this is cancelled, or right away if it already is.
+   *
+   * @param listener the action to run
+   */
+  void onCancel(Runnable listener) {
+    listeners.add(listener);
+    if (isCancelled() && listeners.remove(listener)) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Cancels the requests in flight and all later ones. Only the first call has an effect.
+   *
+   * @param reason why the checks are cancelled, reported as their error
+   */
+  void cancel(String reason) {
+    if (!this.reason.compareAndSet(null, reason)) {
+      return;
+    }
+    waiting.forEach(Thread::interrupt);
+    responses.forEach(CheckCancellation::closeQuietly);
+    for (Runnable listener : listeners) {
+      if (listeners.remove(listener)) {
+        listener.run();
+      }
+    }
+  }
+
+  boolean isCancelled() {
+    return reason.get() != null;
+  }
+
+  /**
+   * Returns why the checks were cancelled.
+   *
+   * @return the reason, or {@code null} if not cancelled
+   */
+  String reason() {
+    return reason.get();
+  }
+
+  /**
+   * Sends a request, interrupting the current thread if this is cancelled before the response
+   * arrives.
+   *
+   * @param uri the URI of the request, for the error message
+   * @param request sends the request
+   * @return the response
+   * @throws InterruptedIOException if this is cancelled before or while sending the request
+   */
+  <T> T send(URI uri, Request<T> request) throws IOException {
+    Thread thread = Thread.currentThread();
+    waiting.add(thread);
+    try {
+      throwIfCancelled(uri);
+      return request.send();
+    } catch (IOException e) {
+      if (isCancelled()) {
+        InterruptedIOException cancelled = cancelled(uri);
+        cancelled.initCause(e);
+        throw cancelled;
+      }
+      throw e;
+    } finally {
+      waiting.remove(thread);
+      if (isCancelled()) {
+        // the interrupt was meant for the request only
+        Thread.interrupted();
+      }
+    }
+  }
+
+  /**
+   * Closes the given response when this is cancelled, unless it was {@link #untrack untracked}
+   * before.
+   */
+  void track(AutoCloseable response) {
+    responses.add(response);
+    if (isCancelled() && responses.remove(response)) {
+      closeQuietly(response);
+    }
+  }
+
+  void untrack(AutoCloseable response) {
+    responses.remove(response);
+  }
+
+  private void throwIfCancelled(URI uri) throws InterruptedIOException {
+    if (isCancelled()) {
+      throw cancelled(uri);
+    }
+  }
+
+  private InterruptedIOException cancelled(URI uri) {
+    return new InterruptedIOException("Request to " + uri + " cancelled: " + reason());
+  }
+
+  private static void closeQuietly(AutoCloseable response) {
+    try {
+      response.close();
+    } catch (Exception e) {
+      // the response is abandoned either way
+    }
+  }
+}
@@ -0,0 +1,300 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The downloaded chunks of one resource type and element projection. The first read downloads all
+ * chunks; later reads are served locally. Chunks are kept in memory while the shared memory budget
+ * allows and spilled to a temporary file once it is exhausted. If spilling fails, the snapshot is
+ * dropped and every read downloads the resources again. Closing the snapshot while streams of it
+ * are still open deletes its spill file once the last of them is closed.
+ */
+class ChunkSnapshot implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(ChunkSnapshot.class);
+  private static final SearchChunk.Format[] FORMATS = SearchChunk.Format.values();
+
+  private final String resourceType;
+  private final AtomicLong memoryUsed;
+  private final long memoryLimit;
+  private final List<SearchChunk> inMemory = new ArrayList<>();
+  private long inMemoryBytes;
+  private Path spillFile;
+  private DataOutputStream spillOut;
+  private int spilledChunks;
+  private boolean filled;
+  /** The fill of the first read, {@code null} unless it is running. */
+  private CompletableFuture<Void> filling;
+  private boolean uncacheable;
+  private int openStreams;
+
+  /**
+   * @param resourceType the resource type, used for logging
+   * @param memoryUsed bytes of chunks held in memory, shared by all snapshots of a report
+   * @param memoryLimit maximum number of bytes all snapshots of a report may hold in memory
+   */
+  ChunkSnapshot(String resourceType, AtomicLong memoryUsed, long memoryLimit) {
+    this.resourceType = resourceType;
+    this.memoryUsed = memoryUsed;
+    this.memoryLimit = memoryLimit;
+  }
+
+  /**
+   * Streams the chunks of this snapshot, downloading them first if this is the first read.
+   * Concurrent first reads wait for a single download, unless the task of a waiting read is
+   * cancelled. If the download fails, the next waiting read downloads again.
+   *
+   * @param download downloads the chunks from the FHIR store
+   * @return the chunks in download order, to be closed after reading
+   * @throws CancellationException if the task of this read is cancelled while it waits for the
+   *     download of another read
+   */
+  Stream<SearchChunk> stream(Supplier<Stream<SearchChunk>> download) {
+    while (true) {
+      CompletableFuture<Void> pending;
+      synchronized (this) {
+        if (uncacheable) {
+          break;
+        }
+        if (filled) {
+          return streamLocal();
+        }
+        pending = filling;
+        if (pending == null) {
+          filling = new CompletableFuture<>();
+        }
+      }
+      if (pending == null) {
+        fill(download);
+      } else {
+        await(pending);
+      }
+    }
+    return download.get();
+  }
+
+  @Override
+  public synchronized void close() {
+    uncacheable = true;
+    // a running fill discards the snapshot once it is done
+    if (openStreams == 0 && filling == null) {
+      discard();
+    }
+  }
+
+  private synchronized Stream<SearchChunk> streamLocal() {
+    // a copy, as closing the snapshot clears the chunks in memory while they may still be read
+    Stream<SearchChunk> chunks = Stream.concat(List.copyOf(inMemory).stream(), readSpilled());
+    openStreams++;
+    AtomicBoolean open = new AtomicBoolean(true);
+    return chunks.onClose(
+        () -> {
+          if (open.getAndSet(false)) {
+            release();
+          }
+        });
+  }
+
+  private synchronized void release() {
+    openStreams--;
+    if (openStreams == 0 && uncacheable) {
+      discard();
+    }
+  }
+
+  /**
+   * Waits for the download of another read. The wait is on a copy of its future, so that
+   * cancelling the task of this read wakes only this read.
+   */
+  private void await(CompletableFuture<Void> pending) {
+    CheckCancellation cancellation = CheckCancellation.current();
+    CompletableFuture<Void> done = pending.copy();
+    if (cancellation != null) {
+      cancellation.onCancel(() -> done.cancel(false));
+    }
+    try {
+      done.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for " + resourceType);
+    } catch (CancellationException | ExecutionException e) {
+      // the fills never fail their future, so this read was cancelled, which is checked below
+    }
+    CheckCancellation.throwIfCancelled(cancellation);
+  }
+
+  /** Downloads all chunks, without holding the lock, so that waiting reads can be cancelled. */
+  private void fill(Supplier<Stream<SearchChunk>> download) {
+    try (Stream<SearchChunk> chunks = download.get()) {
+      chunks.forEachOrdered(this::keep);
+      finishSpill();
+      log.debug(
+          "Snapshot of {}: {} chunks ({} bytes) in memory, {} chunks spilled to disk",
+          resourceType,
+          inMemory.size(),
+          inMemoryBytes,
+          spilledChunks);
+      finishFill(true);
+    } catch (SpillException e) {
+      log.warn(
+          "Failed to spill snapshot of {} to disk, resources will be re-fetched: {}",
+          resourceType,
+          e.getMessage());
+      synchronized (this) {
+        uncacheable = true;
+      }
+      finishFill(false);
+    } catch (RuntimeException | Error e) {
+      finishFill(false);
+      throw e;
+    }
+  }
+
+  /** Keeps or discards the chunks of a fill and wakes the reads waiting for it. */
+  private synchronized void finishFill(boolean complete) {
+    if (complete && !uncacheable) {
+      filled = true;
+    } else {
+      discard();
+    }
+    filling.complete(null);
+    filling = null;
+  }
+
+  private void keep(SearchChunk chunk) {
+    int size = chunk.data().length;
+    if (spillOut == null && reserve(size)) {
+      inMemory.add(chunk);
+      inMemoryBytes += size;
+      return;
+    }
+    try {
+      if (spillOut == null) {
+        spillFile = Files.createTempFile("fhir-snapshot-", ".bin");
+        spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+      }
+      spillOut.writeByte(chunk.format().ordinal());
+      spillOut.writeInt(chunk.entries());
+      spillOut.writeInt(size);
+      spillOut.write(chunk.data());
+      spilledChunks++;
+    } catch (IOException e) {
+      throw new SpillException(e);
+    }
+  }
+
+  private boolean reserve(long bytes) {
+    if (memoryUsed.addAndGet(bytes) > memoryLimit) {
+      memoryUsed.addAndGet(-bytes);
+      return false;
+    }
+    return true;
+  }
+
+  private void finishSpill() {
+    if (spillOut != null) {
+      try {
+        spillOut.close();
+      } catch (IOException e) {
+        throw new SpillException(e);
+      }
+    }
+  }
+
+  private Stream<SearchChunk> readSpilled() {
+    if (spillFile == null) {
+      return Stream.empty();
+    }
+    DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read snapshot of " + resourceType, e);
+    }
+    Iterator<SearchChunk> chunks =
+        new Iterator<>() {
+          private int remaining = spilledChunks;
+
+          @Override
+          public boolean hasNext() {
+            return remaining > 0;
+          }
+
+          @Override
+          public SearchChunk next() {
+            if (remaining == 0) {
+              throw new NoSuchElementException();
+            }
+            remaining--;
+            try {
+              SearchChunk.Format format = FORMATS[in.readByte()];
+              int entries = in.readInt();
+              byte[] data = in.readNBytes(in.readInt());
+              return new SearchChunk(format, data, entries);
+            } catch (IOException e) {
+              throw new UncheckedIOException("Failed to read snapshot of " + resourceType, e);
+            }
+          }
+        };
+    return StreamSupport.stream(
+            Spliterators.spliterator(
+                chunks, spilledChunks, Spliterator.ORDERED | Spliterator.NONNULL),
+            false)
+        .onClose(
+            () -> {
+              try {
+                in.close();
+              } catch (IOException e) {
+                log.debug("Failed to close snapshot of {}", resourceType, e);
+              }
+            });
+  }
+
+  private void discard() {
+    memoryUsed.addAndGet(-inMemoryBytes);
+    inMemory.clear();
+    inMemoryBytes = 0;
+    try {
+      if (spillOut != null) {
+        spillOut.close();
+      }
+      if (spillFile != null) {
+        Files.deleteIfExists(spillFile);
+      }
+    } catch (IOException e) {
+      log.warn("Failed to delete snapshot file {}", spillFile, e);
+    }
+    spillOut = null;
+    spillFile = null;
+    spilledChunks = 0;
+    filled = false;
+  }
+
+  private static class SpillException extends UncheckedIOException {
+    SpillException(IOException cause) {
+      super(cause.getMessage(), cause);
+    }
+  }
+}
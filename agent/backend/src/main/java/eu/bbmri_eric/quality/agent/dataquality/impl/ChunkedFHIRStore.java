@@ -0,0 +1,52 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import java.util.List;
+import java.util.stream.Stream;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * A {@link FHIRStore} whose resource streams can be split into downloading raw chunks and decoding
+ * them, so downloaded data can be kept and decoded again later.
+ */
+interface ChunkedFHIRStore extends FHIRStore {
+
+  /**
+   * Downloads all resources of a given type as raw chunks, see {@link
+   * FHIRStore#streamAllResources(String, List)}.
+   *
+   * @return a lazily populated, sequential stream of raw chunks
+   */
+  Stream<SearchChunk> streamChunks(String resourceType, List<String> elements);
+
+  /**
+   * Parses the resources of a raw chunk into FHIR resource objects.
+   *
+   * @return the resources of the chunk
+   */
+  List<Resource> parseChunk(SearchChunk chunk);
+
+  /**
+   * Splits the resources of a type into {@code _lastUpdated} windows of equal length and reads
+   * only the first page of IDs of every window, along with the number of resources in it.
+   *
+   * @param resourceType the type of the resources
+   * @param windows the number of windows to split into, at most
+   * @param count the number of IDs to read per window, at most
+   * @return one sample per window, a single one if the type cannot be split
+   */
+  List<WindowSample> sampleByLastUpdated(String resourceType, int windows, int count);
+
+  /**
+   * The first page of a {@code _lastUpdated} window.
+   *
+   * @param total the number of resources in the window, or -1 if the server did not report it
+   * @param ids the logical IDs of the resources on the first page
+   */
+  record WindowSample(int total, List<String> ids) {
+
+    public WindowSample {
+      ids = List.copyOf(ids);
+    }
+  }
+}
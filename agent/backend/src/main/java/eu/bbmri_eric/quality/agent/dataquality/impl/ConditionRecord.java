@@ -0,0 +1,112 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceScan;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact projection of a FHIR Condition holding only the fields read by the built-in checks.
+ *
+ * @param id the logical ID of the condition
+ * @param subject the subject reference, e.g. {@code Patient/123}, or {@code null} if absent
+ * @param codings the codings of {@code Condition.code}
+ */
+record ConditionRecord(String id, String subject, List<Coding> codings) {
+
+  /** The elements read by {@link #decode}. */
+  static final List<String> ELEMENTS = List.of("id", "code", "subject");
+
+  /** The scan of all conditions, shared by the built-in checks that read conditions. */
+  static final ResourceScan<ConditionRecord> SCAN =
+      new ResourceScan<>("Condition", ELEMENTS, ConditionRecord::decode);
+
+  /**
+   * Compact projection of a FHIR Coding.
+   *
+   * @param system the code system URI
+   * @param code the code
+   */
+  record Coding(String system, String code) {}
+
+  /**
+   * Decodes a Condition from the streaming parser, see {@link
+   * eu.bbmri_eric.quality.agent.dataquality.ResourceDecoder}.
+   *
+   * @return the decoded condition, or {@code null} if the resource is not a Condition
+   */
+  static ConditionRecord decode(JsonParser parser) throws IOException {
+    String resourceType = null;
+    String id = null;
+    String subject = null;
+    List<Coding> codings = List.of();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      switch (field) {
+        case "resourceType" -> resourceType = parser.getText();
+        case "id" -> id = parser.getText();
+        case "subject" -> subject = decodeReference(parser);
+        case "code" -> codings = decodeCodings(parser);
+        default -> parser.skipChildren();
+      }
+    }
+    return "Condition".equals(resourceType) ? new ConditionRecord(id, subject, codings) : null;
+  }
+
+  private static String decodeReference(JsonParser parser) throws IOException {
+    String reference = null;
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      if ("reference".equals(field)) {
+        reference = parser.getText();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return reference;
+  }
+
+  private static List<Coding> decodeCodings(JsonParser parser) throws IOException {
+    List<Coding> codings = List.of();
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return codings;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("coding".equals(field) && value == JsonToken.START_ARRAY) {
+        codings = new ArrayList<>(1);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          codings.add(decodeCoding(parser));
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return codings;
+  }
+
+  private static Coding decodeCoding(JsonParser parser) throws IOException {
+    String system = null;
+    String code = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      switch (field) {
+        case "system" -> system = parser.getText();
+        case "code" -> code = parser.getText();
+        default -> parser.skipChildren();
+      }
+    }
+    return new Coding(system, code);
+  }
+}
@@ -2,79 +2,376 @@ package eu.bbmri_eric.quality.agent.dataquality.impl;
 
 import eu.bbmri_eric.quality.agent.common.EventPublisher;
 import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceVisitor;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
 import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
+import eu.bbmri_eric.quality.agent.dataquality.domain.ReportStatus;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
 import eu.bbmri_eric.quality.agent.dataquality.event.DQCheckResultsGatheredEvent;
 import eu.bbmri_eric.quality.agent.dataquality.event.DataQualityCheckResultEvent;
 import eu.bbmri_eric.quality.agent.dataquality.event.NewReportEvent;
+import eu.bbmri_eric.quality.agent.dataquality.event.ReportCancelledEvent;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+/**
+ * Runs all data quality checks of a report, following the plan of the {@link ExecutionPlanner}.
+ * Up to {@code checks.parallelism} tasks of the plan run at the same time, each on its own virtual
+ * thread, while the results of the checks are published in the order of the checks. The gathered
+ * event is published once every check has finished.
+ *
+ * <p>Checks offering a {@link ResourceVisitor} are not executed one by one: all visitors of the
+ * same {@link eu.bbmri_eric.quality.agent.dataquality.ResourceScan} are fed from a single pass.
+ *
+ * <p>A task running longer than the timeout of its checks, {@code checks.timeout-seconds} unless a
+ * check sets its own, is cancelled through its {@link CheckCancellation}: its checks get a timeout
+ * error and the report goes on with the others. A cancelled report publishes no further results.
+ */
 @Component
 class DataQualityChecksRunner {
 
   private static final Logger log = LoggerFactory.getLogger(DataQualityChecksRunner.class);
-  private final CQLCheckRepository repository;
+  /** The key of the single result of a check without strata. */
+  private static final String UNSTRATIFIED = "";
+
+  private static final ExecutorService EXECUTOR =
+      Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("dq-check-", 0).factory());
+  private static final ScheduledThreadPoolExecutor TIMEOUTS = timeoutScheduler();
+  private final ExecutionPlanner planner;
   private final EventPublisher eventPublisher;
-  private final FHIRStore fhirStore;
+  private final ResourceSnapshotCache snapshotCache;
+  private final ResultMemo resultMemo;
+  private final ReportRepository reportRepository;
+  private final Semaphore permits;
+  private final int timeoutSeconds;
+  private final Map<Long, CheckCancellation> runningReports = new ConcurrentHashMap<>();
 
   DataQualityChecksRunner(
-      CQLCheckRepository repository, EventPublisher eventPublisher, FHIRStore fhirStore) {
-    this.repository = repository;
+      ExecutionPlanner planner,
+      EventPublisher eventPublisher,
+      ResourceSnapshotCache snapshotCache,
+      ResultMemo resultMemo,
+      ReportRepository reportRepository,
+      @Value("${checks.parallelism:4}") int parallelism,
+      @Value("${checks.timeout-seconds:1800}") int timeoutSeconds) {
+    this.planner = planner;
     this.eventPublisher = eventPublisher;
-    this.fhirStore = fhirStore;
+    this.snapshotCache = snapshotCache;
+    this.resultMemo = resultMemo;
+    this.reportRepository = reportRepository;
+    // fair, so that tasks start in the order they were submitted
+    this.permits = new Semaphore(Math.max(1, parallelism), true);
+    this.timeoutSeconds = timeoutSeconds;
   }
 
-  @EventListener
+  private static ScheduledThreadPoolExecutor timeoutScheduler() {
+    ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor(
+            1, Thread.ofPlatform().name("dq-check-timeout").daemon().factory());
+    // do not keep the results of finished tasks until their timeout would have expired
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
+  /** Runs the checks of a report, on the {@link ReportQueue} worker that claimed it. */
   void onNewReport(NewReportEvent event) {
     log.info("New report received: {} | Running Quality Checks...", event.getReportId());
-    List<DataQualityCheck> dataQualityChecks =
-        new ArrayList<>(repository.findAll().stream().map(DataQualityCheck.class::cast).toList());
-    dataQualityChecks.add(new DuplicateIdentifierCheck());
-    dataQualityChecks.add(new SurvivalRateCheck());
-    dataQualityChecks.add(new InvalidConditionICDCheck());
-    for (DataQualityCheck dataQualityCheck : dataQualityChecks) {
-      if (dataQualityCheck instanceof StratifiedDataQualityCheck) {
-        Map<String, ResultDTO> results =
-            ((StratifiedDataQualityCheck) dataQualityCheck).executeWithStratification(fhirStore);
-        int count = results.size();
-        for (Map.Entry<String, ResultDTO> result : results.entrySet()) {
-          String stratum = result.getKey();
-          eventPublisher.publishEvent(
-              new DataQualityCheckResultEvent(
-                  dataQualityCheck.getId(),
-                  dataQualityCheck.getName() + " (%s)".formatted(result.getKey()),
-                  result.getValue().rawResult(),
-                  result.getValue().idSet(),
-                  result.getValue().error(),
-                  LocalDateTime.now(),
-                  dataQualityCheck.getWarningThreshold(),
-                  dataQualityCheck.getErrorThreshold(),
-                  dataQualityCheck.getEpsilonBudget() / count,
-                  stratum));
+    CheckCancellation cancellation = new CheckCancellation();
+    runningReports.put(event.getReportId(), cancellation);
+    try {
+      // a cancel between the claim of the report and its registration above found nothing to stop
+      if (!reportRepository.existsByIdAndStatus(event.getReportId(), ReportStatus.GENERATING)) {
+        log.info("Report {} cancelled before its checks started", event.getReportId());
+        return;
+      }
+      ExecutionPlan plan = planner.plan(planner.checks());
+      FHIRStore fhirStore = snapshotCache.open(event.getReportId());
+      ResultMemo.ReportMemo memo = resultMemo.open(fhirStore, plan.checks());
+      Map<DataQualityCheck, CompletableFuture<TaskResults>> results = new IdentityHashMap<>();
+      // the plan lists the most expensive tasks first
+      for (ExecutionPlan.Task task : plan.tasks()) {
+        CompletableFuture<TaskResults> taskResults = submit(task, fhirStore, memo, cancellation);
+        task.checks().forEach(dataQualityCheck -> results.put(dataQualityCheck, taskResults));
+      }
+      // publish in the order of the checks, each as soon as all checks before it are done
+      for (DataQualityCheck dataQualityCheck : plan.checks()) {
+        TaskResults taskResults = results.get(dataQualityCheck).join();
+        if (cancellation.isCancelled()) {
+          log.info("Report {} cancelled", event.getReportId());
+          return;
         }
-      } else {
-        ResultDTO result = dataQualityCheck.execute(fhirStore);
-        eventPublisher.publishEvent(
-            new DataQualityCheckResultEvent(
-                dataQualityCheck.getId(),
-                dataQualityCheck.getName(),
-                result.rawResult(),
-                result.idSet(),
-                result.error(),
-                LocalDateTime.now(),
-                dataQualityCheck.getWarningThreshold(),
-                dataQualityCheck.getErrorThreshold(),
-                dataQualityCheck.getEpsilonBudget(),
-                null));
+        taskResults.events().get(dataQualityCheck).stream()
+            .map(resultEvent -> resultEvent.forReport(event.getReportId()))
+            .forEach(eventPublisher::publishEvent);
+      }
+      eventPublisher.publishEvent(new DQCheckResultsGatheredEvent(event.getReportId()));
+    } finally {
+      runningReports.remove(event.getReportId());
+      // also when the report fails, which publishes no event the cache could release it on
+      snapshotCache.release(event.getReportId());
+    }
+  }
+
+  @EventListener
+  void onReportCancelled(ReportCancelledEvent event) {
+    CheckCancellation cancellation = runningReports.get(event.getReportId());
+    if (cancellation != null) {
+      cancellation.cancel("Report cancelled");
+    }
+  }
+
+  /** The result events of each check of a task. */
+  private record TaskResults(Map<DataQualityCheck, List<DataQualityCheckResultEvent>> events) {}
+
+  /**
+   * Runs a task of the plan, unless the results of all of its checks can be reused. A task with
+   * only some of its checks reusable runs anyway, as the others need the same pass or Measure.
+   */
+  private TaskResults run(
+      ExecutionPlan.Task task, FHIRStore fhirStore, ResultMemo.ReportMemo memo) {
+    Map<DataQualityCheck, List<DataQualityCheckResultEvent>> events = new IdentityHashMap<>();
+    Map<DataQualityCheck, Map<String, ResultDTO>> reused = new IdentityHashMap<>();
+    for (DataQualityCheck dataQualityCheck : task.checks()) {
+      memo.lookup(dataQualityCheck).ifPresent(results -> reused.put(dataQualityCheck, results));
+    }
+    if (reused.size() == task.checks().size()) {
+      log.info("Reusing the results of {}, their data is unchanged", names(task));
+      reused.forEach(
+          (dataQualityCheck, results) ->
+              events.put(dataQualityCheck, run(dataQualityCheck, () -> results)));
+      return new TaskResults(events);
+    }
+    switch (task) {
+      case ExecutionPlan.BatchTask batchTask -> {
+        Map<CQLQuery, ResultDTO> batchResults = batchTask.batch().execute(fhirStore);
+        for (CQLQuery check : batchTask.batch().getChecks()) {
+          Supplier<Map<String, ResultDTO>> results =
+              () -> Map.of(UNSTRATIFIED, batchResults.get(check));
+          events.put(check, run(check, memo.recording(check, results)));
+        }
+      }
+      case ExecutionPlan.ScanTask scanTask -> {
+        Map<DataQualityCheck, ResourceVisitor<?>> visitors = new LinkedHashMap<>();
+        for (DataQualityCheck dataQualityCheck : scanTask.checks()) {
+          Optional<ResourceVisitor<?>> visitor = dataQualityCheck.visitor(fhirStore);
+          if (visitor.isPresent()) {
+            visitors.put(dataQualityCheck, visitor.get());
+          } else {
+            events.put(
+                dataQualityCheck,
+                run(
+                    dataQualityCheck,
+                    memo.recording(dataQualityCheck, () -> execute(dataQualityCheck, fhirStore))));
+          }
+        }
+        Map<ResourceVisitor<?>, RuntimeException> failures =
+            ScanEngine.run(fhirStore, List.copyOf(visitors.values()));
+        visitors.forEach(
+            (dataQualityCheck, visitor) ->
+                events.put(
+                    dataQualityCheck,
+                    run(
+                        dataQualityCheck,
+                        memo.recording(
+                            dataQualityCheck,
+                            () -> visitorResults(visitor, failures.get(visitor))))));
+      }
+      case ExecutionPlan.CheckTask checkTask ->
+          events.put(
+              checkTask.check(),
+              run(
+                  checkTask.check(),
+                  memo.recording(checkTask.check(), () -> execute(checkTask.check(), fhirStore))));
+    }
+    return new TaskResults(events);
+  }
+
+  /**
+   * Runs a task on a virtual thread once one of the permits for running checks is free. When the
+   * task times out or the report is cancelled, its checks get an error result right away, without
+   * waiting for the task to stop.
+   */
+  private CompletableFuture<TaskResults> submit(
+      ExecutionPlan.Task task,
+      FHIRStore fhirStore,
+      ResultMemo.ReportMemo memo,
+      CheckCancellation reportCancellation) {
+    CompletableFuture<TaskResults> results = new CompletableFuture<>();
+    CheckCancellation cancellation = reportCancellation.child();
+    cancellation.onCancel(() -> results.complete(failed(task, cancellation.reason())));
+    EXECUTOR.execute(
+        () -> {
+          permits.acquireUninterruptibly();
+          try {
+            if (cancellation.isCancelled()) {
+              return;
+            }
+            ScheduledFuture<?> timeout = scheduleTimeout(task, cancellation);
+            try {
+              results.complete(
+                  CheckCancellation.runWith(cancellation, () -> run(task, fhirStore, memo)));
+            } catch (RuntimeException e) {
+              log.error("Data quality checks {} failed", names(task), e);
+              results.complete(failed(task, e.getMessage()));
+            } catch (Error e) {
+              // fail the report instead of leaving it waiting for this task
+              results.completeExceptionally(e);
+              throw e;
+            } finally {
+              if (timeout != null) {
+                timeout.cancel(false);
+              }
+            }
+          } finally {
+            permits.release();
+          }
+        });
+    return results;
+  }
+
+  private ScheduledFuture<?> scheduleTimeout(
+      ExecutionPlan.Task task, CheckCancellation cancellation) {
+    int seconds = timeoutSeconds(task);
+    if (seconds <= 0) {
+      return null;
+    }
+    return TIMEOUTS.schedule(
+        () -> {
+          log.warn("Data quality checks {} timed out after {} seconds", names(task), seconds);
+          cancellation.cancel("Timed out after %d seconds".formatted(seconds));
+        },
+        seconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Returns the timeout of a task. A task running several checks, such as a shared scan or a CQL
+   * batch, may run as long as the check with the longest timeout.
+   *
+   * @return the timeout in seconds, or {@code 0} for no limit
+   */
+  private int timeoutSeconds(ExecutionPlan.Task task) {
+    int timeout = 0;
+    for (DataQualityCheck dataQualityCheck : task.checks()) {
+      Integer checkTimeout = dataQualityCheck.getTimeoutSeconds();
+      int seconds = checkTimeout != null ? checkTimeout : timeoutSeconds;
+      if (seconds <= 0) {
+        return 0;
+      }
+      timeout = Math.max(timeout, seconds);
+    }
+    return timeout;
+  }
+
+  /** Gives each check of a task the given error. */
+  private static TaskResults failed(ExecutionPlan.Task task, String error) {
+    Map<DataQualityCheck, List<DataQualityCheckResultEvent>> events = new IdentityHashMap<>();
+    for (DataQualityCheck dataQualityCheck : task.checks()) {
+      events.put(dataQualityCheck, List.of(resultEvent(dataQualityCheck, new ResultDTO(error))));
+    }
+    return new TaskResults(events);
+  }
+
+  private static List<String> names(ExecutionPlan.Task task) {
+    return task.checks().stream().map(DataQualityCheck::getName).toList();
+  }
+
+  /**
+   * Creates the result events of a check. A check failing with an exception gets an error result,
+   * so that it does not abort the checks running next to it.
+   *
+   * @param results computes the results of the check, by stratum for stratified checks
+   */
+  private List<DataQualityCheckResultEvent> run(
+      DataQualityCheck dataQualityCheck, Supplier<Map<String, ResultDTO>> results) {
+    try {
+      if (dataQualityCheck instanceof StratifiedDataQualityCheck stratifiedCheck) {
+        return stratifiedResultEvents(stratifiedCheck, results.get());
       }
+      return List.of(resultEvent(dataQualityCheck, results.get().get(UNSTRATIFIED)));
+    } catch (RuntimeException e) {
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      log.error("Data quality check {} failed", dataQualityCheck.getName(), cause);
+      return List.of(resultEvent(dataQualityCheck, new ResultDTO(cause.getMessage())));
     }
-    eventPublisher.publishEvent(new DQCheckResultsGatheredEvent(event.getReportId()));
+  }
+
+  private static Map<String, ResultDTO> execute(
+      DataQualityCheck dataQualityCheck, FHIRStore store) {
+    if (dataQualityCheck instanceof StratifiedDataQualityCheck stratifiedCheck) {
+      return stratifiedCheck.executeWithStratification(store);
+    }
+    return Map.of(UNSTRATIFIED, dataQualityCheck.execute(store));
+  }
+
+  private static Map<String, ResultDTO> visitorResults(
+      ResourceVisitor<?> visitor, RuntimeException failure) {
+    if (failure != null) {
+      throw failure;
+    }
+    if (visitor instanceof StratifiedDataQualityCheck.Visitor<?> stratifiedVisitor) {
+      return stratifiedVisitor.stratifiedResults();
+    }
+    return Map.of(UNSTRATIFIED, visitor.result());
+  }
+
+  private static List<DataQualityCheckResultEvent> stratifiedResultEvents(
+      StratifiedDataQualityCheck dataQualityCheck, Map<String, ResultDTO> results) {
+    // by parallel composition, strata no patient shares do not split the budget
+    float epsilon =
+        dataQualityCheck.getEpsilonBudget()
+            / Math.max(1, dataQualityCheck.strataPerPatient(results.size()));
+    List<DataQualityCheckResultEvent> events = new ArrayList<>();
+    for (Map.Entry<String, ResultDTO> result : results.entrySet()) {
+      String stratum = result.getKey();
+      events.add(
+          new DataQualityCheckResultEvent(
+              dataQualityCheck.getId(),
+              dataQualityCheck.getName() + " (%s)".formatted(result.getKey()),
+              result.getValue().rawResult(),
+              result.getValue().idSet(),
+              result.getValue().error(),
+              LocalDateTime.now(),
+              dataQualityCheck.getWarningThreshold(),
+              dataQualityCheck.getErrorThreshold(),
+              epsilon,
+              stratum));
+    }
+    return events;
+  }
+
+  private static DataQualityCheckResultEvent resultEvent(
+      DataQualityCheck dataQualityCheck, ResultDTO result) {
+    return new DataQualityCheckResultEvent(
+        dataQualityCheck.getId(),
+        dataQualityCheck.getName(),
+        result.rawResult(),
+        result.idSet(),
+        result.error(),
+        LocalDateTime.now(),
+        dataQualityCheck.getWarningThreshold(),
+        dataQualityCheck.getErrorThreshold(),
+        dataQualityCheck.getEpsilonBudget(),
+        null);
   }
 }
@@ -0,0 +1,160 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.impl.ProjectionStore.SyncState;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps a persistent local projection of the FHIR store up to date, so checks read the local copy
+ * instead of downloading every resource for each report.
+ *
+ * <p>The first read of a resource type and element projection downloads all resources. Later reads
+ * only apply the changes since the previous sync: resources updated since then are fetched with a
+ * {@code _lastUpdated} search, and deletions are taken from the {@code _history} of the type. If
+ * the server does not provide the history, deletions are found by comparing the IDs of the local
+ * copy with the IDs on the server. Syncs of the same type and projection run one at a time; other
+ * projections sync meanwhile.
+ */
+@Component
+class DeltaSync {
+  private static final Logger log = LoggerFactory.getLogger(DeltaSync.class);
+  private final ProjectionStore projections;
+  private final boolean enabled;
+  private final Duration clockSkew;
+  private final int batchSize;
+  /** One lock per resource type and projection, as a sync downloads from the FHIR server. */
+  private final Map<String, ReentrantLock> syncLocks = new ConcurrentHashMap<>();
+
+  DeltaSync(
+      ProjectionStore projections,
+      @Value("${fhir.sync.enabled:false}") boolean enabled,
+      @Value("${fhir.sync.clock-skew-seconds:300}") long clockSkewSeconds,
+      @Value("${fhir.search.page-size:1000}") int batchSize) {
+    this.projections = projections;
+    this.enabled = enabled;
+    this.clockSkew = Duration.ofSeconds(clockSkewSeconds);
+    this.batchSize = batchSize;
+  }
+
+  /** Reads from the FHIR server needed to update the local projection. */
+  interface RemoteReads {
+
+    /**
+     * Downloads the resources of a type matching the given search parameters, all resources if
+     * there are none.
+     */
+    Stream<SearchChunk> search(
+        String resourceType, List<String> elements, Map<String, String> params);
+
+    /** Downloads the history Bundle pages of a type since the given instant. */
+    Stream<SearchChunk> history(String resourceType, Instant since);
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Brings the local projection up to date and streams it.
+   *
+   * @param serverUrl the FHIR server the projection mirrors; a different server forces a full sync
+   * @param resourceType the resource type to read
+   * @param elements the element projection to read
+   * @param remote reads from the FHIR server
+   * @return the resources of the local projection as NDJSON chunks
+   */
+  Stream<SearchChunk> stream(
+      String serverUrl, String resourceType, List<String> elements, RemoteReads remote) {
+    String projection = elements.stream().sorted().collect(Collectors.joining(","));
+    ReentrantLock lock =
+        syncLocks.computeIfAbsent(resourceType + "|" + projection, key -> new ReentrantLock());
+    // not synchronized, which would pin the virtual thread of the check while it downloads
+    lock.lock();
+    try {
+      sync(serverUrl, resourceType, elements, projection, remote);
+    } finally {
+      lock.unlock();
+    }
+    return projections.chunks(resourceType, projection, batchSize);
+  }
+
+  private void sync(
+      String serverUrl,
+      String resourceType,
+      List<String> elements,
+      String projection,
+      RemoteReads remote) {
+    // Changes made while this sync runs are picked up again by the next one
+    Instant syncStart = Instant.now().minus(clockSkew);
+    Optional<SyncState> state =
+        projections
+            .syncState(resourceType, projection)
+            .filter(previous -> previous.serverUrl().equals(serverUrl));
+    if (state.isEmpty()) {
+      projections.clear(resourceType, projection);
+      long stored =
+          store(remote.search(resourceType, elements, Map.of()), resourceType, projection);
+      log.info("Synced {} {} resources into the local projection", stored, resourceType);
+    } else {
+      Instant since = state.get().syncedSince();
+      List<String> deleted = deletedIds(resourceType, projection, since, remote);
+      projections.delete(resourceType, projection, deleted);
+      long updated =
+          store(
+              remote.search(resourceType, elements, Map.of("_lastUpdated", "gt" + since)),
+              resourceType,
+              projection);
+      log.info(
+          "Delta sync of {} since {}: {} resources updated, {} deleted",
+          resourceType,
+          since,
+          updated,
+          deleted.size());
+    }
+    projections.saveSyncState(resourceType, projection, new SyncState(serverUrl, syncStart));
+  }
+
+  private long store(Stream<SearchChunk> chunks, String resourceType, String projection) {
+    long stored = 0;
+    try (chunks) {
+      Iterator<SearchChunk> iterator = chunks.iterator();
+      while (iterator.hasNext()) {
+        List<StoredResource> resources = iterator.next().decode(StoredResource::decode);
+        projections.upsert(resourceType, projection, resources);
+        stored += resources.size();
+      }
+    }
+    return stored;
+  }
+
+  private List<String> deletedIds(
+      String resourceType, String projection, Instant since, RemoteReads remote) {
+    try (Stream<SearchChunk> history = remote.history(resourceType, since)) {
+      return history.flatMap(chunk -> BundleJson.deletedIds(chunk.data()).stream()).toList();
+    } catch (RuntimeException e) {
+      log.info(
+          "History of {} is not available, comparing IDs instead: {}",
+          resourceType,
+          e.getMessage());
+    }
+    Set<String> removed = projections.ids(resourceType, projection);
+    try (Stream<SearchChunk> ids = remote.search(resourceType, List.of("id"), Map.of())) {
+      ids.flatMap(chunk -> chunk.decode(StoredResource::decode).stream())
+          .forEach(resource -> removed.remove(resource.id()));
+    }
+    return List.copyOf(removed);
+  }
+}
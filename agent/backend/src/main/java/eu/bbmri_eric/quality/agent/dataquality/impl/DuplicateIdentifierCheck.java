@@ -1,22 +1,25 @@
 package eu.bbmri_eric.quality.agent.dataquality.impl;
 
 import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceScan;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceVisitor;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
 import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import org.hl7.fhir.r4.model.Identifier;
-import org.hl7.fhir.r4.model.Patient;
-import org.hl7.fhir.r4.model.Resource;
+import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class DuplicateIdentifierCheck implements DataQualityCheck {
   private static final Logger log = LoggerFactory.getLogger(DuplicateIdentifierCheck.class);
+
+  /** The value of an identifier fingerprint seen more than once, in place of its first owner. */
+  private static final int SHARED = -2;
+
   private final String name;
   private final String description;
   private final String identifierSystem;
@@ -34,37 +37,139 @@ class DuplicateIdentifierCheck implements DataQualityCheck {
   @Override
   public ResultDTO execute(FHIRStore fhirStore) {
     try {
-      List<Resource> patients = fhirStore.fetchAllResources("Patient", List.of("id", "identifier"));
-      Map<String, List<String>> identifierMap = new HashMap<>();
-      for (Resource resource : patients) {
-        Patient patient = (Patient) resource;
-        String patientId = patient.getIdElement().getIdPart();
-        List<Identifier> identifiers = patient.getIdentifier();
-        for (Identifier ident : identifiers) {
-          log.debug(ident.toString());
-          if (getIdentifierSystem().equals(ident.getSystem())) {
-            String identValue = ident.getValue();
-            log.debug(identValue);
-            if (identValue != null && !identValue.isEmpty()) {
-              identifierMap
-                  .computeIfAbsent(identValue, k -> new ArrayList<>())
-                  .add("Patient/" + patientId);
+      DuplicateVisitor visitor = new DuplicateVisitor(fhirStore);
+      ScanEngine.runSingle(fhirStore, visitor);
+      return visitor.result();
+    } catch (Exception e) {
+      log.error("Error processing {}: {}", getName(), e.getMessage());
+      return new ResultDTO(e.getMessage());
+    }
+  }
+
+  @Override
+  public CheckRequirements requirements() {
+    return CheckRequirements.scan(PatientRecord.SCAN);
+  }
+
+  @Override
+  public Optional<String> resultKey() {
+    return Optional.of(DuplicateIdentifierCheck.class.getSimpleName());
+  }
+
+  @Override
+  public Optional<ResourceVisitor<?>> visitor(FHIRStore fhirStore) {
+    return Optional.of(new DuplicateVisitor(fhirStore));
+  }
+
+  /**
+   * Finds the patients sharing an identifier in two passes. The first pass only keeps a {@link
+   * FingerprintTable} of the identifiers, and marks the patients whose identifier fingerprint was
+   * seen before as candidates. Only if there are candidates, a second pass compares their
+   * identifiers exactly, so that the rare fingerprint collisions are not reported. The second pass
+   * reads the patients from the snapshot of the report where there is one.
+   */
+  private final class DuplicateVisitor implements ResourceVisitor<PatientRecord> {
+    private final FHIRStore fhirStore;
+    private final PatientIdDictionary patientIds;
+    // first patient seen with each identifier fingerprint, by its number in the dictionary
+    private final FingerprintTable firstOwners = new FingerprintTable();
+    private final PatientIdSet.Builder candidates;
+
+    private DuplicateVisitor(FHIRStore fhirStore) {
+      this.fhirStore = fhirStore;
+      this.patientIds = fhirStore.patientIds();
+      this.candidates = PatientIdSet.builder(patientIds);
+    }
+
+    @Override
+    public ResourceScan<PatientRecord> scan() {
+      return PatientRecord.SCAN;
+    }
+
+    @Override
+    public void visit(PatientRecord patient) {
+      int patientId = patientIds.intern(patient.id());
+      for (PatientRecord.Identifier ident : patient.identifiers()) {
+        if (isChecked(ident)) {
+          long fingerprint = FingerprintTable.fingerprint(ident.value());
+          int firstOwner = firstOwners.putIfAbsent(fingerprint, patientId);
+          if (firstOwner != FingerprintTable.ABSENT) {
+            candidates.add(patientId);
+            if (firstOwner != SHARED) {
+              candidates.add(firstOwner);
+              firstOwners.put(fingerprint, SHARED);
             }
           }
         }
       }
-      Set<String> duplicateIds = new HashSet<>();
-      for (Map.Entry<String, List<String>> entry : identifierMap.entrySet()) {
-        if (entry.getValue().size() > 1) {
-          duplicateIds.addAll(entry.getValue());
+    }
+
+    @Override
+    public ResultDTO result() {
+      if (candidates.size() == 0) {
+        log.info("Duplicate identifiers: none");
+        return new ResultDTO(0, "Patient", PatientIdSet.builder(patientIds).build());
+      }
+      log.debug("Resolving {} candidate duplicate patients", candidates.size());
+      ResolvingVisitor resolver = new ResolvingVisitor(patientIds, firstOwners, candidates.build());
+      ScanEngine.runSingle(fhirStore, resolver);
+      ResultDTO result = resolver.result();
+      log.info("Duplicate identifiers: {}", result.idSet());
+      return result;
+    }
+  }
+
+  /** Compares the identifiers of the candidates whose fingerprint is shared. */
+  private final class ResolvingVisitor implements ResourceVisitor<PatientRecord> {
+    private final PatientIdDictionary patientIds;
+    private final FingerprintTable fingerprints;
+    private final PatientIdSet candidates;
+    // first candidate seen with each identifier, by its number in the dictionary
+    private final Map<String, Integer> firstOwners = new HashMap<>();
+    private final PatientIdSet.Builder duplicates;
+
+    private ResolvingVisitor(
+        PatientIdDictionary patientIds, FingerprintTable fingerprints, PatientIdSet candidates) {
+      this.patientIds = patientIds;
+      this.fingerprints = fingerprints;
+      this.candidates = candidates;
+      this.duplicates = PatientIdSet.builder(patientIds);
+    }
+
+    @Override
+    public ResourceScan<PatientRecord> scan() {
+      return PatientRecord.SCAN;
+    }
+
+    @Override
+    public void visit(PatientRecord patient) {
+      if (!candidates.contains(patient.id())) {
+        return;
+      }
+      int patientId = patientIds.intern(patient.id());
+      for (PatientRecord.Identifier ident : patient.identifiers()) {
+        if (isChecked(ident)
+            && fingerprints.get(FingerprintTable.fingerprint(ident.value())) == SHARED) {
+          Integer firstOwner = firstOwners.putIfAbsent(ident.value(), patientId);
+          if (firstOwner != null) {
+            duplicates.add(firstOwner).add(patientId);
+          }
         }
       }
-      log.info("Duplicate identifiers: {}", duplicateIds);
-      return ResultDTO.resultFromIdPaths(duplicateIds, "Patient");
-    } catch (Exception e) {
-      log.error("Error processing {}: {}", getName(), e.getMessage());
-      return new ResultDTO(e.getMessage());
     }
+
+    @Override
+    public ResultDTO result() {
+      PatientIdSet duplicateIds = duplicates.build();
+      return new ResultDTO(duplicateIds.size(), "Patient", duplicateIds);
+    }
+  }
+
+  /** Returns whether the identifier is of the checked system and has a value. */
+  private boolean isChecked(PatientRecord.Identifier ident) {
+    return getIdentifierSystem().equals(ident.system())
+        && ident.value() != null
+        && !ident.value().isEmpty();
   }
 
   @Override
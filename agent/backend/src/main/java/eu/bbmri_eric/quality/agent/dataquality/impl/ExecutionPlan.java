@@ -0,0 +1,46 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQueryBatch;
+import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
+import java.util.List;
+
+/**
+ * How the checks of a report are run, see {@link ExecutionPlanner}.
+ *
+ * @param checks the checks of the report, in the order their results are published
+ * @param tasks the tasks running the checks, most expensive first; every check is run by exactly
+ *     one task
+ */
+record ExecutionPlan(List<DataQualityCheck> checks, List<Task> tasks) {
+
+  /** A unit of work running one or more checks. */
+  sealed interface Task permits BatchTask, ScanTask, CheckTask {
+
+    /** The checks whose results this task computes. */
+    List<? extends DataQualityCheck> checks();
+
+    /** The relative cost of this task, see {@link DataQualityCheck#requirements()}. */
+    int estimatedCost();
+  }
+
+  /** CQL checks evaluated by one merged Measure. */
+  record BatchTask(CQLQueryBatch batch, int estimatedCost) implements Task {
+    @Override
+    public List<? extends DataQualityCheck> checks() {
+      return batch.getChecks();
+    }
+  }
+
+  /** Checks reading the same elements of all resources of one type, fed from a single pass. */
+  record ScanTask(
+      String resourceType, List<String> elements, List<DataQualityCheck> checks, int estimatedCost)
+      implements Task {}
+
+  /** A check executed on its own. */
+  record CheckTask(DataQualityCheck check, int estimatedCost) implements Task {
+    @Override
+    public List<? extends DataQualityCheck> checks() {
+      return List.of(check);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.ExecutionPlanService;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
+import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ExecutionPlanDTO;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/** Service implementation explaining the plan of the {@link ExecutionPlanner}. */
+@Service
+class ExecutionPlanServiceImpl implements ExecutionPlanService {
+
+  private final ExecutionPlanner planner;
+
+  ExecutionPlanServiceImpl(ExecutionPlanner planner) {
+    this.planner = planner;
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public ExecutionPlanDTO explain() {
+    ExecutionPlan plan = planner.plan(planner.checks());
+    List<ExecutionPlanDTO.Task> tasks = plan.tasks().stream().map(this::toTask).toList();
+    int estimatedCost = tasks.stream().mapToInt(ExecutionPlanDTO.Task::estimatedCost).sum();
+    return new ExecutionPlanDTO(tasks, estimatedCost);
+  }
+
+  private ExecutionPlanDTO.Task toTask(ExecutionPlan.Task task) {
+    Set<CheckRequirements.ResourceRead> reads = new LinkedHashSet<>();
+    boolean patientIds = false;
+    for (DataQualityCheck dataQualityCheck : task.checks()) {
+      CheckRequirements requirements = dataQualityCheck.requirements();
+      reads.addAll(requirements.reads());
+      patientIds |= requirements.patientIds();
+    }
+    List<ExecutionPlanDTO.Check> checks =
+        task.checks().stream()
+            .map(check -> new ExecutionPlanDTO.Check(check.getId(), check.getName()))
+            .toList();
+    return new ExecutionPlanDTO.Task(
+        type(task, reads), List.copyOf(reads), patientIds, task.estimatedCost(), checks);
+  }
+
+  /** Names how a task runs its checks; a check on its own is named after how it reads. */
+  private static String type(ExecutionPlan.Task task, Set<CheckRequirements.ResourceRead> reads) {
+    return switch (task) {
+      case ExecutionPlan.BatchTask batchTask -> "BATCH";
+      case ExecutionPlan.ScanTask scanTask -> "SCAN";
+      case ExecutionPlan.CheckTask checkTask -> {
+        Set<String> accesses = new LinkedHashSet<>();
+        reads.forEach(read -> accesses.add(read.access().name()));
+        yield accesses.size() == 1 ? accesses.iterator().next() : "EXECUTE";
+      }
+    };
+  }
+}
@@ -0,0 +1,121 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQueryBatch;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
+import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Plans the checks of a report from their {@link CheckRequirements}, without running them. CQL
+ * checks are merged into batches if {@code checks.cql-batch} is set, checks scanning the same
+ * elements of the same resource type share one pass, and all other checks run on their own, as
+ * counts or Measure evaluations. Tasks are ordered by estimated cost, most expensive first, so that
+ * long tasks do not start last and keep the report waiting for them.
+ */
+@Component
+class ExecutionPlanner {
+  private final CQLCheckRepository repository;
+  private final boolean countOnly;
+  private final boolean cqlBatch;
+  private final String strata;
+
+  ExecutionPlanner(
+      CQLCheckRepository repository,
+      @Value("${checks.count-only:false}") boolean countOnly,
+      @Value("${checks.cql-batch:false}") boolean cqlBatch,
+      @Value("${checks.strata:gender}") String strata) {
+    this.repository = repository;
+    this.countOnly = countOnly;
+    this.cqlBatch = cqlBatch;
+    // fail on startup rather than in every report
+    PatientDimensions.parse(strata);
+    this.strata = strata;
+  }
+
+  /**
+   * Returns the checks of a new report: all CQL checks, followed by the built-in checks. CQL checks
+   * with a stratifier are stratified by its dimensions.
+   *
+   * @return the checks, in the order their results are published
+   */
+  List<DataQualityCheck> checks() {
+    List<DataQualityCheck> dataQualityChecks = new ArrayList<>();
+    for (CQLQuery cqlCheck : repository.findAll()) {
+      boolean stratified = cqlCheck.getStratifier() != null && !cqlCheck.getStratifier().isBlank();
+      dataQualityChecks.add(stratified ? new StratifiedCQLCheck(cqlCheck) : cqlCheck);
+    }
+    dataQualityChecks.add(new DuplicateIdentifierCheck());
+    // parsed for every report, so that ages are computed on the day of the report
+    dataQualityChecks.add(new SurvivalRateCheck(countOnly, PatientDimensions.parse(strata)));
+    dataQualityChecks.add(new InvalidConditionICDCheck());
+    return dataQualityChecks;
+  }
+
+  /**
+   * Plans the given checks.
+   *
+   * @param dataQualityChecks the checks of a report
+   * @return the plan running every check exactly once
+   */
+  ExecutionPlan plan(List<DataQualityCheck> dataQualityChecks) {
+    List<ExecutionPlan.Task> tasks = new ArrayList<>();
+    Set<DataQualityCheck> batched = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (cqlBatch) {
+      List<CQLQuery> cqlChecks =
+          dataQualityChecks.stream()
+              .filter(CQLQuery.class::isInstance)
+              .map(CQLQuery.class::cast)
+              .toList();
+      for (CQLQueryBatch batch : CQLQueryBatch.plan(cqlChecks)) {
+        tasks.add(new ExecutionPlan.BatchTask(batch, cost(batch.getChecks())));
+        batched.addAll(batch.getChecks());
+      }
+    }
+    Map<CheckRequirements.ResourceRead, List<DataQualityCheck>> scans = new LinkedHashMap<>();
+    for (DataQualityCheck dataQualityCheck : dataQualityChecks) {
+      if (batched.contains(dataQualityCheck)) {
+        continue;
+      }
+      CheckRequirements requirements = dataQualityCheck.requirements();
+      if (isScan(requirements)) {
+        scans
+            .computeIfAbsent(requirements.reads().getFirst(), read -> new ArrayList<>())
+            .add(dataQualityCheck);
+      } else {
+        tasks.add(new ExecutionPlan.CheckTask(dataQualityCheck, requirements.estimatedCost()));
+      }
+    }
+    scans.forEach(
+        (read, scanChecks) ->
+            tasks.add(
+                new ExecutionPlan.ScanTask(
+                    read.resourceType(), read.elements(), scanChecks, cost(scanChecks))));
+    // a stable sort, so that tasks of the same cost keep their order
+    tasks.sort(Comparator.comparingInt(ExecutionPlan.Task::estimatedCost).reversed());
+    return new ExecutionPlan(List.copyOf(dataQualityChecks), List.copyOf(tasks));
+  }
+
+  /** Returns whether the check reads nothing but all resources of a single type. */
+  private static boolean isScan(CheckRequirements requirements) {
+    return requirements.reads().size() == 1
+        && requirements.reads().getFirst().access() == CheckRequirements.Access.SCAN;
+  }
+
+  /** A shared pass or Measure costs about as much as the most expensive of its checks alone. */
+  private static int cost(List<? extends DataQualityCheck> dataQualityChecks) {
+    return dataQualityChecks.stream()
+        .mapToInt(dataQualityCheck -> dataQualityCheck.requirements().estimatedCost())
+        .max()
+        .orElse(0);
+  }
+}
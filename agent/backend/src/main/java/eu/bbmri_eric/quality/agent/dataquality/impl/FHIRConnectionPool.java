@@ -0,0 +1,178 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.ssl.SSLContextBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Owns the HTTP connection pool shared by all requests to the FHIR server.
+ *
+ * <p>Every {@link #open} replaces the current pool. The replaced pool is retired rather than
+ * closed, so searches and exports still reading from it can finish: its idle connections are
+ * closed right away and the pool itself once its last leased connection is released, or when the
+ * drain timeout expires.
+ *
+ * <p>All templates share the {@link FHIRRequestLimiter}, so replacing the pool does not raise the
+ * number of requests in flight.
+ */
+@Component
+class FHIRConnectionPool {
+  private static final Logger log = LoggerFactory.getLogger(FHIRConnectionPool.class);
+
+  private final RestTemplateBuilder restTemplateBuilder;
+  private final FHIRRequestLimiter requestLimiter;
+  private final int maxConnections;
+  private final int connectTimeoutSeconds;
+  private final int socketTimeoutSeconds;
+  private final int keepAliveSeconds;
+  private final boolean compression;
+  private final int drainTimeoutSeconds;
+  private final List<RetiredPool> retired = new ArrayList<>();
+  private Pool current;
+
+  FHIRConnectionPool(
+      RestTemplateBuilder restTemplateBuilder,
+      FHIRRequestLimiter requestLimiter,
+      @Value("${fhir.http.max-connections:20}") int maxConnections,
+      @Value("${fhir.http.connect-timeout-seconds:30}") int connectTimeoutSeconds,
+      @Value("${fhir.http.socket-timeout-seconds:0}") int socketTimeoutSeconds,
+      @Value("${fhir.http.keep-alive-seconds:60}") int keepAliveSeconds,
+      @Value("${fhir.http.compression:true}") boolean compression,
+      @Value("${fhir.http.drain-timeout-minutes:30}") int drainTimeoutMinutes) {
+    this.restTemplateBuilder = restTemplateBuilder;
+    this.requestLimiter = requestLimiter;
+    this.maxConnections = maxConnections;
+    this.connectTimeoutSeconds = connectTimeoutSeconds;
+    this.socketTimeoutSeconds = socketTimeoutSeconds;
+    this.keepAliveSeconds = keepAliveSeconds;
+    this.compression = compression;
+    this.drainTimeoutSeconds = drainTimeoutMinutes * 60;
+  }
+
+  private record Pool(CloseableHttpClient client, PoolingHttpClientConnectionManager manager) {}
+
+  private record RetiredPool(Pool pool, Instant deadline) {}
+
+  /**
+   * Creates a new connection pool and a {@link RestTemplate} authenticating with the given
+   * credentials on top of it. The previous pool is drained.
+   *
+   * @param username the user name for basic authentication
+   * @param password the decoded password for basic authentication
+   * @return a template sending all requests through the new pool
+   */
+  synchronized RestTemplate open(String username, String password) {
+    Pool pool = createPool();
+    if (current != null) {
+      retired.add(new RetiredPool(current, Instant.now().plusSeconds(drainTimeoutSeconds)));
+    }
+    current = pool;
+    closeDrainedPools();
+
+    HttpComponentsClientHttpRequestFactory requestFactory =
+        new HttpComponentsClientHttpRequestFactory(pool.client());
+    log.info(
+        "Opened FHIR connection pool: {} connections, keep-alive {}s, compression {}",
+        maxConnections,
+        keepAliveSeconds,
+        compression ? "on" : "off");
+    return restTemplateBuilder
+        .requestFactory(() -> requestFactory)
+        .additionalInterceptors(requestLimiter)
+        .basicAuthentication(username, password)
+        .build();
+  }
+
+  /** Closes the idle connections of retired pools, and the pools that are no longer in use. */
+  @Scheduled(fixedDelay = 10000)
+  synchronized void closeDrainedPools() {
+    Iterator<RetiredPool> pools = retired.iterator();
+    while (pools.hasNext()) {
+      RetiredPool retiredPool = pools.next();
+      PoolingHttpClientConnectionManager manager = retiredPool.pool().manager();
+      manager.closeIdle(TimeValue.ZERO_MILLISECONDS);
+      int leased = manager.getTotalStats().getLeased();
+      if (leased == 0 || Instant.now().isAfter(retiredPool.deadline())) {
+        if (leased > 0) {
+          log.warn("Closing retired FHIR connection pool with {} connections in use", leased);
+        }
+        retiredPool.pool().client().close(CloseMode.GRACEFUL);
+        pools.remove();
+      }
+    }
+  }
+
+  @PreDestroy
+  synchronized void close() {
+    retired.forEach(retiredPool -> retiredPool.pool().client().close(CloseMode.IMMEDIATE));
+    retired.clear();
+    if (current != null) {
+      current.client().close(CloseMode.IMMEDIATE);
+      current = null;
+    }
+  }
+
+  private Pool createPool() {
+    ConnectionConfig connectionConfig =
+        ConnectionConfig.custom()
+            .setConnectTimeout(Timeout.ofSeconds(connectTimeoutSeconds))
+            .setSocketTimeout(Timeout.ofSeconds(socketTimeoutSeconds))
+            .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+            .build();
+    PoolingHttpClientConnectionManagerBuilder managerBuilder =
+        PoolingHttpClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(maxConnections)
+            .setMaxConnPerRoute(maxConnections)
+            .setDefaultConnectionConfig(connectionConfig);
+    try {
+      SSLContext sslContext =
+          SSLContextBuilder.create().loadTrustMaterial(null, (chain, authType) -> true).build();
+      managerBuilder.setTlsSocketStrategy(
+          ClientTlsStrategyBuilder.create()
+              .setSslContext(sslContext)
+              .setHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+              .buildClassic());
+    } catch (Exception e) {
+      log.warn("Failed to create SSL context for FHIR connections, using default trust", e);
+    }
+    PoolingHttpClientConnectionManager manager = managerBuilder.build();
+
+    HttpClientBuilder clientBuilder =
+        HttpClients.custom()
+            .setConnectionManager(manager)
+            .setDefaultRequestConfig(
+                RequestConfig.custom()
+                    .setDefaultKeepAlive(keepAliveSeconds, TimeUnit.SECONDS)
+                    .build())
+            .evictIdleConnections(TimeValue.ofSeconds(keepAliveSeconds));
+    if (!compression) {
+      clientBuilder.disableContentCompression();
+    }
+    return new Pool(clientBuilder.build(), manager);
+  }
+}
@@ -0,0 +1,116 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounds the number of requests in flight to the FHIR server, across all threads and across
+ * connection pools replaced by settings changes. A request holds its permit until its response is
+ * closed, so streamed downloads such as bulk export files count for as long as they are read.
+ * Requests beyond the limit wait in arrival order.
+ *
+ * <p>Requests sent by a check running with a {@link CheckCancellation} are aborted when the check
+ * is cancelled, whether they are still waiting for a permit, for their response or being read.
+ */
+@Component
+class FHIRRequestLimiter implements ClientHttpRequestInterceptor {
+  private final Semaphore permits;
+
+  FHIRRequestLimiter(@Value("${fhir.http.max-concurrent-requests:8}") int maxConcurrentRequests) {
+    this.permits = new Semaphore(maxConcurrentRequests, true);
+  }
+
+  @Override
+  public ClientHttpResponse intercept(
+      HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+    CheckCancellation cancellation = CheckCancellation.current();
+    if (cancellation == null) {
+      return send(request, body, execution, null);
+    }
+    return cancellation.send(
+        request.getURI(), () -> send(request, body, execution, cancellation));
+  }
+
+  private ClientHttpResponse send(
+      HttpRequest request,
+      byte[] body,
+      ClientHttpRequestExecution execution,
+      CheckCancellation cancellation)
+      throws IOException {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to send " + request.getURI());
+    }
+    try {
+      return new LimitedResponse(execution.execute(request, body), cancellation);
+    } catch (IOException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the permit of a request when its response is closed. The response of a cancellable
+   * check is closed when the check is cancelled.
+   */
+  private final class LimitedResponse implements ClientHttpResponse {
+    private final ClientHttpResponse response;
+    private final CheckCancellation cancellation;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private LimitedResponse(ClientHttpResponse response, CheckCancellation cancellation) {
+      this.response = response;
+      this.cancellation = cancellation;
+      if (cancellation != null) {
+        cancellation.track(this);
+      }
+    }
+
+    @Override
+    public HttpStatusCode getStatusCode() throws IOException {
+      return response.getStatusCode();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+      return response.getStatusText();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return response.getHeaders();
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      return response.getBody();
+    }
+
+    @Override
+    public void close() {
+      try {
+        response.close();
+      } finally {
+        if (closed.compareAndSet(false, true)) {
+          permits.release();
+          if (cancellation != null) {
+            cancellation.untrack(this);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+/**
+ * Maps 64-bit fingerprints of strings to {@code int}s. The entries are kept in two primitive arrays
+ * with open addressing, 12 bytes per slot, instead of a map entry with a string key and a
+ * boxed value each. Different strings can share a fingerprint, so a match is only a candidate that
+ * has to be confirmed by comparing the strings. Tables are not thread-safe.
+ */
+final class FingerprintTable {
+  /** The value returned for a fingerprint that is not in the table. */
+  static final int ABSENT = -1;
+
+  /** The fingerprint marking an empty slot, never returned by {@link #fingerprint}. */
+  private static final long EMPTY = 0;
+
+  private long[] keys = new long[1024];
+  private int[] values = new int[1024];
+  private int size;
+
+  /**
+   * Returns the fingerprint of a string.
+   *
+   * @param value the string
+   * @return a non-zero 64-bit hash of the characters of the string
+   */
+  static long fingerprint(String value) {
+    // FNV-1a over the chars, without copying them, then the finalizer of MurmurHash3
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash == EMPTY ? 1 : hash;
+  }
+
+  /**
+   * Adds a fingerprint with its value, unless the table holds the fingerprint already.
+   *
+   * @param fingerprint a fingerprint returned by {@link #fingerprint}
+   * @param value the value, not {@link #ABSENT}
+   * @return the value the fingerprint already had, or {@link #ABSENT} if it was added
+   */
+  int putIfAbsent(long fingerprint, int value) {
+    int slot = find(fingerprint);
+    if (keys[slot] != EMPTY) {
+      return values[slot];
+    }
+    keys[slot] = fingerprint;
+    values[slot] = value;
+    size++;
+    // at most three quarters full, so that probes stay short
+    if (size * 4L > keys.length * 3L) {
+      rehash(keys.length * 2);
+    }
+    return ABSENT;
+  }
+
+  /**
+   * Sets the value of a fingerprint, adding it if the table does not hold it yet.
+   *
+   * @param fingerprint a fingerprint returned by {@link #fingerprint}
+   * @param value the value, not {@link #ABSENT}
+   */
+  void put(long fingerprint, int value) {
+    int slot = find(fingerprint);
+    if (keys[slot] != EMPTY) {
+      values[slot] = value;
+    } else {
+      putIfAbsent(fingerprint, value);
+    }
+  }
+
+  /**
+   * Returns the value of a fingerprint.
+   *
+   * @param fingerprint a fingerprint returned by {@link #fingerprint}
+   * @return the value, or {@link #ABSENT} if the table does not hold the fingerprint
+   */
+  int get(long fingerprint) {
+    int slot = find(fingerprint);
+    return keys[slot] != EMPTY ? values[slot] : ABSENT;
+  }
+
+  /** Returns the number of fingerprints in the table. */
+  int size() {
+    return size;
+  }
+
+  private int find(long fingerprint) {
+    int mask = keys.length - 1;
+    int slot = (int) fingerprint & mask;
+    while (keys[slot] != EMPTY && keys[slot] != fingerprint) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[capacity];
+    values = new int[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int slot = (int) oldKeys[i] & mask;
+        while (keys[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.ICD10Validator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The verdicts on ICD codes, shared by all reports. Stores repeat a few thousand distinct codes in
+ * millions of Conditions, so each code is validated once and its verdict is looked up afterwards.
+ * The validator is only called for codes not seen before, one at a time, since it is not known to
+ * be thread-safe.
+ *
+ * <p>The table keeps at most {@code capacity} verdicts; codes seen after it is full are validated
+ * every time, so a store with unusually many distinct codes cannot grow it without bound.
+ */
+final class ICDCodeTable {
+  /** The URIs of the ICD code systems whose codes are validated. */
+  private static final Set<String> SYSTEMS =
+      Set.of(
+          "http://hl7.org/fhir/sid/icd-10",
+          "http://hl7.org/fhir/sid/icd-10-cm",
+          "http://hl7.org/fhir/sid/icd-9-cm");
+
+  /** The number of verdicts kept by the shared table. */
+  private static final int SHARED_CAPACITY = 100_000;
+
+  private final Predicate<String> validator;
+  private final int capacity;
+  private final Map<String, Boolean> verdicts = new ConcurrentHashMap<>();
+  private final Object validatorLock = new Object();
+
+  /**
+   * @param validator tells whether a code is valid
+   * @param capacity the maximum number of verdicts kept
+   */
+  ICDCodeTable(Predicate<String> validator, int capacity) {
+    this.validator = validator;
+    this.capacity = capacity;
+  }
+
+  /** Returns the table shared by all checks, creating its validator on first use. */
+  static ICDCodeTable shared() {
+    return Shared.TABLE;
+  }
+
+  /** Returns whether codes of the given system are validated, see {@link #isValid}. */
+  static boolean isICD(String system) {
+    return system != null && SYSTEMS.contains(system);
+  }
+
+  /**
+   * Returns whether a code is a valid ICD code.
+   *
+   * @param code the code of an ICD coding, see {@link #isICD}
+   * @return whether the code is valid, {@code false} for {@code null}
+   */
+  boolean isValid(String code) {
+    if (code == null) {
+      return false;
+    }
+    Boolean verdict = verdicts.get(code);
+    if (verdict != null) {
+      return verdict;
+    }
+    boolean valid;
+    synchronized (validatorLock) {
+      valid = validator.test(code);
+    }
+    if (verdicts.size() < capacity) {
+      verdicts.putIfAbsent(code, valid);
+    }
+    return valid;
+  }
+
+  /** Returns the number of verdicts kept. */
+  int size() {
+    return verdicts.size();
+  }
+
+  /** Holds the shared table, created when first used. */
+  private static final class Shared {
+    private static final ICDCodeTable TABLE =
+        new ICDCodeTable(new ICD10Validator()::isValid, SHARED_CAPACITY);
+  }
+}
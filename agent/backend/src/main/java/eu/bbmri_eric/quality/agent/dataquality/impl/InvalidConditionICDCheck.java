@@ -1,16 +1,15 @@
 package eu.bbmri_eric.quality.agent.dataquality.impl;
 
-import eu.bbmri_eric.ICD10Validator;
-import eu.bbmri_eric.ICDValidator;
 import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceScan;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceVisitor;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
 import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import org.hl7.fhir.r4.model.Coding;
-import org.hl7.fhir.r4.model.Condition;
-import org.hl7.fhir.r4.model.Resource;
+import java.util.Optional;
 
 class InvalidConditionICDCheck implements DataQualityCheck {
   private final String name;
@@ -23,50 +22,71 @@ class InvalidConditionICDCheck implements DataQualityCheck {
 
   @Override
   public ResultDTO execute(FHIRStore fhirStore) {
-    ICDValidator icdValidator = new ICD10Validator();
     try {
-      List<Resource> conditions =
-          fhirStore.fetchAllResources("Condition", List.of("id", "code", "subject"));
-      Set<String> invalidIds = new HashSet<>();
-
-      for (Resource resource : conditions) {
-        Condition condition = (Condition) resource;
-        boolean hasValidIcd = false;
-        List<Coding> codings = condition.getCode().getCoding();
-
-        for (Coding coding : codings) {
-          String system = coding.getSystem();
-          String codeValue = coding.getCode();
-
-          if ("http://hl7.org/fhir/sid/icd-10".equals(system)
-              || "http://hl7.org/fhir/sid/icd-10-cm".equals(system)) {
-            if (codeValue != null && icdValidator.isValid(codeValue)) {
-              hasValidIcd = true;
-              break;
-            }
-          } else if ("http://hl7.org/fhir/sid/icd-9-cm".equals(system)) {
-            if (codeValue != null && icdValidator.isValid(codeValue)) {
-              hasValidIcd = true;
-              break;
-            }
-          }
-        }
-
-        if (!codings.isEmpty() && !hasValidIcd) {
-          String subjectRef = condition.getSubject().getReference();
-          if (subjectRef != null && !subjectRef.isEmpty()) {
-            invalidIds.add(subjectRef);
-          }
-        }
-      }
-
-      return ResultDTO.resultFromIdPaths(invalidIds, "Patient");
+      InvalidCodeVisitor visitor = new InvalidCodeVisitor(fhirStore.patientIds());
+      ScanEngine.runSingle(fhirStore, visitor);
+      return visitor.result();
     } catch (Exception e) {
       System.err.println("Error processing " + name + ": " + e.getMessage());
       return new ResultDTO(e.getMessage());
     }
   }
 
+  @Override
+  public CheckRequirements requirements() {
+    return CheckRequirements.scan(ConditionRecord.SCAN);
+  }
+
+  @Override
+  public Optional<String> resultKey() {
+    return Optional.of(InvalidConditionICDCheck.class.getSimpleName());
+  }
+
+  @Override
+  public Optional<ResourceVisitor<?>> visitor(FHIRStore fhirStore) {
+    return Optional.of(new InvalidCodeVisitor(fhirStore.patientIds()));
+  }
+
+  private static final class InvalidCodeVisitor implements ResourceVisitor<ConditionRecord> {
+    private final ICDCodeTable codes = ICDCodeTable.shared();
+    private final PatientIdSet.Builder invalidIds;
+
+    private InvalidCodeVisitor(PatientIdDictionary patientIds) {
+      this.invalidIds = PatientIdSet.builder(patientIds);
+    }
+
+    @Override
+    public ResourceScan<ConditionRecord> scan() {
+      return ConditionRecord.SCAN;
+    }
+
+    @Override
+    public void visit(ConditionRecord condition) {
+      String subjectRef = condition.subject();
+      if (hasOnlyInvalidCodes(condition, codes)
+          && subjectRef != null
+          && !subjectRef.isEmpty()) {
+        invalidIds.addReference(subjectRef);
+      }
+    }
+
+    @Override
+    public ResultDTO result() {
+      return new ResultDTO(invalidIds.size(), "Patient", invalidIds.build());
+    }
+  }
+
+  /** Returns whether the condition is coded, but has no valid ICD code. */
+  static boolean hasOnlyInvalidCodes(ConditionRecord condition, ICDCodeTable codes) {
+    List<ConditionRecord.Coding> codings = condition.codings();
+    for (ConditionRecord.Coding coding : codings) {
+      if (ICDCodeTable.isICD(coding.system()) && codes.isValid(coding.code())) {
+        return false;
+      }
+    }
+    return !codings.isEmpty();
+  }
+
   @Override
   public String getName() {
     return name;
@@ -0,0 +1,85 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Streams the NDJSON files of a bulk export on a background thread. Files are read line by line
+ * and handed to the consumer in chunks of lines, so a file is never held in memory as a whole.
+ */
+class NdjsonPrefetcher extends Prefetcher<SearchChunk> {
+  private final List<URI> files;
+  private final RestTemplate restTemplate;
+  private final int batchSize;
+
+  /**
+   * @param files URIs of the NDJSON files
+   * @param restTemplate client used to download the files
+   * @param batchSize number of lines handed to the consumer in one chunk
+   * @param depth maximum number of chunks waiting to be consumed
+   * @param name name of the download thread
+   */
+  NdjsonPrefetcher(
+      List<URI> files, RestTemplate restTemplate, int batchSize, int depth, String name) {
+    super(depth, name);
+    this.files = List.copyOf(files);
+    this.restTemplate = restTemplate;
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  @Override
+  protected void produce() {
+    for (URI file : files) {
+      if (isClosed()) {
+        return;
+      }
+      try {
+        Boolean completed =
+            restTemplate.execute(
+                file,
+                HttpMethod.GET,
+                request -> request.getHeaders().set(HttpHeaders.ACCEPT, "application/fhir+ndjson"),
+                this::readLines);
+        if (!Boolean.TRUE.equals(completed)) {
+          return;
+        }
+      } catch (RestClientException e) {
+        throw new RuntimeException("Error downloading " + file + ": " + e.getMessage(), e);
+      }
+    }
+  }
+
+  private Boolean readLines(ClientHttpResponse response) throws IOException {
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+      ByteArrayOutputStream batch = new ByteArrayOutputStream();
+      int lines = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        batch.write(line.getBytes(StandardCharsets.UTF_8));
+        batch.write('\n');
+        if (++lines == batchSize) {
+          if (!hand(SearchChunk.ndjson(batch.toByteArray(), lines))) {
+            return false;
+          }
+          batch.reset();
+          lines = 0;
+        }
+      }
+      return lines == 0 || hand(SearchChunk.ndjson(batch.toByteArray(), lines));
+    }
+  }
+}
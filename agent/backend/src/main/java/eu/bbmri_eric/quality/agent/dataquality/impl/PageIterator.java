@@ -0,0 +1,86 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the items of a paged FHIR search result. Pages are loaded on demand, so at most one
+ * page is referenced at any time and memory use is bounded by the page size rather than by the
+ * total number of matches. Loading a page stops the iteration if the check running on the thread
+ * that created the iterator is cancelled, even if the page is served without a FHIR request.
+ *
+ * @param <P> the type of a page
+ * @param <T> the type of the items on a page
+ */
+class PageIterator<P, T> implements Iterator<T> {
+
+  private final Supplier<P> firstPage;
+  private final UnaryOperator<P> nextPage;
+  private final Function<P, Iterator<T>> items;
+  private final CheckCancellation cancellation = CheckCancellation.current();
+  private P currentPage;
+  private Iterator<T> pageItems;
+  private T nextItem;
+  private boolean exhausted;
+
+  /**
+   * @param firstPage loads the first page of the search
+   * @param nextPage loads the page following the given one, or returns {@code null} when the given
+   *     page is the last one
+   * @param items returns the items of a page
+   */
+  PageIterator(Supplier<P> firstPage, UnaryOperator<P> nextPage, Function<P, Iterator<T>> items) {
+    this.firstPage = firstPage;
+    this.nextPage = nextPage;
+    this.items = items;
+  }
+
+  static <P, T> Stream<T> stream(
+      Supplier<P> firstPage, UnaryOperator<P> nextPage, Function<P, Iterator<T>> items) {
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(
+            new PageIterator<>(firstPage, nextPage, items),
+            Spliterator.ORDERED | Spliterator.NONNULL),
+        false);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (nextItem == null && !exhausted) {
+      if (pageItems != null && pageItems.hasNext()) {
+        nextItem = pageItems.next();
+      } else {
+        advancePage();
+      }
+    }
+    return nextItem != null;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    T item = nextItem;
+    nextItem = null;
+    return item;
+  }
+
+  private void advancePage() {
+    CheckCancellation.throwIfCancelled(cancellation);
+    currentPage = currentPage == null ? firstPage.get() : nextPage.apply(currentPage);
+    if (currentPage == null) {
+      exhausted = true;
+      pageItems = null;
+    } else {
+      pageItems = items.apply(currentPage);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.net.URI;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Downloads the pages of a FHIR search on a background thread while earlier pages are still being
+ * parsed and consumed. Each page is only requested once the previous one has been downloaded,
+ * because its URI is taken from the {@code next} link of the previous page.
+ */
+class PagePrefetcher extends Prefetcher<byte[]> {
+  private final URI firstPage;
+  private final Function<URI, byte[]> download;
+  private final Function<byte[], Optional<URI>> nextPage;
+
+  /**
+   * @param firstPage URI of the first search page
+   * @param download downloads the raw body of a page
+   * @param nextPage resolves the URI of the page following the given raw page, if any
+   * @param depth maximum number of downloaded pages waiting to be consumed
+   * @param name name of the download thread
+   */
+  PagePrefetcher(
+      URI firstPage,
+      Function<URI, byte[]> download,
+      Function<byte[], Optional<URI>> nextPage,
+      int depth,
+      String name) {
+    super(depth, name);
+    this.firstPage = firstPage;
+    this.download = download;
+    this.nextPage = nextPage;
+  }
+
+  @Override
+  protected void produce() {
+    URI next = firstPage;
+    while (next != null && !isClosed()) {
+      byte[] body = download.apply(next);
+      next = nextPage.apply(body).orElse(null);
+      if (!hand(body)) {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Downloads the pages of several disjoint searches that together form one scan, each search on its
+ * own worker thread. Pages are handed to the consumer in the order they arrive, so a slow
+ * partition does not hold back the others. The first failing partition aborts the whole scan.
+ */
+class PartitionPrefetcher extends Prefetcher<byte[]> {
+  private final List<URI> firstPages;
+  private final Function<URI, byte[]> download;
+  private final Function<byte[], Optional<URI>> nextPage;
+  private final String name;
+
+  /**
+   * @param firstPages URIs of the first pages of the partitions
+   * @param download downloads the raw body of a page
+   * @param nextPage resolves the URI of the page following the given raw page, if any
+   * @param depth maximum number of downloaded pages per partition waiting to be consumed
+   * @param name name prefix of the download threads
+   */
+  PartitionPrefetcher(
+      List<URI> firstPages,
+      Function<URI, byte[]> download,
+      Function<byte[], Optional<URI>> nextPage,
+      int depth,
+      String name) {
+    super(depth * firstPages.size(), name);
+    this.firstPages = List.copyOf(firstPages);
+    this.download = download;
+    this.nextPage = nextPage;
+    this.name = name;
+  }
+
+  @Override
+  protected void produce() {
+    try (ExecutorService workers =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory())) {
+      CompletionService<Void> partitions = new ExecutorCompletionService<>(workers);
+      firstPages.forEach(uri -> partitions.submit(() -> follow(uri), null));
+      try {
+        for (int remaining = firstPages.size(); remaining > 0; remaining--) {
+          partitions.take().get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        workers.shutdownNow();
+      } catch (ExecutionException e) {
+        workers.shutdownNow();
+        throw e.getCause() instanceof RuntimeException cause
+            ? cause
+            : new IllegalStateException(e.getCause());
+      }
+    }
+  }
+
+  private void follow(URI firstPage) {
+    URI next = firstPage;
+    while (next != null && !isClosed()) {
+      byte[] body = download.apply(next);
+      next = nextPage.apply(body).orElse(null);
+      if (!hand(body)) {
+        return;
+      }
+    }
+  }
+}
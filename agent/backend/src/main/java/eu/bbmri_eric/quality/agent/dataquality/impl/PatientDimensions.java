@@ -0,0 +1,136 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * The dimensions patients can be stratified by, see {@link StrataCube}. They are named in the
+ * {@code checks.strata} setting and the stratifier of CQL checks, e.g. {@code gender,age}:
+ *
+ * <ul>
+ *   <li>{@code gender}: {@code male} or {@code female}
+ *   <li>{@code age}: the age band of ten years, from {@code 0-9} to {@code 90+}
+ *   <li>{@code site}: the managing organization, such as the collection site of the patient
+ * </ul>
+ */
+final class PatientDimensions {
+  /** The name of the age band dimension, whose strata depend on the current date. */
+  static final String AGE = "age";
+
+  /** The width of an age band in years. */
+  private static final int AGE_BAND = 10;
+
+  /** The lower bound of the last, open-ended age band. */
+  private static final int OLDEST = 90;
+
+  private PatientDimensions() {}
+
+  /**
+   * Parses a list of dimension names.
+   *
+   * @param names the names of the dimensions, separated by commas
+   * @return the dimensions, in the given order
+   * @throws IllegalArgumentException if a name is unknown or repeated, or no name is given
+   */
+  static List<StrataDimension<PatientRecord>> parse(String names) {
+    return parse(names, LocalDate.now());
+  }
+
+  /**
+   * Parses a list of dimension names, computing ages on the given day.
+   *
+   * @param names the names of the dimensions, separated by commas
+   * @param today the day the ages are computed on
+   * @return the dimensions, in the given order
+   * @throws IllegalArgumentException if a name is unknown or repeated, or no name is given
+   */
+  static List<StrataDimension<PatientRecord>> parse(String names, LocalDate today) {
+    List<StrataDimension<PatientRecord>> dimensions = new ArrayList<>();
+    for (String name : names.split(",")) {
+      StrataDimension<PatientRecord> dimension =
+          of(name.strip().toLowerCase(Locale.ROOT), today);
+      if (dimensions.stream().anyMatch(other -> other.name().equals(dimension.name()))) {
+        throw new IllegalArgumentException("Strata dimension " + dimension.name() + " repeated");
+      }
+      dimensions.add(dimension);
+    }
+    return dimensions;
+  }
+
+  /**
+   * Returns whether the given dimensions include the age band, so that their strata change with
+   * the date.
+   */
+  static boolean includesAge(List<StrataDimension<PatientRecord>> dimensions) {
+    return dimensions.stream().anyMatch(dimension -> dimension.name().equals(AGE));
+  }
+
+  private static StrataDimension<PatientRecord> of(String name, LocalDate today) {
+    return switch (name) {
+      case "gender" -> gender();
+      case AGE -> age(today);
+      case "site" -> site();
+      default -> throw new IllegalArgumentException("Unknown strata dimension: " + name);
+    };
+  }
+
+  static StrataDimension<PatientRecord> gender() {
+    return new StrataDimension<>(
+        "gender",
+        patient -> patient.gender() != null ? patient.gender().toLowerCase(Locale.ROOT) : null,
+        List.of("male", "female"),
+        "gender");
+  }
+
+  /**
+   * Returns the age band dimension. Partial birth dates count from their first day, so a patient
+   * born in {@code 1970} is as old as one born on January 1st of that year.
+   *
+   * @param today the day the ages are computed on
+   */
+  static StrataDimension<PatientRecord> age(LocalDate today) {
+    List<String> bands =
+        IntStream.iterate(0, lower -> lower <= OLDEST, lower -> lower + AGE_BAND)
+            .mapToObj(PatientDimensions::band)
+            .toList();
+    return new StrataDimension<>(
+        AGE,
+        patient -> {
+          LocalDate birthDate = birthDate(patient.birthDate());
+          if (birthDate == null || birthDate.isAfter(today)) {
+            return null;
+          }
+          return band(Period.between(birthDate, today).getYears() / AGE_BAND * AGE_BAND);
+        },
+        bands,
+        null);
+  }
+
+  static StrataDimension<PatientRecord> site() {
+    return new StrataDimension<>("site", PatientRecord::managingOrganization, List.of(), null);
+  }
+
+  private static String band(int lower) {
+    return lower >= OLDEST ? OLDEST + "+" : lower + "-" + (lower + AGE_BAND - 1);
+  }
+
+  private static LocalDate birthDate(String birthDate) {
+    if (birthDate == null) {
+      return null;
+    }
+    try {
+      return switch (birthDate.length()) {
+        case 4 -> LocalDate.of(Integer.parseInt(birthDate), 1, 1);
+        case 7 -> LocalDate.parse(birthDate + "-01");
+        default -> LocalDate.parse(birthDate.substring(0, Math.min(10, birthDate.length())));
+      };
+    } catch (NumberFormatException | DateTimeParseException e) {
+      return null;
+    }
+  }
+}
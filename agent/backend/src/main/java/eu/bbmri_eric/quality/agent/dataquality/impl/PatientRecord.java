@@ -0,0 +1,127 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceScan;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact projection of a FHIR Patient holding only the fields read by the built-in checks.
+ *
+ * @param id the logical ID of the patient
+ * @param gender the administrative gender code, or {@code null} if absent
+ * @param deceased whether the patient is marked as deceased by a flag or a date
+ * @param identifiers the business identifiers of the patient
+ * @param birthDate the birth date, possibly partial like {@code 1970} or {@code 1970-05}, or {@code
+ *     null} if absent
+ * @param managingOrganization the reference to the managing organization, e.g. {@code
+ *     Organization/1}, or {@code null} if absent
+ */
+record PatientRecord(
+    String id,
+    String gender,
+    boolean deceased,
+    List<Identifier> identifiers,
+    String birthDate,
+    String managingOrganization) {
+
+  /**
+   * The elements read by {@link #decode}. Checks request this projection so that they share one
+   * snapshot of the patients of a report.
+   */
+  static final List<String> ELEMENTS =
+      List.of("id", "identifier", "gender", "deceased", "birthDate", "managingOrganization");
+
+  /** The scan of all patients, shared by the built-in checks that read patients. */
+  static final ResourceScan<PatientRecord> SCAN =
+      new ResourceScan<>("Patient", ELEMENTS, PatientRecord::decode);
+
+  PatientRecord(String id, String gender, boolean deceased, List<Identifier> identifiers) {
+    this(id, gender, deceased, identifiers, null, null);
+  }
+
+  /**
+   * Compact projection of a FHIR Identifier.
+   *
+   * @param system the identifier namespace
+   * @param value the identifier value
+   */
+  record Identifier(String system, String value) {}
+
+  /**
+   * Decodes a Patient from the streaming parser, see {@link
+   * eu.bbmri_eric.quality.agent.dataquality.ResourceDecoder}.
+   *
+   * @return the decoded patient, or {@code null} if the resource is not a Patient
+   */
+  static PatientRecord decode(JsonParser parser) throws IOException {
+    String resourceType = null;
+    String id = null;
+    String gender = null;
+    boolean deceased = false;
+    List<Identifier> identifiers = List.of();
+    String birthDate = null;
+    String managingOrganization = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      switch (field) {
+        case "resourceType" -> resourceType = parser.getText();
+        case "id" -> id = parser.getText();
+        case "gender" -> gender = parser.getText();
+        case "deceasedBoolean" -> deceased = value == JsonToken.VALUE_TRUE;
+        case "deceasedDateTime" -> deceased = true;
+        case "identifier" -> identifiers = decodeIdentifiers(parser);
+        case "birthDate" -> birthDate = parser.getText();
+        case "managingOrganization" -> managingOrganization = decodeReference(parser);
+        default -> parser.skipChildren();
+      }
+    }
+    return "Patient".equals(resourceType)
+        ? new PatientRecord(id, gender, deceased, identifiers, birthDate, managingOrganization)
+        : null;
+  }
+
+  private static String decodeReference(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+    String reference = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      if ("reference".equals(field)) {
+        reference = parser.getText();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return reference;
+  }
+
+  private static List<Identifier> decodeIdentifiers(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return List.of();
+    }
+    List<Identifier> identifiers = new ArrayList<>(1);
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      String system = null;
+      String value = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        switch (field) {
+          case "system" -> system = parser.getText();
+          case "value" -> value = parser.getText();
+          default -> parser.skipChildren();
+        }
+      }
+      identifiers.add(new Identifier(system, value));
+    }
+    return identifiers;
+  }
+}
@@ -0,0 +1,115 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.impl.ChunkedFHIRStore.WindowSample;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.random.RandomGenerator;
+import java.util.stream.Stream;
+
+/**
+ * A random sample of the patients of a store.
+ *
+ * <p>{@link #draw} is a simple random sample, drawn in one pass over the patients with reservoir
+ * sampling. Every patient is equally likely to be drawn, however the store orders them. The pass
+ * reads the same projection as the built-in checks, so it is only cheap with sync enabled, when
+ * the patients are read from the local copy rather than from the FHIR server.
+ *
+ * <p>{@link #drawByLastUpdated} reads a bounded number of pages instead: the first page of each of
+ * {@link #WINDOWS} {@code _lastUpdated} windows. The sample is split among the windows by their
+ * number of patients, and drawn at random from the first page of each window. Patients past the
+ * first page of a window are never drawn, so the sample is only as random as the order in which
+ * the server pages a window, which for Blaze is by logical ID.
+ *
+ * @param patientIds the logical IDs of the patients drawn, in no particular order
+ * @param population the number of patients in the store
+ */
+record PatientSample(List<String> patientIds, int population) {
+
+  /** The number of {@code _lastUpdated} windows {@link #drawByLastUpdated} reads a page of. */
+  static final int WINDOWS = 10;
+
+  PatientSample {
+    patientIds = List.copyOf(patientIds);
+  }
+
+  /**
+   * Draws a sample of the patients of a store.
+   *
+   * @param fhirStore the store to draw from
+   * @param size the number of patients to draw, all of them if the store has fewer
+   * @param random the source of randomness
+   * @return the sample
+   */
+  static PatientSample draw(FHIRStore fhirStore, int size, RandomGenerator random) {
+    List<String> reservoir = new ArrayList<>(size);
+    int population = 0;
+    try (Stream<PatientRecord> patients =
+        fhirStore.streamAllResources(
+            PatientRecord.SCAN.resourceType(),
+            PatientRecord.SCAN.elements(),
+            PatientRecord.SCAN.decoder())) {
+      for (PatientRecord patient : (Iterable<PatientRecord>) patients::iterator) {
+        if (patient == null || patient.id() == null) {
+          continue;
+        }
+        population++;
+        if (reservoir.size() < size) {
+          reservoir.add(patient.id());
+        } else {
+          // the patient replaces a drawn one with probability size / population
+          int slot = random.nextInt(population);
+          if (slot < size) {
+            reservoir.set(slot, patient.id());
+          }
+        }
+      }
+    }
+    return new PatientSample(reservoir, population);
+  }
+
+  /**
+   * Draws a sample of the patients of a store from the first page of each of its {@code
+   * _lastUpdated} windows.
+   *
+   * @param fhirStore the store to draw from
+   * @param size the number of patients to draw, all of them if the store has fewer
+   * @param random the source of randomness
+   * @return the sample
+   * @throws IllegalStateException if the store cannot count its patients
+   */
+  static PatientSample drawByLastUpdated(
+      ChunkedFHIRStore fhirStore, int size, RandomGenerator random) {
+    String resourceType = PatientRecord.SCAN.resourceType();
+    int population = fhirStore.countResources(resourceType);
+    if (population < 0) {
+      throw new IllegalStateException("Cannot count the patients of the FHIR store");
+    }
+    List<WindowSample> windows = fhirStore.sampleByLastUpdated(resourceType, WINDOWS, size);
+    long total = windows.stream().mapToLong(WindowSample::total).sum();
+    List<String> drawn = new ArrayList<>();
+    if (windows.stream().anyMatch(window -> window.total() < 0)) {
+      // without the size of the windows, draw from all IDs read alike
+      windows.forEach(window -> drawn.addAll(window.ids()));
+    } else {
+      for (WindowSample window : windows) {
+        double share = total == 0 ? 0 : (double) size * window.total() / total;
+        // round at random, so every window gets its share of the sample on average
+        int quota = (int) share + (random.nextDouble() < share - (int) share ? 1 : 0);
+        drawn.addAll(pick(window.ids(), quota, random));
+      }
+    }
+    return new PatientSample(pick(drawn, size, random), population);
+  }
+
+  /** Picks up to {@code count} of the given IDs at random. */
+  private static List<String> pick(List<String> ids, int count, RandomGenerator random) {
+    if (ids.size() <= count) {
+      return ids;
+    }
+    List<String> shuffled = new ArrayList<>(ids);
+    Collections.shuffle(shuffled, random);
+    return shuffled.subList(0, count);
+  }
+}
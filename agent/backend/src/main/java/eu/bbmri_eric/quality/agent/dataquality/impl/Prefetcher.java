@@ -0,0 +1,156 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Produces items on a background thread while earlier items are still being consumed, so network
+ * time and parse time overlap.
+ *
+ * <p>At most {@code depth} produced items are buffered. When the buffer is full the producer
+ * blocks until the consumer catches up, which bounds memory to a few items. A consumer that stops
+ * reading without closing the prefetcher releases the producer after {@link #CONSUMER_TIMEOUT}; the
+ * buffered items are dropped and the next {@link #take} fails, so the consumer never mistakes the
+ * abandoned production for the end of the items.
+ *
+ * @param <P> the type of the produced items
+ */
+abstract class Prefetcher<P> implements AutoCloseable {
+  static final Duration CONSUMER_TIMEOUT = Duration.ofMinutes(10);
+
+  private final String name;
+  private final BlockingQueue<Item<P>> items;
+  private final Duration consumerTimeout;
+  private volatile boolean closed;
+  private Thread producer;
+  private boolean finished;
+
+  /**
+   * @param depth maximum number of produced items waiting to be consumed
+   * @param name name of the producer thread
+   */
+  Prefetcher(int depth, String name) {
+    this(depth, name, CONSUMER_TIMEOUT);
+  }
+
+  /**
+   * @param depth maximum number of produced items waiting to be consumed
+   * @param name name of the producer thread
+   * @param consumerTimeout how long the producer waits for the consumer to make room
+   */
+  Prefetcher(int depth, String name, Duration consumerTimeout) {
+    this.name = name;
+    this.items = new ArrayBlockingQueue<>(Math.max(1, depth));
+    this.consumerTimeout = consumerTimeout;
+  }
+
+  /**
+   * Returns the next produced item, blocking until it is available. The producer starts with the
+   * first call.
+   *
+   * @return the next item, or {@code null} after the last one
+   */
+  P take() {
+    if (finished) {
+      return null;
+    }
+    if (producer == null) {
+      producer = Thread.ofVirtual().name(name).start(this::run);
+    }
+    Item<P> item;
+    try {
+      item = items.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new IllegalStateException("Interrupted while waiting for FHIR data", e);
+    }
+    if (item.error() != null) {
+      finished = true;
+      throw item.error();
+    }
+    if (item.value() == null) {
+      finished = true;
+    }
+    return item.value();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    finished = true;
+    if (producer != null) {
+      producer.interrupt();
+    }
+  }
+
+  /**
+   * Produces all items by passing them to {@link #hand}. Runs on the producer thread; a runtime
+   * exception is rethrown to the consumer, and an error such as running out of memory is rethrown
+   * to it wrapped in an {@link IllegalStateException}.
+   */
+  protected abstract void produce();
+
+  /**
+   * Hands an item to the consumer, blocking while the buffer is full.
+   *
+   * @return {@code false} if the prefetcher was closed and the producer should stop
+   */
+  protected final boolean hand(P item) {
+    return offer(new Item<>(item, null));
+  }
+
+  protected final boolean isClosed() {
+    return closed;
+  }
+
+  private void run() {
+    try {
+      produce();
+      offer(new Item<>(null, null));
+    } catch (RuntimeException e) {
+      offer(new Item<>(null, e));
+    } catch (Error e) {
+      // the consumer would otherwise wait for the end of the items forever
+      offer(new Item<>(null, new IllegalStateException("Failed to download FHIR data: " + e, e)));
+      throw e;
+    }
+  }
+
+  private boolean offer(Item<P> item) {
+    if (closed) {
+      return false;
+    }
+    try {
+      if (items.offer(item, consumerTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    if (!closed) {
+      abandon();
+    }
+    return false;
+  }
+
+  /**
+   * Stops producing for a consumer that stopped reading without closing. The buffered items are
+   * replaced by an error, so that a consumer coming back fails instead of seeing a truncated end.
+   */
+  private void abandon() {
+    closed = true;
+    items.clear();
+    items.offer(
+        new Item<>(
+            null,
+            new IllegalStateException(
+                "FHIR data was not read for %d seconds, stopped downloading it"
+                    .formatted(consumerTimeout.toSeconds()))));
+  }
+
+  private record Item<P>(P value, RuntimeException error) {}
+}
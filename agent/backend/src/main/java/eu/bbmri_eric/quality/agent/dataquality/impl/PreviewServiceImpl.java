@@ -0,0 +1,157 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.PreviewService;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
+import eu.bbmri_eric.quality.agent.dataquality.dto.PreviewDTO;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.random.RandomGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Estimates the results of CQL checks from a random sample of patients. Only the sampled patients
+ * are evaluated, each on its own, so a preview costs about as much as evaluating the query for
+ * {@code sampleSize} patients, plus drawing the sample. With sync enabled, the sample is drawn in
+ * one pass over the local copy of the patients, and otherwise from the first page of a few {@code
+ * _lastUpdated} windows, see {@link PatientSample}.
+ *
+ * <p>The share of sampled patients in the result estimates the share of all patients in it. Its
+ * confidence interval is the Wilson score interval, corrected for sampling without replacement
+ * from a finite store.
+ *
+ * <p>The Library and Measure evaluating a previewed query are deleted after the last running
+ * preview of the query, unless a saved check has the same query and thus shares them.
+ */
+@Service
+class PreviewServiceImpl implements PreviewService {
+  private static final Logger log = LoggerFactory.getLogger(PreviewServiceImpl.class);
+
+  /** The confidence level of the reported intervals. */
+  static final double CONFIDENCE = 0.95;
+
+  /** The quantile of the standard normal distribution for {@link #CONFIDENCE}. */
+  private static final double Z = 1.959964;
+
+  private final FHIRStore fhirStore;
+  private final CQLResourceCollector resourceCollector;
+  private final DeltaSync deltaSync;
+  private final int maxSampleSize;
+
+  /** The number of running previews per query, which share the query's Library and Measure. */
+  private final Map<String, Integer> runningPreviews = new ConcurrentHashMap<>();
+
+  PreviewServiceImpl(
+      FHIRStore fhirStore,
+      CQLResourceCollector resourceCollector,
+      DeltaSync deltaSync,
+      @Value("${checks.preview.max-sample-size:2000}") int maxSampleSize) {
+    this.fhirStore = fhirStore;
+    this.resourceCollector = resourceCollector;
+    this.deltaSync = deltaSync;
+    this.maxSampleSize = maxSampleSize;
+  }
+
+  @Override
+  public PreviewDTO preview(String query, int sampleSize) {
+    if (query == null || query.isBlank()) {
+      throw new IllegalArgumentException("The query must not be empty");
+    }
+    if (sampleSize < 1 || sampleSize > maxSampleSize) {
+      throw new IllegalArgumentException(
+          "The sample size must be between 1 and " + maxSampleSize + ", not " + sampleSize);
+    }
+    long start = System.nanoTime();
+    runningPreviews.merge(query, 1, Integer::sum);
+    try {
+      PatientSample sample = drawSample(sampleSize);
+      int matched =
+          new CQLQuery("Preview", "Preview", query)
+              .evaluateFor(fhirStore, sample.patientIds())
+              .size();
+      log.debug(
+          "Previewed a query on {} of {} patients in {} ms",
+          sample.patientIds().size(),
+          sample.population(),
+          (System.nanoTime() - start) / 1_000_000);
+      return estimate(matched, sample.patientIds().size(), sample.population());
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause() != null ? e.getCause() : e;
+      log.warn("Preview of a query failed: {}", cause.getMessage());
+      return new PreviewDTO(cause.getMessage());
+    } catch (RuntimeException e) {
+      log.warn("Preview of a query failed: {}", e.getMessage());
+      return new PreviewDTO(e.getMessage());
+    } finally {
+      release(query);
+    }
+  }
+
+  private PatientSample drawSample(int sampleSize) {
+    RandomGenerator random = RandomGenerator.getDefault();
+    if (deltaSync.isEnabled() || !(fhirStore instanceof ChunkedFHIRStore chunkedStore)) {
+      return PatientSample.draw(fhirStore, sampleSize, random);
+    }
+    return PatientSample.drawByLastUpdated(chunkedStore, sampleSize, random);
+  }
+
+  /**
+   * Ends a preview of a query, collecting its Library and Measure if no other preview of the query
+   * is running. They are collected while the count is locked, so a preview starting meanwhile
+   * waits and then creates them anew.
+   */
+  private void release(String query) {
+    runningPreviews.compute(
+        query,
+        (key, running) -> {
+          if (running > 1) {
+            return running - 1;
+          }
+          try {
+            resourceCollector.collect(key);
+          } catch (RuntimeException e) {
+            log.warn("Failed to delete the Library and Measure of a preview: {}", e.getMessage());
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Estimates the number of patients in a result from a sample.
+   *
+   * @param matched the number of sampled patients in the result
+   * @param sampled the number of sampled patients
+   * @param population the number of patients the sample was drawn from
+   * @return the estimate and its confidence interval, which always contains the observed patients
+   */
+  static PreviewDTO estimate(int matched, int sampled, int population) {
+    if (sampled == 0) {
+      return new PreviewDTO(0, 0, 0, CONFIDENCE, 0, 0, population, null);
+    }
+    if (sampled >= population) {
+      return new PreviewDTO(
+          matched, matched, matched, CONFIDENCE, sampled, matched, population, null);
+    }
+    double share = (double) matched / sampled;
+    double z2 = Z * Z;
+    double denominator = 1 + z2 / sampled;
+    double center = (share + z2 / (2.0 * sampled)) / denominator;
+    double margin =
+        Z
+            * Math.sqrt(share * (1 - share) / sampled + z2 / (4.0 * sampled * sampled))
+            / denominator;
+    // the fewer patients are left unsampled, the less uncertain the estimate
+    margin *= Math.sqrt((double) (population - sampled) / (population - 1));
+    int estimate = (int) Math.round(share * population);
+    // the corrected interval is narrowed around its center, so it may miss the estimate itself
+    int lower = Math.min(estimate, (int) Math.floor((center - margin) * population));
+    int upper = Math.max(estimate, (int) Math.ceil((center + margin) * population));
+    lower = Math.max(matched, lower);
+    upper = Math.min(population - (sampled - matched), upper);
+    return new PreviewDTO(estimate, lower, upper, CONFIDENCE, sampled, matched, population, null);
+  }
+}
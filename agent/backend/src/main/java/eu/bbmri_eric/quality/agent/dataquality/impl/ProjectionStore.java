@@ -0,0 +1,171 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Persists the local projection of FHIR resources in the agent database. Resources are kept per
+ * resource type and element projection, as received from the server.
+ *
+ * <p>Uses plain JDBC batches instead of JPA, because a projection holds one row per resource of
+ * the FHIR store and is written and read in bulk.
+ */
+@Component
+class ProjectionStore {
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+
+  ProjectionStore(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = transactionTemplate;
+  }
+
+  /**
+   * The state of a synced projection.
+   *
+   * @param serverUrl the FHIR server the projection was synced from
+   * @param syncedSince changes from this instant on may be missing from the projection
+   */
+  record SyncState(String serverUrl, Instant syncedSince) {}
+
+  Optional<SyncState> syncState(String resourceType, String projection) {
+    return jdbcTemplate
+        .query(
+            "SELECT server_url, synced_since FROM fhir_projection_sync"
+                + " WHERE resource_type = ? AND projection = ?",
+            (rs, row) -> new SyncState(rs.getString(1), Instant.parse(rs.getString(2))),
+            resourceType,
+            projection)
+        .stream()
+        .findFirst();
+  }
+
+  void saveSyncState(String resourceType, String projection, SyncState state) {
+    jdbcTemplate.update(
+        "INSERT INTO fhir_projection_sync (resource_type, projection, server_url, synced_since)"
+            + " VALUES (?, ?, ?, ?) ON CONFLICT (resource_type, projection)"
+            + " DO UPDATE SET server_url = excluded.server_url,"
+            + " synced_since = excluded.synced_since",
+        resourceType,
+        projection,
+        state.serverUrl(),
+        state.syncedSince().toString());
+  }
+
+  /** Removes all resources and the sync state of a projection. */
+  void clear(String resourceType, String projection) {
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          jdbcTemplate.update(
+              "DELETE FROM fhir_projection_resource WHERE resource_type = ? AND projection = ?",
+              resourceType,
+              projection);
+          jdbcTemplate.update(
+              "DELETE FROM fhir_projection_sync WHERE resource_type = ? AND projection = ?",
+              resourceType,
+              projection);
+        });
+  }
+
+  /** Inserts or replaces resources of a projection in one transaction. */
+  void upsert(String resourceType, String projection, List<StoredResource> resources) {
+    if (resources.isEmpty()) {
+      return;
+    }
+    transactionTemplate.executeWithoutResult(
+        status ->
+            jdbcTemplate.batchUpdate(
+                "INSERT INTO fhir_projection_resource"
+                    + " (resource_type, projection, resource_id, content) VALUES (?, ?, ?, ?)"
+                    + " ON CONFLICT (resource_type, projection, resource_id)"
+                    + " DO UPDATE SET content = excluded.content",
+                resources,
+                resources.size(),
+                (ps, resource) -> {
+                  ps.setString(1, resourceType);
+                  ps.setString(2, projection);
+                  ps.setString(3, resource.id());
+                  ps.setBytes(4, resource.json());
+                }));
+  }
+
+  /** Deletes resources of a projection by their logical IDs in one transaction. */
+  void delete(String resourceType, String projection, Collection<String> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    transactionTemplate.executeWithoutResult(
+        status ->
+            jdbcTemplate.batchUpdate(
+                "DELETE FROM fhir_projection_resource"
+                    + " WHERE resource_type = ? AND projection = ? AND resource_id = ?",
+                ids,
+                ids.size(),
+                (ps, id) -> {
+                  ps.setString(1, resourceType);
+                  ps.setString(2, projection);
+                  ps.setString(3, id);
+                }));
+  }
+
+  Set<String> ids(String resourceType, String projection) {
+    return new HashSet<>(
+        jdbcTemplate.queryForList(
+            "SELECT resource_id FROM fhir_projection_resource"
+                + " WHERE resource_type = ? AND projection = ?",
+            String.class,
+            resourceType,
+            projection));
+  }
+
+  /**
+   * Streams the resources of a projection as NDJSON chunks. Rows are read lazily in batches
+   * ordered by ID, so no database connection is held between batches.
+   *
+   * @param batchSize maximum number of resources per chunk
+   */
+  Stream<SearchChunk> chunks(String resourceType, String projection, int batchSize) {
+    return PageIterator.stream(
+        () -> batch(resourceType, projection, "", batchSize),
+        previous ->
+            previous.chunk().entries() < batchSize
+                ? null
+                : batch(resourceType, projection, previous.lastId(), batchSize),
+        (Batch batch) -> List.of(batch.chunk()).iterator());
+  }
+
+  /** Reads the resources following {@code afterId}, returning {@code null} if there are none. */
+  private Batch batch(String resourceType, String projection, String afterId, int batchSize) {
+    List<StoredResource> resources =
+        jdbcTemplate.query(
+            "SELECT resource_id, content FROM fhir_projection_resource"
+                + " WHERE resource_type = ? AND projection = ? AND resource_id > ?"
+                + " ORDER BY resource_id LIMIT ?",
+            (rs, row) -> new StoredResource(rs.getString(1), rs.getBytes(2)),
+            resourceType,
+            projection,
+            afterId,
+            batchSize);
+    if (resources.isEmpty()) {
+      return null;
+    }
+    ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+    for (StoredResource resource : resources) {
+      ndjson.writeBytes(resource.json());
+      ndjson.write('\n');
+    }
+    return new Batch(
+        SearchChunk.ndjson(ndjson.toByteArray(), resources.size()), resources.getLast().id());
+  }
+
+  private record Batch(SearchChunk chunk, String lastId) {}
+}
@@ -6,6 +6,7 @@ import eu.bbmri_eric.quality.agent.dataquality.domain.Report;
 import eu.bbmri_eric.quality.agent.dataquality.domain.ReportStatus;
 import eu.bbmri_eric.quality.agent.dataquality.event.DQCheckResultsGatheredEvent;
 import eu.bbmri_eric.quality.agent.dataquality.event.NewReportEvent;
+import eu.bbmri_eric.quality.agent.dataquality.event.ReportCancelledEvent;
 import eu.bbmri_eric.quality.agent.dataquality.event.ReportGeneratedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.data.rest.core.annotation.HandleAfterCreate;
@@ -34,11 +35,17 @@ class ReportEventHandler {
     publisher.publishEvent(new NewReportEvent(report.getId()));
   }
 
+  @Transactional
+  public void onCancelled(Long reportId) {
+    publisher.publishEvent(new ReportCancelledEvent(reportId));
+  }
+
   @EventListener
   @Transactional
   void onResultsGathered(DQCheckResultsGatheredEvent event) {
     reportRepository
         .findById(event.getReportId())
+        .filter(report -> report.getStatus() == ReportStatus.GENERATING)
         .ifPresent(
             report -> {
               int count = fhirStore.countResources("Patient");
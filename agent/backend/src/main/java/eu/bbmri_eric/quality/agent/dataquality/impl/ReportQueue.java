@@ -0,0 +1,84 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.domain.Report;
+import eu.bbmri_eric.quality.agent.dataquality.domain.ReportStatus;
+import eu.bbmri_eric.quality.agent.dataquality.event.NewReportEvent;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Generates queued reports on {@code reports.workers} worker threads. The queue is the report table
+ * itself: a report is stored as {@link ReportStatus#QUEUED} before it is handed to a worker, so
+ * reports still queued when the agent stops are generated once it starts again. A worker claims a
+ * report by moving it to {@link ReportStatus#GENERATING} in one update, which fails if the report
+ * was cancelled in the meantime, and runs its checks outside of any transaction; each result is
+ * stored in a short transaction of its own.
+ *
+ * <p>A report that was generating when the agent stopped cannot be resumed, so it is marked {@link
+ * ReportStatus#FAILED} on start. So is a report whose checks could not be run at all.
+ */
+@Component
+class ReportQueue {
+
+  private static final Logger log = LoggerFactory.getLogger(ReportQueue.class);
+
+  private final ReportRepository reportRepository;
+  private final DataQualityChecksRunner runner;
+  private final ExecutorService workers;
+
+  ReportQueue(
+      ReportRepository reportRepository,
+      DataQualityChecksRunner runner,
+      @Value("${reports.workers:1}") int workers) {
+    this.reportRepository = reportRepository;
+    this.runner = runner;
+    this.workers =
+        Executors.newFixedThreadPool(
+            Math.max(1, workers), Thread.ofPlatform().name("report-worker-", 0).daemon().factory());
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  void onApplicationReady() {
+    int interrupted =
+        reportRepository.updateAllStatus(ReportStatus.GENERATING, ReportStatus.FAILED);
+    if (interrupted > 0) {
+      log.warn("{} reports interrupted by a restart marked as failed", interrupted);
+    }
+    reportRepository.findAllByStatusIs(ReportStatus.QUEUED).stream()
+        .map(Report::getId)
+        .sorted()
+        .forEach(this::submit);
+  }
+
+  @EventListener
+  void onNewReport(NewReportEvent event) {
+    submit(event.getReportId());
+  }
+
+  /** Hands a queued report to the next free worker. */
+  void submit(Long reportId) {
+    workers.execute(() -> generate(reportId));
+  }
+
+  /** Claims a queued report and runs its checks, unless another worker claimed it first. */
+  void generate(Long reportId) {
+    int claimed =
+        reportRepository.updateStatus(reportId, ReportStatus.QUEUED, ReportStatus.GENERATING);
+    if (claimed == 0) {
+      log.debug("Report {} is no longer queued", reportId);
+      return;
+    }
+    try {
+      runner.onNewReport(new NewReportEvent(reportId));
+    } catch (RuntimeException e) {
+      log.error("Report {} failed", reportId, e);
+      reportRepository.updateStatus(reportId, ReportStatus.GENERATING, ReportStatus.FAILED);
+    }
+  }
+}
@@ -2,11 +2,59 @@ package eu.bbmri_eric.quality.agent.dataquality.impl;
 
 import eu.bbmri_eric.quality.agent.dataquality.domain.Report;
 import eu.bbmri_eric.quality.agent.dataquality.domain.ReportStatus;
+import java.util.Collection;
 import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
+import org.springframework.transaction.annotation.Transactional;
 
 @RepositoryRestResource(itemResourceRel = "report", collectionResourceRel = "reports")
 interface ReportRepository extends JpaRepository<Report, Long> {
   List<Report> findAllByStatusIs(ReportStatus status);
+
+  @RestResource(exported = false)
+  boolean existsByIdAndStatus(Long id, ReportStatus status);
+
+  /**
+   * Moves a report from one status to another in a single update, so that two workers cannot both
+   * move it.
+   *
+   * @return {@code 1} if the report was moved, {@code 0} if it did not have the expected status
+   */
+  @RestResource(exported = false)
+  @Modifying
+  @Transactional
+  @Query("update Report r set r.status = :to where r.id = :id and r.status = :from")
+  int updateStatus(
+      @Param("id") Long id, @Param("from") ReportStatus from, @Param("to") ReportStatus to);
+
+  /**
+   * Moves a report from any of several statuses to another in a single update, see {@link
+   * #updateStatus(Long, ReportStatus, ReportStatus)}.
+   *
+   * @return {@code 1} if the report was moved, {@code 0} if it had none of the expected statuses
+   */
+  @RestResource(exported = false)
+  @Modifying
+  @Transactional
+  @Query("update Report r set r.status = :to where r.id = :id and r.status in :from")
+  int updateStatusIn(
+      @Param("id") Long id,
+      @Param("from") Collection<ReportStatus> from,
+      @Param("to") ReportStatus to);
+
+  /**
+   * Moves all reports with one status to another.
+   *
+   * @return the number of reports moved
+   */
+  @RestResource(exported = false)
+  @Modifying
+  @Transactional
+  @Query("update Report r set r.status = :to where r.status = :from")
+  int updateAllStatus(@Param("from") ReportStatus from, @Param("to") ReportStatus to);
 }
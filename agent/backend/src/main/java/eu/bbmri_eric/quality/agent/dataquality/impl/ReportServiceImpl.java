@@ -3,6 +3,7 @@ package eu.bbmri_eric.quality.agent.dataquality.impl;
 import eu.bbmri_eric.quality.agent.dataquality.CQLQueryService;
 import eu.bbmri_eric.quality.agent.dataquality.ReportService;
 import eu.bbmri_eric.quality.agent.dataquality.domain.Report;
+import eu.bbmri_eric.quality.agent.dataquality.domain.ReportStatus;
 import eu.bbmri_eric.quality.agent.dataquality.domain.Result;
 import eu.bbmri_eric.quality.agent.dataquality.dto.CQLQueryDTO;
 import eu.bbmri_eric.quality.agent.dataquality.dto.QualityCheckResultDTO;
@@ -37,11 +38,34 @@ class ReportServiceImpl implements ReportService {
     this.cqlQueryService = cqlQueryService;
   }
 
-  @Transactional
-  public void generateReport() {
+  /** Not transactional, so that the report is stored before a worker looks for it. */
+  @Override
+  public Report generateReport() {
     Report report = reportRepository.save(new Report());
     reportRestEventHandler.onAfterCreate(report);
-    log.info("📊 Scheduled report created with ID: {}", report.getId());
+    log.info("📊 Report queued with ID: {}", report.getId());
+    return report;
+  }
+
+  /**
+   * Cancels a queued or generating report in a single update, so that a worker claiming the report
+   * meanwhile cannot overwrite the cancellation. Not transactional, so that the runner sees the
+   * cancelled status once the event is published.
+   */
+  @Override
+  public boolean cancel(Long id) {
+    if (!reportRepository.existsById(id)) {
+      throw new ReportNotFoundException(id);
+    }
+    int cancelled =
+        reportRepository.updateStatusIn(
+            id, List.of(ReportStatus.QUEUED, ReportStatus.GENERATING), ReportStatus.CANCELLED);
+    if (cancelled == 0) {
+      return false;
+    }
+    reportRestEventHandler.onCancelled(id);
+    log.info("Report {} cancelled", id);
+    return true;
   }
 
   @Transactional(readOnly = true)
@@ -0,0 +1,68 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.event.ReportCancelledEvent;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the resources downloaded for a report so that all of its checks share a single download
+ * per resource type and element projection. The snapshot of a report is released once its checks
+ * are done, whether the report succeeded or failed, or as soon as it is cancelled.
+ */
+@Component
+class ResourceSnapshotCache {
+  private static final Logger log = LoggerFactory.getLogger(ResourceSnapshotCache.class);
+  private final FHIRStore fhirStore;
+  private final boolean enabled;
+  private final long memoryLimit;
+  private final Map<Long, SnapshotFHIRStore> snapshots = new ConcurrentHashMap<>();
+
+  ResourceSnapshotCache(
+      FHIRStore fhirStore,
+      @Value("${fhir.snapshot.enabled:true}") boolean enabled,
+      @Value("${fhir.snapshot.memory-limit-mb:256}") long memoryLimitMb) {
+    this.fhirStore = fhirStore;
+    this.enabled = enabled;
+    this.memoryLimit = memoryLimitMb * 1024 * 1024;
+  }
+
+  /**
+   * Returns the store the checks of a report read from. Stores that cannot be snapshotted are
+   * returned unchanged.
+   *
+   * @param reportId the ID of the report being generated
+   * @return a store sharing downloaded resources between all checks of the report
+   */
+  FHIRStore open(Long reportId) {
+    if (!enabled || !(fhirStore instanceof ChunkedFHIRStore chunkedStore)) {
+      return fhirStore;
+    }
+    return snapshots.computeIfAbsent(
+        reportId, id -> new SnapshotFHIRStore(chunkedStore, memoryLimit));
+  }
+
+  @EventListener
+  void onReportCancelled(ReportCancelledEvent event) {
+    release(event.getReportId());
+  }
+
+  /**
+   * Releases the snapshot of a report, deleting its spilled resources. Releasing a report without
+   * a snapshot does nothing.
+   *
+   * @param reportId the ID of the report
+   */
+  void release(Long reportId) {
+    SnapshotFHIRStore snapshot = snapshots.remove(reportId);
+    if (snapshot != null) {
+      snapshot.close();
+      log.debug("Released resource snapshot of report {}", reportId);
+    }
+  }
+}
@@ -25,7 +25,14 @@ class ResultEventHandler {
   @EventListener
   @Transactional
   void onNewResult(DataQualityCheckResultEvent event) {
-    List<Report> reports = reportRepository.findAllByStatusIs(ReportStatus.GENERATING);
+    List<Report> reports =
+        event.getReportId() != null
+            ? reportRepository
+                .findById(event.getReportId())
+                .filter(report -> report.getStatus() == ReportStatus.GENERATING)
+                .stream()
+                .toList()
+            : reportRepository.findAllByStatusIs(ReportStatus.GENERATING);
     reports.forEach(
         report -> {
           double noisyValue =
@@ -0,0 +1,182 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
+import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import eu.bbmri_eric.quality.agent.settings.event.SettingsUpdatedEvent;
+import java.time.Instant;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers the results of checks together with a fingerprint of the data they were computed
+ * from, so that a report can reuse them while that data is unchanged. The fingerprint of a
+ * resource type is its number of resources and the latest {@code meta.lastUpdated} among them:
+ * every create or update moves the latter, and every delete lowers the former.
+ *
+ * <p>Only the raw results are reused. Each report still publishes them as new results, which get
+ * fresh differential privacy noise. Results with errors are never remembered, and neither are the
+ * results of checks without a {@link DataQualityCheck#resultKey() result key} or whose {@link
+ * DataQualityCheck#requirements() requirements} do not name the resources they read.
+ */
+@Component
+class ResultMemo {
+  private static final Logger log = LoggerFactory.getLogger(ResultMemo.class);
+  private final boolean enabled;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  ResultMemo(@Value("${checks.memoize:false}") boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /** The state of the resources of one type. */
+  record TypeState(int count, Instant lastUpdated) {}
+
+  /** The results of a check and the state of the resources they were computed from. */
+  private record Entry(Map<String, TypeState> fingerprint, Map<String, ResultDTO> results) {}
+
+  /** The key and fingerprint a check was looked up with in a report. */
+  private record Lookup(String key, Map<String, TypeState> fingerprint) {}
+
+  /**
+   * Opens the memo for a report. Results of checks that are no longer part of a report are
+   * forgotten.
+   *
+   * @param fhirStore the store the checks of the report read from
+   * @param dataQualityChecks the checks of the report
+   * @return the memo of the report
+   */
+  ReportMemo open(FHIRStore fhirStore, List<DataQualityCheck> dataQualityChecks) {
+    if (enabled) {
+      Set<String> keys =
+          dataQualityChecks.stream()
+              .flatMap(dataQualityCheck -> dataQualityCheck.resultKey().stream())
+              .collect(Collectors.toSet());
+      entries.keySet().retainAll(keys);
+    }
+    return new ReportMemo(fhirStore);
+  }
+
+  private static boolean isValid(ResultDTO result) {
+    return result != null && result.error() == null;
+  }
+
+  @EventListener
+  void onSettingsUpdated(SettingsUpdatedEvent event) {
+    // the FHIR server may have changed
+    entries.clear();
+  }
+
+  /**
+   * The memo as seen by the checks of one report. The state of each resource type is read once
+   * per report, before the first check reading it runs, so results computed while the data
+   * changes are remembered with the older state and computed again by the next report.
+   */
+  final class ReportMemo {
+    private final FHIRStore fhirStore;
+    private final Map<String, Optional<TypeState>> states = new ConcurrentHashMap<>();
+    private final Map<DataQualityCheck, Lookup> lookups = new IdentityHashMap<>();
+
+    private ReportMemo(FHIRStore fhirStore) {
+      this.fhirStore = fhirStore;
+    }
+
+    /**
+     * Returns the results of a check if they were computed from the same data before.
+     *
+     * @param dataQualityCheck a check of the report
+     * @return the results by stratum, or empty if the check has to run
+     */
+    Optional<Map<String, ResultDTO>> lookup(DataQualityCheck dataQualityCheck) {
+      Optional<String> key = dataQualityCheck.resultKey();
+      if (!enabled || key.isEmpty()) {
+        return Optional.empty();
+      }
+      Optional<Map<String, TypeState>> fingerprint = fingerprint(dataQualityCheck);
+      if (fingerprint.isEmpty()) {
+        return Optional.empty();
+      }
+      synchronized (lookups) {
+        lookups.put(dataQualityCheck, new Lookup(key.get(), fingerprint.get()));
+      }
+      Entry entry = entries.get(key.get());
+      if (entry == null || !entry.fingerprint().equals(fingerprint.get())) {
+        return Optional.empty();
+      }
+      return Optional.of(entry.results());
+    }
+
+    /**
+     * Remembers the results of a check once computed, with the key and fingerprint its {@link
+     * #lookup} read. A key depending on the date thus stays the one of the day the results were
+     * computed from.
+     *
+     * @param dataQualityCheck a check of the report
+     * @param results computes the results of the check, by stratum
+     * @return the results, computed by {@code results}
+     */
+    Supplier<Map<String, ResultDTO>> recording(
+        DataQualityCheck dataQualityCheck, Supplier<Map<String, ResultDTO>> results) {
+      Lookup lookup;
+      synchronized (lookups) {
+        lookup = lookups.get(dataQualityCheck);
+      }
+      if (lookup == null) {
+        return results;
+      }
+      return () -> {
+        Map<String, ResultDTO> computed = results.get();
+        if (computed.values().stream().allMatch(ResultMemo::isValid)) {
+          entries.put(lookup.key(), new Entry(lookup.fingerprint(), computed));
+        }
+        return computed;
+      };
+    }
+
+    /** Returns the state of all resources a check reads, or empty if it cannot be told. */
+    private Optional<Map<String, TypeState>> fingerprint(DataQualityCheck dataQualityCheck) {
+      List<CheckRequirements.ResourceRead> reads = dataQualityCheck.requirements().reads();
+      if (reads.isEmpty()) {
+        return Optional.empty();
+      }
+      Map<String, TypeState> fingerprint = new TreeMap<>();
+      for (CheckRequirements.ResourceRead read : reads) {
+        Optional<TypeState> state = states.computeIfAbsent(read.resourceType(), this::state);
+        if (state.isEmpty()) {
+          return Optional.empty();
+        }
+        fingerprint.put(read.resourceType(), state.get());
+      }
+      return Optional.of(fingerprint);
+    }
+
+    private Optional<TypeState> state(String resourceType) {
+      int count = fhirStore.countResources(resourceType);
+      if (count < 0) {
+        return Optional.empty();
+      }
+      if (count == 0) {
+        return Optional.of(new TypeState(0, null));
+      }
+      Optional<TypeState> state =
+          fhirStore.lastUpdated(resourceType).map(lastUpdated -> new TypeState(count, lastUpdated));
+      if (state.isEmpty()) {
+        log.debug("Cannot tell whether {} resources changed, not reusing results", resourceType);
+      }
+      return state;
+    }
+  }
+}
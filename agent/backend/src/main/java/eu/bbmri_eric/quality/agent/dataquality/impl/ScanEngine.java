@@ -0,0 +1,95 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceScan;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceVisitor;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds the resources of each {@link ResourceScan} to all visitors reading it, in a single pass
+ * per scan. A visitor that fails stops receiving resources without affecting the other visitors of
+ * its pass; a pass that fails fails all of its visitors.
+ */
+final class ScanEngine {
+  private static final Logger log = LoggerFactory.getLogger(ScanEngine.class);
+
+  private ScanEngine() {}
+
+  /**
+   * Groups visitors by the scan they read.
+   *
+   * @param visitors the visitors to group
+   * @return the visitors of each scan, in the order the scans first occur
+   */
+  static Map<ResourceScan<?>, List<ResourceVisitor<?>>> byScan(
+      List<? extends ResourceVisitor<?>> visitors) {
+    Map<ResourceScan<?>, List<ResourceVisitor<?>>> byScan = new LinkedHashMap<>();
+    for (ResourceVisitor<?> visitor : visitors) {
+      byScan.computeIfAbsent(visitor.scan(), scan -> new ArrayList<>()).add(visitor);
+    }
+    return byScan;
+  }
+
+  /**
+   * Runs one pass over the resources of every scan read by the given visitors.
+   *
+   * @param fhirStore the store to read from
+   * @param visitors the visitors to feed
+   * @return the failure of each visitor that failed, keyed by the visitor
+   */
+  static Map<ResourceVisitor<?>, RuntimeException> run(
+      FHIRStore fhirStore, List<? extends ResourceVisitor<?>> visitors) {
+    Map<ResourceVisitor<?>, RuntimeException> failures = new IdentityHashMap<>();
+    byScan(visitors).forEach((scan, scanVisitors) -> pass(fhirStore, scan, scanVisitors, failures));
+    return failures;
+  }
+
+  /**
+   * Runs a single visitor, see {@link #run(FHIRStore, List)}.
+   *
+   * @throws RuntimeException the failure of the visitor or its pass
+   */
+  static void runSingle(FHIRStore fhirStore, ResourceVisitor<?> visitor) {
+    RuntimeException failure = run(fhirStore, List.of(visitor)).get(visitor);
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void pass(
+      FHIRStore fhirStore,
+      ResourceScan<T> scan,
+      List<ResourceVisitor<?>> visitors,
+      Map<ResourceVisitor<?>, RuntimeException> failures) {
+    // all visitors of a scan visit records of its type
+    List<ResourceVisitor<T>> active = new ArrayList<>();
+    visitors.forEach(visitor -> active.add((ResourceVisitor<T>) visitor));
+    // a snapshot is read without FHIR requests, so the pass checks for cancellation itself
+    CheckCancellation cancellation = CheckCancellation.current();
+    try (Stream<T> resources =
+        fhirStore.streamAllResources(scan.resourceType(), scan.elements(), scan.decoder())) {
+      resources.forEach(
+          resource -> {
+            CheckCancellation.throwIfCancelled(cancellation);
+            for (int i = active.size() - 1; i >= 0; i--) {
+              try {
+                active.get(i).visit(resource);
+              } catch (RuntimeException e) {
+                failures.put(active.remove(i), e);
+              }
+            }
+          });
+    } catch (RuntimeException e) {
+      log.warn("Scan of {} failed: {}", scan.resourceType(), e.getMessage());
+      active.forEach(visitor -> failures.put(visitor, e));
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.ResourceDecoder;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A raw unit of downloaded resource data, either a search Bundle page or a batch of NDJSON lines
+ * from a bulk export. Chunks are decoded only when consumed, so the same downloaded data can be
+ * decoded into different representations.
+ *
+ * @param format the serialization of {@code data}
+ * @param data the raw JSON or NDJSON bytes
+ * @param entries the number of resources in the chunk, or {@link #UNCOUNTED} for a Bundle page
+ *     whose entries have not been counted
+ */
+record SearchChunk(Format format, byte[] data, int entries) {
+
+  /** The entry count of a Bundle page received without counting its entries. */
+  static final int UNCOUNTED = -1;
+
+  enum Format {
+    BUNDLE,
+    NDJSON
+  }
+
+  /**
+   * Wraps a search Bundle page without counting its entries, which would tokenize the whole page
+   * once more before it is decoded.
+   */
+  static SearchChunk bundle(byte[] body) {
+    return new SearchChunk(Format.BUNDLE, body, UNCOUNTED);
+  }
+
+  static SearchChunk ndjson(byte[] lines, int entries) {
+    return new SearchChunk(Format.NDJSON, lines, entries);
+  }
+
+  /**
+   * Returns the number of resources in this chunk. The entries of a Bundle page received uncounted
+   * are counted on every call, so this is only meant for the rare reader that needs the count
+   * before decoding, such as a snapshot spilling the chunk to disk.
+   */
+  @Override
+  public int entries() {
+    return entries != UNCOUNTED ? entries : BundleJson.countEntries(data);
+  }
+
+  /** Returns whether the number of resources is known without counting them. */
+  boolean isCounted() {
+    return entries != UNCOUNTED;
+  }
+
+  /** Returns this chunk with its resources counted. */
+  SearchChunk counted() {
+    return isCounted() ? this : new SearchChunk(format, data, entries());
+  }
+
+  /**
+   * Decodes the resources of this chunk into compact records.
+   *
+   * @return the records of all resources the decoder did not skip
+   */
+  <T> List<T> decode(ResourceDecoder<T> decoder) {
+    return switch (format) {
+      case BUNDLE -> BundleJson.decodeEntries(data, decoder);
+      case NDJSON -> BundleJson.decodeLines(data, decoder);
+    };
+  }
+
+  /**
+   * Flattens a stream of chunks into the resources they contain, decoding each chunk when it is
+   * reached. Decoding failures are reported with the resource type for context.
+   */
+  static <T> Stream<T> decodeAll(
+      Stream<SearchChunk> chunks, String resourceType, Function<SearchChunk, List<T>> decode) {
+    return chunks.flatMap(
+        chunk -> {
+          try {
+            return decode.apply(chunk).stream();
+          } catch (RuntimeException e) {
+            throw new RuntimeException(
+                "Error decoding resources of type " + resourceType + ": " + e.getMessage(), e);
+          }
+        });
+  }
+}
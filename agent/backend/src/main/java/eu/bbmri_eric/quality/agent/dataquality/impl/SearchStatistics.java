@@ -0,0 +1,73 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.util.List;
+
+/**
+ * Transfer statistics of a single paged search. Collected per call to report how much data a
+ * search actually moved and how much the {@code _elements} projection saved compared to fetching
+ * complete resources.
+ */
+class SearchStatistics {
+  private final String resourceType;
+  private final List<String> elements;
+  private int pages;
+  private long resources;
+  private long bytesReceived;
+  private boolean uncounted;
+
+  SearchStatistics(String resourceType, List<String> elements) {
+    this.resourceType = resourceType;
+    this.elements = List.copyOf(elements);
+  }
+
+  /**
+   * Records a received page.
+   *
+   * @param bytes the size of the page
+   * @param entries the number of resources in the page, or {@link SearchChunk#UNCOUNTED}
+   */
+  synchronized void recordPage(long bytes, int entries) {
+    pages++;
+    if (entries == SearchChunk.UNCOUNTED) {
+      uncounted = true;
+    } else {
+      resources += entries;
+    }
+    bytesReceived += bytes;
+  }
+
+  /**
+   * Returns the number of bytes the projection saved, given an estimate of what the same search
+   * would have transferred without {@code _elements}.
+   *
+   * @param unprojectedBytes estimated size of the search without projection, negative if unknown
+   * @return the saved bytes, or {@code -1} if no estimate is available
+   */
+  synchronized long bytesSaved(long unprojectedBytes) {
+    if (unprojectedBytes < 0) {
+      return -1;
+    }
+    return Math.max(0, unprojectedBytes - bytesReceived);
+  }
+
+  String getResourceType() {
+    return resourceType;
+  }
+
+  List<String> getElements() {
+    return elements;
+  }
+
+  synchronized int getPages() {
+    return pages;
+  }
+
+  /** Returns the number of resources received, or {@code -1} if some pages were not counted. */
+  synchronized long getResources() {
+    return uncounted ? -1 : resources;
+  }
+
+  synchronized long getBytesReceived() {
+    return bytesReceived;
+  }
+}
@@ -0,0 +1,175 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.MeasurePopulation;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceDecoder;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.hl7.fhir.r4.model.Resource;
+import org.json.JSONObject;
+
+/**
+ * A view of a {@link ChunkedFHIRStore} for the checks of a single report. Each combination of
+ * resource type and element projection is downloaded once; all further reads decode the local
+ * snapshot, so checks always see the same data. Every other operation is passed through to the
+ * underlying store. Patient IDs collected by the checks are numbered in one dictionary per report.
+ */
+class SnapshotFHIRStore implements FHIRStore, AutoCloseable {
+  private final ChunkedFHIRStore store;
+  private final long memoryLimit;
+  private final AtomicLong memoryUsed = new AtomicLong();
+  private final Map<Key, ChunkSnapshot> snapshots = new ConcurrentHashMap<>();
+  private final PatientIdDictionary patientIds = new PatientIdDictionary();
+  private volatile boolean closed;
+
+  /**
+   * @param store the store to read from
+   * @param memoryLimit maximum number of bytes kept in memory before snapshots spill to disk
+   */
+  SnapshotFHIRStore(ChunkedFHIRStore store, long memoryLimit) {
+    this.store = store;
+    this.memoryLimit = memoryLimit;
+  }
+
+  @Override
+  public List<Resource> fetchAllResources(String resourceType, List<String> elements) {
+    try (Stream<Resource> resources = streamAllResources(resourceType, elements)) {
+      return resources.toList();
+    }
+  }
+
+  @Override
+  public Stream<Resource> streamAllResources(String resourceType, List<String> elements) {
+    return SearchChunk.decodeAll(chunks(resourceType, elements), resourceType, store::parseChunk);
+  }
+
+  @Override
+  public <T> Stream<T> streamAllResources(
+      String resourceType, List<String> elements, ResourceDecoder<T> decoder) {
+    return SearchChunk.decodeAll(
+        chunks(resourceType, elements), resourceType, chunk -> chunk.decode(decoder));
+  }
+
+  /** Releases all snapshots. Later reads go straight to the underlying store. */
+  @Override
+  public void close() {
+    closed = true;
+    snapshots.values().forEach(ChunkSnapshot::close);
+    snapshots.clear();
+  }
+
+  private Stream<SearchChunk> chunks(String resourceType, List<String> elements) {
+    if (closed) {
+      return store.streamChunks(resourceType, elements);
+    }
+    ChunkSnapshot snapshot =
+        snapshots.computeIfAbsent(
+            new Key(resourceType, elements.stream().sorted().toList()),
+            key -> new ChunkSnapshot(resourceType, memoryUsed, memoryLimit));
+    return snapshot.stream(() -> store.streamChunks(resourceType, elements));
+  }
+
+  @Override
+  public JSONObject libraryTemplate() {
+    return store.libraryTemplate();
+  }
+
+  @Override
+  public JSONObject measureTemplate() {
+    return store.measureTemplate();
+  }
+
+  @Override
+  public JSONObject createLibrary(String libraryUri, String cqlData) {
+    return store.createLibrary(libraryUri, cqlData);
+  }
+
+  @Override
+  public JSONObject createMeasure(String measureUri, String libraryUri, String subjectType) {
+    return store.createMeasure(measureUri, libraryUri, subjectType);
+  }
+
+  @Override
+  public JSONObject postResource(String resourceType, JSONObject resource) {
+    return store.postResource(resourceType, resource);
+  }
+
+  @Override
+  public JSONObject evaluateMeasure(String measureId) {
+    return store.evaluateMeasure(measureId);
+  }
+
+  @Override
+  public JSONObject evaluateMeasureList(String measureId) {
+    return store.evaluateMeasureList(measureId);
+  }
+
+  @Override
+  public JSONObject getPatientList(String listId) {
+    return store.getPatientList(listId);
+  }
+
+  @Override
+  public List<MeasurePopulation> evaluateMeasurePopulations(String measureId) {
+    return store.evaluateMeasurePopulations(measureId);
+  }
+
+  @Override
+  public List<MeasurePopulation> evaluateMeasurePopulations(String measureId, String patientId) {
+    return store.evaluateMeasurePopulations(measureId, patientId);
+  }
+
+  @Override
+  public PatientIdSet getPatientIds(String listId, PatientIdDictionary dictionary) {
+    return store.getPatientIds(listId, dictionary);
+  }
+
+  @Override
+  public JSONObject getPatientEverything(String patientId) {
+    return store.getPatientEverything(patientId);
+  }
+
+  @Override
+  public int countResources(String resourceType) {
+    return store.countResources(resourceType);
+  }
+
+  @Override
+  public int countResources(String resourceType, Map<String, String> searchParams) {
+    return store.countResources(resourceType, searchParams);
+  }
+
+  @Override
+  public Optional<Instant> lastUpdated(String resourceType) {
+    return store.lastUpdated(resourceType);
+  }
+
+  @Override
+  public Optional<String> findResourceId(String resourceType, Map<String, String> searchParams) {
+    return store.findResourceId(resourceType, searchParams);
+  }
+
+  @Override
+  public void deleteResource(String resourceType, String id) {
+    store.deleteResource(resourceType, id);
+  }
+
+  @Override
+  public JSONObject checkHealth() {
+    return store.checkHealth();
+  }
+
+  @Override
+  public PatientIdDictionary patientIds() {
+    return patientIds;
+  }
+
+  private record Key(String resourceType, List<String> elements) {}
+}
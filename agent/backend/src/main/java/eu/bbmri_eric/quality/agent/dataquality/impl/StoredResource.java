@@ -0,0 +1,41 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A resource kept verbatim for the local projection, together with its logical ID.
+ *
+ * @param id the logical ID of the resource
+ * @param json the JSON of the resource as received from the server
+ */
+record StoredResource(String id, byte[] json) {
+
+  /**
+   * Copies a resource from the streaming parser, see {@link
+   * eu.bbmri_eric.quality.agent.dataquality.ResourceDecoder}.
+   *
+   * @return the copied resource, or {@code null} if it has no ID
+   */
+  static StoredResource decode(JsonParser parser) throws IOException {
+    ByteArrayOutputStream json = new ByteArrayOutputStream(256);
+    String id = null;
+    try (JsonGenerator generator = BundleJson.JSON_FACTORY.createGenerator(json)) {
+      generator.copyCurrentEvent(parser);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        generator.copyCurrentEvent(parser);
+        parser.nextToken();
+        if ("id".equals(field) && parser.currentToken() == JsonToken.VALUE_STRING) {
+          id = parser.getText();
+        }
+        generator.copyCurrentStructure(parser);
+      }
+      generator.copyCurrentEvent(parser);
+    }
+    return id == null ? null : new StoredResource(id, json.toByteArray());
+  }
+}
@@ -0,0 +1,110 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the patients of every stratum of one or more {@link StrataDimension dimensions} in a
+ * single pass over the records: each record is classified once per dimension and added to the one
+ * stratum combining its values, so stratifying by more dimensions does not read the records again.
+ *
+ * <p>The strata are disjoint, so a patient is counted in at most one of them. Records without a
+ * value in some dimension are not counted in any stratum.
+ *
+ * @param <T> the type of the records stratified
+ */
+final class StrataCube<T> {
+  /** Separates the values of the dimensions in the name of a stratum. */
+  private static final String SEPARATOR = ", ";
+
+  private final List<StrataDimension<T>> dimensions;
+  private final PatientIdDictionary patientIds;
+  private final Map<List<String>, PatientIdSet.Builder> strata = new LinkedHashMap<>();
+
+  StrataCube(List<StrataDimension<T>> dimensions, PatientIdDictionary patientIds) {
+    if (dimensions.isEmpty()) {
+      throw new IllegalArgumentException("At least one strata dimension is required");
+    }
+    this.dimensions = List.copyOf(dimensions);
+    this.patientIds = patientIds;
+    if (dimensions.stream().allMatch(StrataDimension::isClosed)) {
+      // report empty strata too, in the order the values are declared
+      strata(dimensions).forEach(stratum -> strata.put(stratum, PatientIdSet.builder(patientIds)));
+    }
+  }
+
+  /**
+   * Returns all strata of the given dimensions, the combinations of their values.
+   *
+   * @param dimensions dimensions whose values are all known up front
+   * @return the values of each stratum, one per dimension
+   */
+  static <T> List<List<String>> strata(List<StrataDimension<T>> dimensions) {
+    List<List<String>> strata = List.of(List.of());
+    for (StrataDimension<T> dimension : dimensions) {
+      List<List<String>> combined = new ArrayList<>();
+      for (List<String> stratum : strata) {
+        for (String value : dimension.values()) {
+          List<String> values = new ArrayList<>(stratum);
+          values.add(value);
+          combined.add(List.copyOf(values));
+        }
+      }
+      strata = combined;
+    }
+    return strata;
+  }
+
+  /**
+   * Returns the name of a stratum, its values separated by commas, such as {@code male, 40-49}.
+   */
+  static String name(List<String> stratum) {
+    return String.join(SEPARATOR, stratum);
+  }
+
+  /**
+   * Adds the patient of a record to the stratum of the record.
+   *
+   * @param record the record to classify
+   * @param patientId the ID of the patient the record belongs to
+   */
+  void add(T record, String patientId) {
+    String[] values = new String[dimensions.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = dimensions.get(i).classify(record);
+      if (values[i] == null) {
+        return;
+      }
+    }
+    strata
+        .computeIfAbsent(List.of(values), stratum -> PatientIdSet.builder(patientIds))
+        .add(patientId);
+  }
+
+  /**
+   * Returns the patients of each stratum.
+   *
+   * @param entityType the type of the entities counted
+   * @return the results by stratum name, in the order of the declared values, or by name if some
+   *     strata are only known from the records
+   */
+  Map<String, ResultDTO> results(String entityType) {
+    List<Map.Entry<List<String>, PatientIdSet.Builder>> entries =
+        new ArrayList<>(strata.entrySet());
+    if (!dimensions.stream().allMatch(StrataDimension::isClosed)) {
+      entries.sort(Comparator.comparing(entry -> name(entry.getKey())));
+    }
+    Map<String, ResultDTO> results = new LinkedHashMap<>();
+    for (Map.Entry<List<String>, PatientIdSet.Builder> entry : entries) {
+      PatientIdSet ids = entry.getValue().build();
+      results.put(name(entry.getKey()), new ResultDTO(ids.size(), entityType, ids));
+    }
+    return results;
+  }
+}
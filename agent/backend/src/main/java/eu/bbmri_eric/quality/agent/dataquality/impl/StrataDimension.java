@@ -0,0 +1,45 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A dimension records are stratified by, such as the gender or the age band of a patient. The
+ * strata of a {@link StrataCube} are all combinations of the values of its dimensions.
+ *
+ * @param name the name of the dimension, e.g. {@code gender}
+ * @param classifier returns the value of a record in this dimension, or {@code null} if it has
+ *     none
+ * @param values the values of this dimension in the order of their strata, or an empty list if
+ *     the strata are the values found in the records
+ * @param searchParam the FHIR search parameter matching a value of this dimension, or {@code null}
+ *     if the strata cannot be counted on the server
+ * @param <T> the type of the records stratified
+ */
+record StrataDimension<T>(
+    String name, Function<T, String> classifier, List<String> values, String searchParam) {
+
+  StrataDimension {
+    values = List.copyOf(values);
+  }
+
+  /**
+   * Returns the value of a record in this dimension.
+   *
+   * @return the value, or {@code null} if the record falls into no stratum of this dimension
+   */
+  String classify(T record) {
+    String value = classifier.apply(record);
+    return value == null || values.isEmpty() || values.contains(value) ? value : null;
+  }
+
+  /** Returns whether the strata of this dimension are known before any record is read. */
+  boolean isClosed() {
+    return !values.isEmpty();
+  }
+
+  /** Returns whether the server can count the records in each stratum of this dimension. */
+  boolean isCountable() {
+    return isClosed() && searchParam != null;
+  }
+}
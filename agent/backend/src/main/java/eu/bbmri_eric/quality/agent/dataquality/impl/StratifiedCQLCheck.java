@@ -0,0 +1,151 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceScan;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A CQL check whose patients are stratified by the dimensions of its {@link
+ * CQLQuery#getStratifier() stratifier}. The query is evaluated once, then a single pass over all
+ * patients sorts the patients it reports into the strata of a {@link StrataCube}.
+ */
+final class StratifiedCQLCheck implements StratifiedDataQualityCheck {
+  private final CQLQuery query;
+
+  /** The day the ages of the patients are computed on. */
+  private final LocalDate today = LocalDate.now();
+
+  StratifiedCQLCheck(CQLQuery query) {
+    this.query = query;
+  }
+
+  @Override
+  public ResultDTO execute(FHIRStore fhirStore) {
+    return query.execute(fhirStore);
+  }
+
+  /**
+   * Evaluates the query, then stratifies the patients it reports.
+   *
+   * @throws IllegalArgumentException if the stratifier names an unknown dimension
+   * @throws IllegalStateException if the query fails
+   */
+  @Override
+  public Map<String, ResultDTO> executeWithStratification(FHIRStore fhirStore) {
+    StrataCube<PatientRecord> cube =
+        new StrataCube<>(
+            PatientDimensions.parse(query.getStratifier(), today), fhirStore.patientIds());
+    ResultDTO result = query.execute(fhirStore);
+    if (result.error() != null) {
+      throw new IllegalStateException(result.error());
+    }
+    ScanEngine.runSingle(fhirStore, new CubeVisitor(cube, result.idSet()));
+    return cube.results(result.entityType());
+  }
+
+  /** Declares the evaluation of the query followed by a scan of all patients. */
+  @Override
+  public CheckRequirements requirements() {
+    return query.requirements().and(CheckRequirements.scan(PatientRecord.SCAN));
+  }
+
+  /**
+   * Checks with the same query and stratifier share their results. Age bands change with the date,
+   * so results stratified by age are only shared on the same day.
+   */
+  @Override
+  public Optional<String> resultKey() {
+    String stratifier = query.getStratifier().strip();
+    boolean byAge =
+        Arrays.stream(stratifier.split(","))
+            .anyMatch(name -> name.strip().equalsIgnoreCase(PatientDimensions.AGE));
+    return query
+        .resultKey()
+        .map(key -> key + ":" + stratifier)
+        .map(key -> byAge ? key + "@" + today : key);
+  }
+
+  /** A patient belongs to exactly one stratum, so each stratum gets the whole budget. */
+  @Override
+  public int strataPerPatient(int strata) {
+    return 1;
+  }
+
+  @Override
+  public String getName() {
+    return query.getName();
+  }
+
+  @Override
+  public String getDescription() {
+    return query.getDescription();
+  }
+
+  @Override
+  public int getWarningThreshold() {
+    return query.getWarningThreshold();
+  }
+
+  @Override
+  public int getErrorThreshold() {
+    return query.getErrorThreshold();
+  }
+
+  @Override
+  public float getEpsilonBudget() {
+    return query.getEpsilonBudget();
+  }
+
+  @Override
+  public Integer getTimeoutSeconds() {
+    return query.getTimeoutSeconds();
+  }
+
+  @Override
+  public Long getId() {
+    return query.getId();
+  }
+
+  /** Adds the patients reported by the query to their strata. */
+  private static final class CubeVisitor implements Visitor<PatientRecord> {
+    private final StrataCube<PatientRecord> cube;
+    private final Set<String> reported;
+    private int visited;
+
+    private CubeVisitor(StrataCube<PatientRecord> cube, Set<String> reported) {
+      this.cube = cube;
+      this.reported = reported;
+    }
+
+    @Override
+    public ResourceScan<PatientRecord> scan() {
+      return PatientRecord.SCAN;
+    }
+
+    @Override
+    public void visit(PatientRecord patient) {
+      if (reported.contains(patient.id())) {
+        visited++;
+        cube.add(patient, patient.id());
+      }
+    }
+
+    @Override
+    public ResultDTO result() {
+      return new ResultDTO(visited, "Patient", Collections.emptySet());
+    }
+
+    @Override
+    public Map<String, ResultDTO> stratifiedResults() {
+      return cube.results("Patient");
+    }
+  }
+}
@@ -1,10 +1,38 @@
 package eu.bbmri_eric.quality.agent.dataquality.impl;
 
 import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceVisitor;
 import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
 import java.util.Map;
 
 interface StratifiedDataQualityCheck extends DataQualityCheck {
   Map<String, ResultDTO> executeWithStratification(FHIRStore fhirStore);
+
+  /**
+   * Returns in how many strata one patient can be counted. The epsilon budget of the check is split
+   * between them; strata no patient shares each get the whole budget.
+   *
+   * @param strata the number of strata in the results
+   * @return the number of strata sharing the budget, by default all of them
+   */
+  default int strataPerPatient(int strata) {
+    return strata;
+  }
+
+  /**
+   * A visitor of a stratified check. Its {@link #stratifiedResults()} are the same as those of
+   * {@link #executeWithStratification(FHIRStore)}.
+   *
+   * @param <T> the type of the compact record visited
+   */
+  interface Visitor<T> extends ResourceVisitor<T> {
+
+    /**
+     * Returns the result of each stratum after all resources of the scan were visited.
+     *
+     * @return the results by stratum
+     */
+    Map<String, ResultDTO> stratifiedResults();
+  }
 }
@@ -0,0 +1,151 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import eu.bbmri_eric.quality.agent.dataquality.MeasurePopulation;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads subject-list MeasureReports and the List resources they reference with the Jackson
+ * streaming parser, straight from the response stream. A subject list can name hundreds of
+ * thousands of patients, so only their IDs are kept and no object model of the list is built.
+ */
+final class SubjectListJson {
+  private static final String LIST_PREFIX = "List/";
+  private static final String PATIENT_PREFIX = "Patient/";
+
+  private SubjectListJson() {}
+
+  /**
+   * Reads the initial population of every group of a MeasureReport.
+   *
+   * @param report the JSON of the MeasureReport
+   * @return the populations, in the order of the groups
+   */
+  static List<MeasurePopulation> populations(InputStream report) {
+    List<MeasurePopulation> populations = new ArrayList<>();
+    try (JsonParser parser = BundleJson.JSON_FACTORY.createParser(report)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return populations;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("group".equals(field) && value == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            populations.add(readGroup(parser));
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return populations;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Malformed MeasureReport", e);
+    }
+  }
+
+  /**
+   * Adds the patients of a List resource to the given set. Items referencing anything but a
+   * Patient are ignored.
+   *
+   * @param list the JSON of the List
+   * @param patients the set to add the logical IDs of the patients to
+   */
+  static void subjects(InputStream list, PatientIdSet.Builder patients) {
+    try (JsonParser parser = BundleJson.JSON_FACTORY.createParser(list)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("entry".equals(field) && value == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String reference = readItemReference(parser);
+            if (reference != null && reference.startsWith(PATIENT_PREFIX)) {
+              patients.add(reference.substring(PATIENT_PREFIX.length()));
+            }
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Malformed List", e);
+    }
+  }
+
+  /** Reads the first population of a group, which is the initial population. */
+  private static MeasurePopulation readGroup(JsonParser parser) throws IOException {
+    MeasurePopulation population = new MeasurePopulation(0, null);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("population".equals(field) && value == JsonToken.START_ARRAY) {
+        if (parser.nextToken() == JsonToken.START_OBJECT) {
+          population = readPopulation(parser);
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return population;
+  }
+
+  private static MeasurePopulation readPopulation(JsonParser parser) throws IOException {
+    int count = 0;
+    String listId = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("count".equals(field)) {
+        count = parser.getValueAsInt();
+      } else if ("subjectResults".equals(field) && value == JsonToken.START_OBJECT) {
+        String reference = readReference(parser);
+        if (reference != null && reference.startsWith(LIST_PREFIX)) {
+          listId = reference.substring(LIST_PREFIX.length());
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return new MeasurePopulation(count, listId);
+  }
+
+  private static String readItemReference(JsonParser parser) throws IOException {
+    String reference = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("item".equals(field) && value == JsonToken.START_OBJECT) {
+        reference = readReference(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return reference;
+  }
+
+  private static String readReference(JsonParser parser) throws IOException {
+    String reference = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      if ("reference".equals(field)) {
+        reference = parser.getValueAsString();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return reference;
+  }
+}
@@ -1,93 +1,183 @@
 package eu.bbmri_eric.quality.agent.dataquality.impl;
 
+import eu.bbmri_eric.quality.agent.dataquality.AsyncFHIRStore;
 import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceScan;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceVisitor;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
-import java.util.Arrays;
+import java.time.LocalDate;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import org.hl7.fhir.r4.model.Patient;
-import org.hl7.fhir.r4.model.Resource;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 class SurvivalRateCheck implements StratifiedDataQualityCheck {
+  /** Matches living patients, including those with {@code deceasedBoolean=false}. */
+  private static final Map<String, String> ALIVE = Map.of("deceased", "false");
+
   private final String name;
   private final String description;
-  private final List<String> genders;
+  private final List<StrataDimension<PatientRecord>> dimensions;
   private final int warningThreshold;
   private final int errorThreshold;
+  private final boolean countOnly;
+
+  /** The day the check was created on, like its age bands, which are computed for that day. */
+  private final LocalDate today = LocalDate.now();
 
   SurvivalRateCheck() {
-    this.name = "Survival rate, stratified per gender value";
-    this.description = "What is the survival rate for different gender values";
-    this.genders = Arrays.asList("male", "female");
+    this(false);
+  }
+
+  SurvivalRateCheck(boolean countOnly) {
+    this(countOnly, List.of(PatientDimensions.gender()));
+  }
+
+  /**
+   * @param countOnly count the living patients of each stratum on the FHIR server instead of
+   *     downloading all patients to list their IDs, if the server can count all strata
+   * @param dimensions the dimensions the living patients are stratified by
+   */
+  SurvivalRateCheck(boolean countOnly, List<StrataDimension<PatientRecord>> dimensions) {
+    this.dimensions = List.copyOf(dimensions);
+    String strata =
+        this.dimensions.stream().map(StrataDimension::name).collect(Collectors.joining(", "));
+    this.name = "Survival rate, stratified per " + strata + " value";
+    this.description = "What is the survival rate for different " + strata + " values";
     this.warningThreshold = 70; // Example threshold, adjust as needed
     this.errorThreshold = 90; // Example threshold, adjust as needed
+    this.countOnly = countOnly && this.dimensions.stream().allMatch(StrataDimension::isCountable);
   }
 
   @Override
   public ResultDTO execute(FHIRStore fhirStore) {
-    try {
-      List<Resource> patients =
-          fhirStore.fetchAllResources("Patient", List.of("id", "gender", "deceased"));
-      int totalAlive = 0;
-      int totalCount = 0;
-
-      for (Resource resource : patients) {
-        Patient patient = (Patient) resource;
-        boolean deceased = patient.hasDeceased() || patient.hasDeceasedDateTimeType();
-        if (!deceased) {
-          totalAlive++;
-        }
-        totalCount++;
-      }
-
-      return new ResultDTO(totalAlive, "Patient", Collections.emptySet());
-    } catch (Exception e) {
-      System.err.println("Error processing " + name + ": " + e.getMessage());
-      return new ResultDTO(e.getMessage());
+    int totalAlive = fhirStore.countResources("Patient", ALIVE);
+    if (totalAlive < 0) {
+      return new ResultDTO("Failed to count living patients");
     }
+    return new ResultDTO(totalAlive, "Patient", Collections.emptySet());
+  }
+
+  @Override
+  public boolean isCountOnly() {
+    return countOnly;
   }
 
   @Override
   public Map<String, ResultDTO> executeWithStratification(FHIRStore fhirStore) {
-    Map<String, ResultDTO> results = new HashMap<>();
+    if (countOnly) {
+      return countAlivePerStratum(fhirStore);
+    }
     try {
-      List<Resource> patients =
-          fhirStore.fetchAllResources("Patient", List.of("id", "gender", "deceased"));
-      // Stratified by gender
-      for (String gender : genders) {
-        Set<String> genderAliveIds = getGenderAlive(gender, patients);
-        int genderAlive = genderAliveIds.size();
-
-        results.put(gender, new ResultDTO(genderAlive, "Patient", genderAliveIds));
-      }
-      return results;
+      SurvivalVisitor visitor = new SurvivalVisitor(fhirStore.patientIds());
+      ScanEngine.runSingle(fhirStore, visitor);
+      return visitor.stratifiedResults();
     } catch (Exception e) {
       System.err.println("Error processing stratified " + name + ": " + e.getMessage());
+      Map<String, ResultDTO> results = new HashMap<>();
       results.put("error", new ResultDTO(e.getMessage()));
       return results;
     }
   }
 
-  private static Set<String> getGenderAlive(String gender, List<Resource> patients) {
-    Set<String> genderAliveIds = new HashSet<>();
-    int genderCount = 0;
+  /** Declares one count per stratum if counting on the server, else a scan of all patients. */
+  @Override
+  public CheckRequirements requirements() {
+    return countOnly
+        ? CheckRequirements.count("Patient", StrataCube.strata(dimensions).size())
+        : CheckRequirements.scan(PatientRecord.SCAN);
+  }
+
+  /**
+   * Counts on the server give the same strata, but without patient IDs. Age bands change with the
+   * date, so results stratified by age are only shared on the same day.
+   */
+  @Override
+  public Optional<String> resultKey() {
+    String key =
+        SurvivalRateCheck.class.getSimpleName()
+            + ":"
+            + dimensions.stream().map(StrataDimension::name).collect(Collectors.joining(","));
+    if (countOnly) {
+      key += ":count";
+    }
+    return Optional.of(PatientDimensions.includesAge(dimensions) ? key + "@" + today : key);
+  }
+
+  /** A patient is alive in exactly one stratum, so each stratum gets the whole budget. */
+  @Override
+  public int strataPerPatient(int strata) {
+    return 1;
+  }
+
+  /** Returns a visitor filling all strata in a single pass, unless counting on the server. */
+  @Override
+  public Optional<ResourceVisitor<?>> visitor(FHIRStore fhirStore) {
+    return countOnly ? Optional.empty() : Optional.of(new SurvivalVisitor(fhirStore.patientIds()));
+  }
+
+  private final class SurvivalVisitor implements Visitor<PatientRecord> {
+    private final StrataCube<PatientRecord> aliveIds;
+    private int totalAlive;
+
+    private SurvivalVisitor(PatientIdDictionary patientIds) {
+      aliveIds = new StrataCube<>(dimensions, patientIds);
+    }
+
+    @Override
+    public ResourceScan<PatientRecord> scan() {
+      return PatientRecord.SCAN;
+    }
+
+    @Override
+    public void visit(PatientRecord patient) {
+      if (patient.deceased()) {
+        return;
+      }
+      totalAlive++;
+      aliveIds.add(patient, patient.id());
+    }
+
+    @Override
+    public ResultDTO result() {
+      return new ResultDTO(totalAlive, "Patient", Collections.emptySet());
+    }
+
+    @Override
+    public Map<String, ResultDTO> stratifiedResults() {
+      return aliveIds.results("Patient");
+    }
+  }
 
-    for (Resource resource : patients) {
-      Patient patient = (Patient) resource;
-      if (gender.equalsIgnoreCase(
-          patient.getGender() != null ? patient.getGender().toCode() : "")) {
-        boolean deceased = patient.hasDeceased() || patient.hasDeceasedDateTimeType();
-        if (!deceased) {
-          genderAliveIds.add(patient.getIdElement().getIdPart());
-        }
-        genderCount++;
+  /** Counts the living patients of all strata with concurrent {@code _summary=count} searches. */
+  private Map<String, ResultDTO> countAlivePerStratum(FHIRStore fhirStore) {
+    AsyncFHIRStore asyncStore = AsyncFHIRStore.of(fhirStore);
+    Map<String, CompletableFuture<Integer>> counts = new LinkedHashMap<>();
+    for (List<String> stratum : StrataCube.strata(dimensions)) {
+      Map<String, String> searchParams = new HashMap<>(ALIVE);
+      for (int i = 0; i < dimensions.size(); i++) {
+        searchParams.put(dimensions.get(i).searchParam(), stratum.get(i));
       }
+      counts.put(StrataCube.name(stratum), asyncStore.countResources("Patient", searchParams));
     }
-    return genderAliveIds;
+    Map<String, ResultDTO> results = new LinkedHashMap<>();
+    counts.forEach(
+        (stratum, count) -> {
+          int alive = count.join();
+          results.put(
+              stratum,
+              alive < 0
+                  ? new ResultDTO("Failed to count living " + stratum + " patients")
+                  : new ResultDTO(alive, "Patient", Collections.emptySet()));
+        });
+    return results;
   }
 
   @Override
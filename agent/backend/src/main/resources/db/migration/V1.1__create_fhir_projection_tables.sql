@@ -0,0 +1,19 @@
+-- Create fhir_projection_sync table, the state of each locally synced resource projection
+CREATE TABLE fhir_projection_sync
+(
+    resource_type VARCHAR(64)  NOT NULL,
+    projection    VARCHAR(255) NOT NULL,
+    server_url    VARCHAR(500) NOT NULL,
+    synced_since  VARCHAR(40)  NOT NULL,
+    PRIMARY KEY (resource_type, projection)
+);
+
+-- Create fhir_projection_resource table, the projected resources as received from the server
+CREATE TABLE fhir_projection_resource
+(
+    resource_type VARCHAR(64)  NOT NULL,
+    projection    VARCHAR(255) NOT NULL,
+    resource_id   VARCHAR(64)  NOT NULL,
+    content       BLOB         NOT NULL,
+    PRIMARY KEY (resource_type, projection, resource_id)
+);
@@ -0,0 +1,2 @@
+-- Add the timeout of each CQL check, overriding the default timeout of checks when set
+ALTER TABLE cql_check ADD COLUMN timeout_seconds INTEGER;
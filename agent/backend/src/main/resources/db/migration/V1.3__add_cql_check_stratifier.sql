@@ -0,0 +1,2 @@
+-- Add the dimensions the patients of each CQL check are stratified by, a single result when empty
+ALTER TABLE cql_check ADD COLUMN stratifier VARCHAR(255);
@@ -0,0 +1,68 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class AsyncFHIRStoreTest {
+
+  @Test
+  void countResources_runsOnVirtualThread() throws Exception {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.countResources("Patient")).thenReturn(42);
+
+    CompletableFuture<Boolean> virtual =
+        AsyncFHIRStore.of(store).supply(fhirStore -> Thread.currentThread().isVirtual());
+
+    assertEquals(42, AsyncFHIRStore.of(store).countResources("Patient").get());
+    assertTrue(virtual.get());
+  }
+
+  @Test
+  void operations_overlap() throws Exception {
+    FHIRStore store = mock(FHIRStore.class);
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    when(store.getPatientList("a"))
+        .thenAnswer(
+            invocation -> {
+              bothStarted.countDown();
+              return new JSONObject().put("overlapped", bothStarted.await(5, TimeUnit.SECONDS));
+            });
+    when(store.evaluateMeasureList("m"))
+        .thenAnswer(
+            invocation -> {
+              bothStarted.countDown();
+              return new JSONObject().put("overlapped", bothStarted.await(5, TimeUnit.SECONDS));
+            });
+    AsyncFHIRStore asyncStore = AsyncFHIRStore.of(store);
+
+    CompletableFuture<JSONObject> list = asyncStore.getPatientList("a");
+    CompletableFuture<JSONObject> report = asyncStore.evaluateMeasureList("m");
+
+    assertTrue(list.get().getBoolean("overlapped"));
+    assertTrue(report.get().getBoolean("overlapped"));
+  }
+
+  @Test
+  void evaluateMeasure_completesExceptionally_whenStoreThrows() {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.evaluateMeasure("m")).thenThrow(new RuntimeException("HTTP error: 404"));
+
+    ExecutionException e =
+        assertThrows(
+            ExecutionException.class, () -> AsyncFHIRStore.of(store).evaluateMeasure("m").get());
+
+    assertInstanceOf(RuntimeException.class, e.getCause());
+    assertEquals("HTTP error: 404", e.getCause().getMessage());
+  }
+}
@@ -1,6 +1,8 @@
 package eu.bbmri_eric.quality.agent.dataquality;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyString;
@@ -10,9 +12,13 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 
@@ -25,45 +31,19 @@ class CQLQueryTest {
         .thenReturn(new JSONObject().put("id", "measure1"));
     when(store.postResource(eq("Measure"), any(JSONObject.class)))
         .thenReturn(new JSONObject().put("id", "measure1"));
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
   }
 
-  private JSONObject measureReportWith(int count, String listRefOrNull) throws Exception {
-    JSONObject pop =
-        new JSONObject()
-            .put(
-                "code",
-                new JSONObject()
-                    .put(
-                        "coding",
-                        new JSONArray()
-                            .put(
-                                new JSONObject()
-                                    .put(
-                                        "system",
-                                        "http://terminology.hl7.org/CodeSystem/measure-population")
-                                    .put("code", "initial-population"))))
-            .put("count", count);
-    if (listRefOrNull != null) {
-      pop.put("subjectResults", new JSONObject().put("reference", listRefOrNull));
-    }
-    return new JSONObject()
-        .put(
-            "group",
-            new JSONArray().put(new JSONObject().put("population", new JSONArray().put(pop))));
-  }
-
-  private JSONObject patientList(Object... refs) throws Exception {
-    JSONArray entries = new JSONArray();
-    for (Object ref : refs) {
-      if (ref == null) {
-        entries.put(new JSONObject()); // missing item/reference
-      } else if (ref instanceof String s) {
-        entries.put(new JSONObject().put("item", new JSONObject().put("reference", s)));
-      } else if (ref instanceof JSONObject jo) {
-        entries.put(jo);
-      }
+  private static List<MeasurePopulation> populations(int count, String listIdOrNull) {
+    return List.of(new MeasurePopulation(count, listIdOrNull));
+  }
+
+  private static PatientIdSet patientIds(String... ids) {
+    PatientIdSet.Builder builder = PatientIdSet.builder(new PatientIdDictionary());
+    for (String id : ids) {
+      builder.add(id);
     }
-    return new JSONObject().put("entry", entries);
+    return builder.build();
   }
 
   @Test
@@ -72,24 +52,8 @@ class CQLQueryTest {
     CQLQuery query = new CQLQuery("name", "desc", "query");
 
     stubMeasureSetup(mockStore);
-    // measureReport
-    when(mockStore.evaluateMeasureList("measure1"))
-        .thenReturn(measureReportWith(2, "List/list123"));
-
-    // Patient list
-    JSONObject listResource =
-        new JSONObject()
-            .put(
-                "entry",
-                new JSONArray()
-                    .put(
-                        new JSONObject()
-                            .put("item", new JSONObject().put("reference", "Patient/p1")))
-                    .put(
-                        new JSONObject()
-                            .put("item", new JSONObject().put("reference", "Patient/p2"))));
-
-    when(mockStore.getPatientList("list123")).thenReturn(patientList("Patient/p1", "Patient/p2"));
+    when(mockStore.evaluateMeasurePopulations("measure1")).thenReturn(populations(2, "list123"));
+    when(mockStore.getPatientIds(eq("list123"), any())).thenReturn(patientIds("p1", "p2"));
 
     // Act
     ResultDTO result = query.execute(mockStore);
@@ -106,13 +70,13 @@ class CQLQueryTest {
     CQLQuery query = new CQLQuery("name", "desc", "query");
     stubMeasureSetup(store);
 
-    when(store.evaluateMeasureList("measure1")).thenReturn(measureReportWith(0, "List/list123"));
+    when(store.evaluateMeasurePopulations("measure1")).thenReturn(populations(0, "list123"));
 
     ResultDTO result = query.execute(store);
 
     assertEquals(Set.of(), result.idSet());
     assertEquals(0, result.rawResult());
-    verify(store, never()).getPatientList(anyString());
+    verify(store, never()).getPatientIds(anyString(), any());
   }
 
   @Test
@@ -121,12 +85,152 @@ class CQLQueryTest {
     CQLQuery query = new CQLQuery("name", "desc", "query");
     stubMeasureSetup(store);
 
-    when(store.evaluateMeasureList("measure1")).thenReturn(measureReportWith(3, null));
+    when(store.evaluateMeasurePopulations("measure1")).thenReturn(populations(3, null));
 
     ResultDTO result = query.execute(store);
 
     assertEquals(Set.of(), result.idSet());
     assertEquals(3, result.rawResult());
-    verify(store, never()).getPatientList(anyString());
+    verify(store, never()).getPatientIds(anyString(), any());
+  }
+
+  @Test
+  void execute_returnsError_whenPostingMeasureFails() throws Exception {
+    FHIRStore store = mock(FHIRStore.class);
+    CQLQuery query = new CQLQuery("name", "desc", "query");
+    stubMeasureSetup(store);
+    when(store.postResource(eq("Measure"), any(JSONObject.class)))
+        .thenThrow(new RuntimeException("HTTP error: 500 INTERNAL_SERVER_ERROR"));
+
+    ResultDTO result = query.execute(store);
+
+    assertEquals("HTTP error: 500 INTERNAL_SERVER_ERROR", result.error());
+    verify(store, never()).evaluateMeasurePopulations(anyString());
+  }
+
+  @Test
+  void execute_doesNotPostMeasure_whenPostingLibraryFails() throws Exception {
+    FHIRStore store = mock(FHIRStore.class);
+    CQLQuery query = new CQLQuery("name", "desc", "query");
+    stubMeasureSetup(store);
+    when(store.postResource(eq("Library"), any(JSONObject.class)))
+        .thenThrow(new RuntimeException("HTTP error: 400 BAD_REQUEST"));
+
+    ResultDTO result = query.execute(store);
+
+    assertEquals("HTTP error: 400 BAD_REQUEST", result.error());
+    verify(store, never()).postResource(eq("Measure"), any(JSONObject.class));
+    verify(store, never()).evaluateMeasurePopulations(anyString());
+  }
+
+  @Test
+  void execute_postsOnlyMeasure_whenLibraryExists() throws Exception {
+    FHIRStore store = mock(FHIRStore.class);
+    CQLQuery query = new CQLQuery("name", "desc", "query");
+    stubMeasureSetup(store);
+    when(store.findResourceId("Library", Map.of("url", CQLQuery.libraryUrl("query"))))
+        .thenReturn(Optional.of("library1"));
+    when(store.evaluateMeasurePopulations("measure1")).thenReturn(populations(0, null));
+
+    ResultDTO result = query.execute(store);
+
+    assertEquals(0, result.rawResult());
+    verify(store, never()).postResource(eq("Library"), any(JSONObject.class));
+    verify(store).postResource(eq("Measure"), any(JSONObject.class));
+  }
+
+  @Test
+  void execute_reusesMeasure_whenCreatedForSameQueryBefore() throws Exception {
+    FHIRStore store = mock(FHIRStore.class);
+    CQLQuery query = new CQLQuery("name", "desc", "query");
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.findResourceId("Measure", Map.of("url", CQLQuery.measureUrl("query"))))
+        .thenReturn(Optional.of("measure1"));
+    when(store.evaluateMeasurePopulations("measure1")).thenReturn(populations(0, null));
+
+    ResultDTO result = query.execute(store);
+
+    assertEquals(0, result.rawResult());
+    verify(store, never()).postResource(anyString(), any(JSONObject.class));
+  }
+
+  @Test
+  void execute_createsLibraryAndMeasureWithContentDerivedUrls() throws Exception {
+    FHIRStore store = mock(FHIRStore.class);
+    CQLQuery query = new CQLQuery("name", "desc", "query");
+    stubMeasureSetup(store);
+    when(store.evaluateMeasurePopulations("measure1")).thenReturn(populations(0, null));
+
+    query.execute(store);
+
+    String libraryUri = CQLQuery.libraryUrl("query").substring("urn:uuid:".length());
+    String measureUri = CQLQuery.measureUrl("query").substring("urn:uuid:".length());
+    verify(store).createLibrary(eq(libraryUri), anyString());
+    verify(store).createMeasure(measureUri, libraryUri, "Patient");
+  }
+
+  @Test
+  void measureUrl_dependsOnlyOnQueryText() {
+    assertEquals(CQLQuery.measureUrl("define A: true"), CQLQuery.measureUrl("define A: true"));
+    assertNotEquals(CQLQuery.measureUrl("define A: true"), CQLQuery.measureUrl("define A: false"));
+    assertNotEquals(CQLQuery.measureUrl("define A: true"), CQLQuery.libraryUrl("define A: true"));
+  }
+
+  @Test
+  void requirements_declaresResourceTypesOfRetrieves() {
+    CQLQuery check =
+        new CQLQuery(
+            "c",
+            "d",
+            """
+            context Patient
+            define InInitialPopulation:
+              exists [Condition: Code 'C50' from ICD10] or exists ["Specimen"] or exists [Condition]
+            """);
+
+    CheckRequirements requirements = check.requirements();
+
+    assertEquals(
+        List.of("Condition", "Specimen", "Patient"),
+        requirements.reads().stream().map(CheckRequirements.ResourceRead::resourceType).toList());
+    assertEquals(CheckRequirements.Access.EVALUATE, requirements.reads().get(0).access());
+    assertTrue(requirements.patientIds());
+  }
+
+  @Test
+  void resultKey_isSharedByChecksWithSameQuery() {
+    CQLQuery check = new CQLQuery("c", "d", "define InInitialPopulation: Patient.gender is null");
+    CQLQuery same = new CQLQuery("e", "f", "define InInitialPopulation: Patient.gender is null");
+
+    assertEquals(Optional.of(CQLQuery.measureUrl(check.getQuery())), check.resultKey());
+    assertEquals(check.resultKey(), same.resultKey());
+  }
+
+  @Test
+  void resultKey_includesDate_whenQueryReadsAge() {
+    String cql = "define InInitialPopulation: AgeInYears() >= 18";
+    CQLQuery check = new CQLQuery("c", "d", cql);
+
+    assertEquals(
+        Optional.of(CQLQuery.measureUrl(cql) + "@" + LocalDate.now()), check.resultKey());
+  }
+
+  @Test
+  void resultKey_isEmpty_whenQueryReadsTime() {
+    CQLQuery check =
+        new CQLQuery("c", "d", "define InInitialPopulation: Patient.birthDate < Now()");
+
+    assertEquals(Optional.empty(), check.resultKey());
+  }
+
+  @Test
+  void requirements_declaresPatients_whenQueryRetrievesNothing() {
+    CQLQuery check = new CQLQuery("c", "d", "define InInitialPopulation: Patient.gender is null");
+
+    assertEquals(
+        List.of(
+            new CheckRequirements.ResourceRead(
+                "Patient", List.of(), CheckRequirements.Access.EVALUATE)),
+        check.requirements().reads());
   }
 }
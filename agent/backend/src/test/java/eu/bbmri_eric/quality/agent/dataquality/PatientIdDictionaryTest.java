@@ -0,0 +1,63 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class PatientIdDictionaryTest {
+
+  @Test
+  void intern_assignsDenseNumbersInOrderOfFirstOccurrence() {
+    PatientIdDictionary dictionary = new PatientIdDictionary();
+
+    assertEquals(0, dictionary.intern("p1"));
+    assertEquals(1, dictionary.intern("p2"));
+    assertEquals(0, dictionary.intern("p1"));
+    assertEquals(2, dictionary.intern("ü-3"));
+    assertEquals(3, dictionary.size());
+  }
+
+  @Test
+  void id_returnsInternedId_afterGrowing() {
+    PatientIdDictionary dictionary = new PatientIdDictionary();
+
+    IntStream.range(0, 100_000).forEach(i -> dictionary.intern("patient-" + i));
+
+    assertEquals(100_000, dictionary.size());
+    assertEquals("patient-0", dictionary.id(0));
+    assertEquals("patient-99999", dictionary.id(99_999));
+    assertEquals(54_321, dictionary.indexOf("patient-54321"));
+  }
+
+  @Test
+  void indexOf_returnsMinusOne_forUnknownId() {
+    PatientIdDictionary dictionary = new PatientIdDictionary();
+    dictionary.intern("p1");
+
+    assertEquals(-1, dictionary.indexOf("p2"));
+    assertEquals(1, dictionary.size());
+    assertThrows(IndexOutOfBoundsException.class, () -> dictionary.id(1));
+  }
+
+  @Test
+  void intern_assignsOneNumberPerId_whenCalledConcurrently() throws Exception {
+    PatientIdDictionary dictionary = new PatientIdDictionary();
+    Set<Integer> numbers = ConcurrentHashMap.newKeySet();
+
+    try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+      for (int thread = 0; thread < 4; thread++) {
+        executor.submit(
+            () -> IntStream.range(0, 10_000).forEach(i -> numbers.add(dictionary.intern("p" + i))));
+      }
+    }
+
+    assertEquals(10_000, dictionary.size());
+    assertEquals(10_000, numbers.size());
+  }
+}
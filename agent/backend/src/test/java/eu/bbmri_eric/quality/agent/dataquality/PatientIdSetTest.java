@@ -0,0 +1,64 @@
+package eu.bbmri_eric.quality.agent.dataquality;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class PatientIdSetTest {
+
+  @Test
+  void build_containsAddedIdsAndReferences() {
+    PatientIdDictionary dictionary = new PatientIdDictionary();
+
+    PatientIdSet ids =
+        PatientIdSet.builder(dictionary)
+            .add("p1")
+            .addReference("Patient/p2")
+            .addReference("p3")
+            .add(dictionary.intern("p1"))
+            .build();
+
+    assertEquals(Set.of("p1", "p2", "p3"), ids);
+    assertEquals(Set.of("p1", "p2", "p3"), new HashSet<>(ids));
+    assertEquals(3, ids.size());
+    assertTrue(ids.contains("p2"));
+    assertFalse(ids.contains("Patient/p2"));
+    assertFalse(ids.contains(2));
+  }
+
+  @Test
+  void build_sharesDictionaryBetweenSets() {
+    PatientIdDictionary dictionary = new PatientIdDictionary();
+
+    PatientIdSet first = PatientIdSet.builder(dictionary).add("p1").add("p2").build();
+    PatientIdSet second = PatientIdSet.builder(dictionary).add("p2").add("p3").build();
+
+    assertEquals(3, dictionary.size());
+    assertFalse(first.contains("p3"));
+    assertEquals(Set.of("p2", "p3"), second);
+  }
+
+  @Test
+  void build_isNotChangedByLaterAdditions() {
+    PatientIdSet.Builder builder = PatientIdSet.builder(new PatientIdDictionary()).add("p1");
+
+    PatientIdSet ids = builder.build();
+    builder.add("p2");
+
+    assertEquals(Set.of("p1"), ids);
+    assertEquals(2, builder.size());
+  }
+
+  @Test
+  void set_isImmutable() {
+    PatientIdSet ids = PatientIdSet.builder(new PatientIdDictionary()).add("p1").build();
+
+    assertThrows(UnsupportedOperationException.class, () -> ids.add("p2"));
+    assertThrows(UnsupportedOperationException.class, () -> ids.remove("p1"));
+  }
+}
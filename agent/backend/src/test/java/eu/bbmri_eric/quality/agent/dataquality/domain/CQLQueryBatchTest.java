@@ -0,0 +1,151 @@
+package eu.bbmri_eric.quality.agent.dataquality.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.MeasurePopulation;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class CQLQueryBatchTest {
+
+  private static CQLQuery check(long id, String population) {
+    return new CQLQuery(
+        id,
+        "check " + id,
+        "desc",
+        "library L%d\nusing FHIR version '4.0.0'\ninclude FHIRHelpers version '4.0.0'\n"
+                .formatted(id)
+            + "context Patient\ndefine InInitialPopulation:\n  "
+            + population);
+  }
+
+  private static PatientIdSet patientIds(String... ids) {
+    PatientIdSet.Builder builder = PatientIdSet.builder(new PatientIdDictionary());
+    for (String id : ids) {
+      builder.add(id);
+    }
+    return builder.build();
+  }
+
+  @Test
+  void plan_batchesMergeableChecksInOrderOfId() {
+    CQLQuery unmergeable = new CQLQuery(2L, "raw", "desc", "define InInitialPopulation: true");
+    CQLQuery second = check(3, "Patient.birthDate is null");
+    CQLQuery first = check(1, "Patient.gender is null");
+
+    List<CQLQueryBatch> batches = CQLQueryBatch.plan(List.of(second, unmergeable, first));
+
+    assertEquals(1, batches.size());
+    assertEquals(List.of(first, second), batches.get(0).getChecks());
+    assertEquals(
+        """
+        library QualityAgentChecks version '1.0.0'
+        using FHIR version '4.0.0'
+        include FHIRHelpers version '4.0.0'
+
+        context Patient
+
+        define "Check1 InInitialPopulation":
+          Patient.gender is null
+
+        define "Check2 InInitialPopulation":
+          Patient.birthDate is null
+        """,
+        batches.get(0).getCql());
+  }
+
+  @Test
+  void plan_leavesSingleMergeableCheckOut() {
+    assertTrue(CQLQueryBatch.plan(List.of(check(1, "true"))).isEmpty());
+  }
+
+  @Test
+  void execute_splitsGroupsOfOneEvaluationIntoResults() {
+    CQLQuery first = check(1, "Patient.gender is null");
+    CQLQuery second = check(2, "Patient.birthDate is null");
+    CQLQueryBatch batch = CQLQueryBatch.plan(List.of(first, second)).get(0);
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.findResourceId("Measure", Map.of("url", CQLQuery.measureUrl(batch.getCql()))))
+        .thenReturn(Optional.of("batch"));
+    when(store.evaluateMeasurePopulations("batch"))
+        .thenReturn(List.of(new MeasurePopulation(2, "l1"), new MeasurePopulation(0, null)));
+    when(store.getPatientIds(eq("l1"), any())).thenReturn(patientIds("p1", "p2"));
+
+    Map<CQLQuery, ResultDTO> results = batch.execute(store);
+
+    assertEquals(2, results.get(first).rawResult());
+    assertEquals(Set.of("p1", "p2"), results.get(first).idSet());
+    assertEquals(0, results.get(second).rawResult());
+    verify(store, times(1)).evaluateMeasurePopulations(anyString());
+  }
+
+  @Test
+  void execute_createsMeasureWithOneGroupPerCheck() {
+    CQLQueryBatch batch =
+        CQLQueryBatch.plan(List.of(check(1, "true"), check(2, "false"))).get(0);
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    JSONObject criteria = new JSONObject().put("expression", "InInitialPopulation");
+    JSONObject templateGroup =
+        new JSONObject()
+            .put("population", new JSONArray().put(new JSONObject().put("criteria", criteria)));
+    JSONObject measure = new JSONObject().put("group", new JSONArray().put(templateGroup));
+    when(store.createLibrary(anyString(), anyString())).thenReturn(new JSONObject());
+    when(store.createMeasure(anyString(), anyString(), eq("Patient"))).thenReturn(measure);
+    when(store.postResource(eq("Library"), any(JSONObject.class))).thenReturn(new JSONObject());
+    when(store.postResource(eq("Measure"), any(JSONObject.class)))
+        .thenReturn(new JSONObject().put("id", "batch"));
+    when(store.evaluateMeasurePopulations("batch"))
+        .thenReturn(List.of(new MeasurePopulation(0, null), new MeasurePopulation(0, null)));
+
+    batch.execute(store);
+
+    JSONArray groups = measure.getJSONArray("group");
+    assertEquals(2, groups.length());
+    assertEquals(
+        "Check2 InInitialPopulation",
+        groups.getJSONObject(1).getJSONArray("population").getJSONObject(0)
+            .getJSONObject("criteria").getString("expression"));
+  }
+
+  @Test
+  void execute_executesChecksOneByOne_whenBatchFails() {
+    CQLQuery first = check(1, "true");
+    CQLQuery second = check(2, "false");
+    CQLQueryBatch batch = CQLQueryBatch.plan(List.of(first, second)).get(0);
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.findResourceId(eq("Measure"), any()))
+        .thenAnswer(
+            invocation -> Optional.of(invocation.<Map<String, String>>getArgument(1).get("url")));
+    when(store.evaluateMeasurePopulations(CQLQuery.measureUrl(batch.getCql())))
+        .thenThrow(new RuntimeException("HTTP error: 400 BAD_REQUEST"));
+    when(store.evaluateMeasurePopulations(CQLQuery.measureUrl(first.getQuery())))
+        .thenReturn(List.of(new MeasurePopulation(0, null)));
+    when(store.evaluateMeasurePopulations(CQLQuery.measureUrl(second.getQuery())))
+        .thenThrow(new RuntimeException("HTTP error: 500 INTERNAL_SERVER_ERROR"));
+
+    Map<CQLQuery, ResultDTO> results = batch.execute(store);
+
+    assertEquals(0, results.get(first).rawResult());
+    assertEquals("HTTP error: 500 INTERNAL_SERVER_ERROR", results.get(second).error());
+  }
+}
@@ -0,0 +1,95 @@
+package eu.bbmri_eric.quality.agent.dataquality.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MergeableLibraryTest {
+  private static final String GENDER_INCOMPATIBLE_DIAGNOSIS =
+      """
+      library "GenderIncompatibleDiagnosis"
+      using FHIR version '4.0.0'
+      include FHIRHelpers version '4.0.0'
+
+      codesystem icd10: 'http://hl7.org/fhir/sid/icd-10'
+
+      code "ProstateCancer": 'C61' from icd10
+
+      context Patient
+
+      // conditions of the patient
+      define MaleSpecificConditions:
+        [Condition: code in "ProstateCancer"] C
+          where C.subject.reference = 'Patient/' + Patient.id
+
+      define InInitialPopulation:
+        Patient.gender = 'female' and exists MaleSpecificConditions
+      """;
+
+  private static MergeableLibrary parse(String cql) {
+    return MergeableLibrary.parse(cql).orElseThrow();
+  }
+
+  @Test
+  void renamedStatements_prefixesDeclarationsAndReferences() {
+    MergeableLibrary library = parse(GENDER_INCOMPATIBLE_DIAGNOSIS);
+
+    assertEquals("FHIR '4.0.0', FHIRHelpers '4.0.0'", library.key());
+    assertEquals(
+        List.of("codesystem \"C1 icd10\": 'http://hl7.org/fhir/sid/icd-10'"),
+        library.renamedStatements("codesystem", "C1 "));
+    assertEquals(
+        List.of("code \"C1 ProstateCancer\": 'C61' from \"C1 icd10\""),
+        library.renamedStatements("code", "C1 "));
+    assertEquals(
+        List.of(
+            """
+            define "C1 MaleSpecificConditions":
+              [Condition: code in "C1 ProstateCancer"] C
+                where C.subject.reference = 'Patient/' + Patient.id""",
+            """
+            define "C1 InInitialPopulation":
+              Patient.gender = 'female' and exists "C1 MaleSpecificConditions\""""),
+        library.renamedStatements("define", "C1 "));
+  }
+
+  @Test
+  void parse_keepsStringsAndCommentsUnchanged() {
+    MergeableLibrary library =
+        parse(
+            """
+            using FHIR version '4.0.0'
+            context Patient
+            define Flag: 'Flag \\' Flag' /* Flag */
+            define InInitialPopulation: Flag = 'Flag'
+            """);
+
+    assertEquals(
+        List.of(
+            "define \"x Flag\": 'Flag \\' Flag' /* Flag */",
+            "define \"x InInitialPopulation\": \"x Flag\" = 'Flag'"),
+        library.renamedStatements("define", "x "));
+  }
+
+  @Test
+  void parse_rejectsLibrariesThatCannotBeRenamedSafely() {
+    String header = "using FHIR version '4.0.0'\ncontext Patient\n";
+    List<String> rejected =
+        List.of(
+            header + "define InInitialPopulation: true\ndefine function F(x Integer): x",
+            header + "parameter P Integer\ndefine InInitialPopulation: true",
+            "using FHIR version '4.0.0'\ninclude Other version '1'\n"
+                + "context Patient\ndefine InInitialPopulation: true",
+            "using FHIR version '4.0.0'\ncontext Specimen\ndefine InInitialPopulation: true",
+            header + "define C: 1\ndefine InInitialPopulation: exists [Condition] C",
+            header + "define gender: 'x'\ndefine InInitialPopulation: Patient.gender = gender",
+            header + "define Other: true",
+            header + "define InInitialPopulation: 'unterminated",
+            "define InInitialPopulation: true");
+
+    rejected.forEach(
+        cql -> assertTrue(MergeableLibrary.parse(cql).isEmpty(), "should reject " + cql));
+  }
+}
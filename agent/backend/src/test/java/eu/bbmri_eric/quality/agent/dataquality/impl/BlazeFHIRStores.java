@@ -0,0 +1,85 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import eu.bbmri_eric.quality.agent.settings.dto.SettingsDTO;
+import eu.bbmri_eric.quality.agent.settings.event.SettingsUpdatedEvent;
+import java.util.Base64;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+
+/**
+ * Builds {@link BlazeFHIRStore}s that talk to a stub FHIR server. Every setting has a test default
+ * and can be overridden by name before {@link #build()}.
+ */
+final class BlazeFHIRStores {
+  private final String baseUrl;
+  private int connections = 4;
+  private int pageSize = 50;
+  private int prefetchDepth = 2;
+  private int partitions = 1;
+  private boolean sampleUnprojectedSize;
+  private boolean bulkExport;
+
+  private BlazeFHIRStores(String baseUrl) {
+    this.baseUrl = baseUrl;
+  }
+
+  static BlazeFHIRStores forTest(String baseUrl) {
+    return new BlazeFHIRStores(baseUrl);
+  }
+
+  BlazeFHIRStores connections(int connections) {
+    this.connections = connections;
+    return this;
+  }
+
+  BlazeFHIRStores pageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  BlazeFHIRStores prefetchDepth(int prefetchDepth) {
+    this.prefetchDepth = prefetchDepth;
+    return this;
+  }
+
+  BlazeFHIRStores partitions(int partitions) {
+    this.partitions = partitions;
+    return this;
+  }
+
+  BlazeFHIRStores sampleUnprojectedSize(boolean sampleUnprojectedSize) {
+    this.sampleUnprojectedSize = sampleUnprojectedSize;
+    return this;
+  }
+
+  BlazeFHIRStores bulkExport(boolean bulkExport) {
+    this.bulkExport = bulkExport;
+    return this;
+  }
+
+  /** Creates the store and points it at the stub server with basic-auth credentials. */
+  BlazeFHIRStore build() {
+    SettingsDTO settings = new SettingsDTO();
+    settings.setFhirUrl(baseUrl);
+    settings.setFhirUsername("user");
+    settings.setFhirPassword(Base64.getEncoder().encodeToString("pass".getBytes()));
+    BlazeFHIRStore store =
+        new BlazeFHIRStore(
+            new FHIRConnectionPool(
+                new RestTemplateBuilder(),
+                new FHIRRequestLimiter(connections),
+                connections,
+                10,
+                10,
+                60,
+                true,
+                1),
+            pageSize,
+            prefetchDepth,
+            partitions,
+            sampleUnprojectedSize,
+            new BulkExporter(bulkExport, 0, 1),
+            new DeltaSync(null, false, 0, pageSize));
+    store.onSettingsUpdated(new SettingsUpdatedEvent(settings));
+    return store;
+  }
+}
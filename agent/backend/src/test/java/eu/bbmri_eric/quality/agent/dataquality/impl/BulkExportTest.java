@@ -0,0 +1,196 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the bulk export mode of {@link BlazeFHIRStore} against a local stub server that serves
+ * NDJSON generated from {@code test_data/transaction-*.json}.
+ */
+class BulkExportTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static List<JsonNode> testResources;
+
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+  private HttpServer server;
+  private String baseUrl;
+
+  @BeforeAll
+  static void loadTestData() throws IOException {
+    testResources = new ArrayList<>();
+    List<Path> files;
+    try (Stream<Path> paths = Files.list(Path.of("../../test_data"))) {
+      files =
+          paths.filter(path -> path.getFileName().toString().startsWith("transaction-")).toList();
+    }
+    for (Path file : files) {
+      for (JsonNode entry : MAPPER.readTree(file.toFile()).path("entry")) {
+        testResources.add(entry.path("resource"));
+      }
+    }
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  private static List<JsonNode> resourcesOfType(String resourceType) {
+    return testResources.stream()
+        .filter(resource -> resourceType.equals(resource.path("resourceType").asText()))
+        .toList();
+  }
+
+  private static Set<String> idsOfType(String resourceType) {
+    return resourcesOfType(resourceType).stream()
+        .map(resource -> resource.path("id").asText())
+        .collect(Collectors.toSet());
+  }
+
+  private BlazeFHIRStore startStore(boolean supportsExport) throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    baseUrl = "http://localhost:" + server.getAddress().getPort() + "/fhir";
+    AtomicInteger polls = new AtomicInteger();
+    server.createContext(
+        "/fhir/",
+        exchange -> {
+          String path = exchange.getRequestURI().getPath();
+          requests.add(exchange.getRequestMethod() + " " + path);
+          if (path.equals("/fhir/$export") && supportsExport) {
+            String type = exchange.getRequestURI().getQuery().replaceAll(".*_type=(\\w+).*", "$1");
+            exchange.getResponseHeaders().set("Content-Location", baseUrl + "/__status/" + type);
+            respond(exchange, 202, "");
+          } else if (path.startsWith("/fhir/__status/")) {
+            handleStatus(exchange, path.substring("/fhir/__status/".length()), polls);
+          } else if (path.startsWith("/fhir/__files/")) {
+            String[] file = path.substring("/fhir/__files/".length()).split("-");
+            respond(exchange, 200, ndjson(file[0], Integer.parseInt(file[1])));
+          } else if (path.equals("/fhir/Patient")) {
+            respond(exchange, 200, searchset("Patient"));
+          } else {
+            respond(exchange, 404, "{\"resourceType\":\"OperationOutcome\"}");
+          }
+        });
+    server.start();
+
+    return BlazeFHIRStores.forTest(baseUrl).bulkExport(true).build();
+  }
+
+  /** Reports the export as in progress on the first poll and complete afterwards. */
+  private void handleStatus(HttpExchange exchange, String type, AtomicInteger polls)
+      throws IOException {
+    if (exchange.getRequestMethod().equals("DELETE")) {
+      respond(exchange, 202, "");
+    } else if (polls.getAndIncrement() == 0) {
+      exchange.getResponseHeaders().set("Retry-After", "0");
+      respond(exchange, 202, "");
+    } else {
+      ObjectNode manifest = MAPPER.createObjectNode();
+      manifest.put("transactionTime", "2025-01-01T00:00:00Z");
+      manifest.put("requiresAccessToken", false);
+      ArrayNode output = manifest.putArray("output");
+      for (int part = 0; part < 2; part++) {
+        output.addObject().put("type", type).put("url", baseUrl + "/__files/" + type + "-" + part);
+      }
+      manifest.putArray("error");
+      respond(exchange, 200, MAPPER.writeValueAsString(manifest));
+    }
+  }
+
+  /** Serves every other resource of a type in each of the two files of an export. */
+  private static String ndjson(String type, int part) {
+    List<JsonNode> resources = resourcesOfType(type);
+    StringBuilder lines = new StringBuilder();
+    for (int i = part; i < resources.size(); i += 2) {
+      lines.append(resources.get(i).toString()).append('\n');
+    }
+    return lines.toString();
+  }
+
+  private static String searchset(String type) {
+    ObjectNode bundle = MAPPER.createObjectNode();
+    bundle.put("resourceType", "Bundle");
+    bundle.put("type", "searchset");
+    ArrayNode entries = bundle.putArray("entry");
+    resourcesOfType(type).forEach(resource -> entries.addObject().set("resource", resource));
+    return bundle.toString();
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+    if (bytes.length > 0) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+    exchange.close();
+  }
+
+  @Test
+  void streamAllResources_readsNdjsonOfBulkExport() throws IOException {
+    BlazeFHIRStore store = startStore(true);
+
+    Set<String> ids;
+    try (Stream<PatientRecord> patients =
+        store.streamAllResources("Patient", List.of("id", "gender"), PatientRecord::decode)) {
+      ids = patients.map(PatientRecord::id).collect(Collectors.toSet());
+    }
+
+    assertEquals(idsOfType("Patient"), ids);
+    assertTrue(requests.contains("GET /fhir/__files/Patient-1"));
+    assertTrue(requests.contains("DELETE /fhir/__status/Patient"));
+    assertFalse(requests.contains("GET /fhir/Patient"));
+  }
+
+  @Test
+  void fetchAllResources_parsesNdjsonWithHapi() throws IOException {
+    BlazeFHIRStore store = startStore(true);
+
+    List<Resource> conditions = store.fetchAllResources("Condition", List.of());
+
+    assertEquals(resourcesOfType("Condition").size(), conditions.size());
+    assertTrue(conditions.stream().allMatch(Condition.class::isInstance));
+  }
+
+  @Test
+  void streamAllResources_fallsBackToSearch_whenExportIsNotSupported() throws IOException {
+    BlazeFHIRStore store = startStore(false);
+
+    Set<String> ids;
+    try (Stream<PatientRecord> patients =
+        store.streamAllResources("Patient", List.of("id", "gender"), PatientRecord::decode)) {
+      ids = patients.map(PatientRecord::id).collect(Collectors.toSet());
+    }
+
+    assertEquals(idsOfType("Patient"), ids);
+    assertTrue(requests.contains("GET /fhir/$export"));
+    assertTrue(requests.contains("GET /fhir/Patient"));
+  }
+}
@@ -0,0 +1,117 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.LenientErrorHandler;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares decoding search pages with the HAPI object model against the streaming {@link
+ * BundleJson#decodeEntries} path used by the built-in checks. The pages are searchset Bundles
+ * built from the transaction Bundles in {@code test_data}; the directory can be changed with the
+ * {@code benchmark.data} system property. Run with {@code -prof gc} to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BundleDecodingBenchmark {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Param({"Patient", "Condition"})
+  public String resourceType;
+
+  private FhirContext ctx;
+  private byte[] page;
+
+  @Setup
+  public void setUp() throws IOException {
+    ctx =
+        FhirContext.forR4()
+            .setParserErrorHandler(new LenientErrorHandler().setErrorOnInvalidValue(false));
+    page = searchset(Path.of(System.getProperty("benchmark.data", "../../test_data")));
+  }
+
+  @Benchmark
+  public void hapi(Blackhole blackhole) {
+    Bundle bundle = ctx.newJsonParser().parseResource(Bundle.class, new ByteArrayInputStream(page));
+    for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+      if (entry.getResource() instanceof Patient patient) {
+        blackhole.consume(patient.getIdElement().getIdPart());
+        blackhole.consume(patient.getGender());
+        blackhole.consume(patient.hasDeceased());
+        for (Identifier identifier : patient.getIdentifier()) {
+          blackhole.consume(identifier.getValue());
+        }
+      } else if (entry.getResource() instanceof Condition condition) {
+        blackhole.consume(condition.getSubject().getReference());
+        for (Coding coding : condition.getCode().getCoding()) {
+          blackhole.consume(coding.getCode());
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public void streaming(Blackhole blackhole) {
+    if ("Patient".equals(resourceType)) {
+      BundleJson.decodeEntries(page, PatientRecord::decode).forEach(blackhole::consume);
+    } else {
+      BundleJson.decodeEntries(page, ConditionRecord::decode).forEach(blackhole::consume);
+    }
+  }
+
+  /** Collects all resources of the benchmarked type into one searchset Bundle. */
+  private byte[] searchset(Path dataDirectory) throws IOException {
+    ObjectNode bundle = MAPPER.createObjectNode();
+    bundle.put("resourceType", "Bundle");
+    bundle.put("type", "searchset");
+    ArrayNode entries = bundle.putArray("entry");
+    List<Path> files;
+    try (Stream<Path> paths = Files.list(dataDirectory)) {
+      files =
+          paths.filter(path -> path.getFileName().toString().startsWith("transaction-")).toList();
+    }
+    for (Path file : files) {
+      for (JsonNode entry : MAPPER.readTree(file.toFile()).path("entry")) {
+        JsonNode resource = entry.path("resource");
+        if (resourceType.equals(resource.path("resourceType").asText())) {
+          ObjectNode searchEntry = entries.addObject();
+          searchEntry.put("fullUrl", entry.path("fullUrl").asText());
+          searchEntry.set("resource", resource);
+          searchEntry.putObject("search").put("mode", "match");
+        }
+      }
+    }
+    bundle.put("total", entries.size());
+    return MAPPER.writeValueAsBytes(bundle);
+  }
+}
@@ -0,0 +1,138 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+class BundleJsonTest {
+
+  private static byte[] json(String json) {
+    return json.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void nextLink_returnsUrlOfNextRelation() {
+    byte[] page =
+        json(
+            """
+            {"resourceType":"Bundle","type":"searchset","total":3,
+             "link":[{"relation":"self","url":"http://blaze/fhir/Patient?_count=1"},
+                     {"relation":"next","url":"http://blaze/fhir/__page/abc"}],
+             "entry":[{"resource":{"resourceType":"Patient","id":"p1"}}]}
+            """);
+
+    assertEquals(Optional.of("http://blaze/fhir/__page/abc"), BundleJson.nextLink(page));
+  }
+
+  @Test
+  void nextLink_findsLinkAfterEntries() {
+    byte[] page =
+        json(
+            """
+            {"resourceType":"Bundle","entry":[{"resource":{"resourceType":"Patient",
+             "link":[{"other":{"reference":"Patient/p2"},"type":"seealso"}]}}],
+             "link":[{"url":"http://blaze/fhir/__page/def","relation":"next"}]}
+            """);
+
+    assertEquals(Optional.of("http://blaze/fhir/__page/def"), BundleJson.nextLink(page));
+  }
+
+  @Test
+  void nextLink_returnsEmptyOnLastPage() {
+    byte[] page =
+        json(
+            """
+            {"resourceType":"Bundle","link":[{"relation":"self","url":"http://blaze/fhir/Patient"}],
+             "entry":[]}
+            """);
+
+    assertTrue(BundleJson.nextLink(page).isEmpty());
+  }
+
+  @Test
+  void total_readsCountOfSummaryBundle() {
+    byte[] page =
+        json(
+            """
+            {"resourceType":"Bundle","meta":{"tag":[{"code":"SUBSETTED"}]},"type":"searchset",
+             "total":1234,"link":[{"relation":"self","url":"http://blaze/fhir/Patient"}]}
+            """);
+
+    assertEquals(Optional.of(1234), BundleJson.total(page));
+  }
+
+  @Test
+  void total_returnsEmptyWithoutTotal() {
+    byte[] page = json("{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"entry\":[]}");
+
+    assertTrue(BundleJson.total(page).isEmpty());
+  }
+
+  @Test
+  void firstId_readsIdOfFirstEntry() {
+    byte[] page =
+        json(
+            """
+            {"resourceType":"Bundle","type":"searchset","entry":[
+             {"fullUrl":"http://blaze/fhir/Measure/m1","resource":{"resourceType":"Measure",
+              "meta":{"versionId":"3"},"id":"m1"}},
+             {"resource":{"resourceType":"Measure","id":"m2"}}]}
+            """);
+
+    assertEquals(Optional.of("m1"), BundleJson.firstId(page));
+    assertTrue(BundleJson.firstId(json("{\"resourceType\":\"Bundle\"}")).isEmpty());
+  }
+
+  @Test
+  void decodeEntries_decodesPatientFieldsAndSkipsOtherResources() {
+    byte[] page =
+        json(
+            """
+            {"resourceType":"Bundle","entry":[
+             {"fullUrl":"http://blaze/fhir/Patient/p1","resource":{"resourceType":"Patient",
+              "id":"p1","meta":{"versionId":"1"},"gender":"male","deceasedBoolean":false,
+              "identifier":[{"system":"https://fhir.bbmri.de/id/patient","value":"X1"}]},
+              "search":{"mode":"match"}},
+             {"resource":{"resourceType":"Patient","id":"p2","deceasedDateTime":"2020-01-01"}},
+             {"resource":{"resourceType":"OperationOutcome","issue":[]},"search":{}}]}
+            """);
+
+    List<PatientRecord> patients = BundleJson.decodeEntries(page, PatientRecord::decode);
+
+    assertEquals(
+        List.of(
+            new PatientRecord(
+                "p1",
+                "male",
+                false,
+                List.of(new PatientRecord.Identifier("https://fhir.bbmri.de/id/patient", "X1"))),
+            new PatientRecord("p2", null, true, List.of())),
+        patients);
+  }
+
+  @Test
+  void decodeEntries_decodesConditionCodingsAndSubject() {
+    byte[] page =
+        json(
+            """
+            {"resourceType":"Bundle","entry":[{"resource":{"resourceType":"Condition","id":"c1",
+             "subject":{"reference":"Patient/p1","display":"x"},
+             "code":{"text":"t","coding":[{"system":"http://hl7.org/fhir/sid/icd-10",
+              "version":"2016","code":"C50.9"}]}}}]}
+            """);
+
+    List<ConditionRecord> conditions = BundleJson.decodeEntries(page, ConditionRecord::decode);
+
+    assertEquals(
+        List.of(
+            new ConditionRecord(
+                "c1",
+                "Patient/p1",
+                List.of(new ConditionRecord.Coding("http://hl7.org/fhir/sid/icd-10", "C50.9")))),
+        conditions);
+  }
+}
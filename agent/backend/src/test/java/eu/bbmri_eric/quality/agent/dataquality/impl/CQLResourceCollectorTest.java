@@ -0,0 +1,99 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQueryBatch;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CQLResourceCollectorTest {
+  private static final String OLD_QUERY = "define InInitialPopulation: true";
+
+  private CQLCheckRepository repository;
+  private FHIRStore store;
+  private CQLResourceCollector collector;
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(CQLCheckRepository.class);
+    store = mock(FHIRStore.class);
+    collector = new CQLResourceCollector(repository, store, false);
+    when(store.findResourceId("Measure", Map.of("url", CQLQuery.measureUrl(OLD_QUERY))))
+        .thenReturn(Optional.of("m1"));
+    when(store.findResourceId("Library", Map.of("url", CQLQuery.libraryUrl(OLD_QUERY))))
+        .thenReturn(Optional.of("l1"));
+  }
+
+  /** A check read from the database with the given query, which now has the current query. */
+  private static CQLQuery check(String persistedQuery, String currentQuery) {
+    CQLQuery check = mock(CQLQuery.class);
+    when(check.persistedQuery()).thenReturn(Optional.of(persistedQuery));
+    when(check.getQuery()).thenReturn(currentQuery);
+    return check;
+  }
+
+  @Test
+  void onAfterSave_deletesResourcesOfPreviousQuery_whenQueryChanged() {
+    collector.onAfterSave(check(OLD_QUERY, "define InInitialPopulation: false"));
+
+    verify(store).deleteResource("Measure", "m1");
+    verify(store).deleteResource("Library", "l1");
+  }
+
+  @Test
+  void onAfterSave_keepsResources_whenQueryUnchanged() {
+    collector.onAfterSave(check(OLD_QUERY, OLD_QUERY));
+
+    verify(store, never()).findResourceId(anyString(), anyMap());
+    verify(store, never()).deleteResource(anyString(), anyString());
+  }
+
+  @Test
+  void onAfterDelete_keepsResources_whenAnotherCheckUsesSameQuery() {
+    when(repository.existsByQuery(OLD_QUERY)).thenReturn(true);
+
+    collector.onAfterDelete(check(OLD_QUERY, OLD_QUERY));
+
+    verify(store, never()).deleteResource(anyString(), anyString());
+  }
+
+  @Test
+  void onAfterDelete_ignoresFailure_whenServerUnavailable() {
+    doThrow(new RuntimeException("HTTP error: 503")).when(store).deleteResource("Measure", "m1");
+
+    collector.onAfterDelete(check(OLD_QUERY, OLD_QUERY));
+
+    verify(store).deleteResource("Measure", "m1");
+    verify(store, never()).deleteResource("Library", "l1");
+  }
+
+  @Test
+  void onAfterDelete_deletesResourcesOfBatch_whenChecksNoLongerFormIt() {
+    String header = "using FHIR version '4.0.0'\ncontext Patient\n";
+    CQLQuery kept = new CQLQuery(1L, "kept", "desc", header + "define InInitialPopulation: true");
+    CQLQuery deleted =
+        new CQLQuery(2L, "deleted", "desc", header + "define InInitialPopulation: false");
+    String batchCql = CQLQueryBatch.plan(List.of(kept, deleted)).get(0).getCql();
+    when(repository.findAll()).thenReturn(List.of(kept));
+    when(store.findResourceId("Measure", Map.of("url", CQLQuery.measureUrl(batchCql))))
+        .thenReturn(Optional.of("batch-measure"));
+    when(store.findResourceId("Library", Map.of("url", CQLQuery.libraryUrl(batchCql))))
+        .thenReturn(Optional.of("batch-library"));
+
+    new CQLResourceCollector(repository, store, true).onAfterDelete(deleted);
+
+    verify(store).deleteResource("Measure", "batch-measure");
+    verify(store).deleteResource("Library", "batch-library");
+  }
+}
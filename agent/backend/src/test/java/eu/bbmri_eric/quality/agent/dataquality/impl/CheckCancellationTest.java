@@ -0,0 +1,136 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class CheckCancellationTest {
+  private static final URI REQUEST = URI.create("http://localhost/fhir/Measure/m/$evaluate");
+
+  @Test
+  void send_abortsWaitingRequest_whenCancelled() throws Exception {
+    CheckCancellation cancellation = new CheckCancellation();
+    CountDownLatch sending = new CountDownLatch(1);
+    CompletableFuture<String> response =
+        CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return cancellation.send(
+                    REQUEST,
+                    () -> {
+                      sending.countDown();
+                      try {
+                        Thread.sleep(10_000);
+                      } catch (InterruptedException e) {
+                        throw new InterruptedIOException("interrupted");
+                      }
+                      return "response";
+                    });
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+    assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+    cancellation.cancel("Timed out after 1 seconds");
+
+    ExecutionException failure =
+        assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+    InterruptedIOException cancelled =
+        assertInstanceOf(InterruptedIOException.class, failure.getCause().getCause());
+    assertTrue(
+        cancelled.getMessage().endsWith("cancelled: Timed out after 1 seconds"),
+        cancelled.getMessage());
+  }
+
+  @Test
+  void send_failsWithoutSending_whenAlreadyCancelled() {
+    CheckCancellation cancellation = new CheckCancellation();
+    cancellation.cancel("Report cancelled");
+    AtomicInteger sent = new AtomicInteger();
+
+    assertThrows(
+        InterruptedIOException.class,
+        () -> cancellation.send(REQUEST, () -> sent.incrementAndGet()));
+    assertEquals(0, sent.get());
+    assertFalse(Thread.currentThread().isInterrupted());
+  }
+
+  @Test
+  void cancel_closesTrackedResponses_andIgnoresLaterCalls() {
+    CheckCancellation cancellation = new CheckCancellation();
+    AtomicInteger closed = new AtomicInteger();
+    AtomicInteger untrackedClosed = new AtomicInteger();
+    AutoCloseable untracked = untrackedClosed::incrementAndGet;
+    cancellation.track(closed::incrementAndGet);
+    cancellation.track(untracked);
+    cancellation.untrack(untracked);
+
+    cancellation.cancel("Report cancelled");
+    cancellation.cancel("Timed out after 1 seconds");
+
+    assertEquals(1, closed.get());
+    assertEquals(0, untrackedClosed.get());
+    assertEquals("Report cancelled", cancellation.reason());
+  }
+
+  @Test
+  void child_isCancelledWithParent() {
+    CheckCancellation report = new CheckCancellation();
+    CheckCancellation task = report.child();
+    AtomicInteger notified = new AtomicInteger();
+    task.onCancel(notified::incrementAndGet);
+
+    report.cancel("Report cancelled");
+
+    assertTrue(task.isCancelled());
+    assertEquals("Report cancelled", task.reason());
+    assertEquals(1, notified.get());
+  }
+
+  @Test
+  void child_isNotCancelledWithOtherChild() {
+    CheckCancellation report = new CheckCancellation();
+    CheckCancellation first = report.child();
+    CheckCancellation second = report.child();
+
+    first.cancel("Timed out after 1 seconds");
+
+    assertFalse(report.isCancelled());
+    assertFalse(second.isCancelled());
+    assertNull(second.reason());
+  }
+
+  @Test
+  void runWith_setsCurrentCancellation_forTaskAndThreadsItStarts() throws Exception {
+    CheckCancellation cancellation = new CheckCancellation();
+    CompletableFuture<CheckCancellation> inherited = new CompletableFuture<>();
+
+    CheckCancellation current =
+        CheckCancellation.runWith(
+            cancellation,
+            () -> {
+              Thread.ofVirtual().start(() -> inherited.complete(CheckCancellation.current()));
+              return CheckCancellation.current();
+            });
+
+    assertSame(cancellation, current);
+    assertSame(cancellation, inherited.get(5, TimeUnit.SECONDS));
+    assertNull(CheckCancellation.current());
+  }
+}
@@ -0,0 +1,101 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class ChunkSnapshotTest {
+  private static final SearchChunk CHUNK =
+      SearchChunk.bundle("{\"resourceType\":\"Bundle\"}".getBytes(StandardCharsets.UTF_8));
+
+  private final ChunkSnapshot snapshot =
+      new ChunkSnapshot("Patient", new AtomicLong(), Long.MAX_VALUE);
+  private final AtomicInteger downloads = new AtomicInteger();
+
+  /** Downloads one chunk, blocking until the given latch is released. */
+  private Supplier<Stream<SearchChunk>> download(CountDownLatch started, CountDownLatch release) {
+    return () -> {
+      downloads.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return Stream.of(CHUNK);
+    };
+  }
+
+  private static int read(Stream<SearchChunk> chunks) {
+    try (chunks) {
+      return (int) chunks.count();
+    }
+  }
+
+  @Test
+  void stream_downloadsOnce_forConcurrentFirstReads() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Supplier<Stream<SearchChunk>> download = download(started, release);
+    CompletableFuture<Integer> first =
+        CompletableFuture.supplyAsync(() -> read(snapshot.stream(download)));
+    started.await();
+    CompletableFuture<Integer> second =
+        CompletableFuture.supplyAsync(() -> read(snapshot.stream(download)));
+
+    release.countDown();
+
+    assertEquals(1, first.get(10, TimeUnit.SECONDS));
+    assertEquals(1, second.get(10, TimeUnit.SECONDS));
+    assertEquals(1, downloads.get());
+  }
+
+  @Test
+  void stream_stopsWaiting_whenTaskOfWaitingReadIsCancelled() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Supplier<Stream<SearchChunk>> download = download(started, release);
+    CompletableFuture<Integer> first =
+        CompletableFuture.supplyAsync(() -> read(snapshot.stream(download)));
+    started.await();
+    CheckCancellation cancellation = new CheckCancellation();
+    CompletableFuture<Integer> waiting =
+        CompletableFuture.supplyAsync(
+            () -> CheckCancellation.runWith(cancellation, () -> read(snapshot.stream(download))));
+
+    cancellation.cancel("Timed out");
+
+    ExecutionException failure =
+        assertThrows(ExecutionException.class, () -> waiting.get(10, TimeUnit.SECONDS));
+    assertTrue(failure.getCause() instanceof CancellationException, failure.toString());
+    assertEquals("Cancelled: Timed out", failure.getCause().getMessage());
+    release.countDown();
+    assertEquals(1, first.get(10, TimeUnit.SECONDS));
+    assertEquals(1, downloads.get());
+  }
+
+  @Test
+  void stream_downloadsAgain_whenFirstDownloadFails() {
+    Supplier<Stream<SearchChunk>> failing =
+        () -> {
+          throw new IllegalStateException("HTTP error: 503");
+        };
+
+    assertThrows(IllegalStateException.class, () -> snapshot.stream(failing));
+
+    assertEquals(1, read(snapshot.stream(() -> Stream.of(CHUNK))));
+    assertEquals(1, read(snapshot.stream(failing)));
+  }
+}
@@ -0,0 +1,292 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
+import eu.bbmri_eric.quality.agent.dataquality.domain.ReportStatus;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import eu.bbmri_eric.quality.agent.dataquality.event.DQCheckResultsGatheredEvent;
+import eu.bbmri_eric.quality.agent.dataquality.event.DataQualityCheckResultEvent;
+import eu.bbmri_eric.quality.agent.dataquality.event.NewReportEvent;
+import eu.bbmri_eric.quality.agent.dataquality.event.ReportCancelledEvent;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+
+class DataQualityChecksRunnerTest {
+  private CQLCheckRepository repository;
+  private ResourceSnapshotCache snapshotCache;
+  private ReportRepository reportRepository;
+  private List<Object> events;
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(CQLCheckRepository.class);
+    snapshotCache = mock(ResourceSnapshotCache.class);
+    when(snapshotCache.open(1L)).thenReturn(mock(FHIRStore.class));
+    reportRepository = mock(ReportRepository.class);
+    when(reportRepository.existsByIdAndStatus(anyLong(), eq(ReportStatus.GENERATING)))
+        .thenReturn(true);
+    events = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  private DataQualityChecksRunner runner(int parallelism) {
+    return runner(parallelism, false);
+  }
+
+  private DataQualityChecksRunner runner(int parallelism, boolean memoize) {
+    return new DataQualityChecksRunner(
+        new ExecutionPlanner(repository, false, false, "gender"),
+        events::add,
+        snapshotCache,
+        new ResultMemo(memoize),
+        reportRepository,
+        parallelism,
+        1800);
+  }
+
+  private static CQLQuery check(String name, Answer<ResultDTO> execute) {
+    CQLQuery check = mock(CQLQuery.class);
+    when(check.getName()).thenReturn(name);
+    when(check.requirements()).thenReturn(CheckRequirements.UNKNOWN);
+    when(check.execute(any())).thenAnswer(execute);
+    return check;
+  }
+
+  private DataQualityCheckResultEvent resultEvent(int index) {
+    return assertInstanceOf(DataQualityCheckResultEvent.class, events.get(index));
+  }
+
+  @Test
+  void onNewReport_publishesResultsInOrderOfChecks_whenLaterCheckFinishesFirst() {
+    CQLQuery slow =
+        check(
+            "slow",
+            invocation -> {
+              Thread.sleep(200);
+              return new ResultDTO(1, "Patient", Set.of());
+            });
+    CQLQuery fast = check("fast", invocation -> new ResultDTO(2, "Patient", Set.of()));
+    when(repository.findAll()).thenReturn(List.of(slow, fast));
+
+    runner(4).onNewReport(new NewReportEvent(1L));
+
+    assertEquals("slow", resultEvent(0).getCheckName());
+    assertEquals("fast", resultEvent(1).getCheckName());
+    assertInstanceOf(DQCheckResultsGatheredEvent.class, events.get(events.size() - 1));
+  }
+
+  @Test
+  void onNewReport_runsChecksConcurrently_upToParallelism() {
+    CountDownLatch bothRunning = new CountDownLatch(2);
+    Answer<ResultDTO> waitForOther =
+        invocation -> {
+          bothRunning.countDown();
+          boolean concurrent = bothRunning.await(5, TimeUnit.SECONDS);
+          return new ResultDTO(concurrent ? 1 : 0, "Patient", Set.of());
+        };
+    when(repository.findAll())
+        .thenReturn(List.of(check("a", waitForOther), check("b", waitForOther)));
+
+    runner(2).onNewReport(new NewReportEvent(1L));
+
+    assertEquals(1, resultEvent(0).getRawValue());
+    assertEquals(1, resultEvent(1).getRawValue());
+  }
+
+  @Test
+  void onNewReport_recordsError_whenCheckThrows() {
+    CQLQuery failing =
+        check(
+            "failing",
+            invocation -> {
+              throw new IllegalStateException("broken check");
+            });
+    CQLQuery fine = check("fine", invocation -> new ResultDTO(0, "Patient", Set.of()));
+    when(repository.findAll()).thenReturn(List.of(failing, fine));
+
+    runner(1).onNewReport(new NewReportEvent(1L));
+
+    assertEquals("broken check", resultEvent(0).getError());
+    assertEquals("fine", resultEvent(1).getCheckName());
+    assertInstanceOf(DQCheckResultsGatheredEvent.class, events.get(events.size() - 1));
+  }
+
+  @Test
+  void onNewReport_runsNoChecks_whenReportWasCancelledBeforeItsRegistration() {
+    CQLQuery check = check("fine", invocation -> new ResultDTO(0, "Patient", Set.of()));
+    when(repository.findAll()).thenReturn(List.of(check));
+    when(reportRepository.existsByIdAndStatus(1L, ReportStatus.GENERATING)).thenReturn(false);
+
+    runner(1).onNewReport(new NewReportEvent(1L));
+
+    assertTrue(events.isEmpty());
+    verify(check, never()).execute(any());
+    verify(snapshotCache, never()).open(1L);
+  }
+
+  @Test
+  void onNewReport_releasesSnapshot_whenReportFails() {
+    when(repository.findAll())
+        .thenReturn(List.of(check("fine", invocation -> new ResultDTO(0, "Patient", Set.of()))));
+    DataQualityChecksRunner runner =
+        new DataQualityChecksRunner(
+            new ExecutionPlanner(repository, false, false, "gender"),
+            event -> {
+              throw new IllegalStateException("database is locked");
+            },
+            snapshotCache,
+            new ResultMemo(false),
+            reportRepository,
+            1,
+            1800);
+
+    assertThrows(IllegalStateException.class, () -> runner.onNewReport(new NewReportEvent(1L)));
+
+    verify(snapshotCache).release(1L);
+  }
+
+  @Test
+  void onNewReport_readsPatientsOnce_forAllBuiltInChecksReadingThem() {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(snapshotCache.open(2L)).thenReturn(store);
+    when(repository.findAll()).thenReturn(List.of());
+
+    runner(4).onNewReport(new NewReportEvent(2L));
+
+    verify(store, times(1)).streamAllResources(eq("Patient"), anyList(), any());
+    verify(store, times(1)).streamAllResources(eq("Condition"), anyList(), any());
+    assertInstanceOf(DQCheckResultsGatheredEvent.class, events.get(events.size() - 1));
+  }
+
+  @Test
+  void onNewReport_reusesResults_whenDataUnchanged() {
+    AtomicInteger executions = new AtomicInteger();
+    CQLQuery counted =
+        check(
+            "counted",
+            invocation -> new ResultDTO(executions.incrementAndGet(), "Patient", Set.of()));
+    when(counted.resultKey()).thenReturn(Optional.of("counted"));
+    when(counted.requirements()).thenReturn(CheckRequirements.evaluate(List.of("Patient")));
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.countResources("Patient")).thenReturn(3);
+    when(store.lastUpdated("Patient"))
+        .thenReturn(Optional.of(Instant.parse("2025-01-01T00:00:00Z")));
+    when(snapshotCache.open(2L)).thenReturn(store);
+    when(snapshotCache.open(3L)).thenReturn(store);
+    when(repository.findAll()).thenReturn(List.of(counted));
+    DataQualityChecksRunner runner = runner(4, true);
+
+    runner.onNewReport(new NewReportEvent(2L));
+    runner.onNewReport(new NewReportEvent(3L));
+
+    assertEquals(1, executions.get());
+    List<Integer> results =
+        events.stream()
+            .filter(DataQualityCheckResultEvent.class::isInstance)
+            .map(DataQualityCheckResultEvent.class::cast)
+            .filter(event -> event.getCheckName().equals("counted"))
+            .map(DataQualityCheckResultEvent::getRawValue)
+            .toList();
+    assertEquals(List.of(1, 1), results);
+  }
+
+  @Test
+  void onNewReport_stratifiesCQLCheck_withWholeBudgetPerStratum() {
+    CQLQuery stratified =
+        check("stratified", invocation -> new ResultDTO(2, "Patient", Set.of("m1", "f1")));
+    when(stratified.getStratifier()).thenReturn("gender");
+    when(stratified.getEpsilonBudget()).thenReturn(1.0f);
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.streamAllResources(eq("Patient"), anyList(), any()))
+        .thenAnswer(
+            invocation ->
+                Stream.of(
+                    new PatientRecord("m1", "male", false, List.of()),
+                    new PatientRecord("m2", "male", false, List.of()),
+                    new PatientRecord("f1", "female", false, List.of())));
+    when(snapshotCache.open(2L)).thenReturn(store);
+    when(repository.findAll()).thenReturn(List.of(stratified));
+
+    runner(4).onNewReport(new NewReportEvent(2L));
+
+    assertEquals("stratified (male)", resultEvent(0).getCheckName());
+    assertEquals(1, resultEvent(0).getRawValue());
+    assertEquals(1.0f, resultEvent(0).getEpsilon());
+    assertEquals("stratified (female)", resultEvent(1).getCheckName());
+    assertEquals(1, resultEvent(1).getRawValue());
+    assertEquals(1.0f, resultEvent(1).getEpsilon());
+  }
+
+  @Test
+  void onNewReport_recordsTimeout_andFinishesOtherChecks() {
+    CQLQuery hanging =
+        check(
+            "hanging",
+            invocation -> {
+              Thread.sleep(10_000);
+              return new ResultDTO(1, "Patient", Set.of());
+            });
+    when(hanging.getTimeoutSeconds()).thenReturn(1);
+    CQLQuery fine = check("fine", invocation -> new ResultDTO(0, "Patient", Set.of()));
+    when(repository.findAll()).thenReturn(List.of(hanging, fine));
+
+    runner(4).onNewReport(new NewReportEvent(1L));
+
+    assertEquals("Timed out after 1 seconds", resultEvent(0).getError());
+    assertEquals("fine", resultEvent(1).getCheckName());
+    assertInstanceOf(DQCheckResultsGatheredEvent.class, events.get(events.size() - 1));
+  }
+
+  @Test
+  void onReportCancelled_stopsReport_withoutPublishingFurtherResults() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CQLQuery hanging =
+        check(
+            "hanging",
+            invocation -> {
+              started.countDown();
+              Thread.sleep(10_000);
+              return new ResultDTO(1, "Patient", Set.of());
+            });
+    when(repository.findAll()).thenReturn(List.of(hanging));
+    DataQualityChecksRunner runner = runner(4);
+
+    CompletableFuture<Void> report =
+        CompletableFuture.runAsync(() -> runner.onNewReport(new NewReportEvent(1L)));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    runner.onReportCancelled(new ReportCancelledEvent(1L));
+
+    report.get(5, TimeUnit.SECONDS);
+    assertTrue(events.isEmpty());
+  }
+}
@@ -0,0 +1,169 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class DeltaSyncTest {
+  private static final String SERVER = "http://blaze/fhir";
+  private static final List<String> ELEMENTS = List.of("id", "gender");
+
+  private DeltaSync deltaSync;
+  private FakeRemote remote;
+
+  @BeforeEach
+  void setUp() {
+    SingleConnectionDataSource dataSource =
+        new SingleConnectionDataSource("jdbc:sqlite::memory:", true);
+    new ResourceDatabasePopulator(
+            new ClassPathResource("db/migration/V1.1__create_fhir_projection_tables.sql"))
+        .execute(dataSource);
+    ProjectionStore projections =
+        new ProjectionStore(
+            new JdbcTemplate(dataSource),
+            new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+    deltaSync = new DeltaSync(projections, true, 0, 2);
+    remote = new FakeRemote();
+  }
+
+  private static String patient(String id, String gender) {
+    return "{\"resourceType\":\"Patient\",\"id\":\"%s\",\"gender\":\"%s\"}".formatted(id, gender);
+  }
+
+  private static SearchChunk ndjson(String... resources) {
+    byte[] lines = (String.join("\n", resources) + "\n").getBytes(StandardCharsets.UTF_8);
+    return SearchChunk.ndjson(lines, resources.length);
+  }
+
+  private List<PatientRecord> read(String server) {
+    try (Stream<SearchChunk> chunks = deltaSync.stream(server, "Patient", ELEMENTS, remote)) {
+      return chunks.flatMap(chunk -> chunk.decode(PatientRecord::decode).stream()).toList();
+    }
+  }
+
+  private static List<String> idsAndGenders(List<PatientRecord> patients) {
+    return patients.stream().map(patient -> patient.id() + ":" + patient.gender()).toList();
+  }
+
+  @Test
+  void stream_appliesUpdatesAndDeletionsSinceLastSync() {
+    remote.all = List.of(patient("p1", "male"), patient("p2", "female"), patient("p3", "male"));
+    assertEquals(List.of("p1:male", "p2:female", "p3:male"), idsAndGenders(read(SERVER)));
+
+    remote.changed = List.of(patient("p2", "male"), patient("p4", "female"));
+    remote.history =
+        """
+        {"resourceType":"Bundle","type":"history","entry":[
+         {"request":{"method":"DELETE","url":"Patient/p1/_history/2"}},
+         {"resource":{"resourceType":"Patient","id":"p2"},
+          "request":{"method":"PUT","url":"Patient/p2"}}]}
+        """;
+
+    assertEquals(List.of("p2:male", "p3:male", "p4:female"), idsAndGenders(read(SERVER)));
+    assertEquals(List.of("_lastUpdated"), List.copyOf(remote.lastParams.keySet()));
+  }
+
+  @Test
+  void stream_comparesIds_whenHistoryIsNotAvailable() {
+    remote.all = List.of(patient("p1", "male"), patient("p2", "female"));
+    read(SERVER);
+
+    remote.all = List.of(patient("p2", "female"));
+    remote.history = null;
+
+    assertEquals(List.of("p2:female"), idsAndGenders(read(SERVER)));
+  }
+
+  @Test
+  void stream_resyncsEverything_whenServerChanges() {
+    remote.all = List.of(patient("p1", "male"));
+    read(SERVER);
+
+    remote.all = List.of(patient("q1", "female"));
+
+    assertEquals(List.of("q1:female"), idsAndGenders(read("http://other/fhir")));
+    assertEquals(2, remote.fullSearches);
+  }
+
+  @Test
+  void stream_syncsOtherProjection_whileOneIsSyncing() throws Exception {
+    remote.all = List.of(patient("p1", "male"));
+    CountDownLatch searching = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    DeltaSync.RemoteReads slowRemote =
+        new DeltaSync.RemoteReads() {
+          @Override
+          public Stream<SearchChunk> search(
+              String resourceType, List<String> elements, Map<String, String> params) {
+            searching.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+            return remote.search(resourceType, elements, params);
+          }
+
+          @Override
+          public Stream<SearchChunk> history(String resourceType, Instant since) {
+            return remote.history(resourceType, since);
+          }
+        };
+    CompletableFuture<Void> slow =
+        CompletableFuture.runAsync(
+            () -> deltaSync.stream(SERVER, "Patient", List.of("id"), slowRemote).close());
+    searching.await();
+
+    // with a single lock for all projections, this read would wait for the slow sync
+    List<PatientRecord> patients =
+        CompletableFuture.supplyAsync(() -> read(SERVER)).get(10, TimeUnit.SECONDS);
+
+    assertEquals(List.of("p1:male"), idsAndGenders(patients));
+    release.countDown();
+    slow.get(10, TimeUnit.SECONDS);
+  }
+
+  /** Serves fixed resources in place of a FHIR server. */
+  private static class FakeRemote implements DeltaSync.RemoteReads {
+    List<String> all = new ArrayList<>();
+    List<String> changed = new ArrayList<>();
+    String history = "{\"resourceType\":\"Bundle\",\"type\":\"history\"}";
+    Map<String, String> lastParams = Map.of();
+    int fullSearches;
+
+    @Override
+    public Stream<SearchChunk> search(
+        String resourceType, List<String> elements, Map<String, String> params) {
+      lastParams = params;
+      if (params.isEmpty()) {
+        fullSearches += elements.equals(ELEMENTS) ? 1 : 0;
+        return Stream.of(ndjson(all.toArray(String[]::new)));
+      }
+      return Stream.of(ndjson(changed.toArray(String[]::new)));
+    }
+
+    @Override
+    public Stream<SearchChunk> history(String resourceType, Instant since) {
+      if (history == null) {
+        throw new IllegalStateException("History not supported");
+      }
+      return Stream.of(SearchChunk.bundle(history.getBytes(StandardCharsets.UTF_8)));
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class DuplicateIdentifierCheckTest {
+  private static final String SYSTEM = "https://fhir.bbmri.de/id/patient";
+
+  private static PatientRecord patient(String id, PatientRecord.Identifier... identifiers) {
+    return new PatientRecord(id, null, false, List.of(identifiers));
+  }
+
+  private static PatientRecord.Identifier identifier(String system, String value) {
+    return new PatientRecord.Identifier(system, value);
+  }
+
+  @Test
+  void execute_returnsAllPatientsSharingAnIdentifier() {
+    FHIRStore store = mock(FHIRStore.class);
+    PatientIdDictionary patientIds = new PatientIdDictionary();
+    when(store.patientIds()).thenReturn(patientIds);
+    when(store.streamAllResources(eq("Patient"), anyList(), any()))
+        .thenAnswer(
+            invocation ->
+                Stream.of(
+                    patient("p1", identifier(SYSTEM, "A")),
+                    patient("p2", identifier(SYSTEM, "A")),
+                    patient("p3", identifier(SYSTEM, "A")),
+                    patient("p4", identifier(SYSTEM, "B")),
+                    patient("p5", identifier("other", "B")),
+                    patient("p6", identifier(SYSTEM, "C"), identifier(SYSTEM, "C")),
+                    patient("p7", identifier(SYSTEM, ""))));
+
+    ResultDTO result = new DuplicateIdentifierCheck().execute(store);
+
+    assertEquals(Set.of("p1", "p2", "p3", "p6"), result.idSet());
+    assertEquals(4, result.rawResult());
+    assertEquals(7, patientIds.size());
+  }
+
+  @Test
+  void execute_readsPatientsOnce_whenNoIdentifierIsShared() {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.streamAllResources(eq("Patient"), anyList(), any()))
+        .thenAnswer(
+            invocation ->
+                Stream.of(
+                    patient("p1", identifier(SYSTEM, "A")),
+                    patient("p2", identifier(SYSTEM, "B")),
+                    patient("p3", identifier("other", "A"))));
+
+    ResultDTO result = new DuplicateIdentifierCheck().execute(store);
+
+    assertEquals(0, result.rawResult());
+    verify(store, times(1)).streamAllResources(eq("Patient"), anyList(), any());
+  }
+
+  @Test
+  void execute_comparesIdentifiersOfCandidatesInSecondPass() {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.streamAllResources(eq("Patient"), anyList(), any()))
+        .thenAnswer(
+            invocation ->
+                Stream.of(
+                    patient("p1", identifier(SYSTEM, "A")),
+                    patient("p2", identifier(SYSTEM, "B")),
+                    patient("p3", identifier(SYSTEM, "A"))));
+
+    ResultDTO result = new DuplicateIdentifierCheck().execute(store);
+
+    assertEquals(Set.of("p1", "p3"), result.idSet());
+    verify(store, times(2)).streamAllResources(eq("Patient"), anyList(), any());
+  }
+
+  @Test
+  void execute_returnsError_whenStreamFails() {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.streamAllResources(eq("Patient"), anyList(), any()))
+        .thenThrow(new IllegalStateException("Search failed"));
+
+    ResultDTO result = new DuplicateIdentifierCheck().execute(store);
+
+    assertEquals("Search failed", result.error());
+  }
+}
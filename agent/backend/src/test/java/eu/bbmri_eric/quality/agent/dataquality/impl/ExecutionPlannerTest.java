@@ -0,0 +1,138 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
+import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ExecutionPlannerTest {
+  private CQLCheckRepository repository;
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(CQLCheckRepository.class);
+  }
+
+  private static CQLQuery cqlCheck(long id) {
+    return new CQLQuery(
+        id,
+        "check " + id,
+        "desc",
+        "library L%d\nusing FHIR version '4.0.0'\ninclude FHIRHelpers version '4.0.0'\n"
+                .formatted(id)
+            + "context Patient\ndefine InInitialPopulation:\n  Patient.gender is null");
+  }
+
+  @Test
+  void plan_sharesOnePass_betweenChecksScanningSameResources() {
+    ExecutionPlanner planner = new ExecutionPlanner(repository, false, false, "gender");
+    List<DataQualityCheck> checks = planner.checks();
+
+    ExecutionPlan plan = planner.plan(checks);
+
+    assertEquals(checks, plan.checks());
+    assertEquals(2, plan.tasks().size());
+    ExecutionPlan.ScanTask patients =
+        assertInstanceOf(ExecutionPlan.ScanTask.class, plan.tasks().get(0));
+    assertEquals("Patient", patients.resourceType());
+    assertEquals(PatientRecord.ELEMENTS, patients.elements());
+    assertEquals(List.of(checks.get(0), checks.get(1)), patients.checks());
+    ExecutionPlan.ScanTask conditions =
+        assertInstanceOf(ExecutionPlan.ScanTask.class, plan.tasks().get(1));
+    assertEquals("Condition", conditions.resourceType());
+    assertEquals(List.of(checks.get(2)), conditions.checks());
+  }
+
+  @Test
+  void plan_countsOnServer_whenCountOnly() {
+    ExecutionPlanner planner = new ExecutionPlanner(repository, true, false, "gender");
+    List<DataQualityCheck> checks = planner.checks();
+
+    ExecutionPlan plan = planner.plan(checks);
+
+    ExecutionPlan.CheckTask count =
+        assertInstanceOf(ExecutionPlan.CheckTask.class, plan.tasks().getLast());
+    assertEquals(checks.get(1), count.check());
+    assertEquals(2 * CheckRequirements.COUNT_COST, count.estimatedCost());
+    assertEquals(List.of(checks.get(0)), plan.tasks().get(0).checks());
+  }
+
+  @Test
+  void plan_startsMostExpensiveTasksFirst() {
+    CQLQuery cqlCheck = cqlCheck(1);
+    when(repository.findAll()).thenReturn(List.of(cqlCheck));
+    ExecutionPlanner planner = new ExecutionPlanner(repository, true, false, "gender");
+
+    ExecutionPlan plan = planner.plan(planner.checks());
+
+    assertEquals(
+        List.of(
+            CheckRequirements.SCAN_COST,
+            CheckRequirements.SCAN_COST,
+            CheckRequirements.EVALUATE_COST,
+            2 * CheckRequirements.COUNT_COST),
+        plan.tasks().stream().map(ExecutionPlan.Task::estimatedCost).toList());
+    assertEquals(List.of(cqlCheck), plan.tasks().get(2).checks());
+  }
+
+  @Test
+  void plan_evaluatesMergeableCqlChecksInOneTask_whenBatching() {
+    CQLQuery first = cqlCheck(1);
+    CQLQuery second = cqlCheck(2);
+    CQLQuery unmergeable = new CQLQuery(3L, "raw", "desc", "define InInitialPopulation: true");
+    when(repository.findAll()).thenReturn(List.of(first, second, unmergeable));
+    ExecutionPlanner planner = new ExecutionPlanner(repository, false, true, "gender");
+
+    ExecutionPlan plan = planner.plan(planner.checks());
+
+    List<ExecutionPlan.BatchTask> batches =
+        plan.tasks().stream()
+            .filter(ExecutionPlan.BatchTask.class::isInstance)
+            .map(ExecutionPlan.BatchTask.class::cast)
+            .toList();
+    assertEquals(1, batches.size());
+    assertEquals(List.of(first, second), batches.get(0).checks());
+    assertEquals(
+        1,
+        plan.tasks().stream()
+            .filter(ExecutionPlan.CheckTask.class::isInstance)
+            .filter(task -> task.checks().equals(List.of(unmergeable)))
+            .count());
+    assertEquals(
+        plan.checks().size(), plan.tasks().stream().mapToInt(task -> task.checks().size()).sum());
+  }
+
+  @Test
+  void plan_runsStratifiedCQLCheckOnItsOwn_afterEvaluatingItsQuery() {
+    CQLQuery stratified = cqlCheck(1);
+    stratified.setStratifier("gender, age");
+    when(repository.findAll()).thenReturn(List.of(stratified));
+    ExecutionPlanner planner = new ExecutionPlanner(repository, false, true, "gender");
+    List<DataQualityCheck> checks = planner.checks();
+
+    ExecutionPlan plan = planner.plan(checks);
+
+    StratifiedCQLCheck check = assertInstanceOf(StratifiedCQLCheck.class, checks.get(0));
+    ExecutionPlan.CheckTask task =
+        assertInstanceOf(ExecutionPlan.CheckTask.class, plan.tasks().get(0));
+    assertEquals(check, task.check());
+    assertEquals(
+        CheckRequirements.EVALUATE_COST + CheckRequirements.SCAN_COST,
+        check.requirements().estimatedCost());
+  }
+
+  @Test
+  void constructor_rejectsUnknownStrataDimension() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new ExecutionPlanner(repository, false, false, "gender,height"));
+  }
+}
@@ -0,0 +1,99 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestTemplate;
+
+class FHIRConnectionPoolTest {
+  private static final String CAPABILITIES = "{\"resourceType\":\"CapabilityStatement\"}";
+
+  private final List<String> acceptEncodings = new CopyOnWriteArrayList<>();
+  private final List<String> authorizations = new CopyOnWriteArrayList<>();
+  private HttpServer server;
+  private String url;
+  private FHIRConnectionPool pool;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    url = "http://localhost:" + server.getAddress().getPort() + "/fhir/metadata";
+    server.createContext(
+        "/fhir/",
+        exchange -> {
+          acceptEncodings.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+          authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+          byte[] body = CAPABILITIES.getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        });
+    server.start();
+    pool =
+        new FHIRConnectionPool(
+            new RestTemplateBuilder(), new FHIRRequestLimiter(4), 4, 10, 10, 60, true, 1);
+  }
+
+  @AfterEach
+  void stop() {
+    pool.close();
+    server.stop(0);
+  }
+
+  @Test
+  void open_authenticatesAndRequestsCompression() {
+    RestTemplate template = pool.open("user", "pass");
+
+    template.getForObject(url, String.class);
+
+    assertEquals(
+        "Basic " + Base64.getEncoder().encodeToString("user:pass".getBytes()),
+        authorizations.getFirst());
+    assertEquals("gzip, x-gzip, deflate", acceptEncodings.getFirst());
+  }
+
+  @Test
+  void open_closesPreviousPool_whenItIsIdle() {
+    RestTemplate previous = pool.open("user", "pass");
+    previous.getForObject(url, String.class);
+
+    RestTemplate current = pool.open("other", "pass");
+
+    assertEquals(CAPABILITIES, current.getForObject(url, String.class));
+    assertThrows(Exception.class, () -> previous.getForObject(url, String.class));
+  }
+
+  @Test
+  void open_drainsPreviousPool_whileResponseIsRead() {
+    RestTemplate previous = pool.open("user", "pass");
+
+    String body =
+        previous.execute(
+            url,
+            HttpMethod.GET,
+            null,
+            response -> {
+              pool.open("other", "pass");
+              return StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8);
+            });
+    pool.closeDrainedPools();
+
+    assertEquals(CAPABILITIES, body);
+    assertThrows(Exception.class, () -> previous.getForObject(url, String.class));
+  }
+}
@@ -0,0 +1,73 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+
+class FHIRRequestLimiterTest {
+  private final FHIRRequestLimiter limiter = new FHIRRequestLimiter(1);
+  private final HttpRequest request = mock(HttpRequest.class);
+  private final ClientHttpRequestExecution execution = mock(ClientHttpRequestExecution.class);
+
+  @BeforeEach
+  void setUp() throws IOException {
+    when(execution.execute(any(), any())).thenAnswer(invocation -> mock(ClientHttpResponse.class));
+  }
+
+  private CompletableFuture<ClientHttpResponse> interceptAsync() {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return limiter.intercept(request, new byte[0], execution);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  @Test
+  void intercept_waitsUntilResponseOfPreviousRequestIsClosed() throws Exception {
+    ClientHttpResponse first = limiter.intercept(request, new byte[0], execution);
+
+    CompletableFuture<ClientHttpResponse> second = interceptAsync();
+
+    assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+    first.close();
+    assertNotNull(second.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void intercept_releasesPermit_whenRequestFails() throws Exception {
+    when(execution.execute(any(), any())).thenThrow(new IOException("Connection refused"));
+    assertThrows(IOException.class, () -> limiter.intercept(request, new byte[0], execution));
+
+    when(execution.execute(any(), any())).thenAnswer(invocation -> mock(ClientHttpResponse.class));
+
+    assertNotNull(interceptAsync().get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void close_releasesPermitOnlyOnce() throws Exception {
+    ClientHttpResponse first = limiter.intercept(request, new byte[0], execution);
+    first.close();
+    first.close();
+
+    ClientHttpResponse second = interceptAsync().get(5, TimeUnit.SECONDS);
+
+    assertThrows(TimeoutException.class, () -> interceptAsync().get(200, TimeUnit.MILLISECONDS));
+    second.close();
+  }
+}
@@ -0,0 +1,57 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class FingerprintTableTest {
+
+  @Test
+  void putIfAbsent_keepsFirstValue() {
+    FingerprintTable table = new FingerprintTable();
+    long fingerprint = FingerprintTable.fingerprint("A");
+
+    assertEquals(FingerprintTable.ABSENT, table.putIfAbsent(fingerprint, 1));
+    assertEquals(1, table.putIfAbsent(fingerprint, 2));
+    assertEquals(1, table.get(fingerprint));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  void put_replacesValue() {
+    FingerprintTable table = new FingerprintTable();
+    long fingerprint = FingerprintTable.fingerprint("A");
+    table.putIfAbsent(fingerprint, 1);
+
+    table.put(fingerprint, 2);
+
+    assertEquals(2, table.get(fingerprint));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  void get_returnsAbsent_forUnknownFingerprint() {
+    assertEquals(
+        FingerprintTable.ABSENT, new FingerprintTable().get(FingerprintTable.fingerprint("A")));
+  }
+
+  @Test
+  void putIfAbsent_keepsAllEntries_whenTableGrows() {
+    FingerprintTable table = new FingerprintTable();
+    for (int i = 0; i < 100_000; i++) {
+      table.putIfAbsent(FingerprintTable.fingerprint("identifier-" + i), i);
+    }
+
+    assertEquals(100_000, table.size());
+    for (int i = 0; i < 100_000; i++) {
+      assertEquals(i, table.get(FingerprintTable.fingerprint("identifier-" + i)));
+    }
+  }
+
+  @Test
+  void fingerprint_differsForSimilarStrings() {
+    assertNotEquals(FingerprintTable.fingerprint("ab"), FingerprintTable.fingerprint("ba"));
+    assertNotEquals(0L, FingerprintTable.fingerprint(""));
+  }
+}
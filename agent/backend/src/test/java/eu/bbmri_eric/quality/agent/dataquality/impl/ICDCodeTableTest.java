@@ -0,0 +1,77 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ICDCodeTableTest {
+  private static final String ICD_10 = "http://hl7.org/fhir/sid/icd-10";
+
+  private final AtomicInteger validations = new AtomicInteger();
+
+  private ICDCodeTable table(int capacity) {
+    return new ICDCodeTable(
+        code -> {
+          validations.incrementAndGet();
+          return code.startsWith("C");
+        },
+        capacity);
+  }
+
+  private static ConditionRecord condition(ConditionRecord.Coding... codings) {
+    return new ConditionRecord("c1", "Patient/p1", List.of(codings));
+  }
+
+  @Test
+  void isValid_validatesEachCodeOnce() {
+    ICDCodeTable table = table(10);
+
+    assertTrue(table.isValid("C50.9"));
+    assertTrue(table.isValid("C50.9"));
+    assertFalse(table.isValid("X"));
+    assertFalse(table.isValid("X"));
+
+    assertEquals(2, validations.get());
+  }
+
+  @Test
+  void isValid_keepsNoMoreVerdictsThanCapacity() {
+    ICDCodeTable table = table(1);
+
+    table.isValid("C50.9");
+    table.isValid("C61");
+    table.isValid("C61");
+
+    assertEquals(1, table.size());
+    assertEquals(3, validations.get());
+  }
+
+  @Test
+  void isValid_rejectsMissingCode_withoutValidating() {
+    assertFalse(table(10).isValid(null));
+    assertEquals(0, validations.get());
+  }
+
+  @Test
+  void shared_returnsOneTableForAllChecks() {
+    assertSame(ICDCodeTable.shared(), ICDCodeTable.shared());
+  }
+
+  @Test
+  void hasOnlyInvalidCodes_ignoresCodesOfOtherSystems() {
+    ICDCodeTable table = table(10);
+    ConditionRecord.Coding valid = new ConditionRecord.Coding(ICD_10, "C50.9");
+    ConditionRecord.Coding invalid = new ConditionRecord.Coding(ICD_10, "X");
+    ConditionRecord.Coding local = new ConditionRecord.Coding("urn:local", "C50.9");
+
+    assertFalse(InvalidConditionICDCheck.hasOnlyInvalidCodes(condition(invalid, valid), table));
+    assertTrue(InvalidConditionICDCheck.hasOnlyInvalidCodes(condition(invalid), table));
+    assertTrue(InvalidConditionICDCheck.hasOnlyInvalidCodes(condition(local), table));
+    assertFalse(InvalidConditionICDCheck.hasOnlyInvalidCodes(condition(), table));
+  }
+}
@@ -0,0 +1,105 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.bbmri_eric.ICD10Validator;
+import eu.bbmri_eric.ICDValidator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares validating the ICD codes of all Conditions with a new {@link ICD10Validator} per run, as
+ * {@link InvalidConditionICDCheck} used to, against the shared {@link ICDCodeTable}. The
+ * Conditions are read from the transaction Bundles in {@code test_data}; the directory can be
+ * changed with the {@code benchmark.data} system property. Results are Conditions per millisecond.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ICDValidationBenchmark {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private List<ConditionRecord> conditions;
+  private ICDCodeTable table;
+
+  @Setup
+  public void setUp() throws IOException {
+    conditions = conditions(Path.of(System.getProperty("benchmark.data", "../../test_data")));
+    table = ICDCodeTable.shared();
+  }
+
+  @Benchmark
+  public int validatorPerRun() {
+    ICDValidator validator = new ICD10Validator();
+    int invalid = 0;
+    for (ConditionRecord condition : conditions) {
+      boolean valid = false;
+      for (ConditionRecord.Coding coding : condition.codings()) {
+        if (ICDCodeTable.isICD(coding.system())
+            && coding.code() != null
+            && validator.isValid(coding.code())) {
+          valid = true;
+          break;
+        }
+      }
+      invalid += valid || condition.codings().isEmpty() ? 0 : 1;
+    }
+    return invalid;
+  }
+
+  @Benchmark
+  public int sharedTable() {
+    int invalid = 0;
+    for (ConditionRecord condition : conditions) {
+      invalid += InvalidConditionICDCheck.hasOnlyInvalidCodes(condition, table) ? 1 : 0;
+    }
+    return invalid;
+  }
+
+  /** Reads the subject and codings of all Conditions in the transaction Bundles. */
+  private static List<ConditionRecord> conditions(Path dataDirectory) throws IOException {
+    List<Path> files;
+    try (Stream<Path> paths = Files.list(dataDirectory)) {
+      files =
+          paths.filter(path -> path.getFileName().toString().startsWith("transaction-")).toList();
+    }
+    List<ConditionRecord> conditions = new ArrayList<>();
+    for (Path file : files) {
+      for (JsonNode entry : MAPPER.readTree(file.toFile()).path("entry")) {
+        JsonNode resource = entry.path("resource");
+        if ("Condition".equals(resource.path("resourceType").asText())) {
+          List<ConditionRecord.Coding> codings = new ArrayList<>();
+          for (JsonNode coding : resource.path("code").path("coding")) {
+            codings.add(
+                new ConditionRecord.Coding(
+                    coding.path("system").asText(null), coding.path("code").asText(null)));
+          }
+          conditions.add(
+              new ConditionRecord(
+                  resource.path("id").asText(),
+                  resource.path("subject").path("reference").asText(null),
+                  codings));
+        }
+      }
+    }
+    return conditions;
+  }
+}
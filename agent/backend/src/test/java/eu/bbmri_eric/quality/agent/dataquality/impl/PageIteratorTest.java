@@ -0,0 +1,102 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.Test;
+
+class PageIteratorTest {
+
+  private static Bundle page(String... ids) {
+    Bundle bundle = new Bundle();
+    for (String id : ids) {
+      bundle.addEntry().setResource(new Patient().setId(id));
+    }
+    return bundle;
+  }
+
+  private static Iterator<Resource> resources(Bundle page) {
+    return page.getEntry().stream().map(Bundle.BundleEntryComponent::getResource).iterator();
+  }
+
+  private static UnaryOperator<Bundle> pagesAfter(List<Bundle> pages, AtomicInteger loads) {
+    return current -> {
+      int index = pages.indexOf(current) + 1;
+      if (index >= pages.size()) {
+        return null;
+      }
+      loads.incrementAndGet();
+      return pages.get(index);
+    };
+  }
+
+  @Test
+  void stream_yieldsResourcesOfAllPagesInOrder() {
+    List<Bundle> pages = List.of(page("p1", "p2"), page(), page("p3"));
+
+    List<String> ids =
+        PageIterator.stream(
+                pages::getFirst,
+                pagesAfter(pages, new AtomicInteger()),
+                PageIteratorTest::resources)
+            .map(Resource::getIdPart)
+            .toList();
+
+    assertEquals(List.of("p1", "p2", "p3"), ids);
+  }
+
+  @Test
+  void next_loadsFollowingPageOnlyWhenCurrentPageIsConsumed() {
+    List<Bundle> pages = List.of(page("p1", "p2"), page("p3"));
+    AtomicInteger loads = new AtomicInteger();
+    Iterator<Resource> iterator =
+        new PageIterator<>(pages::getFirst, pagesAfter(pages, loads), PageIteratorTest::resources);
+
+    iterator.next();
+    iterator.next();
+    assertEquals(0, loads.get());
+
+    assertEquals("p3", iterator.next().getIdPart());
+    assertEquals(1, loads.get());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  void next_stopsAtNextPage_whenCheckIsCancelled() {
+    List<Bundle> pages = List.of(page("p1"), page("p2"));
+    CheckCancellation cancellation = new CheckCancellation();
+    Iterator<Resource> iterator =
+        CheckCancellation.runWith(
+            cancellation,
+            () ->
+                new PageIterator<>(
+                    pages::getFirst,
+                    pagesAfter(pages, new AtomicInteger()),
+                    PageIteratorTest::resources));
+    iterator.next();
+
+    cancellation.cancel("Timed out after 1 seconds");
+
+    CancellationException e = assertThrows(CancellationException.class, iterator::next);
+    assertEquals("Cancelled: Timed out after 1 seconds", e.getMessage());
+  }
+
+  @Test
+  void next_throws_whenSearchHasNoResults() {
+    Iterator<Resource> iterator =
+        new PageIterator<>(Bundle::new, current -> null, PageIteratorTest::resources);
+
+    assertFalse(iterator.hasNext());
+    assertThrows(NoSuchElementException.class, iterator::next);
+  }
+}
@@ -0,0 +1,79 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class PagePrefetcherTest {
+
+  /** Serves the pages "page-0" to "page-(count-1)", each linking to its successor. */
+  private static PagePrefetcher prefetcher(int count, int depth, AtomicInteger downloads) {
+    return new PagePrefetcher(
+        URI.create("http://fhir/page-0"),
+        uri -> {
+          downloads.incrementAndGet();
+          return uri.getPath().substring(1).getBytes(StandardCharsets.UTF_8);
+        },
+        body -> {
+          int index = Integer.parseInt(new String(body, StandardCharsets.UTF_8).substring(5));
+          return index + 1 < count
+              ? Optional.of(URI.create("http://fhir/page-" + (index + 1)))
+              : Optional.empty();
+        },
+        depth,
+        "test-prefetch");
+  }
+
+  @Test
+  void take_returnsAllPagesInOrder_thenNull() {
+    try (PagePrefetcher prefetcher = prefetcher(5, 2, new AtomicInteger())) {
+      List<String> pages = new ArrayList<>();
+      byte[] body;
+      while ((body = prefetcher.take()) != null) {
+        pages.add(new String(body, StandardCharsets.UTF_8));
+      }
+
+      assertEquals(List.of("page-0", "page-1", "page-2", "page-3", "page-4"), pages);
+      assertNull(prefetcher.take());
+    }
+  }
+
+  @Test
+  void take_downloadsAtMostDepthPagesAhead() throws InterruptedException {
+    AtomicInteger downloads = new AtomicInteger();
+    try (PagePrefetcher prefetcher = prefetcher(100, 2, downloads)) {
+      prefetcher.take();
+      Thread.sleep(200);
+
+      // one consumed page, two buffered pages and one page blocked on the full buffer
+      assertTrue(downloads.get() <= 4, "downloaded " + downloads.get() + " pages");
+    }
+  }
+
+  @Test
+  void take_rethrowsDownloadFailure() {
+    try (PagePrefetcher prefetcher =
+        new PagePrefetcher(
+            URI.create("http://fhir/page-0"),
+            uri -> {
+              throw new IllegalStateException("connection refused");
+            },
+            body -> Optional.empty(),
+            2,
+            "test-prefetch")) {
+
+      IllegalStateException e = assertThrows(IllegalStateException.class, prefetcher::take);
+      assertEquals("connection refused", e.getMessage());
+      assertNull(prefetcher.take());
+    }
+  }
+}
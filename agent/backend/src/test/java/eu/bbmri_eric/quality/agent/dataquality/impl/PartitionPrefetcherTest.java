@@ -0,0 +1,116 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class PartitionPrefetcherTest {
+
+  /** Links page "a-i" of partition "a" to page "a-(i+1)", up to "a-(count-1)". */
+  private static Optional<URI> nextPage(byte[] body, int count) {
+    String[] page = new String(body, StandardCharsets.UTF_8).split("-");
+    int index = Integer.parseInt(page[1]);
+    return index + 1 < count
+        ? Optional.of(URI.create("http://fhir/" + page[0] + "-" + (index + 1)))
+        : Optional.empty();
+  }
+
+  private static byte[] body(URI uri) {
+    return uri.getPath().substring(1).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<URI> firstPages(String... partitions) {
+    return Arrays.stream(partitions).map(p -> URI.create("http://fhir/" + p + "-0")).toList();
+  }
+
+  @Test
+  void take_returnsPagesOfAllPartitions_thenNull() {
+    try (PartitionPrefetcher prefetcher =
+        new PartitionPrefetcher(
+            firstPages("a", "b", "c"),
+            PartitionPrefetcherTest::body,
+            body -> nextPage(body, 4),
+            2,
+            "test-partition")) {
+      List<String> pages = new ArrayList<>();
+      byte[] body;
+      while ((body = prefetcher.take()) != null) {
+        pages.add(new String(body, StandardCharsets.UTF_8));
+      }
+
+      assertEquals(12, pages.size());
+      assertEquals(12, Set.copyOf(pages).size());
+      assertTrue(pages.containsAll(List.of("a-0", "a-3", "b-0", "b-3", "c-0", "c-3")));
+      assertNull(prefetcher.take());
+    }
+  }
+
+  @Test
+  void take_downloadsPartitionsConcurrently() throws InterruptedException {
+    CountDownLatch allStarted = new CountDownLatch(3);
+    Set<String> overlapped = ConcurrentHashMap.newKeySet();
+    try (PartitionPrefetcher prefetcher =
+        new PartitionPrefetcher(
+            firstPages("a", "b", "c"),
+            uri -> {
+              allStarted.countDown();
+              try {
+                if (allStarted.await(5, TimeUnit.SECONDS)) {
+                  overlapped.add(uri.getPath());
+                }
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return body(uri);
+            },
+            body -> Optional.empty(),
+            1,
+            "test-partition")) {
+      while (prefetcher.take() != null) {
+        // drain
+      }
+
+      assertEquals(Set.of("/a-0", "/b-0", "/c-0"), overlapped);
+    }
+  }
+
+  @Test
+  void take_rethrowsFailureOfAnyPartition() {
+    try (PartitionPrefetcher prefetcher =
+        new PartitionPrefetcher(
+            firstPages("a", "b"),
+            uri -> {
+              if (uri.getPath().startsWith("/b")) {
+                throw new IllegalStateException("connection refused");
+              }
+              return body(uri);
+            },
+            body -> nextPage(body, 1000),
+            2,
+            "test-partition")) {
+
+      IllegalStateException e =
+          assertThrows(
+              IllegalStateException.class,
+              () -> {
+                while (prefetcher.take() != null) {
+                  // drain
+                }
+              });
+      assertEquals("connection refused", e.getMessage());
+    }
+  }
+}
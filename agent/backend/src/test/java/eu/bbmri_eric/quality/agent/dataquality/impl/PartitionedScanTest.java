@@ -0,0 +1,193 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import eu.bbmri_eric.quality.agent.dataquality.impl.ChunkedFHIRStore.WindowSample;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares partitioned scans of {@link BlazeFHIRStore} with sequential ones against a stub server
+ * that supports {@code _sort=_lastUpdated}, {@code _lastUpdated} filters and offset paging.
+ */
+class PartitionedScanTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+  private static final int PAGE_SIZE = 20;
+
+  private final List<ObjectNode> conditions = new ArrayList<>();
+  private final List<String> queries = new CopyOnWriteArrayList<>();
+  private HttpServer server;
+  private String baseUrl;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    for (int i = 0; i < 250; i++) {
+      ObjectNode condition = MAPPER.createObjectNode();
+      condition.put("resourceType", "Condition");
+      condition.put("id", "c%03d".formatted(i));
+      // several resources share a timestamp, as after a transaction
+      condition.putObject("meta").put("lastUpdated", START.plusSeconds(i / 3 * 60).toString());
+      condition.putObject("subject").put("reference", "Patient/p" + i % 17);
+      conditions.add(condition);
+    }
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    baseUrl = "http://localhost:" + server.getAddress().getPort() + "/fhir";
+    server.createContext("/fhir/Condition", this::search);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  private void search(HttpExchange exchange) throws IOException {
+    String query = exchange.getRequestURI().getRawQuery();
+    queries.add(URLDecoder.decode(query, StandardCharsets.UTF_8));
+    Predicate<ObjectNode> filter = condition -> true;
+    Comparator<ObjectNode> order = Comparator.comparing(condition -> condition.get("id").asText());
+    int count = PAGE_SIZE;
+    int offset = 0;
+    boolean total = false;
+    for (String param : query.split("&")) {
+      String[] pair = param.split("=", 2);
+      String value = URLDecoder.decode(pair[1], StandardCharsets.UTF_8);
+      switch (pair[0]) {
+        case "_sort" -> {
+          Comparator<ObjectNode> byLastUpdated = Comparator.comparing(PartitionedScanTest::updated);
+          order = value.startsWith("-") ? byLastUpdated.reversed() : byLastUpdated;
+        }
+        case "_count" -> count = Integer.parseInt(value);
+        case "__offset" -> offset = Integer.parseInt(value);
+        case "_total" -> total = true;
+        case "_lastUpdated" -> {
+          Instant bound = Instant.parse(value.substring(2));
+          filter =
+              filter.and(
+                  value.startsWith("ge")
+                      ? condition -> !updated(condition).isBefore(bound)
+                      : condition -> updated(condition).isBefore(bound));
+        }
+        default -> {}
+      }
+    }
+    List<ObjectNode> matches = conditions.stream().filter(filter).sorted(order).toList();
+
+    ObjectNode bundle = MAPPER.createObjectNode();
+    bundle.put("resourceType", "Bundle");
+    bundle.put("type", "searchset");
+    if (total) {
+      bundle.put("total", matches.size());
+    }
+    if (offset + count < matches.size()) {
+      String next =
+          baseUrl
+              + "/Condition?"
+              + query.replaceAll("&__offset=\\d+", "")
+              + "&__offset="
+              + (offset + count);
+      bundle.putArray("link").addObject().put("relation", "next").put("url", next);
+    }
+    ArrayNode entries = bundle.putArray("entry");
+    matches.stream()
+        .skip(offset)
+        .limit(count)
+        .forEach(condition -> entries.addObject().set("resource", condition));
+    byte[] body = MAPPER.writeValueAsBytes(bundle);
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static Instant updated(ObjectNode condition) {
+    return Instant.parse(condition.get("meta").get("lastUpdated").asText());
+  }
+
+  private BlazeFHIRStore store(int partitions) {
+    return BlazeFHIRStores.forTest(baseUrl)
+        .connections(8)
+        .pageSize(PAGE_SIZE)
+        .partitions(partitions)
+        .build();
+  }
+
+  private static List<String> scan(BlazeFHIRStore store) {
+    try (Stream<ConditionRecord> records =
+        store.streamAllResources("Condition", ConditionRecord.ELEMENTS, ConditionRecord::decode)) {
+      return records.map(ConditionRecord::id).sorted().toList();
+    }
+  }
+
+  @Test
+  void streamAllResources_returnsSameResourcesAsSequentialScan() {
+    List<String> sequential = scan(store(1));
+    queries.clear();
+
+    List<String> partitioned = scan(store(4));
+
+    assertEquals(250, sequential.size());
+    assertEquals(sequential, partitioned);
+    assertTrue(queries.stream().anyMatch(query -> query.contains("_sort=-_lastUpdated")));
+    List<String> firstPages =
+        queries.stream()
+            .filter(query -> query.matches(".*_lastUpdated=(ge|lt).*"))
+            .filter(query -> !query.contains("__offset"))
+            .toList();
+    assertEquals(4, firstPages.size());
+  }
+
+  @Test
+  void streamAllResources_scansSequentially_whenAllResourcesShareTimestamp() {
+    conditions.forEach(
+        condition -> ((ObjectNode) condition.get("meta")).put("lastUpdated", START.toString()));
+
+    List<String> partitioned = scan(store(4));
+
+    assertEquals(250, partitioned.size());
+    assertTrue(queries.stream().noneMatch(query -> query.contains("_lastUpdated=")));
+  }
+
+  @Test
+  void sampleByLastUpdated_readsOnlyTheFirstPageOfEachWindow() {
+    List<WindowSample> windows = store(1).sampleByLastUpdated("Condition", 4, 5);
+
+    assertEquals(4, windows.size());
+    assertEquals(250, windows.stream().mapToInt(WindowSample::total).sum());
+    windows.forEach(window -> assertEquals(5, window.ids().size()));
+    // the first and last update, then one page per window
+    assertEquals(6, queries.size());
+    assertTrue(queries.stream().noneMatch(query -> query.contains("__offset")));
+  }
+
+  @Test
+  void partitionBounds_splitsIntoEqualWindowsWithoutDuplicates() {
+    assertEquals(
+        List.of(START.plusSeconds(25), START.plusSeconds(50), START.plusSeconds(75)),
+        BlazeFHIRStore.partitionBounds(START, START.plusSeconds(100), 4));
+    assertEquals(
+        List.of(START.plusMillis(1)),
+        BlazeFHIRStore.partitionBounds(START, START.plusMillis(2), 4));
+    assertEquals(List.of(), BlazeFHIRStore.partitionBounds(START, START, 4));
+  }
+}
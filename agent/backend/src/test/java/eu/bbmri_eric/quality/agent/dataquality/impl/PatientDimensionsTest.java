@@ -0,0 +1,90 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PatientDimensionsTest {
+  private static final LocalDate TODAY = LocalDate.of(2025, 6, 15);
+
+  private static PatientRecord born(String birthDate) {
+    return new PatientRecord("p1", "male", false, List.of(), birthDate, "Organization/1");
+  }
+
+  @Test
+  void parse_returnsDimensionsInGivenOrder() {
+    List<StrataDimension<PatientRecord>> dimensions = PatientDimensions.parse(" Site, gender ,age");
+
+    assertEquals(
+        List.of("site", "gender", "age"),
+        dimensions.stream().map(StrataDimension::name).toList());
+  }
+
+  @Test
+  void parse_computesAgesOnGivenDay() {
+    StrataDimension<PatientRecord> age = PatientDimensions.parse("age", TODAY).getFirst();
+
+    assertEquals("40-49", age.classify(born("1985-06-15")));
+    assertEquals("30-39", age.classify(born("1985-06-16")));
+  }
+
+  @Test
+  void parse_rejectsUnknownAndRepeatedDimensions() {
+    assertThrows(IllegalArgumentException.class, () -> PatientDimensions.parse("height"));
+    assertThrows(IllegalArgumentException.class, () -> PatientDimensions.parse("age,age"));
+    assertThrows(IllegalArgumentException.class, () -> PatientDimensions.parse(""));
+  }
+
+  @Test
+  void gender_classifiesCaseInsensitively_andIgnoresOtherGenders() {
+    StrataDimension<PatientRecord> gender = PatientDimensions.gender();
+
+    assertEquals("female", gender.classify(new PatientRecord("p1", "Female", false, List.of())));
+    assertNull(gender.classify(new PatientRecord("p2", "unknown", false, List.of())));
+    assertNull(gender.classify(new PatientRecord("p3", null, false, List.of())));
+    assertTrue(gender.isCountable());
+  }
+
+  @Test
+  void age_classifiesIntoBandsOfTenYears() {
+    StrataDimension<PatientRecord> age = PatientDimensions.age(TODAY);
+
+    assertEquals("0-9", age.classify(born("2025-06-15")));
+    assertEquals("40-49", age.classify(born("1985-06-15")));
+    assertEquals("30-39", age.classify(born("1985-06-16T10:00:00Z")));
+    assertEquals("80-89", age.classify(born("1935-06-16")));
+    assertEquals("90+", age.classify(born("1920")));
+    assertFalse(age.isCountable());
+  }
+
+  @Test
+  void age_countsPartialBirthDatesFromTheirFirstDay() {
+    StrataDimension<PatientRecord> age = PatientDimensions.age(TODAY);
+
+    assertEquals("50-59", age.classify(born("1975")));
+    assertEquals("40-49", age.classify(born("1975-07")));
+  }
+
+  @Test
+  void age_ignoresMissingInvalidAndFutureBirthDates() {
+    StrataDimension<PatientRecord> age = PatientDimensions.age(TODAY);
+
+    assertNull(age.classify(born(null)));
+    assertNull(age.classify(born("unknown")));
+    assertNull(age.classify(born("2030-01-01")));
+  }
+
+  @Test
+  void site_classifiesByManagingOrganization() {
+    StrataDimension<PatientRecord> site = PatientDimensions.site();
+
+    assertEquals("Organization/1", site.classify(born(null)));
+    assertFalse(site.isClosed());
+  }
+}
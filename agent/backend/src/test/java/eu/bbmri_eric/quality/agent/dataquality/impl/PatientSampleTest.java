@@ -0,0 +1,121 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.impl.ChunkedFHIRStore.WindowSample;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class PatientSampleTest {
+
+  private static FHIRStore storeWithPatients(int count) {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.streamAllResources(eq("Patient"), anyList(), any()))
+        .thenAnswer(
+            invocation ->
+                IntStream.range(0, count)
+                    .mapToObj(i -> new PatientRecord("p" + i, null, false, List.of())));
+    return store;
+  }
+
+  @Test
+  void draw_returnsDistinctPatients_andCountsAll() {
+    PatientSample sample = PatientSample.draw(storeWithPatients(1000), 50, new Random(7));
+
+    assertEquals(50, sample.patientIds().size());
+    assertEquals(50, new HashSet<>(sample.patientIds()).size());
+    assertEquals(1000, sample.population());
+  }
+
+  @Test
+  void draw_returnsAllPatients_whenStoreHasFewer() {
+    PatientSample sample = PatientSample.draw(storeWithPatients(3), 50, new Random(7));
+
+    assertEquals(List.of("p0", "p1", "p2"), sample.patientIds());
+    assertEquals(3, sample.population());
+  }
+
+  @Test
+  void draw_drawsLatePatientsAsOftenAsEarlyOnes() {
+    FHIRStore store = storeWithPatients(100);
+    Random random = new Random(42);
+    int[] drawn = new int[100];
+    for (int i = 0; i < 2000; i++) {
+      PatientSample.draw(store, 10, random)
+          .patientIds()
+          .forEach(id -> drawn[Integer.parseInt(id.substring(1))]++);
+    }
+
+    // each patient is expected 200 times; the first ten fill the reservoir before any choice
+    int firstTen = IntStream.range(0, 10).map(i -> drawn[i]).sum();
+    int lastTen = IntStream.range(90, 100).map(i -> drawn[i]).sum();
+    assertTrue(Math.abs(firstTen - 2000) < 300, "first ten drawn " + firstTen + " times");
+    assertTrue(Math.abs(lastTen - 2000) < 300, "last ten drawn " + lastTen + " times");
+  }
+
+  private static ChunkedFHIRStore storeWithWindows(int population, WindowSample... windows) {
+    ChunkedFHIRStore store = mock(ChunkedFHIRStore.class);
+    when(store.countResources("Patient")).thenReturn(population);
+    when(store.sampleByLastUpdated(eq("Patient"), eq(PatientSample.WINDOWS), anyInt()))
+        .thenReturn(List.of(windows));
+    return store;
+  }
+
+  private static WindowSample window(String prefix, int total, int ids) {
+    return new WindowSample(total, IntStream.range(0, ids).mapToObj(i -> prefix + i).toList());
+  }
+
+  @Test
+  void drawByLastUpdated_splitsSampleByWindowSize() {
+    ChunkedFHIRStore store = storeWithWindows(1000, window("a", 900, 100), window("b", 100, 100));
+
+    PatientSample sample = PatientSample.drawByLastUpdated(store, 100, new Random(7));
+
+    assertEquals(100, sample.patientIds().size());
+    assertEquals(100, new HashSet<>(sample.patientIds()).size());
+    assertEquals(90, sample.patientIds().stream().filter(id -> id.startsWith("a")).count());
+    assertEquals(1000, sample.population());
+  }
+
+  @Test
+  void drawByLastUpdated_returnsAllPatients_whenStoreHasFewer() {
+    ChunkedFHIRStore store = storeWithWindows(5, window("a", 3, 3), window("b", 2, 2));
+
+    PatientSample sample = PatientSample.drawByLastUpdated(store, 50, new Random(7));
+
+    assertEquals(Set.of("a0", "a1", "a2", "b0", "b1"), new HashSet<>(sample.patientIds()));
+    assertEquals(5, sample.population());
+  }
+
+  @Test
+  void drawByLastUpdated_drawsFromAllIdsRead_whenWindowSizesAreUnknown() {
+    ChunkedFHIRStore store = storeWithWindows(1000, window("a", -1, 50), window("b", -1, 50));
+
+    PatientSample sample = PatientSample.drawByLastUpdated(store, 20, new Random(7));
+
+    assertEquals(20, new HashSet<>(sample.patientIds()).size());
+    assertEquals(1000, sample.population());
+  }
+
+  @Test
+  void drawByLastUpdated_fails_whenPatientsCannotBeCounted() {
+    ChunkedFHIRStore store = storeWithWindows(-1);
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> PatientSample.drawByLastUpdated(store, 20, new Random(7)));
+  }
+}
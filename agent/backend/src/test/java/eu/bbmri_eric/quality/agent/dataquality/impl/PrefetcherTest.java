@@ -0,0 +1,67 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class PrefetcherTest {
+
+  /** Produces the numbers from 0 to {@code count - 1}. */
+  private static Prefetcher<Integer> numbers(int count, Duration consumerTimeout) {
+    return new Prefetcher<>(1, "test-prefetch", consumerTimeout) {
+      @Override
+      protected void produce() {
+        for (int i = 0; i < count; i++) {
+          if (!hand(i)) {
+            return;
+          }
+        }
+      }
+    };
+  }
+
+  @Test
+  void take_fails_whenConsumerStalledLongerThanTimeout() throws InterruptedException {
+    try (Prefetcher<Integer> prefetcher = numbers(10, Duration.ofMillis(50))) {
+      assertEquals(0, prefetcher.take());
+      Thread.sleep(500);
+
+      // the rest of the numbers were not produced, which must not look like their end
+      assertThrows(IllegalStateException.class, prefetcher::take);
+    }
+  }
+
+  @Test
+  void take_fails_whenProducerThrowsError() {
+    Prefetcher<Integer> prefetcher =
+        new Prefetcher<>(1, "test-prefetch") {
+          @Override
+          protected void produce() {
+            hand(0);
+            throw new OutOfMemoryError("Java heap space");
+          }
+        };
+    try (prefetcher) {
+      assertEquals(0, prefetcher.take());
+
+      IllegalStateException e = assertThrows(IllegalStateException.class, prefetcher::take);
+      assertInstanceOf(OutOfMemoryError.class, e.getCause());
+    }
+  }
+
+  @Test
+  void take_returnsAllItems_whenConsumerKeepsUp() {
+    try (Prefetcher<Integer> prefetcher = numbers(10, Duration.ofSeconds(10))) {
+      int sum = 0;
+      Integer number;
+      while ((number = prefetcher.take()) != null) {
+        sum += number;
+      }
+
+      assertEquals(45, sum);
+    }
+  }
+}
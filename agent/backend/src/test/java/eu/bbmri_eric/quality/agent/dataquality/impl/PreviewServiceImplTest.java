@@ -0,0 +1,223 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.MeasurePopulation;
+import eu.bbmri_eric.quality.agent.dataquality.dto.PreviewDTO;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+class PreviewServiceImplTest {
+  private static final String CQL = "library Preview version '1.0.0'";
+
+  private final CQLCheckRepository repository = mock(CQLCheckRepository.class);
+
+  private PreviewServiceImpl service(FHIRStore store) {
+    return new PreviewServiceImpl(
+        store,
+        new CQLResourceCollector(repository, store, false),
+        new DeltaSync(null, false, 0, 1000),
+        2000);
+  }
+
+  /** A store whose even patients are in the initial population of every query. */
+  private static FHIRStore storeWithPatients(int count) {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.streamAllResources(eq("Patient"), anyList(), any()))
+        .thenAnswer(
+            invocation ->
+                IntStream.range(0, count)
+                    .mapToObj(i -> new PatientRecord("p" + i, null, false, List.of())));
+    return withMeasure(store);
+  }
+
+  /** Lets a store evaluate one Measure, whose initial population holds the even patients. */
+  private static <S extends FHIRStore> S withMeasure(S store) {
+    when(store.findResourceId(eq("Measure"), anyMap())).thenReturn(Optional.of("measure"));
+    when(store.findResourceId(eq("Library"), anyMap())).thenReturn(Optional.of("library"));
+    when(store.evaluateMeasurePopulations(eq("measure"), anyString()))
+        .thenAnswer(
+            invocation -> {
+              int patient = Integer.parseInt(invocation.<String>getArgument(1).substring(1));
+              return List.of(new MeasurePopulation(patient % 2 == 0 ? 1 : 0, null));
+            });
+    return store;
+  }
+
+  @Test
+  void preview_isExact_whenSampleCoversAllPatients() {
+    PreviewDTO preview = service(storeWithPatients(10)).preview(CQL, 200);
+
+    assertEquals(5, preview.estimate());
+    assertEquals(5, preview.lower());
+    assertEquals(5, preview.upper());
+    assertEquals(10, preview.sampled());
+    assertEquals(10, preview.population());
+    assertNull(preview.error());
+  }
+
+  @Test
+  void preview_evaluatesOnlyTheSampledPatients() {
+    FHIRStore store = storeWithPatients(1000);
+
+    PreviewDTO preview = service(store).preview(CQL, 100);
+
+    assertEquals(100, preview.sampled());
+    assertEquals(1000, preview.population());
+    assertTrue(preview.lower() <= preview.estimate(), preview.toString());
+    assertTrue(preview.estimate() <= preview.upper(), preview.toString());
+    verify(store, never()).evaluateMeasurePopulations(anyString());
+  }
+
+  @Test
+  void preview_readsFirstPagesOfLastUpdatedWindows_whenSyncIsDisabled() {
+    ChunkedFHIRStore store = withMeasure(mock(ChunkedFHIRStore.class));
+    when(store.countResources("Patient")).thenReturn(1000);
+    when(store.sampleByLastUpdated("Patient", PatientSample.WINDOWS, 100))
+        .thenReturn(
+            IntStream.range(0, PatientSample.WINDOWS)
+                .mapToObj(
+                    window ->
+                        new ChunkedFHIRStore.WindowSample(
+                            100,
+                            IntStream.range(0, 100)
+                                .mapToObj(i -> "p" + (window * 100 + i))
+                                .toList()))
+                .toList());
+
+    PreviewDTO preview = service(store).preview(CQL, 100);
+
+    assertEquals(100, preview.sampled());
+    assertEquals(1000, preview.population());
+    verify(store, never()).streamAllResources(anyString(), anyList(), any());
+  }
+
+  @Test
+  void preview_returnsError_whenEvaluationFails() {
+    FHIRStore store = storeWithPatients(10);
+    when(store.evaluateMeasurePopulations(eq("measure"), anyString()))
+        .thenThrow(new RuntimeException("HTTP error: 400 BAD_REQUEST"));
+
+    PreviewDTO preview = service(store).preview(CQL, 200);
+
+    assertEquals("HTTP error: 400 BAD_REQUEST", preview.error());
+    assertEquals(-1, preview.estimate());
+    verify(store).deleteResource("Measure", "measure");
+  }
+
+  @Test
+  void preview_deletesMeasureAndLibrary_afterPreview() {
+    FHIRStore store = storeWithPatients(10);
+
+    service(store).preview(CQL, 200);
+
+    InOrder order = inOrder(store);
+    order.verify(store).deleteResource("Measure", "measure");
+    order.verify(store).deleteResource("Library", "library");
+  }
+
+  @Test
+  void preview_keepsMeasureAndLibrary_whenSavedCheckHasSameQuery() {
+    FHIRStore store = storeWithPatients(10);
+    when(repository.existsByQuery(CQL)).thenReturn(true);
+
+    service(store).preview(CQL, 200);
+
+    verify(store, never()).deleteResource(anyString(), anyString());
+  }
+
+  @Test
+  void preview_keepsMeasureAndLibrary_whileAnotherPreviewOfSameQueryRuns() throws Exception {
+    FHIRStore store = storeWithPatients(10);
+    AtomicBoolean blocked = new AtomicBoolean();
+    CountDownLatch evaluating = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              if (blocked.compareAndSet(false, true)) {
+                evaluating.countDown();
+                release.await();
+              }
+              return List.of(new MeasurePopulation(0, null));
+            })
+        .when(store)
+        .evaluateMeasurePopulations(eq("measure"), anyString());
+    PreviewServiceImpl service = service(store);
+    CompletableFuture<PreviewDTO> first =
+        CompletableFuture.supplyAsync(() -> service.preview(CQL, 200));
+    evaluating.await();
+
+    service.preview(CQL, 200);
+
+    verify(store, never()).deleteResource(anyString(), anyString());
+    release.countDown();
+    first.get(10, TimeUnit.SECONDS);
+    verify(store).deleteResource("Measure", "measure");
+    verify(store).deleteResource("Library", "library");
+  }
+
+  @Test
+  void preview_rejectsSampleSizeOutOfRange() {
+    PreviewServiceImpl service = service(storeWithPatients(10));
+
+    assertThrows(IllegalArgumentException.class, () -> service.preview(CQL, 0));
+    assertThrows(IllegalArgumentException.class, () -> service.preview(CQL, 2001));
+    assertThrows(IllegalArgumentException.class, () -> service.preview(" ", 200));
+  }
+
+  @Test
+  void estimate_scalesShareOfSampleToPopulation() {
+    PreviewDTO preview = PreviewServiceImpl.estimate(20, 200, 10_000);
+
+    assertEquals(1000, preview.estimate());
+    // the Wilson interval of 20 / 200 is about 6.6% to 14.9%
+    assertTrue(preview.lower() > 600 && preview.lower() < 700, preview.toString());
+    assertTrue(preview.upper() > 1450 && preview.upper() < 1550, preview.toString());
+    assertEquals(0.95, preview.confidence());
+  }
+
+  @Test
+  void estimate_narrowsInterval_asSampleApproachesPopulation() {
+    PreviewDTO small = PreviewServiceImpl.estimate(100, 200, 1_000_000);
+    PreviewDTO large = PreviewServiceImpl.estimate(100, 200, 220);
+
+    double smallWidth = (double) (small.upper() - small.lower()) / small.population();
+    double largeWidth = (double) (large.upper() - large.lower()) / large.population();
+    assertTrue(largeWidth < smallWidth / 2, small + " " + large);
+  }
+
+  @Test
+  void estimate_keepsObservedPatientsInsideInterval() {
+    PreviewDTO none = PreviewServiceImpl.estimate(0, 200, 10_000);
+    PreviewDTO all = PreviewServiceImpl.estimate(200, 200, 201);
+
+    assertEquals(0, none.estimate());
+    assertEquals(0, none.lower());
+    assertTrue(none.upper() > 0);
+    assertEquals(201, all.estimate());
+    assertEquals(200, all.lower());
+    assertEquals(201, all.upper());
+  }
+}
@@ -8,6 +8,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
 import eu.bbmri_eric.quality.agent.dataquality.domain.Report;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,13 +35,16 @@ public class ReportIntegrationTests {
     String location =
         mockMvc
             .perform(post("/api/reports").contentType(MediaType.APPLICATION_JSON).content(json))
-            .andExpect(status().isCreated())
+            .andExpect(status().isAccepted())
             .andExpect(header().exists("Location"))
+            .andExpect(jsonPath("$.status").value("QUEUED"))
+            .andExpect(jsonPath("$._links.self.href").exists())
             .andReturn()
             .getResponse()
             .getHeader("Location");
 
     assertNotNull(location);
+    awaitGenerated(location);
 
     mockMvc
         .perform(get(location))
@@ -49,6 +53,21 @@ public class ReportIntegrationTests {
         .andExpect(jsonPath("$.generatedAt").exists());
   }
 
+  /** Polls a report until a worker has finished it. */
+  private void awaitGenerated(String location) throws Exception {
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (System.currentTimeMillis() < deadline) {
+      String status =
+          JsonPath.read(
+              mockMvc.perform(get(location)).andReturn().getResponse().getContentAsString(),
+              "$.status");
+      if (!status.equals("QUEUED") && !status.equals("GENERATING")) {
+        return;
+      }
+      Thread.sleep(100);
+    }
+  }
+
   @Test
   void testGetReportsReturnsEmbeddedList() throws Exception {
     mockMvc
@@ -0,0 +1,102 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.domain.Report;
+import eu.bbmri_eric.quality.agent.dataquality.domain.ReportStatus;
+import eu.bbmri_eric.quality.agent.dataquality.event.NewReportEvent;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class ReportQueueTest {
+  private ReportRepository reportRepository;
+  private DataQualityChecksRunner runner;
+  private ReportQueue queue;
+
+  @BeforeEach
+  void setUp() {
+    reportRepository = mock(ReportRepository.class);
+    runner = mock(DataQualityChecksRunner.class);
+    queue = new ReportQueue(reportRepository, runner, 1);
+  }
+
+  private static NewReportEvent reportEvent(long reportId) {
+    return argThat(event -> event.getReportId() == reportId);
+  }
+
+  private static Report report(long id) {
+    Report report = new Report();
+    report.setId(id);
+    return report;
+  }
+
+  @Test
+  void generate_runsChecks_whenReportIsClaimed() {
+    when(reportRepository.updateStatus(1L, ReportStatus.QUEUED, ReportStatus.GENERATING))
+        .thenReturn(1);
+
+    queue.generate(1L);
+
+    verify(runner).onNewReport(reportEvent(1L));
+    verify(reportRepository, never())
+        .updateStatus(1L, ReportStatus.GENERATING, ReportStatus.FAILED);
+  }
+
+  @Test
+  void generate_skipsReport_whenNoLongerQueued() {
+    when(reportRepository.updateStatus(1L, ReportStatus.QUEUED, ReportStatus.GENERATING))
+        .thenReturn(0);
+
+    queue.generate(1L);
+
+    verify(runner, never()).onNewReport(any());
+  }
+
+  @Test
+  void generate_marksReportFailed_whenChecksCannotRun() {
+    when(reportRepository.updateStatus(1L, ReportStatus.QUEUED, ReportStatus.GENERATING))
+        .thenReturn(1);
+    doThrow(new IllegalArgumentException("Unknown strata dimension: height"))
+        .when(runner)
+        .onNewReport(any());
+
+    queue.generate(1L);
+
+    verify(reportRepository).updateStatus(1L, ReportStatus.GENERATING, ReportStatus.FAILED);
+  }
+
+  @Test
+  void onNewReport_generatesReportOnWorker() {
+    when(reportRepository.updateStatus(1L, ReportStatus.QUEUED, ReportStatus.GENERATING))
+        .thenReturn(1);
+
+    queue.onNewReport(new NewReportEvent(1L));
+
+    verify(runner, timeout(5000)).onNewReport(reportEvent(1L));
+  }
+
+  @Test
+  void onApplicationReady_failsInterruptedReports_andResumesQueuedInOrder() {
+    when(reportRepository.findAllByStatusIs(ReportStatus.QUEUED))
+        .thenReturn(List.of(report(3L), report(2L)));
+    when(reportRepository.updateStatus(any(), any(), any())).thenReturn(1);
+
+    queue.onApplicationReady();
+
+    verify(reportRepository).updateAllStatus(ReportStatus.GENERATING, ReportStatus.FAILED);
+    ArgumentCaptor<NewReportEvent> events = ArgumentCaptor.forClass(NewReportEvent.class);
+    verify(runner, timeout(5000).times(2)).onNewReport(events.capture());
+    assertEquals(
+        List.of(2L, 3L), events.getAllValues().stream().map(NewReportEvent::getReportId).toList());
+  }
+}
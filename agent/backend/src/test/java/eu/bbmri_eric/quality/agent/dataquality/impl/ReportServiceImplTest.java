@@ -1,6 +1,7 @@
 package eu.bbmri_eric.quality.agent.dataquality.impl;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.when;
 
 import eu.bbmri_eric.quality.agent.dataquality.CQLQueryService;
@@ -11,6 +12,7 @@ import eu.bbmri_eric.quality.agent.dataquality.domain.Result;
 import eu.bbmri_eric.quality.agent.dataquality.dto.CQLQueryDTO;
 import eu.bbmri_eric.quality.agent.dataquality.dto.QualityCheckResultDTO;
 import eu.bbmri_eric.quality.agent.dataquality.dto.ReportDTO;
+import eu.bbmri_eric.quality.agent.dataquality.exception.ReportNotFoundException;
 import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -82,6 +84,14 @@ class ReportServiceImplTest {
     assertThat(report.getId()).isNotNull();
   }
 
+  @Test
+  void generateReport_returnsQueuedReport() {
+    Report report = reportService.generateReport();
+
+    assertThat(report.getId()).isNotNull();
+    assertThat(report.getStatus()).isEqualTo(ReportStatus.QUEUED);
+  }
+
   @Nested
   @DisplayName("Differential Privacy Obfuscation")
   class DifferentialPrivacyObfuscation {
@@ -265,4 +275,61 @@ class ReportServiceImplTest {
       assertThat(reportDTO.getResults().get(0).getResult()).isGreaterThan(0.0);
     }
   }
+
+  @Nested
+  @DisplayName("Cancel")
+  class Cancel {
+
+    @Test
+    @DisplayName("should cancel a generating report")
+    void shouldCancelGeneratingReport() {
+      testReport.setStatus(ReportStatus.GENERATING);
+      testReport = reportRepository.save(testReport);
+
+      assertThat(reportService.cancel(testReport.getId())).isTrue();
+
+      Report cancelled = reportRepository.findById(testReport.getId()).orElseThrow();
+      assertThat(cancelled.getStatus()).isEqualTo(ReportStatus.CANCELLED);
+    }
+
+    @Test
+    @DisplayName("should cancel a queued report")
+    void shouldCancelQueuedReport() {
+      testReport.setStatus(ReportStatus.QUEUED);
+      testReport = reportRepository.save(testReport);
+
+      assertThat(reportService.cancel(testReport.getId())).isTrue();
+
+      Report cancelled = reportRepository.findById(testReport.getId()).orElseThrow();
+      assertThat(cancelled.getStatus()).isEqualTo(ReportStatus.CANCELLED);
+    }
+
+    @Test
+    @DisplayName("should not cancel a generated report")
+    void shouldNotCancelGeneratedReport() {
+      assertThat(reportService.cancel(testReport.getId())).isFalse();
+
+      Report report = reportRepository.findById(testReport.getId()).orElseThrow();
+      assertThat(report.getStatus()).isEqualTo(ReportStatus.GENERATED);
+    }
+
+    @Test
+    @DisplayName("should not cancel a failed report")
+    void shouldNotCancelFailedReport() {
+      testReport.setStatus(ReportStatus.FAILED);
+      testReport = reportRepository.save(testReport);
+
+      assertThat(reportService.cancel(testReport.getId())).isFalse();
+
+      Report report = reportRepository.findById(testReport.getId()).orElseThrow();
+      assertThat(report.getStatus()).isEqualTo(ReportStatus.FAILED);
+    }
+
+    @Test
+    @DisplayName("should throw for an unknown report")
+    void shouldThrowForUnknownReport() {
+      assertThatThrownBy(() -> reportService.cancel(-1L))
+          .isInstanceOf(ReportNotFoundException.class);
+    }
+  }
 }
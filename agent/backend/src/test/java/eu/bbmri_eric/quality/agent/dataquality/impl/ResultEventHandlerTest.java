@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -14,6 +15,7 @@ import eu.bbmri_eric.quality.agent.dataquality.domain.Result;
 import eu.bbmri_eric.quality.agent.dataquality.event.DataQualityCheckResultEvent;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import org.junit.jupiter.api.Test;
 
@@ -53,4 +55,24 @@ class ResultEventHandlerTest {
     handler.onNewResult(event);
     verify(mockRepo, times(1)).save(any(Report.class));
   }
+
+  @Test
+  void onNewResult_addsResultOnlyToItsReport() {
+    ReportRepository mockRepo = mock(ReportRepository.class);
+    Report report = new Report();
+    report.setId(123L);
+    report.setStatus(ReportStatus.GENERATING);
+    when(mockRepo.findById(123L)).thenReturn(Optional.of(report));
+    ResultEventHandler handler = new ResultEventHandler(mockRepo);
+    DataQualityCheckResultEvent event =
+        new DataQualityCheckResultEvent(
+                1L, "Check", 3, Set.of(), null, LocalDateTime.now(), 5, 10, 0.2f, null)
+            .forReport(123L);
+
+    handler.onNewResult(event);
+
+    assertEquals(1, report.getResults().size());
+    verify(mockRepo).save(report);
+    verify(mockRepo, never()).findAllByStatusIs(any());
+  }
 }
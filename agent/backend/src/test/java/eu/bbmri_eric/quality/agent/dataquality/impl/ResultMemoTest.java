@@ -0,0 +1,151 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CheckRequirements;
+import eu.bbmri_eric.quality.agent.dataquality.domain.DataQualityCheck;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ResultMemoTest {
+  private static final Instant LAST_UPDATED = Instant.parse("2025-01-01T00:00:00Z");
+  private static final Map<String, ResultDTO> RESULTS =
+      Map.of("", new ResultDTO(4, "Patient", Set.of("p1", "p2", "p3", "p4")));
+
+  private DataQualityCheck check;
+  private FHIRStore store;
+
+  @BeforeEach
+  void setUp() {
+    check = mock(DataQualityCheck.class);
+    when(check.resultKey()).thenReturn(Optional.of("check"));
+    when(check.requirements()).thenReturn(CheckRequirements.evaluate(List.of("Patient")));
+    store = store(10, LAST_UPDATED);
+  }
+
+  private static FHIRStore store(int count, Instant lastUpdated) {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.countResources("Patient")).thenReturn(count);
+    when(store.lastUpdated("Patient")).thenReturn(Optional.ofNullable(lastUpdated));
+    return store;
+  }
+
+  /** Runs the check in a new report, computing the given results if they cannot be reused. */
+  private static Map<String, ResultDTO> report(
+      ResultMemo memo, FHIRStore store, DataQualityCheck check, Map<String, ResultDTO> results) {
+    ResultMemo.ReportMemo reportMemo = memo.open(store, List.of(check));
+    return reportMemo
+        .lookup(check)
+        .orElseGet(() -> reportMemo.recording(check, () -> results).get());
+  }
+
+  @Test
+  void lookup_reusesResults_whenDataUnchanged() {
+    ResultMemo memo = new ResultMemo(true);
+    report(memo, store, check, RESULTS);
+
+    Optional<Map<String, ResultDTO>> reused =
+        memo.open(store(10, LAST_UPDATED), List.of(check)).lookup(check);
+
+    assertEquals(Optional.of(RESULTS), reused);
+  }
+
+  @Test
+  void lookup_recomputes_whenResourceUpdated() {
+    ResultMemo memo = new ResultMemo(true);
+    report(memo, store, check, RESULTS);
+
+    Optional<Map<String, ResultDTO>> reused =
+        memo.open(store(10, LAST_UPDATED.plusSeconds(1)), List.of(check)).lookup(check);
+
+    assertTrue(reused.isEmpty());
+  }
+
+  @Test
+  void lookup_recomputes_whenResourceDeleted() {
+    ResultMemo memo = new ResultMemo(true);
+    report(memo, store, check, RESULTS);
+
+    Optional<Map<String, ResultDTO>> reused =
+        memo.open(store(9, LAST_UPDATED), List.of(check)).lookup(check);
+
+    assertTrue(reused.isEmpty());
+  }
+
+  @Test
+  void lookup_recomputes_whenStoreCannotTellLastUpdate() {
+    ResultMemo memo = new ResultMemo(true);
+    FHIRStore withoutLastUpdated = store(10, null);
+    report(memo, withoutLastUpdated, check, RESULTS);
+
+    assertTrue(memo.open(withoutLastUpdated, List.of(check)).lookup(check).isEmpty());
+  }
+
+  @Test
+  void recording_remembersResultsUnderKeyOfLookup() {
+    ResultMemo memo = new ResultMemo(true);
+    ResultMemo.ReportMemo reportMemo = memo.open(store, List.of(check));
+    reportMemo.lookup(check);
+    // the key of a check reading the date changes at midnight
+    when(check.resultKey()).thenReturn(Optional.of("check@tomorrow"));
+    reportMemo.recording(check, () -> RESULTS).get();
+    when(check.resultKey()).thenReturn(Optional.of("check"));
+
+    assertEquals(Optional.of(RESULTS), memo.open(store, List.of(check)).lookup(check));
+  }
+
+  @Test
+  void recording_doesNotRememberErrors() {
+    ResultMemo memo = new ResultMemo(true);
+    report(memo, store, check, Map.of("", new ResultDTO("Timed out after 1 seconds")));
+
+    assertTrue(memo.open(store, List.of(check)).lookup(check).isEmpty());
+  }
+
+  @Test
+  void open_forgetsResultsOfChecksNoLongerRun() {
+    ResultMemo memo = new ResultMemo(true);
+    report(memo, store, check, RESULTS);
+    DataQualityCheck other = mock(DataQualityCheck.class);
+    when(other.resultKey()).thenReturn(Optional.of("other"));
+    memo.open(store, List.of(other));
+
+    assertTrue(memo.open(store, List.of(check)).lookup(check).isEmpty());
+  }
+
+  @Test
+  void lookup_readsStateOfEachTypeOncePerReport() {
+    ResultMemo memo = new ResultMemo(true);
+    DataQualityCheck second = mock(DataQualityCheck.class);
+    when(second.resultKey()).thenReturn(Optional.of("second"));
+    when(second.requirements()).thenReturn(CheckRequirements.evaluate(List.of("Patient")));
+    ResultMemo.ReportMemo reportMemo = memo.open(store, List.of(check, second));
+
+    reportMemo.lookup(check);
+    reportMemo.lookup(second);
+
+    verify(store, times(1)).countResources("Patient");
+    verify(store, times(1)).lastUpdated("Patient");
+  }
+
+  @Test
+  void lookup_neverReuses_whenDisabled() {
+    ResultMemo memo = new ResultMemo(false);
+    report(memo, store, check, RESULTS);
+
+    assertTrue(memo.open(store, List.of(check)).lookup(check).isEmpty());
+    verify(store, times(0)).countResources("Patient");
+  }
+}
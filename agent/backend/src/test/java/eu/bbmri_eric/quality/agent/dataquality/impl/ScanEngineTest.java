@@ -0,0 +1,128 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceScan;
+import eu.bbmri_eric.quality.agent.dataquality.ResourceVisitor;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class ScanEngineTest {
+
+  private static PatientRecord patient(String id) {
+    return new PatientRecord(id, "female", false, List.of());
+  }
+
+  /** Records the IDs of the visited patients, failing on the given ID. */
+  private static final class RecordingVisitor implements ResourceVisitor<PatientRecord> {
+    private final String failOn;
+    private final List<String> visited = new ArrayList<>();
+
+    private RecordingVisitor(String failOn) {
+      this.failOn = failOn;
+    }
+
+    @Override
+    public ResourceScan<PatientRecord> scan() {
+      return PatientRecord.SCAN;
+    }
+
+    @Override
+    public void visit(PatientRecord patient) {
+      if (patient.id().equals(failOn)) {
+        throw new IllegalStateException("cannot visit " + failOn);
+      }
+      visited.add(patient.id());
+    }
+
+    @Override
+    public ResultDTO result() {
+      return new ResultDTO(visited.size(), "Patient", Set.copyOf(visited));
+    }
+  }
+
+  @Test
+  void run_feedsAllVisitorsOfScanFromOnePass() {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.streamAllResources("Patient", PatientRecord.ELEMENTS, PatientRecord.SCAN.decoder()))
+        .thenReturn(Stream.of(patient("p1"), patient("p2")));
+    RecordingVisitor first = new RecordingVisitor(null);
+    RecordingVisitor second = new RecordingVisitor(null);
+
+    Map<ResourceVisitor<?>, RuntimeException> failures =
+        ScanEngine.run(store, List.of(first, second));
+
+    assertTrue(failures.isEmpty());
+    assertEquals(List.of("p1", "p2"), first.visited);
+    assertEquals(List.of("p1", "p2"), second.visited);
+    verify(store, times(1)).streamAllResources(any(), any(), any());
+  }
+
+  @Test
+  void run_stopsFeedingFailedVisitor_only() {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.streamAllResources("Patient", PatientRecord.ELEMENTS, PatientRecord.SCAN.decoder()))
+        .thenReturn(Stream.of(patient("p1"), patient("p2"), patient("p3")));
+    RecordingVisitor failing = new RecordingVisitor("p2");
+    RecordingVisitor healthy = new RecordingVisitor(null);
+
+    Map<ResourceVisitor<?>, RuntimeException> failures =
+        ScanEngine.run(store, List.of(failing, healthy));
+
+    assertEquals("cannot visit p2", failures.get(failing).getMessage());
+    assertEquals(List.of("p1"), failing.visited);
+    assertEquals(List.of("p1", "p2", "p3"), healthy.visited);
+  }
+
+  @Test
+  void run_stopsPass_whenCheckIsCancelledBetweenResources() {
+    FHIRStore store = mock(FHIRStore.class);
+    CheckCancellation cancellation = new CheckCancellation();
+    when(store.streamAllResources("Patient", PatientRecord.ELEMENTS, PatientRecord.SCAN.decoder()))
+        .thenReturn(
+            Stream.of("p1", "p2", "p3")
+                .peek(
+                    id -> {
+                      if (id.equals("p2")) {
+                        cancellation.cancel("Report cancelled");
+                      }
+                    })
+                .map(ScanEngineTest::patient));
+    RecordingVisitor visitor = new RecordingVisitor(null);
+
+    Map<ResourceVisitor<?>, RuntimeException> failures =
+        CheckCancellation.runWith(cancellation, () -> ScanEngine.run(store, List.of(visitor)));
+
+    assertTrue(failures.get(visitor) instanceof CancellationException);
+    assertEquals(List.of("p1"), visitor.visited);
+  }
+
+  @Test
+  void run_failsAllVisitors_whenPassFails() {
+    FHIRStore store = mock(FHIRStore.class);
+    RuntimeException unavailable = new RuntimeException("Error fetching resources of type Patient");
+    when(store.streamAllResources(any(), any(), any())).thenThrow(unavailable);
+    RecordingVisitor first = new RecordingVisitor(null);
+    RecordingVisitor second = new RecordingVisitor(null);
+
+    Map<ResourceVisitor<?>, RuntimeException> failures =
+        ScanEngine.run(store, List.of(first, second));
+
+    assertSame(unavailable, failures.get(first));
+    assertSame(unavailable, failures.get(second));
+  }
+}
@@ -0,0 +1,44 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class SearchChunkTest {
+
+  private static final byte[] PAGE =
+      """
+      {"resourceType":"Bundle","entry":[
+        {"resource":{"resourceType":"Patient","id":"p1"}},
+        {"resource":{"resourceType":"Patient","id":"p2"}}
+      ]}"""
+          .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  void bundle_doesNotCountEntriesUpFront() {
+    SearchChunk chunk = SearchChunk.bundle(PAGE);
+
+    assertFalse(chunk.isCounted());
+  }
+
+  @Test
+  void entries_uncountedBundle_countsOnDemand() {
+    SearchChunk chunk = SearchChunk.bundle(PAGE);
+
+    assertEquals(2, chunk.entries());
+    assertFalse(chunk.isCounted());
+    assertTrue(chunk.counted().isCounted());
+    assertEquals(2, chunk.counted().entries());
+  }
+
+  @Test
+  void counted_countedChunk_returnsItself() {
+    SearchChunk chunk = SearchChunk.ndjson(PAGE, 1);
+
+    assertSame(chunk, chunk.counted());
+  }
+}
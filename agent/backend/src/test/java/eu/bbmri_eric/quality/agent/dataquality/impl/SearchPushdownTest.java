@@ -0,0 +1,160 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the {@code _elements} and {@code _count} parameters {@link BlazeFHIRStore} sends with
+ * its searches, and the transfer statistics it records, against a stub server with offset paging.
+ */
+class SearchPushdownTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int PAGE_SIZE = 30;
+
+  private final List<String> queries = new CopyOnWriteArrayList<>();
+  private final AtomicLong bytesServed = new AtomicLong();
+  private HttpServer server;
+  private String baseUrl;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    baseUrl = "http://localhost:" + server.getAddress().getPort() + "/fhir";
+    server.createContext("/fhir/Condition", this::search);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  private void search(HttpExchange exchange) throws IOException {
+    String query =
+        URLDecoder.decode(exchange.getRequestURI().getRawQuery(), StandardCharsets.UTF_8);
+    queries.add(query);
+    int count = Integer.parseInt(param(query, "_count"));
+    String offsetParam = param(query, "__offset");
+    int offset = offsetParam != null ? Integer.parseInt(offsetParam) : 0;
+    ObjectNode bundle = MAPPER.createObjectNode();
+    bundle.put("resourceType", "Bundle");
+    if (offset + count < 100) {
+      String next = query.replaceAll("&__offset=\\d+", "") + "&__offset=" + (offset + count);
+      bundle
+          .putArray("link")
+          .addObject()
+          .put("relation", "next")
+          .put("url", baseUrl + "/Condition?" + next);
+    }
+    ArrayNode entries = bundle.putArray("entry");
+    for (int i = offset; i < Math.min(100, offset + count); i++) {
+      ObjectNode condition = entries.addObject().putObject("resource");
+      condition.put("resourceType", "Condition");
+      condition.put("id", "c" + i);
+      condition.putObject("subject").put("reference", "Patient/p" + i);
+    }
+    byte[] body = MAPPER.writeValueAsBytes(bundle);
+    if (param(query, "_elements") != null) {
+      bytesServed.addAndGet(body.length);
+    }
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /** Returns the value of a query parameter, or {@code null} if it is not set. */
+  private static String param(String query, String name) {
+    for (String pair : query.split("&")) {
+      if (pair.startsWith(name + "=")) {
+        return pair.substring(name.length() + 1);
+      }
+    }
+    return null;
+  }
+
+  private BlazeFHIRStore store(boolean sampleUnprojectedSize) {
+    return BlazeFHIRStores.forTest(baseUrl)
+        .pageSize(PAGE_SIZE)
+        .sampleUnprojectedSize(sampleUnprojectedSize)
+        .build();
+  }
+
+  private static long scan(BlazeFHIRStore store) {
+    try (Stream<ConditionRecord> records =
+        store.streamAllResources("Condition", ConditionRecord.ELEMENTS, ConditionRecord::decode)) {
+      return records.count();
+    }
+  }
+
+  @Test
+  void streamAllResources_sendsElementsAndPageSize() {
+    assertEquals(100, scan(store(false)));
+
+    assertEquals(4, queries.size());
+    for (String query : queries) {
+      assertEquals("id,code,subject", param(query, "_elements"), query);
+      assertEquals(String.valueOf(PAGE_SIZE), param(query, "_count"), query);
+    }
+  }
+
+  @Test
+  void streamAllResources_recordsBytesAndPagesReceived() {
+    BlazeFHIRStore store = store(false);
+    List<SearchStatistics> searches = new ArrayList<>();
+    store.setSearchListener(searches::add);
+
+    scan(store);
+
+    assertEquals(1, searches.size());
+    SearchStatistics statistics = searches.getFirst();
+    assertEquals("Condition", statistics.getResourceType());
+    assertEquals(ConditionRecord.ELEMENTS, statistics.getElements());
+    assertEquals(4, statistics.getPages());
+    assertEquals(-1, statistics.getResources());
+    assertEquals(bytesServed.get(), statistics.getBytesReceived());
+  }
+
+  @Test
+  void streamAllResources_countsResourcesReceivedOnlyWhenSamplingUnprojectedSize() {
+    BlazeFHIRStore store = store(true);
+    List<SearchStatistics> searches = new ArrayList<>();
+    store.setSearchListener(searches::add);
+
+    scan(store);
+
+    assertEquals(100, searches.getFirst().getResources());
+  }
+
+  @Test
+  void streamAllResources_samplesUnprojectedSizeOnlyWhenEnabled() {
+    scan(store(false));
+    assertTrue(queries.stream().allMatch(query -> query.contains("_elements=")));
+    queries.clear();
+
+    scan(store(true));
+
+    List<String> unprojected =
+        queries.stream().filter(query -> !query.contains("_elements=")).toList();
+    assertEquals(List.of("_count=20"), unprojected);
+  }
+}
@@ -0,0 +1,43 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class SearchStatisticsTest {
+
+  @Test
+  void recordPage_sumsPagesResourcesAndBytes() {
+    SearchStatistics statistics = new SearchStatistics("Patient", List.of("id", "gender"));
+
+    statistics.recordPage(1200, 10);
+    statistics.recordPage(300, 2);
+
+    assertEquals(2, statistics.getPages());
+    assertEquals(12, statistics.getResources());
+    assertEquals(1500, statistics.getBytesReceived());
+  }
+
+  @Test
+  void recordPage_uncountedPage_hasNoResourceCount() {
+    SearchStatistics statistics = new SearchStatistics("Patient", List.of("id"));
+
+    statistics.recordPage(1200, 10);
+    statistics.recordPage(300, SearchChunk.UNCOUNTED);
+
+    assertEquals(2, statistics.getPages());
+    assertEquals(-1, statistics.getResources());
+    assertEquals(1500, statistics.getBytesReceived());
+  }
+
+  @Test
+  void bytesSaved_comparesWithUnprojectedEstimate() {
+    SearchStatistics statistics = new SearchStatistics("Patient", List.of("id"));
+    statistics.recordPage(1500, 12);
+
+    assertEquals(4500, statistics.bytesSaved(6000));
+    assertEquals(0, statistics.bytesSaved(1000));
+    assertEquals(-1, statistics.bytesSaved(-1));
+  }
+}
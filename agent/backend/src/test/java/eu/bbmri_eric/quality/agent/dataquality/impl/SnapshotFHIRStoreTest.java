@@ -0,0 +1,94 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SnapshotFHIRStoreTest {
+
+  private ChunkedFHIRStore store;
+
+  private static SearchChunk chunk(String... ids) {
+    StringBuilder lines = new StringBuilder();
+    for (String id : ids) {
+      lines.append("{\"resourceType\":\"Patient\",\"id\":\"").append(id).append("\"}\n");
+    }
+    return SearchChunk.ndjson(lines.toString().getBytes(StandardCharsets.UTF_8), ids.length);
+  }
+
+  private static List<String> read(SnapshotFHIRStore snapshot, List<String> elements) {
+    try (Stream<PatientRecord> patients =
+        snapshot.streamAllResources("Patient", elements, PatientRecord::decode)) {
+      return patients.map(PatientRecord::id).toList();
+    }
+  }
+
+  @BeforeEach
+  void setUp() {
+    store = mock(ChunkedFHIRStore.class);
+    when(store.streamChunks(eq("Patient"), anyList()))
+        .thenAnswer(invocation -> Stream.of(chunk("p1", "p2"), chunk("p3")));
+  }
+
+  @Test
+  void streamAllResources_downloadsEachProjectionOnce() {
+    SnapshotFHIRStore snapshot = new SnapshotFHIRStore(store, Long.MAX_VALUE);
+
+    assertEquals(List.of("p1", "p2", "p3"), read(snapshot, List.of("id", "gender")));
+    assertEquals(List.of("p1", "p2", "p3"), read(snapshot, List.of("gender", "id")));
+    read(snapshot, List.of("id"));
+
+    verify(store, times(1)).streamChunks("Patient", List.of("id", "gender"));
+    verify(store, times(1)).streamChunks("Patient", List.of("id"));
+  }
+
+  @Test
+  void streamAllResources_spillsToDisk_whenMemoryLimitIsExceeded() {
+    SnapshotFHIRStore snapshot = new SnapshotFHIRStore(store, 70);
+
+    assertEquals(List.of("p1", "p2", "p3"), read(snapshot, List.of("id")));
+    assertEquals(List.of("p1", "p2", "p3"), read(snapshot, List.of("id")));
+
+    verify(store, times(1)).streamChunks("Patient", List.of("id"));
+  }
+
+  @Test
+  void streamAllResources_finishesOpenStream_whenClosedWhileReading() {
+    SnapshotFHIRStore snapshot = new SnapshotFHIRStore(store, 70);
+    read(snapshot, List.of("id"));
+
+    try (Stream<PatientRecord> patients =
+        snapshot.streamAllResources("Patient", List.of("id"), PatientRecord::decode)) {
+      Iterator<PatientRecord> iterator = patients.iterator();
+      assertEquals("p1", iterator.next().id());
+
+      snapshot.close();
+
+      assertEquals("p2", iterator.next().id());
+      assertEquals("p3", iterator.next().id());
+    }
+    verify(store, times(1)).streamChunks("Patient", List.of("id"));
+  }
+
+  @Test
+  void streamAllResources_readsStore_afterClose() {
+    SnapshotFHIRStore snapshot = new SnapshotFHIRStore(store, Long.MAX_VALUE);
+    read(snapshot, List.of("id"));
+
+    snapshot.close();
+
+    assertEquals(List.of("p1", "p2", "p3"), read(snapshot, List.of("id")));
+    verify(store, times(2)).streamChunks("Patient", List.of("id"));
+  }
+}
@@ -0,0 +1,75 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class StrataCubeTest {
+  private static final StrataDimension<String[]> COLOR =
+      new StrataDimension<>("color", record -> record[0], List.of("red", "blue"), "color");
+  private static final StrataDimension<String[]> SIZE =
+      new StrataDimension<>("size", record -> record[1], List.of("S", "L"), "size");
+  private static final StrataDimension<String[]> SITE =
+      new StrataDimension<>("site", record -> record[2], List.of(), null);
+
+  @Test
+  void strata_combinesValuesOfAllDimensions_inDeclaredOrder() {
+    assertEquals(
+        List.of(
+            List.of("red", "S"), List.of("red", "L"), List.of("blue", "S"), List.of("blue", "L")),
+        StrataCube.strata(List.of(COLOR, SIZE)));
+  }
+
+  @Test
+  void results_countEachRecordInTheStratumOfItsValues() {
+    StrataCube<String[]> cube = new StrataCube<>(List.of(COLOR, SIZE), new PatientIdDictionary());
+
+    cube.add(new String[] {"red", "S"}, "p1");
+    cube.add(new String[] {"red", "S"}, "p2");
+    cube.add(new String[] {"blue", "L"}, "p3");
+
+    Map<String, ResultDTO> results = cube.results("Patient");
+    assertEquals(List.of("red, S", "red, L", "blue, S", "blue, L"), List.copyOf(results.keySet()));
+    assertEquals(Set.of("p1", "p2"), results.get("red, S").idSet());
+    assertEquals(2, results.get("red, S").rawResult());
+    assertEquals(0, results.get("red, L").rawResult());
+    assertEquals(Set.of("p3"), results.get("blue, L").idSet());
+  }
+
+  @Test
+  void add_skipsRecord_withoutValueInSomeDimension() {
+    StrataCube<String[]> cube = new StrataCube<>(List.of(COLOR, SIZE), new PatientIdDictionary());
+
+    cube.add(new String[] {"red", null}, "p1");
+    cube.add(new String[] {"green", "S"}, "p2");
+
+    cube.results("Patient").values().forEach(result -> assertEquals(0, result.rawResult()));
+  }
+
+  @Test
+  void results_listStrataFoundInRecords_byName_whenDimensionIsOpen() {
+    StrataCube<String[]> cube = new StrataCube<>(List.of(COLOR, SITE), new PatientIdDictionary());
+
+    cube.add(new String[] {"red", null, "Organization/2"}, "p1");
+    cube.add(new String[] {"blue", null, "Organization/1"}, "p2");
+    cube.add(new String[] {"red", null, "Organization/1"}, "p3");
+
+    Map<String, ResultDTO> results = cube.results("Patient");
+    assertEquals(
+        List.of("blue, Organization/1", "red, Organization/1", "red, Organization/2"),
+        List.copyOf(results.keySet()));
+  }
+
+  @Test
+  void constructor_rejectsNoDimensions() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new StrataCube<String[]>(List.of(), new PatientIdDictionary()));
+  }
+}
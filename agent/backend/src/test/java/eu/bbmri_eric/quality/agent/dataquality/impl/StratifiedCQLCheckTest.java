@@ -0,0 +1,58 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.domain.CQLQuery;
+import java.time.LocalDate;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+class StratifiedCQLCheckTest {
+  private static final String CQL = "define InInitialPopulation: Patient.gender is not null";
+
+  private static StratifiedCQLCheck check(String stratifier) {
+    CQLQuery query = new CQLQuery("name", "desc", CQL);
+    query.setStratifier(stratifier);
+    return new StratifiedCQLCheck(query);
+  }
+
+  @Test
+  void executeWithStratification_throws_whenQueryFails() {
+    FHIRStore store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.findResourceId(anyString(), anyMap())).thenReturn(Optional.of("measure1"));
+    when(store.evaluateMeasurePopulations("measure1"))
+        .thenThrow(new RuntimeException("HTTP error: 500 INTERNAL_SERVER_ERROR"));
+
+    IllegalStateException e =
+        assertThrows(
+            IllegalStateException.class, () -> check("gender").executeWithStratification(store));
+
+    assertEquals("HTTP error: 500 INTERNAL_SERVER_ERROR", e.getMessage());
+    verify(store, never()).streamAllResources(anyString(), anyList(), any());
+  }
+
+  @Test
+  void resultKey_combinesQueryAndStratifier() {
+    assertEquals(
+        CQLQuery.measureUrl(CQL) + ":gender, site", check(" gender, site ").resultKey().get());
+  }
+
+  @Test
+  void resultKey_includesDate_whenStratifiedByAge() {
+    assertEquals(
+        CQLQuery.measureUrl(CQL) + ":gender,Age@" + LocalDate.now(),
+        check("gender,Age").resultKey().get());
+  }
+}
@@ -0,0 +1,82 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading the patients of a subject List the way CQL checks used to, through an {@code
+ * org.json} object re-parsed into a Jackson tree, against streaming the List into a {@link
+ * PatientIdSet} with {@link SubjectListJson#subjects}. The List is generated with the given number
+ * of entries. Run with {@code -prof gc} to compare the memory allocated per decoded List.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class SubjectListDecodingBenchmark {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Param({"500000"})
+  public int entries;
+
+  private byte[] list;
+
+  @Setup
+  public void setUp() {
+    StringBuilder json =
+        new StringBuilder("{\"resourceType\":\"List\",\"id\":\"l1\",\"status\":\"current\"");
+    json.append(",\"mode\":\"working\",\"entry\":[");
+    for (int i = 0; i < entries; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      UUID id = new UUID(i, ~i);
+      json.append("{\"item\":{\"reference\":\"Patient/").append(id).append("\"}}");
+    }
+    list = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public Set<String> dom() throws IOException {
+    JSONObject listResource = new JSONObject(new String(list, StandardCharsets.UTF_8));
+    JsonNode lr = MAPPER.readTree(listResource.toString());
+    Set<String> idSet = new HashSet<>();
+    for (JsonNode entry : lr.withArray("entry")) {
+      String ref = entry.at("/item/reference").asText(null);
+      if (ref != null && ref.startsWith("Patient/")) {
+        idSet.add(ref.substring("Patient/".length()));
+      }
+    }
+    return idSet;
+  }
+
+  @Benchmark
+  public Set<String> streaming() {
+    PatientIdSet.Builder patients = PatientIdSet.builder(new PatientIdDictionary());
+    SubjectListJson.subjects(new ByteArrayInputStream(list), patients);
+    return patients.build();
+  }
+}
@@ -0,0 +1,87 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import eu.bbmri_eric.quality.agent.dataquality.MeasurePopulation;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdSet;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class SubjectListJsonTest {
+
+  private static InputStream json(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void populations_readsInitialPopulationOfEachGroup() {
+    InputStream report =
+        json(
+            """
+            {"resourceType":"MeasureReport","status":"complete","type":"subject-list",
+             "group":[
+               {"population":[
+                  {"code":{"coding":[{"code":"initial-population"}]},"count":2,
+                   "subjectResults":{"reference":"List/l1"}},
+                  {"code":{"coding":[{"code":"denominator"}]},"count":7,
+                   "subjectResults":{"reference":"List/l2"}}]},
+               {"population":[{"count":0}]},
+               {"id":"empty"}],
+             "measure":"urn:uuid:m"}
+            """);
+
+    assertEquals(
+        List.of(
+            new MeasurePopulation(2, "l1"),
+            new MeasurePopulation(0, null),
+            new MeasurePopulation(0, null)),
+        SubjectListJson.populations(report));
+  }
+
+  @Test
+  void populations_ignoresSubjectResultsThatAreNoList() {
+    InputStream report =
+        json(
+            """
+            {"group":[{"population":[{"count":3,
+              "subjectResults":{"reference":"Group/g1"}}]}]}
+            """);
+
+    assertEquals(List.of(new MeasurePopulation(3, null)), SubjectListJson.populations(report));
+  }
+
+  @Test
+  void subjects_addsReferencedPatientsOnly() {
+    InputStream list =
+        json(
+            """
+            {"resourceType":"List","id":"l1","status":"current","mode":"working",
+             "entry":[{"item":{"reference":"Patient/p1"}},
+                      {"flag":{"text":"no item"}},
+                      {"item":{"reference":"Group/g1"}},
+                      {"item":{"display":"no reference","reference":null}},
+                      {"item":{"reference":"Patient/p2"},"deleted":false}]}
+            """);
+    PatientIdSet.Builder patients = PatientIdSet.builder(new PatientIdDictionary());
+
+    SubjectListJson.subjects(list, patients);
+
+    assertEquals(Set.of("p1", "p2"), patients.build());
+  }
+
+  @Test
+  void subjects_throwsOnMalformedList() {
+    PatientIdSet.Builder patients = PatientIdSet.builder(new PatientIdDictionary());
+
+    assertThrows(
+        UncheckedIOException.class,
+        () -> SubjectListJson.subjects(json("{\"entry\":[{\"item\":"), patients));
+  }
+}
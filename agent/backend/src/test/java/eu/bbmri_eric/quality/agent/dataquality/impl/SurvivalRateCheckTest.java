@@ -0,0 +1,144 @@
+package eu.bbmri_eric.quality.agent.dataquality.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import eu.bbmri_eric.quality.agent.dataquality.FHIRStore;
+import eu.bbmri_eric.quality.agent.dataquality.PatientIdDictionary;
+import eu.bbmri_eric.quality.agent.dataquality.dto.ResultDTO;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SurvivalRateCheckTest {
+
+  private FHIRStore store;
+
+  private static PatientRecord patient(String id, String gender, boolean deceased) {
+    return new PatientRecord(id, gender, deceased, List.of());
+  }
+
+  @BeforeEach
+  void setUp() {
+    store = mock(FHIRStore.class);
+    when(store.patientIds()).thenReturn(new PatientIdDictionary());
+    when(store.streamAllResources(eq("Patient"), anyList(), any()))
+        .thenAnswer(
+            invocation ->
+                Stream.of(
+                    patient("m1", "male", false),
+                    patient("m2", "male", true),
+                    patient("f1", "female", false),
+                    patient("f2", "female", false),
+                    patient("u1", null, false)));
+  }
+
+  @Test
+  void execute_countsLivingPatientsOnServer() {
+    when(store.countResources("Patient", Map.of("deceased", "false"))).thenReturn(4);
+
+    ResultDTO result = new SurvivalRateCheck().execute(store);
+
+    assertEquals(4, result.rawResult());
+    verify(store, never()).streamAllResources(anyString(), anyList(), any());
+  }
+
+  @Test
+  void execute_returnsError_whenCountFails() {
+    when(store.countResources("Patient", Map.of("deceased", "false"))).thenReturn(-1);
+
+    ResultDTO result = new SurvivalRateCheck().execute(store);
+
+    assertEquals("Failed to count living patients", result.error());
+  }
+
+  @Test
+  void executeWithStratification_returnsLivingPatientsPerGender() {
+    Map<String, ResultDTO> results = new SurvivalRateCheck().executeWithStratification(store);
+
+    assertEquals(Set.of("male", "female"), results.keySet());
+    assertEquals(Set.of("m1"), results.get("male").idSet());
+    assertEquals(1, results.get("male").rawResult());
+    assertEquals(Set.of("f1", "f2"), results.get("female").idSet());
+    assertEquals(2, results.get("female").rawResult());
+  }
+
+  @Test
+  void executeWithStratification_countsPerGenderWithoutDownload_whenCountOnly() {
+    when(store.countResources("Patient", Map.of("gender", "male", "deceased", "false")))
+        .thenReturn(1);
+    when(store.countResources("Patient", Map.of("gender", "female", "deceased", "false")))
+        .thenReturn(2);
+    SurvivalRateCheck check = new SurvivalRateCheck(true);
+
+    Map<String, ResultDTO> results = check.executeWithStratification(store);
+
+    assertTrue(check.isCountOnly());
+    assertEquals(1, results.get("male").rawResult());
+    assertEquals(2, results.get("female").rawResult());
+    assertEquals(Set.of(), results.get("female").idSet());
+    verify(store, never()).streamAllResources(anyString(), anyList(), any());
+  }
+
+  @Test
+  void executeWithStratification_returnsLivingPatientsPerStratum_ofAllDimensions() {
+    when(store.streamAllResources(eq("Patient"), anyList(), any()))
+        .thenAnswer(
+            invocation ->
+                Stream.of(
+                    new PatientRecord("m1", "male", false, List.of(), "1990-05-01", null),
+                    new PatientRecord("m2", "male", false, List.of(), "1950", null),
+                    new PatientRecord("f1", "female", false, List.of(), "1995-01", null),
+                    new PatientRecord("f2", "female", true, List.of(), "1995", null)));
+    SurvivalRateCheck check =
+        new SurvivalRateCheck(
+            false,
+            List.of(PatientDimensions.gender(), PatientDimensions.age(LocalDate.of(2025, 6, 1))));
+
+    Map<String, ResultDTO> results = check.executeWithStratification(store);
+
+    assertEquals(20, results.size());
+    assertEquals(Set.of("m1"), results.get("male, 30-39").idSet());
+    assertEquals(Set.of("m2"), results.get("male, 70-79").idSet());
+    assertEquals(Set.of("f1"), results.get("female, 30-39").idSet());
+    assertEquals(0, results.get("female, 70-79").rawResult());
+    assertEquals(1, check.strataPerPatient(results.size()));
+  }
+
+  @Test
+  void resultKey_includesDate_onlyWhenStratifiedByAge() {
+    SurvivalRateCheck byGender = new SurvivalRateCheck(false, List.of(PatientDimensions.gender()));
+    SurvivalRateCheck byAge =
+        new SurvivalRateCheck(
+            false, List.of(PatientDimensions.gender(), PatientDimensions.age(LocalDate.now())));
+
+    assertEquals("SurvivalRateCheck:gender", byGender.resultKey().orElseThrow());
+    assertEquals(
+        "SurvivalRateCheck:gender,age@" + LocalDate.now(), byAge.resultKey().orElseThrow());
+  }
+
+  @Test
+  void executeWithStratification_scans_whenServerCannotCountAllDimensions() {
+    SurvivalRateCheck check =
+        new SurvivalRateCheck(
+            true, List.of(PatientDimensions.gender(), PatientDimensions.age(LocalDate.now())));
+
+    check.executeWithStratification(store);
+
+    assertFalse(check.isCountOnly());
+    verify(store, never()).countResources(anyString(), any());
+  }
+}
@@ -32,7 +32,7 @@ const store = reactive({
             let report = data
             const reportUrl = report._links.self.href
 
-            while (report.status === 'GENERATING') {
+            while (report.status === 'QUEUED' || report.status === 'GENERATING') {
                 await new Promise(r => setTimeout(r, 2000))
                 const poll = await api.get(reportUrl)
                 report = poll.data